@@ -0,0 +1,195 @@
+package org.example.vkedupractice.jmh;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.grpc.stub.StreamObserver;
+import org.example.vkedupractice.dto.BatchUserSegmentsRequest;
+import org.example.vkedupractice.grpc.GrpcServer;
+import org.example.vkedupractice.grpc.v1.GetUserSegmentsRequest;
+import org.example.vkedupractice.grpc.v1.LookupUserSegmentsRequest;
+import org.example.vkedupractice.grpc.v1.LookupUserSegmentsResponse;
+import org.example.vkedupractice.grpc.v1.MembershipServiceGrpc;
+import org.example.vkedupractice.grpc.v1.UserSegments;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Поиск сегментов пользователей по REST (HTTP/1.1) и по gRPC (HTTP/2, один канал на всех клиентов) при одинаковом
+ * числе клиентов - потоков JMH (-t): поштучно (GET /{id}/segments против GetUserSegments) и пачками по 100
+ * (POST /segments:batchGet против LookupUserSegments, где в потоке каждого клиента летит до window пачек).
+ * Операция - поиск одного пользователя, результат в поисках в секунду:
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="GrpcLookupBenchmark -t 32 -p db=h2 -p users=100000 -p segments=5"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 5)
+@Threads(32)
+@Fork(1)
+public class GrpcLookupBenchmark {
+
+    private static final int BATCH_SIZE = 100;
+
+    @State(Scope.Benchmark)
+    public static class GrpcState extends ServerState {
+
+        ManagedChannel channel;
+        MembershipServiceGrpc.MembershipServiceBlockingStub blockingStub;
+        MembershipServiceGrpc.MembershipServiceStub asyncStub;
+        private final Set<LookupStream> openStreams = ConcurrentHashMap.newKeySet();
+
+        @Override
+        protected void configure(Map<String, Object> properties) {
+            super.configure(properties);
+            properties.put("grpc.enabled", "true");
+            properties.put("grpc.port", "0");
+        }
+
+        @Override
+        protected void started(ConfigurableApplicationContext context) {
+            super.started(context);
+            channel = ManagedChannelBuilder.forAddress("localhost", context.getBean(GrpcServer.class).getPort())
+                    .usePlaintext()
+                    .build();
+            blockingStub = MembershipServiceGrpc.newBlockingStub(channel);
+            asyncStub = MembershipServiceGrpc.newStub(channel);
+        }
+
+        // Завершающий trial-teardown этого состояния JMH может выполнить раньше, чем другие потоки закроют
+        // свои потоки в iteration-teardown: незакрытые потоки дожидаются ответов здесь, до остановки сервера
+        @Override
+        protected void stopping() {
+            try {
+                for (LookupStream stream : openStreams) {
+                    stream.close();
+                }
+                if (channel != null) {
+                    channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        List<Long> randomBatch() {
+            List<Long> ids = new ArrayList<>(BATCH_SIZE);
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                ids.add(randomUserId());
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Двунаправленный поток клиента на время итерации. Пачка отправляется, когда неотвеченных меньше window;
+     * в конце итерации поток закрывается после ответов на все отправленные пачки.
+     */
+    @State(Scope.Thread)
+    public static class LookupStream {
+
+        @Param({"4"})
+        public int window;
+
+        private GrpcState state;
+        private Semaphore inFlight;
+        private CompletableFuture<Void> done;
+        private StreamObserver<LookupUserSegmentsRequest> requests;
+        private final AtomicBoolean closed = new AtomicBoolean(true);
+        private long requestId;
+
+        @Setup(Level.Iteration)
+        public void open(GrpcState state) {
+            this.state = state;
+            inFlight = new Semaphore(window);
+            done = new CompletableFuture<>();
+            closed.set(false);
+            state.openStreams.add(this);
+            requests = state.asyncStub.lookupUserSegments(new StreamObserver<>() {
+                @Override
+                public void onNext(LookupUserSegmentsResponse response) {
+                    inFlight.release();
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    done.completeExceptionally(t);
+                }
+
+                @Override
+                public void onCompleted() {
+                    done.complete(null);
+                }
+            });
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws Exception {
+            if (closed.compareAndSet(false, true)) {
+                requests.onCompleted();
+            }
+            done.get(30, TimeUnit.SECONDS);
+            state.openStreams.remove(this);
+        }
+
+        void send(List<Long> ids) throws InterruptedException {
+            // Ошибка потока не вернет разрешений: ждем с проверкой, чтобы не зависнуть
+            while (!inFlight.tryAcquire(1, TimeUnit.SECONDS)) {
+                if (done.isDone()) {
+                    done.join();
+                    throw new IllegalStateException("Lookup stream completed while batches were in flight");
+                }
+            }
+            requests.onNext(LookupUserSegmentsRequest.newBuilder()
+                    .setRequestId(requestId++)
+                    .addAllUserIds(ids)
+                    .build());
+        }
+    }
+
+    @Benchmark
+    public String restGet(GrpcState state) {
+        return state.get("/api/users/" + state.randomUserId() + "/segments");
+    }
+
+    @Benchmark
+    public UserSegments grpcGetUserSegments(GrpcState state) {
+        return state.blockingStub.getUserSegments(
+                GetUserSegmentsRequest.newBuilder().setUserId(state.randomUserId()).build());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public String restBatchGet(GrpcState state) {
+        return state.postJson("/api/users/segments:batchGet", new BatchUserSegmentsRequest(state.randomBatch()));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void grpcLookupStream(GrpcState state, LookupStream stream) throws InterruptedException {
+        stream.send(state.randomBatch());
+    }
+}
@@ -0,0 +1,118 @@
+package org.example.vkedupractice.jmh;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.example.vkedupractice.config.BinaryFormatsConfig;
+import org.example.vkedupractice.dto.BatchUserSegmentsResponse;
+import org.example.vkedupractice.dto.SegmentDictionary;
+import org.example.vkedupractice.dto.UserSegmentsResponse;
+import org.example.vkedupractice.service.SegmentDictionaryService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Размер и стоимость (де)сериализации ответа POST /api/users/segments:batchGet в JSON, CBOR и Smile,
+ * с именами сегментов и с их id из словаря (?dictionary=true). Без Spring и БД: только кодирование
+ * готового DTO теми же мапперами, что и у конвертеров BinaryFormatsConfig.
+ * Размер тела в байтах печатается при подготовке каждой комбинации параметров:
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="PayloadEncodingBenchmark"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PayloadEncodingBenchmark {
+
+    private static final String[] SEGMENT_PREFIXES = {"MAIL_GPT", "MAIL_VOICE", "CLOUD_DISCOUNT", "VK_MUSIC_TRIAL", "MARKET_CASHBACK"};
+
+    @Param({"json", "cbor", "smile"})
+    public String format;
+
+    @Param({"names", "ids"})
+    public String mode;
+
+    // 1 - GET /api/users/{id}/segments, 1000 - типичная пачка batchGet
+    @Param({"1", "1000"})
+    public int users;
+
+    @Param({"50"})
+    public int segments;
+
+    // Сегментов у пользователя в среднем
+    @Param({"8"})
+    public int perUser;
+
+    private ObjectMapper mapper;
+    private Object payload;
+    private Class<?> type;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        mapper = switch (format) {
+            case "json" -> new ObjectMapper();
+            case "cbor" -> new CBORMapper();
+            case "smile" -> new SmileMapper(BinaryFormatsConfig.smileFactory());
+            default -> throw new IllegalArgumentException("Unknown format: " + format);
+        };
+        Random random = new Random(42);
+        Map<Long, String> names = new TreeMap<>();
+        for (long id = 1; id <= segments; id++) {
+            names.put(id, SEGMENT_PREFIXES[(int) (id % SEGMENT_PREFIXES.length)] + "_EXPERIMENT_" + id);
+        }
+        List<String> allNames = new ArrayList<>(names.values());
+        List<UserSegmentsResponse> responses = new ArrayList<>(users);
+        for (long userId = 1; userId <= users; userId++) {
+            Set<String> userSegments = new TreeSet<>();
+            for (String name : allNames) {
+                if (random.nextInt(segments) < perUser) {
+                    userSegments.add(name);
+                }
+            }
+            responses.add(new UserSegmentsResponse(1_000_000 + userId, "user" + userId, userSegments));
+        }
+        BatchUserSegmentsResponse batch = BatchUserSegmentsResponse.builder()
+                .users(responses)
+                .missingIds(List.of())
+                .build();
+        SegmentDictionary dictionary = SegmentDictionary.builder().version("bench").segments(names).build();
+        payload = "ids".equals(mode)
+                ? new SegmentDictionaryService(null, null, null).encode(batch, dictionary)
+                : batch;
+        type = payload.getClass();
+        encoded = mapper.writeValueAsBytes(payload);
+        System.out.printf("%n%s/%s, %d users: %d bytes%n", format, mode, users, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return mapper.writeValueAsBytes(payload);
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException {
+        return mapper.readValue(encoded, type);
+    }
+}
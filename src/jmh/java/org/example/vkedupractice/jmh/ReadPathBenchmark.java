@@ -0,0 +1,109 @@
+package org.example.vkedupractice.jmh;
+
+import jakarta.persistence.EntityManager;
+import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.dto.UserDto;
+import org.example.vkedupractice.model.Segment;
+import org.example.vkedupractice.model.User;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * DTO-проекции (UserProjectionRepository, SegmentProjectionRepository) против прежнего чтения через сущности:
+ * LEFT JOIN FETCH в persistence context и сборка DTO из управляемых User/Segment.
+ * Пары методов *Entities / *Projection сравниваются по задержке (SampleTime) и gc.alloc.rate.norm -
+ * байтам аллокаций на операцию:
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="ReadPathBenchmark -p db=h2,postgres"
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadPathBenchmark {
+
+    private static final int PAGE_SIZE = 100;
+
+    private static final String USERS_BY_IDS =
+            "SELECT DISTINCT u FROM User u LEFT JOIN FETCH u.segments WHERE u.id IN :ids";
+
+    private static final String USERS_BY_SEGMENT_NAME =
+            "SELECT DISTINCT u FROM User u LEFT JOIN FETCH u.segments WHERE u.id IN "
+            + "(SELECT m.id FROM User m JOIN m.segments s WHERE s.id = "
+            + "(SELECT n.id FROM Segment n WHERE n.name = :segmentName))";
+
+    @Benchmark
+    public List<UserDto> usersPageEntities(ServiceState state) {
+        List<Long> ids = state.randomIdRange(PAGE_SIZE);
+        return inEntityManager(state, em -> toDtos(em.createQuery(USERS_BY_IDS, User.class)
+                .setParameter("ids", ids)
+                .getResultList()));
+    }
+
+    @Benchmark
+    public List<UserDto> usersPageProjection(ServiceState state) {
+        return state.userProjectionRepository.findByIds(state.randomIdRange(PAGE_SIZE));
+    }
+
+    @Benchmark
+    public List<UserDto> usersBySegmentEntities(ServiceState state) {
+        String segmentName = state.randomSegmentName();
+        return inEntityManager(state, em -> toDtos(em.createQuery(USERS_BY_SEGMENT_NAME, User.class)
+                .setParameter("segmentName", segmentName)
+                .getResultList()));
+    }
+
+    @Benchmark
+    public List<UserDto> usersBySegmentProjection(ServiceState state) {
+        return state.userProjectionRepository.findBySegmentName(state.randomSegmentName());
+    }
+
+    @Benchmark
+    public List<SegmentDto> segmentsEntities(ServiceState state) {
+        return inEntityManager(state, em -> em.createQuery("SELECT s FROM Segment s", Segment.class)
+                .getResultStream()
+                .map(SegmentDto::from)
+                .collect(Collectors.toList()));
+    }
+
+    @Benchmark
+    public List<SegmentDto> segmentsProjection(ServiceState state) {
+        return state.segmentProjectionRepository.findAll();
+    }
+
+    // Отдельный persistence context на операцию, как у запроса с @Transactional(readOnly = true)
+    private static <T> T inEntityManager(ServiceState state, Function<EntityManager, T> work) {
+        EntityManager em = state.entityManagerFactory.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            T result = work.apply(em);
+            em.getTransaction().commit();
+            return result;
+        } finally {
+            em.close();
+        }
+    }
+
+    // Прежний UserService.convertToDto: имена сегментов из подгруженной коллекции
+    private static List<UserDto> toDtos(List<User> users) {
+        return users.stream()
+                .map(u -> UserDto.builder()
+                        .id(u.getId())
+                        .username(u.getUsername())
+                        .email(u.getEmail())
+                        .createdAt(u.getCreatedAt())
+                        .segmentNames(u.getSegments().stream().map(Segment::getName).collect(Collectors.toSet()))
+                        .build())
+                .collect(Collectors.toList());
+    }
+}
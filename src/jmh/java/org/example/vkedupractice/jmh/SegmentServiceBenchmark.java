@@ -0,0 +1,88 @@
+package org.example.vkedupractice.jmh;
+
+import org.example.vkedupractice.dto.CreateSegmentRequest;
+import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.model.Segment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Создание сегмента и распределение по случайным пользователям. Созданные сегменты удаляются
+ * физически после каждой итерации, чтобы размер данных не рос от итерации к итерации.
+ *
+ * Режимы распределения сравниваются параметром assignment; на миллионах пользователей одна операция
+ * длится секунды, поэтому замер - отдельными вызовами (-bm ss). Нехватка памяти в режиме ENTITY
+ * завершает форк только этой комбинации параметров, JMH переходит к следующей:
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="SegmentServiceBenchmark.createSegment -bm ss -wi 1 -i 5
+ *     -p assignment=SQL,ENTITY -p users=10000,1000000,5000000 -p segments=0 -p percentage=30"
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SegmentServiceBenchmark {
+
+    private static final String PREFIX = "JMH_CREATED_";
+
+    @State(Scope.Benchmark)
+    public static class Created {
+
+        @Param({"10"})
+        public int percentage;
+
+        private final AtomicLong sequence = new AtomicLong();
+
+        CreateSegmentRequest next(int percentage) {
+            return CreateSegmentRequest.builder()
+                    .name(PREFIX + sequence.incrementAndGet())
+                    .percentage(percentage)
+                    .build();
+        }
+
+        @TearDown(Level.Iteration)
+        public void cleanUp(ServiceState state) {
+            state.jdbcTemplate.update("DELETE FROM user_segments WHERE segment_id IN "
+                    + "(SELECT id FROM segments WHERE name LIKE '" + PREFIX + "%')");
+            state.jdbcTemplate.update("DELETE FROM segments WHERE name LIKE '" + PREFIX + "%'");
+            state.membershipIndex.load();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class EmptySegment {
+
+        Segment segment;
+
+        // Пустой сегмент на каждый вызов: распределение в уже заполненный сегмент ничего не делает
+        @Setup(Level.Invocation)
+        public void create(ServiceState state, Created created) {
+            SegmentDto dto = state.segmentService.createSegment(created.next(0));
+            segment = state.segmentRepository.findById(dto.getId()).orElseThrow();
+        }
+    }
+
+    @Benchmark
+    public SegmentDto createSegment(ServiceState state, Created created) {
+        return state.segmentService.createSegment(created.next(created.percentage));
+    }
+
+    @Benchmark
+    public void assignSegmentToRandomUsers(ServiceState state, Created created, EmptySegment empty) {
+        state.segmentService.assignSegmentToRandomUsers(empty.segment, created.percentage);
+    }
+}
@@ -0,0 +1,195 @@
+package org.example.vkedupractice.jmh;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import jakarta.persistence.EntityManagerFactory;
+import org.example.vkedupractice.VkEduPracticeApplication;
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.repository.SegmentProjectionRepository;
+import org.example.vkedupractice.repository.SegmentRepository;
+import org.example.vkedupractice.repository.UserProjectionRepository;
+import org.example.vkedupractice.service.SegmentService;
+import org.example.vkedupractice.service.UserService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Контекст приложения без веб-сервера на H2 или встроенном PostgreSQL, заполненный данными заданного размера:
+ * users пользователей, segments сегментов, каждый пользователь входит в сегмент с вероятностью density.
+ * Наследники (ServerState) поднимают тот же контекст с серверами и добавляют свои свойства.
+ */
+@State(Scope.Benchmark)
+public class ServiceState {
+
+    @Param({"h2", "postgres"})
+    public String db;
+
+    @Param({"10000"})
+    public int users;
+
+    @Param({"20"})
+    public int segments;
+
+    @Param({"0.1"})
+    public double density;
+
+    // Индекс членства и кэш пользователей: по умолчанию индекс включен, кэш выключен, чтобы мерить загрузку
+    @Param({"true"})
+    public boolean index;
+
+    @Param({"false"})
+    public boolean cache;
+
+    // segments.assignment.mode: SQL (INSERT ... SELECT в БД) или ENTITY (выборка в памяти)
+    @Param({"SQL"})
+    public String assignment;
+
+    SegmentService segmentService;
+    UserService userService;
+    SegmentRepository segmentRepository;
+    MembershipIndex membershipIndex;
+    JdbcTemplate jdbcTemplate;
+    UserProjectionRepository userProjectionRepository;
+    SegmentProjectionRepository segmentProjectionRepository;
+    EntityManagerFactory entityManagerFactory;
+
+    private EmbeddedPostgres postgres;
+    private ConfigurableApplicationContext context;
+    private long[] userIds;
+    private List<String> segmentNames;
+
+    @Setup(Level.Trial)
+    public void start() throws IOException {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("spring.jpa.show-sql", "false");
+        properties.put("logging.level.root", "WARN");
+        properties.put("logging.level.org.example.vkedupractice", "WARN");
+        properties.put("logging.level.org.springframework.web", "WARN");
+        properties.put("segments.index.enabled", String.valueOf(index));
+        properties.put("users.cache.enabled", String.valueOf(cache));
+        properties.put("segments.assignment.mode", assignment);
+        properties.put("grpc.enabled", "false");
+        List<String> activeProfiles = new ArrayList<>(List.of(profiles()));
+        if ("postgres".equals(db)) {
+            // Профиль postgresql: схема из миграций Flyway (секционированная user_segments), как в рабочей базе
+            postgres = EmbeddedPostgres.builder().start();
+            activeProfiles.add("postgresql");
+            properties.put("SPRING_DATASOURCE_URL", postgres.getJdbcUrl("postgres", "postgres"));
+            properties.put("SPRING_DATASOURCE_USERNAME", "postgres");
+            properties.put("SPRING_DATASOURCE_PASSWORD", "");
+            properties.put("SERVER_PORT", "0");
+        } else if (!"h2".equals(db)) {
+            throw new IllegalArgumentException("Unknown db: " + db);
+        }
+        configure(properties);
+
+        // Аргументами командной строки, а не defaultProperties: те ниже по приоритету, чем application-test.yml,
+        // и datasource встроенного PostgreSQL молча заменялся на H2 из профиля
+        context = new SpringApplicationBuilder(VkEduPracticeApplication.class)
+                .web(webApplicationType())
+                .profiles(activeProfiles.toArray(String[]::new))
+                .run(properties.entrySet().stream()
+                        .map(property -> "--" + property.getKey() + "=" + property.getValue())
+                        .toArray(String[]::new));
+        segmentService = context.getBean(SegmentService.class);
+        userService = context.getBean(UserService.class);
+        segmentRepository = context.getBean(SegmentRepository.class);
+        membershipIndex = context.getBean(MembershipIndex.class);
+        jdbcTemplate = context.getBean(JdbcTemplate.class);
+        userProjectionRepository = context.getBean(UserProjectionRepository.class);
+        segmentProjectionRepository = context.getBean(SegmentProjectionRepository.class);
+        entityManagerFactory = context.getBean(EntityManagerFactory.class);
+
+        seed();
+        membershipIndex.load();
+        userIds = jdbcTemplate.queryForList("SELECT id FROM users ORDER BY id", Long.class)
+                .stream().mapToLong(Long::longValue).toArray();
+        segmentNames = jdbcTemplate.queryForList("SELECT name FROM segments ORDER BY id", String.class);
+        started(context);
+    }
+
+    @TearDown(Level.Trial)
+    public void stop() throws IOException {
+        if (context != null) {
+            stopping();
+            context.close();
+        }
+        if (postgres != null) {
+            postgres.close();
+        }
+    }
+
+    protected WebApplicationType webApplicationType() {
+        return WebApplicationType.NONE;
+    }
+
+    protected String[] profiles() {
+        return new String[]{"test"};
+    }
+
+    protected void configure(Map<String, Object> properties) {
+    }
+
+    // Контекст поднят и заполнен данными
+    protected void started(ConfigurableApplicationContext context) {
+    }
+
+    // Перед закрытием контекста
+    protected void stopping() {
+    }
+
+    long randomUserId() {
+        return userIds[ThreadLocalRandom.current().nextInt(userIds.length)];
+    }
+
+    // size подряд идущих id пользователей, как на странице GET /api/users
+    List<Long> randomIdRange(int size) {
+        int from = ThreadLocalRandom.current().nextInt(Math.max(1, userIds.length - size + 1));
+        List<Long> ids = new ArrayList<>(size);
+        for (int i = from; i < Math.min(from + size, userIds.length); i++) {
+            ids.add(userIds[i]);
+        }
+        return ids;
+    }
+
+    String randomSegmentName() {
+        return segmentNames.get(ThreadLocalRandom.current().nextInt(segmentNames.size()));
+    }
+
+    private void seed() {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>(1000);
+        for (int i = 1; i <= users; i++) {
+            rows.add(new Object[]{"jmh_user" + i, "jmh_user" + i + "@example.com", now});
+            if (rows.size() == 1000 || i == users) {
+                jdbcTemplate.batchUpdate("INSERT INTO users (username, email, created_at) VALUES (?, ?, ?)", rows);
+                rows.clear();
+            }
+        }
+        for (int i = 1; i <= segments; i++) {
+            jdbcTemplate.update("INSERT INTO segments (name, kind, deleted, created_at) VALUES (?, 'MATERIALIZED', false, ?)",
+                    "JMH_SEGMENT_" + i, now);
+        }
+        jdbcTemplate.update("INSERT INTO user_segments (user_id, segment_id) "
+                + "SELECT u.id, s.id FROM users u CROSS JOIN segments s WHERE RANDOM() < ?", density);
+        // Участники добавлены мимо сервиса: счетчик member_count выставляется по факту
+        jdbcTemplate.update("UPDATE segments s SET member_count = "
+                + "(SELECT COUNT(*) FROM user_segments us WHERE us.segment_id = s.id)");
+    }
+}
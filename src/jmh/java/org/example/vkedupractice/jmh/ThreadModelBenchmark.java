@@ -0,0 +1,78 @@
+package org.example.vkedupractice.jmh;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.http.HttpRequest;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GET /api/users/{id}/segments при тысячах одновременных клиентов: потоки Tomcat (threads=platform, 200)
+ * против профиля virtual-threads (виртуальные потоки + bulkhead). Клиенты - потоки JMH (-t), каждый шлет
+ * следующий запрос после ответа на предыдущий. Размер пула одинаковый в обоих режимах (poolSize);
+ * индекс членства стоит выключить (-p index=false), чтобы каждый запрос шел в БД.
+ * Ответы не 200 (503 от bulkhead) не прерывают замер, а считаются в errors:
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="ThreadModelBenchmark -t 2000 -p threads=platform,virtual -p db=postgres -p index=false"
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(2000)
+@Fork(1)
+public class ThreadModelBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class ThreadModelState extends ServerState {
+
+        @Param({"platform", "virtual"})
+        public String threads;
+
+        @Param({"10"})
+        public int poolSize;
+
+        @Override
+        protected String[] profiles() {
+            return switch (threads) {
+                case "platform" -> new String[]{"test"};
+                case "virtual" -> new String[]{"test", "virtual-threads"};
+                default -> throw new IllegalArgumentException("Unknown threads: " + threads);
+            };
+        }
+
+        @Override
+        protected void configure(Map<String, Object> properties) {
+            super.configure(properties);
+            properties.put("spring.datasource.hikari.maximum-pool-size", String.valueOf(poolSize));
+            // Соединения не ограничивают ни один из режимов
+            properties.put("server.tomcat.max-connections", "20000");
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Errors {
+        public long errors;
+    }
+
+    @Benchmark
+    public int getUserSegments(ThreadModelState state, Errors errors) {
+        int status = state.exchange(HttpRequest.newBuilder(
+                state.uri("/api/users/" + state.randomUserId() + "/segments")).GET().build()).statusCode();
+        if (status != 200) {
+            errors.errors++;
+        }
+        return status;
+    }
+}
@@ -0,0 +1,44 @@
+package org.example.vkedupractice.jmh;
+
+import org.example.vkedupractice.dto.BatchUserSegmentsRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поиск сегментов 1000 пользователей через REST: POST /api/users/segments:batchGet одной пачкой против
+ * GET /api/users/{id}/segments по одному. Операция - поиск одного пользователя, поэтому результат
+ * в поисках в секунду:
+ * mvn -Pjmh test-compile exec:exec -Djmh.args="UserSegmentsLookupBenchmark -p db=h2 -p users=100000 -p segments=5"
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserSegmentsLookupBenchmark {
+
+    private static final int BATCH_SIZE = 1000;
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void perUserGets(ServerState state, Blackhole blackhole) {
+        for (Long id : state.randomIdRange(BATCH_SIZE)) {
+            blackhole.consume(state.get("/api/users/" + id + "/segments"));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public String batchGet(ServerState state) {
+        return state.postJson("/api/users/segments:batchGet", new BatchUserSegmentsRequest(state.randomIdRange(BATCH_SIZE)));
+    }
+}
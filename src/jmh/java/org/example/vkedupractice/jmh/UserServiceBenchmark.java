@@ -0,0 +1,40 @@
+package org.example.vkedupractice.jmh;
+
+import org.example.vkedupractice.dto.UserDto;
+import org.example.vkedupractice.dto.UserSegmentsResponse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Чтения UserService. Mode.SampleTime дает перцентили задержки, -prof gc - скорость аллокаций.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserServiceBenchmark {
+
+    @Benchmark
+    public UserSegmentsResponse getUserSegments(ServiceState state) {
+        return state.userService.getUserSegments(state.randomUserId());
+    }
+
+    @Benchmark
+    public List<UserDto> getUsersBySegment(ServiceState state) {
+        return state.userService.getUsersBySegment(state.randomSegmentName());
+    }
+
+    @Benchmark
+    public List<UserDto> getAllUsers(ServiceState state) {
+        return state.userService.getAllUsers();
+    }
+}
@@ -0,0 +1,87 @@
+package org.example.vkedupractice.load;
+
+import org.HdrHistogram.Histogram;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+
+/**
+ * Итог прогона в JSON (load.result): коммит, конфигурация нагрузки и данных, перцентили по операциям.
+ * Прогоны сравнимы, только если конфигурации совпадают полностью.
+ */
+record LoadResult(String commit,
+                  boolean dirty,
+                  String startedAt,
+                  SortedMap<String, String> config,
+                  long skippedDeletes,
+                  Map<String, OperationResult> operations) {
+
+    /**
+     * Задержки в миллисекундах от запланированного момента отправки; serviceP99Ms - от фактической.
+     */
+    record OperationResult(long count, long errors, double meanMs, double p50Ms, double p90Ms, double p99Ms,
+                           double p999Ms, double maxMs, double serviceP99Ms) {
+
+        static OperationResult of(OpenLoopDriver.Stats stats) {
+            Histogram latency = stats.latency();
+            return new OperationResult(latency.getTotalCount(), stats.errors(), latency.getMean() / 1000.0,
+                    percentile(latency, 50), percentile(latency, 90), percentile(latency, 99),
+                    percentile(latency, 99.9), latency.getMaxValue() / 1000.0,
+                    percentile(stats.serviceTime(), 99));
+        }
+
+        private static double percentile(Histogram histogram, double percentile) {
+            return histogram.getValueAtPercentile(percentile) / 1000.0;
+        }
+    }
+
+    /**
+     * regressed - рост p99 выше порога; у операции с числом замеров меньше minSamples p99 - это несколько
+     * самых медленных запросов, поэтому она выводится, но регрессией не считается.
+     */
+    record Comparison(String operation, double baseP99Ms, double p99Ms, boolean enoughSamples, boolean regressed) {
+
+        double change() {
+            return baseP99Ms > 0 ? p99Ms / baseP99Ms - 1 : 0;
+        }
+    }
+
+    /**
+     * Сравнение p99 каждой операции с базовым прогоном. Регрессия - рост больше чем в (1 + maxRegression) раз
+     * и больше чем на floorMs: на миллисекундных задержках один относительный порог срабатывал бы на шуме.
+     */
+    List<Comparison> compareTo(LoadResult baseline, double maxRegression, double floorMs, long minSamples) {
+        List<Comparison> comparisons = new ArrayList<>();
+        operations.forEach((operation, current) -> {
+            OperationResult base = baseline.operations().get(operation);
+            if (base != null) {
+                boolean enoughSamples = Math.min(base.count(), current.count()) >= minSamples;
+                comparisons.add(new Comparison(operation, base.p99Ms(), current.p99Ms(), enoughSamples,
+                        enoughSamples
+                                && current.p99Ms() > base.p99Ms() * (1 + maxRegression)
+                                && current.p99Ms() - base.p99Ms() > floorMs));
+            }
+        });
+        return comparisons;
+    }
+
+    /**
+     * Параметры, которыми конфигурации различаются; пусто - прогоны можно сравнивать.
+     */
+    Map<String, String> configDifferences(LoadResult other) {
+        Map<String, String> differences = new LinkedHashMap<>();
+        config.forEach((key, value) -> {
+            if (!Objects.equals(value, other.config().get(key))) {
+                differences.put(key, other.config().get(key) + " -> " + value);
+            }
+        });
+        other.config().keySet().stream()
+                .filter(key -> !config.containsKey(key))
+                .forEach(key -> differences.put(key, other.config().get(key) + " -> null"));
+        return differences;
+    }
+}
@@ -0,0 +1,268 @@
+package org.example.vkedupractice.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.HdrHistogram.Histogram;
+import org.example.vkedupractice.VkEduPracticeApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Нагрузочный прогон HTTP API: поднимает приложение (профиль loadtest) на H2, встроенном или локальном PostgreSQL
+ * с данными от LoadTestDataGenerator, подает смесь запросов с постоянной интенсивностью (OpenLoopDriver)
+ * и пишет перцентили задержки в JSON. С load.baseline сравнивает p99 с прошлым прогоном и завершается
+ * с кодом 1 при регрессии, с кодом 2 - если прогоны несравнимы.
+ *
+ * Запуск: mvn -Pload test-compile exec:exec -Dload.args="--load.rate=500 --load.duration=60s"
+ * Аргументы --load.* - параметры нагрузки (см. README), остальные передаются приложению,
+ * например --loadtest.users=1000000 или --users.cache.enabled=false.
+ */
+public final class LoadTest {
+
+    private static final String OPTION_PREFIX = "load.";
+
+    private static final Map<String, String> DEFAULTS = Map.ofEntries(
+            Map.entry("db", "h2"),
+            Map.entry("rate", "50"),
+            Map.entry("warmup", "10s"),
+            Map.entry("duration", "30s"),
+            Map.entry("mix", "read:90,count:6,total:2,create:1,delete:1"),
+            Map.entry("max-in-flight", "512"),
+            Map.entry("create-percentage", "1"),
+            Map.entry("timeout", "30s"),
+            Map.entry("seed", "42"),
+            Map.entry("result", "target/load-result.json"),
+            Map.entry("baseline", ""),
+            Map.entry("max-regression", "0.1"),
+            Map.entry("regression-floor-ms", "1.0"),
+            Map.entry("min-samples", "1000"));
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new TreeMap<>(DEFAULTS);
+        Map<String, String> appProperties = new TreeMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --key=value, got '" + arg + "'");
+            }
+            String key = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (key.startsWith(OPTION_PREFIX)) {
+                String option = key.substring(OPTION_PREFIX.length());
+                if (!DEFAULTS.containsKey(option)) {
+                    throw new IllegalArgumentException("Unknown option --load." + option + ", expected one of "
+                            + DEFAULTS.keySet());
+                }
+                options.put(option, value);
+            } else {
+                appProperties.put(key, value);
+            }
+        }
+        System.exit(run(options, appProperties));
+    }
+
+    private static int run(Map<String, String> options, Map<String, String> appProperties) throws Exception {
+        String db = options.get("db");
+        OperationMix mix = OperationMix.parse(options.get("mix"));
+        double rate = Double.parseDouble(options.get("rate"));
+        Duration warmup = DurationStyle.detectAndParse(options.get("warmup"));
+        Duration duration = DurationStyle.detectAndParse(options.get("duration"));
+
+        EmbeddedPostgres postgres = null;
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("grpc.enabled", "false");
+        properties.put("logging.level.root", "WARN");
+        properties.put("logging.level.org.example.vkedupractice", "WARN");
+        properties.put("logging.level.org.example.vkedupractice.loadtest", "INFO");
+        properties.put("loadtest.users", "100000");
+        String profiles = "loadtest,postgresql";
+        switch (db) {
+            case "h2" -> {
+                // В памяти, а не в файле профиля loadtest: каждый прогон начинается с одинаковых данных
+                profiles = "loadtest";
+                properties.put("spring.datasource.url", "jdbc:h2:mem:load;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000");
+                properties.put("spring.jpa.hibernate.ddl-auto", "create-drop");
+            }
+            case "postgres" -> {
+                postgres = EmbeddedPostgres.builder().start();
+                properties.put("spring.datasource.url", postgres.getJdbcUrl("postgres", "postgres"));
+                properties.put("spring.datasource.username", "postgres");
+                properties.put("spring.datasource.password", "");
+            }
+            // Локальный PostgreSQL из SPRING_DATASOURCE_URL/USERNAME/PASSWORD или --spring.datasource.*
+            case "external" -> {
+            }
+            default -> throw new IllegalArgumentException("Unknown --load.db=" + db + ", expected h2, postgres or external");
+        }
+        properties.putAll(appProperties);
+
+        // Аргументами командной строки: они перекрывают свойства профилей loadtest и postgresql
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(VkEduPracticeApplication.class)
+                .profiles(profiles.split(","))
+                .run(properties.entrySet().stream()
+                        .map(property -> "--" + property.getKey() + "=" + property.getValue())
+                        .toArray(String[]::new))) {
+            JdbcTemplate jdbcTemplate = context.getBean(JdbcTemplate.class);
+            long minUserId = jdbcTemplate.queryForObject("SELECT MIN(id) FROM users", Long.class);
+            long maxUserId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM users", Long.class);
+            List<String> segmentNames = jdbcTemplate.queryForList(
+                    "SELECT name FROM segments WHERE deleted = false ORDER BY id", String.class);
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+
+            Workload workload = new Workload(URI.create("http://localhost:" + port), mix, minUserId, maxUserId,
+                    segmentNames, Integer.parseInt(options.get("create-percentage")),
+                    DurationStyle.detectAndParse(options.get("timeout")), Long.parseLong(options.get("seed")));
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .connectTimeout(Duration.ofSeconds(10))
+                    .build();
+            OpenLoopDriver driver = new OpenLoopDriver(client, workload, rate,
+                    Integer.parseInt(options.get("max-in-flight")));
+
+            System.out.printf("%n%s: %.0f req/s, mix %s, %d users, %d segments, warmup %ss, measure %ss%n",
+                    db, rate, mix, maxUserId - minUserId + 1, segmentNames.size(),
+                    warmup.toSeconds(), duration.toSeconds());
+            Instant startedAt = Instant.now();
+            OpenLoopDriver.Summary summary = driver.run(warmup, duration);
+
+            // Все, от чего зависят задержки: прогоны с разной конфигурацией не сравниваются
+            TreeMap<String, String> config = new TreeMap<>();
+            config.put("db", db);
+            config.put("rate", options.get("rate"));
+            config.put("warmup", warmup.toString());
+            config.put("duration", duration.toString());
+            config.put("mix", mix.toString());
+            config.put("max-in-flight", options.get("max-in-flight"));
+            config.put("create-percentage", options.get("create-percentage"));
+            config.put("seed", options.get("seed"));
+            config.put("users", String.valueOf(maxUserId - minUserId + 1));
+            config.put("segments", String.valueOf(segmentNames.size()));
+            config.put("java", Runtime.version().toString());
+            config.put("cpus", String.valueOf(Runtime.getRuntime().availableProcessors()));
+            appProperties.forEach((key, value) -> {
+                if (!key.contains("password")) {
+                    config.put("app." + key, value);
+                }
+            });
+
+            Map<String, LoadResult.OperationResult> operations = new LinkedHashMap<>();
+            summary.operations().forEach((operation, stats) ->
+                    operations.put(operation.key, LoadResult.OperationResult.of(stats)));
+            GitState git = GitState.current();
+            LoadResult result = new LoadResult(git.commit(), git.dirty(), startedAt.toString(),
+                    config, summary.skippedDeletes(), operations);
+
+            print(result, duration);
+            Path resultPath = Path.of(options.get("result"));
+            write(result, summary, resultPath);
+            return compare(result, options);
+        } finally {
+            if (postgres != null) {
+                postgres.close();
+            }
+        }
+    }
+
+    private static void print(LoadResult result, Duration duration) {
+        System.out.printf("%n%-7s %8s %7s %8s %8s %8s %8s %8s %9s %8s %9s%n", "op", "count", "errors", "req/s",
+                "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "svc p99");
+        result.operations().forEach((operation, stats) -> System.out.printf(
+                "%-7s %8d %7d %8.1f %8.2f %8.2f %8.2f %8.2f %9.2f %8.2f %9.2f%n",
+                operation, stats.count(), stats.errors(), stats.count() * 1000.0 / duration.toMillis(),
+                stats.meanMs(), stats.p50Ms(), stats.p90Ms(), stats.p99Ms(), stats.p999Ms(), stats.maxMs(),
+                stats.serviceP99Ms()));
+        if (result.skippedDeletes() > 0) {
+            System.out.printf("delete skipped %d times: no segments created by this run yet%n", result.skippedDeletes());
+        }
+    }
+
+    // JSON для сравнения и рядом .hgrm по каждой операции - полное распределение для HdrHistogram plotter
+    private static void write(LoadResult result, OpenLoopDriver.Summary summary, Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(path.toFile(), result);
+        String base = path.toString().replaceFirst("\\.json$", "");
+        for (Map.Entry<Operation, OpenLoopDriver.Stats> entry : summary.operations().entrySet()) {
+            Histogram latency = entry.getValue().latency();
+            try (PrintStream out = new PrintStream(new File(base + "-" + entry.getKey().key + ".hgrm"),
+                    StandardCharsets.UTF_8)) {
+                // Значения записаны в микросекундах, в файле - миллисекунды
+                latency.outputPercentileDistribution(out, 1000.0);
+            }
+        }
+        System.out.printf("%nresult: %s%n", path.toAbsolutePath());
+    }
+
+    private static int compare(LoadResult result, Map<String, String> options) throws IOException {
+        String baselinePath = options.get("baseline");
+        if (baselinePath.isEmpty()) {
+            return 0;
+        }
+        LoadResult baseline = new ObjectMapper().readValue(new File(baselinePath), LoadResult.class);
+        Map<String, String> differences = result.configDifferences(baseline);
+        if (!differences.isEmpty()) {
+            System.out.printf("%nNot comparable with %s, config differs: %s%n", baselinePath, differences);
+            return 2;
+        }
+        double maxRegression = Double.parseDouble(options.get("max-regression"));
+        long minSamples = Long.parseLong(options.get("min-samples"));
+        List<LoadResult.Comparison> comparisons = result.compareTo(baseline, maxRegression,
+                Double.parseDouble(options.get("regression-floor-ms")), minSamples);
+        System.out.printf("%nvs %s%s (max p99 regression %.0f%%)%n", baseline.commit(),
+                baseline.dirty() ? " +local changes" : "", maxRegression * 100);
+        System.out.printf("%-7s %12s %12s %8s%n", "op", "base p99 ms", "p99 ms", "change");
+        comparisons.forEach(comparison -> System.out.printf("%-7s %12.2f %12.2f %+7.1f%%%s%n",
+                comparison.operation(), comparison.baseP99Ms(), comparison.p99Ms(), comparison.change() * 100,
+                comparison.regressed() ? "  REGRESSION"
+                        : comparison.enoughSamples() ? "" : "  (< " + minSamples + " samples, not checked)"));
+        return comparisons.stream().anyMatch(LoadResult.Comparison::regressed) ? 1 : 0;
+    }
+
+    // Короткий хеш HEAD и признак незакоммиченных изменений; вне git-репозитория - unknown
+    private record GitState(String commit, boolean dirty) {
+
+        static GitState current() {
+            try {
+                return new GitState(git("rev-parse", "--short", "HEAD"),
+                        !git("status", "--porcelain", "--untracked-files=no").isEmpty());
+            } catch (IOException | InterruptedException e) {
+                return new GitState("unknown", false);
+            }
+        }
+
+        private static String git(String... args) throws IOException, InterruptedException {
+            List<String> command = new ArrayList<>(List.of("git"));
+            command.addAll(List.of(args));
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+            if (process.waitFor() != 0) {
+                throw new IOException("git " + String.join(" ", args) + " failed: " + output);
+            }
+            return output;
+        }
+    }
+}
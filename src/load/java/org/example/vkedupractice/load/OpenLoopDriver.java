@@ -0,0 +1,143 @@
+package org.example.vkedupractice.load;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Открытая модель нагрузки: запрос i должен уйти в момент start + i / rate независимо от того,
+ * ответил ли сервер на предыдущие. Каждый запрос выполняется в своем виртуальном потоке.
+ *
+ * Задержка считается от запланированного момента отправки, а не от фактического: если сервер
+ * (или предел load.max-in-flight) задержал отправку, ожидание входит в задержку. Так не возникает
+ * coordinated omission - замедлившийся сервер не сокращает число замеров в самый плохой период.
+ * Отдельно пишется время обслуживания - от фактической отправки до ответа; разница между ними
+ * показывает очередь перед сервером.
+ */
+final class OpenLoopDriver {
+
+    record Stats(Histogram latency, Histogram serviceTime, long errors) {
+    }
+
+    record Summary(Map<Operation, Stats> operations, long skippedDeletes) {
+    }
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final HttpClient client;
+    private final Workload workload;
+    private final double rate;
+    private final int maxInFlight;
+    private final Map<Operation, Recorder> latency = new EnumMap<>(Operation.class);
+    private final Map<Operation, Recorder> serviceTime = new EnumMap<>(Operation.class);
+    private final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+
+    OpenLoopDriver(HttpClient client, Workload workload, double rate, int maxInFlight) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("load.rate must be positive");
+        }
+        this.client = client;
+        this.workload = workload;
+        this.rate = rate;
+        this.maxInFlight = maxInFlight;
+        for (Operation operation : Operation.values()) {
+            latency.put(operation, new Recorder(SIGNIFICANT_DIGITS));
+            serviceTime.put(operation, new Recorder(SIGNIFICANT_DIGITS));
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    /**
+     * Прогрев warmup (запросы идут, но не записываются), затем замер duration. Возвращается после
+     * ответа на последний отправленный запрос.
+     */
+    Summary run(Duration warmup, Duration duration) throws InterruptedException {
+        double periodNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        long skipped = 0;
+        long start = System.nanoTime();
+        long measureStart = start + warmup.toNanos();
+        long end = measureStart + duration.toNanos();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long i = 0; ; i++) {
+                long intended = start + (long) (i * periodNanos);
+                if (intended - end >= 0) {
+                    break;
+                }
+                parkUntil(intended);
+                Workload.Call call = workload.next();
+                boolean measured = intended - measureStart >= 0;
+                if (call == null) {
+                    if (measured) {
+                        skipped++;
+                    }
+                    continue;
+                }
+                // Опоздание из-за предела одновременных запросов войдет в задержку этого запроса
+                inFlight.acquire();
+                executor.execute(() -> {
+                    try {
+                        execute(call, intended, measured);
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+        Map<Operation, Stats> operations = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            Histogram histogram = latency.get(operation).getIntervalHistogram();
+            if (histogram.getTotalCount() > 0) {
+                operations.put(operation, new Stats(histogram, serviceTime.get(operation).getIntervalHistogram(),
+                        errors.get(operation).sum()));
+            }
+        }
+        return new Summary(operations, skipped);
+    }
+
+    private void execute(Workload.Call call, long intended, boolean measured) {
+        long sentAt = System.nanoTime();
+        boolean failed;
+        try {
+            HttpResponse<String> response = client.send(call.request(), HttpResponse.BodyHandlers.ofString());
+            failed = response.statusCode() >= 400;
+            workload.completed(call, response);
+        } catch (IOException | RuntimeException e) {
+            // Сбой клиента или разбора ответа в Workload - ошибка запроса; задержка все равно записывается,
+            // иначе самые плохие запросы выпали бы из гистограммы
+            failed = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long finishedAt = System.nanoTime();
+        if (measured) {
+            Operation operation = call.operation();
+            latency.get(operation).recordValue(TimeUnit.NANOSECONDS.toMicros(finishedAt - intended));
+            serviceTime.get(operation).recordValue(TimeUnit.NANOSECONDS.toMicros(finishedAt - sentAt));
+            if (failed) {
+                errors.get(operation).increment();
+            }
+        }
+    }
+
+    // Диспетчер, отставший от расписания, отправляет накопившиеся запросы сразу, без сна
+    private static void parkUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
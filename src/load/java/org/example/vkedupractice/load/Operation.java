@@ -0,0 +1,33 @@
+package org.example.vkedupractice.load;
+
+import java.util.Arrays;
+
+/**
+ * Операции нагрузочной смеси; key - имя в load.mix и в отчете.
+ */
+enum Operation {
+    // GET /api/users/{id}/segments
+    READ("read"),
+    // GET /api/segments/{name}/users/count
+    COUNT("count"),
+    // GET /api/users/count
+    TOTAL("total"),
+    // POST /api/segments
+    CREATE("create"),
+    // DELETE /api/segments/{id} - только сегменты, созданные этим же прогоном
+    DELETE("delete");
+
+    final String key;
+
+    Operation(String key) {
+        this.key = key;
+    }
+
+    static Operation of(String key) {
+        return Arrays.stream(values())
+                .filter(operation -> operation.key.equals(key))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("Unknown operation '" + key + "', expected one of "
+                        + Arrays.stream(values()).map(operation -> operation.key).toList()));
+    }
+}
@@ -0,0 +1,105 @@
+package org.example.vkedupractice.load;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Запросы нагрузочной смеси. Операция и ее аргументы выбираются генератором с фиксированным seed
+ * в единственном потоке диспетчера, поэтому последовательность запросов повторяется от прогона к прогону.
+ * Удаляются только сегменты, созданные этим прогоном: исходные данные остаются одинаковыми для всех операций чтения.
+ */
+final class Workload {
+
+    record Call(Operation operation, HttpRequest request) {
+    }
+
+    private final URI baseUri;
+    private final OperationMix mix;
+    private final long minUserId;
+    private final long maxUserId;
+    private final List<String> segmentNames;
+    private final int createPercentage;
+    private final Duration timeout;
+    private final SplittableRandom random;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Queue<Long> createdSegmentIds = new ConcurrentLinkedQueue<>();
+    private final AtomicLong createdSequence = new AtomicLong();
+
+    Workload(URI baseUri, OperationMix mix, long minUserId, long maxUserId, List<String> segmentNames,
+             int createPercentage, Duration timeout, long seed) {
+        if (segmentNames.isEmpty()) {
+            throw new IllegalArgumentException("Dataset has no segments");
+        }
+        this.baseUri = baseUri;
+        this.mix = mix;
+        this.minUserId = minUserId;
+        this.maxUserId = maxUserId;
+        this.segmentNames = segmentNames;
+        this.createPercentage = createPercentage;
+        this.timeout = timeout;
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Следующий запрос или null, если выпало удаление, а созданных сегментов пока нет.
+     * Вызывается только из потока диспетчера.
+     */
+    Call next() {
+        Operation operation = mix.next(random);
+        return switch (operation) {
+            case READ -> call(operation, get("/api/users/" + random.nextLong(minUserId, maxUserId + 1) + "/segments"));
+            case COUNT -> call(operation, get("/api/segments/"
+                    + URLEncoder.encode(segmentNames.get(random.nextInt(segmentNames.size())), StandardCharsets.UTF_8)
+                    + "/users/count"));
+            case TOTAL -> call(operation, get("/api/users/count"));
+            case CREATE -> call(operation, request("/api/segments")
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(
+                            "{\"name\":\"load_segment_" + createdSequence.incrementAndGet()
+                                    + "\",\"percentage\":" + createPercentage + "}")));
+            case DELETE -> {
+                Long id = createdSegmentIds.poll();
+                yield id == null ? null : call(operation, request("/api/segments/" + id).DELETE());
+            }
+        };
+    }
+
+    /**
+     * Запоминает id созданного сегмента для последующих удалений.
+     */
+    void completed(Call call, HttpResponse<String> response) {
+        if (call.operation() == Operation.CREATE && response.statusCode() == 200) {
+            try {
+                Map<?, ?> segment = objectMapper.readValue(response.body(), Map.class);
+                createdSegmentIds.add(((Number) segment.get("id")).longValue());
+            } catch (IOException | RuntimeException e) {
+                // Ответ без id: сегмент просто не попадет в удаления
+            }
+        }
+    }
+
+    private HttpRequest.Builder get(String path) {
+        return request(path).GET();
+    }
+
+    private HttpRequest.Builder request(String path) {
+        return HttpRequest.newBuilder(baseUri.resolve(path)).timeout(timeout);
+    }
+
+    private static Call call(Operation operation, HttpRequest.Builder request) {
+        return new Call(operation, request.build());
+    }
+}
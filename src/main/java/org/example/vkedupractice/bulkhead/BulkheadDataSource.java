@@ -0,0 +1,172 @@
+package org.example.vkedupractice.bulkhead;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Семафорный bulkhead перед пулом соединений. Соединение выдается только по разрешению, разрешение
+ * возвращается при close(). Ожидающих не больше maxWaiting, каждый ждет не дольше maxWait, остальным
+ * сразу отказ (BulkheadFullException).
+ *
+ * При виртуальных потоках число одновременных запросов не ограничено пулом Tomcat: без bulkhead тысячи
+ * запросов ждали бы в HikariCP до connection-timeout и падали с 500. Ожидание на семафоре дешевое
+ * (виртуальный поток отпускает поток-носитель), а лишняя нагрузка отсекается быстро.
+ */
+public class BulkheadDataSource extends DelegatingDataSource implements MeterBinder {
+
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final int maxWaiting;
+    private final long maxWaitNanos;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private Timer waitTimer;
+    private Counter rejectedCounter;
+
+    public BulkheadDataSource(DataSource target, int maxConcurrent, int maxWaiting, Duration maxWait) {
+        super(target);
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.maxConcurrent = maxConcurrent;
+        this.maxWaiting = maxWaiting;
+        this.maxWaitNanos = maxWait.toNanos();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        acquire();
+        return open(() -> obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        acquire();
+        return open(() -> obtainTargetDataSource().getConnection(username, password));
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("db.bulkhead.active", this, BulkheadDataSource::getActive)
+                .description("Connections currently held through the bulkhead")
+                .register(registry);
+        Gauge.builder("db.bulkhead.waiting", this, BulkheadDataSource::getWaiting)
+                .description("Threads waiting for a bulkhead permit")
+                .register(registry);
+        waitTimer = Timer.builder("db.bulkhead.wait")
+                .description("Time spent waiting for a bulkhead permit")
+                .publishPercentileHistogram()
+                .register(registry);
+        rejectedCounter = Counter.builder("db.bulkhead.rejected")
+                .description("Connection requests rejected by the bulkhead")
+                .register(registry);
+    }
+
+    private void acquire() throws SQLException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        if (waiting.incrementAndGet() > maxWaiting) {
+            waiting.decrementAndGet();
+            throw reject("DB bulkhead queue is full (" + maxWaiting + " waiting)");
+        }
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for DB bulkhead permit", e);
+        } finally {
+            waiting.decrementAndGet();
+            if (waitTimer != null) {
+                waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (!acquired) {
+            throw reject("DB bulkhead permit not acquired within " + Duration.ofNanos(maxWaitNanos).toMillis() + " ms");
+        }
+    }
+
+    private BulkheadFullException reject(String message) {
+        if (rejectedCounter != null) {
+            rejectedCounter.increment();
+        }
+        return new BulkheadFullException(message);
+    }
+
+    private Connection open(ConnectionSource source) throws SQLException {
+        Connection connection;
+        try {
+            connection = source.get();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+        return releasingOnClose(connection);
+    }
+
+    // Разрешение возвращается ровно один раз, даже если close() вызван повторно
+    private Connection releasingOnClose(Connection connection) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "unwrap":
+                            if (((Class<?>) args[0]).isInstance(proxy)) {
+                                return proxy;
+                            }
+                            break;
+                        case "isWrapperFor":
+                            if (((Class<?>) args[0]).isInstance(proxy)) {
+                                return true;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    } finally {
+                        if ("close".equals(method.getName()) && released.compareAndSet(false, true)) {
+                            permits.release();
+                        }
+                    }
+                });
+    }
+
+    @FunctionalInterface
+    private interface ConnectionSource {
+        Connection get() throws SQLException;
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.vkedupractice.bulkhead;
+
+import java.sql.SQLTransientConnectionException;
+
+/**
+ * Соединение не выдано: все разрешения заняты и очередь ожидающих полна или истек db.bulkhead.max-wait.
+ * Наследует SQLTransientConnectionException, поэтому Spring и Hibernate оборачивают его так же,
+ * как отказ пула соединений; GlobalExceptionHandler находит его в цепочке причин и отвечает 503.
+ */
+public class BulkheadFullException extends SQLTransientConnectionException {
+
+    public BulkheadFullException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,168 @@
+package org.example.vkedupractice.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.example.vkedupractice.dto.UserDto;
+import org.example.vkedupractice.dto.UserSegmentsResponse;
+import org.example.vkedupractice.model.Segment;
+import org.example.vkedupractice.repository.SegmentRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Read-through кэш для GET /api/users/{id} и GET /api/users/{id}/segments с ограничением по размеру и TTL.
+ *
+ * Инвалидация точечная и выполняется после коммита мутации в SegmentService:
+ * переименование и удаление сегмента сбрасывают только записи, содержащие его имя,
+ * добавление участников - только закэшированных пользователей, ставших участниками.
+ *
+ * Загрузка, начавшаяся до инвалидации, могла прочитать старые данные. Поэтому загрузчик запоминает epoch
+ * до чтения из БД и, если после записи в кэш epoch изменился, удаляет свою запись.
+ *
+ * При чтении с реплик (users.cache.replica-lag > 0) загрузка в течение этого времени после инвалидации
+ * могла прочитать реплику, еще не получившую изменение, поэтому ее результат отдается, но не кэшируется.
+ */
+@Component
+public class UserLookupCache {
+
+    private static final int PROBE_CHUNK_SIZE = 1000;
+
+    private final SegmentRepository segmentRepository;
+    private final Cache<Long, UserSegmentsResponse> segmentsCache;
+    private final Cache<Long, UserDto> usersCache;
+    private final AtomicLong epoch = new AtomicLong();
+    private final boolean enabled;
+    private final long replicaLagNanos;
+    private volatile long invalidatedAt = System.nanoTime();
+
+    public UserLookupCache(SegmentRepository segmentRepository,
+                           MeterRegistry meterRegistry,
+                           @Value("${users.cache.enabled:true}") boolean enabled,
+                           @Value("${users.cache.max-size:100000}") long maxSize,
+                           @Value("${users.cache.ttl:5m}") Duration ttl,
+                           @Value("${users.cache.replica-lag:0s}") Duration replicaLag) {
+        this.segmentRepository = segmentRepository;
+        this.enabled = enabled;
+        this.replicaLagNanos = replicaLag.toNanos();
+        this.segmentsCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.usersCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, segmentsCache, "userSegments");
+        CaffeineCacheMetrics.monitor(meterRegistry, usersCache, "users");
+    }
+
+    public UserSegmentsResponse getUserSegments(Long userId, Supplier<UserSegmentsResponse> loader) {
+        return get(segmentsCache, userId, loader);
+    }
+
+    // Отсутствующие пользователи не кэшируются: они могут появиться через импорт
+    public Optional<UserDto> getUser(Long userId, Supplier<Optional<UserDto>> loader) {
+        return Optional.ofNullable(get(usersCache, userId, () -> loader.get().orElse(null)));
+    }
+
+    /**
+     * В сегмент добавлены участники: сбрасываются закэшированные пользователи, которые теперь в нем состоят.
+     */
+    public void onMembersAdded(Segment segment) {
+        afterCommit(() -> {
+            invalidated();
+            List<Long> cachedIds = new ArrayList<>(cachedUserIds());
+            Set<Long> affected = new HashSet<>();
+            if (segment.isHashBucket()) {
+                cachedIds.stream().filter(segment::containsByHash).forEach(affected::add);
+            } else {
+                for (int from = 0; from < cachedIds.size(); from += PROBE_CHUNK_SIZE) {
+                    affected.addAll(segmentRepository.findMemberIdsAmong(segment.getId(),
+                            cachedIds.subList(from, Math.min(from + PROBE_CHUNK_SIZE, cachedIds.size()))));
+                }
+            }
+            segmentsCache.invalidateAll(affected);
+            usersCache.invalidateAll(affected);
+        });
+    }
+
+    public void onSegmentRenamed(String oldName) {
+        invalidateContaining(oldName);
+    }
+
+    public void onSegmentDeleted(String name) {
+        invalidateContaining(name);
+    }
+
+    private void invalidateContaining(String segmentName) {
+        afterCommit(() -> {
+            invalidated();
+            removeIf(segmentsCache, response -> response.getSegments().contains(segmentName));
+            removeIf(usersCache, user -> user.getSegmentNames().contains(segmentName));
+        });
+    }
+
+    private <V> V get(Cache<Long, V> cache, Long key, Supplier<V> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        V cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        long observedEpoch = epoch.get();
+        boolean replicaMayLag = replicaLagNanos > 0 && System.nanoTime() - invalidatedAt < replicaLagNanos;
+        V loaded = loader.get();
+        if (loaded != null && !replicaMayLag) {
+            cache.put(key, loaded);
+            if (epoch.get() != observedEpoch) {
+                cache.asMap().remove(key, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    private void invalidated() {
+        invalidatedAt = System.nanoTime();
+        epoch.incrementAndGet();
+    }
+
+    private Set<Long> cachedUserIds() {
+        Set<Long> ids = new HashSet<>(segmentsCache.asMap().keySet());
+        ids.addAll(usersCache.asMap().keySet());
+        return ids;
+    }
+
+    private static <V> void removeIf(Cache<Long, V> cache, Predicate<V> predicate) {
+        cache.asMap().values().removeIf(predicate);
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
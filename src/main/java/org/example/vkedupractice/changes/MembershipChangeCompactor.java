@@ -0,0 +1,74 @@
+package org.example.vkedupractice.changes;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.Map;
+
+/**
+ * Компакция журнала изменений: записи удаленного сегмента, предшествующие его SEGMENT_DELETED, больше
+ * ничего не меняют в итоговом состоянии и удаляются порциями. Само событие удаления остается.
+ *
+ * После компакции журнал содержит только участников живых сегментов и события сегментов, поэтому
+ * его размер ограничен размером user_segments, а новый потребитель может начать чтение с since=0.
+ */
+@Slf4j
+@Component
+public class MembershipChangeCompactor {
+
+    private static final String SUPERSEDED_SEGMENTS =
+            "SELECT d.segment_id, d.id FROM membership_changes d WHERE d.change_type = 'SEGMENT_DELETED' "
+            + "AND EXISTS (SELECT 1 FROM membership_changes c WHERE c.segment_id = d.segment_id AND c.id < d.id) "
+            + "ORDER BY d.id";
+
+    private static final String DELETE_CHUNK =
+            "DELETE FROM membership_changes WHERE id IN "
+            + "(SELECT id FROM membership_changes WHERE segment_id = ? AND id < ? LIMIT ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter compactedCounter;
+    private final int chunkSize;
+
+    public MembershipChangeCompactor(JdbcTemplate jdbcTemplate,
+                                     PlatformTransactionManager transactionManager,
+                                     MeterRegistry meterRegistry,
+                                     @Value("${changes.compaction.chunk-size:10000}") int chunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.compactedCounter = Counter.builder("changes.compacted")
+                .description("Membership change log entries removed by compaction")
+                .register(meterRegistry);
+        this.chunkSize = chunkSize;
+    }
+
+    @Scheduled(fixedDelayString = "${changes.compaction.interval:1m}")
+    public void compact() {
+        for (Map<String, Object> row : jdbcTemplate.queryForList(SUPERSEDED_SEGMENTS)) {
+            compact(((Number) row.get("segment_id")).longValue(), ((Number) row.get("id")).longValue());
+        }
+    }
+
+    /**
+     * @return сколько записей удалено
+     */
+    long compact(long segmentId, long deletedAtCursor) {
+        long total = 0;
+        int deleted;
+        do {
+            deleted = transactionTemplate.execute(status ->
+                    jdbcTemplate.update(DELETE_CHUNK, segmentId, deletedAtCursor, chunkSize));
+            total += deleted;
+            compactedCounter.increment(deleted);
+        } while (deleted > 0);
+        log.info("Membership change log compacted for deleted segment {}: {} entries removed", segmentId, total);
+        return total;
+    }
+}
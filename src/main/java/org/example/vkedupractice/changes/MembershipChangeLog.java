@@ -0,0 +1,149 @@
+package org.example.vkedupractice.changes;
+
+import org.example.vkedupractice.dto.MembershipChangeDto;
+import org.example.vkedupractice.model.MembershipChangeType;
+import org.example.vkedupractice.model.Segment;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+/**
+ * Журнал изменений членства (membership_changes) для инкрементальной синхронизации потребителей.
+ *
+ * Запись выполняется в транзакции мутации. Перед вставкой блокируется строка membership_change_head,
+ * и блокировка держится до коммита. Поэтому id записей выдаются в порядке коммитов, и потребитель,
+ * прочитавший записи до курсора, не пропустит запись с меньшим id, закоммиченную позже.
+ * Мутация сегмента блокирует его строку в segments раньше, чем вызывает record*: голова всегда берется
+ * второй, иначе две мутации одного сегмента ждут друг друга.
+ *
+ * MEMBER_ADDED пишется только для пар (сегмент, пользователь), которых еще нет в журнале.
+ * Сегменты, созданные до появления журнала, попадают в него целиком при первом добавлении участников.
+ */
+@Component
+public class MembershipChangeLog {
+
+    private static final String INSERT_EVENT = "INSERT INTO membership_changes "
+            + "(change_type, segment_id, segment_name, previous_name, user_id, percentage, salt, created_at) "
+            + "VALUES (?, ?, ?, ?, NULL, ?, ?, ?)";
+    private static final String INSERT_MEMBERS = "INSERT INTO membership_changes "
+            + "(change_type, segment_id, segment_name, user_id, created_at) "
+            + "SELECT 'MEMBER_ADDED', us.segment_id, ?, us.user_id, ? FROM user_segments us "
+            + "WHERE us.segment_id = ? %s AND NOT EXISTS (SELECT 1 FROM membership_changes c "
+            + "WHERE c.segment_id = us.segment_id AND c.user_id = us.user_id) ORDER BY us.user_id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate headInitTransaction;
+    private final boolean enabled;
+
+    public MembershipChangeLog(JdbcTemplate jdbcTemplate,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${changes.enabled:true}") boolean enabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.headInitTransaction = new TransactionTemplate(transactionManager);
+        this.headInitTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.enabled = enabled;
+    }
+
+    /**
+     * Журналирует всех участников сегмента, которых в журнале еще нет.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int recordMembersAdded(Segment segment) {
+        if (!enabled) {
+            return 0;
+        }
+        lockHead();
+        return jdbcTemplate.update(INSERT_MEMBERS.formatted(""), segment.getName(), now(), segment.getId());
+    }
+
+    /**
+     * То же для участников с id в (fromId, toId] - для распределения порциями.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int recordMembersAdded(Segment segment, long fromId, long toId) {
+        if (!enabled) {
+            return 0;
+        }
+        lockHead();
+        return jdbcTemplate.update(INSERT_MEMBERS.formatted("AND us.user_id > ? AND us.user_id <= ?"),
+                segment.getName(), now(), segment.getId(), fromId, toId);
+    }
+
+    /**
+     * Процент и соль передаются в событии: по ним потребитель вычисляет участников (HashBuckets.contains).
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordHashSegmentCreated(Segment segment) {
+        recordEvent(MembershipChangeType.HASH_SEGMENT_CREATED, segment.getId(), segment.getName(), null,
+                segment.getPercentage(), segment.getSalt());
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordSegmentRenamed(Segment segment, String previousName) {
+        recordEvent(MembershipChangeType.SEGMENT_RENAMED, segment.getId(), segment.getName(), previousName, null, null);
+    }
+
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordSegmentDeleted(Long segmentId, String name) {
+        recordEvent(MembershipChangeType.SEGMENT_DELETED, segmentId, name, null, null, null);
+    }
+
+    /**
+     * Изменения с курсором больше since в порядке курсора, не более limit штук.
+     */
+    @Transactional(readOnly = true)
+    public List<MembershipChangeDto> findAfter(long since, int limit) {
+        return jdbcTemplate.query("SELECT id, change_type, segment_id, segment_name, previous_name, user_id, "
+                        + "percentage, salt, created_at FROM membership_changes WHERE id > ? ORDER BY id LIMIT ?",
+                (rs, rowNum) -> MembershipChangeDto.builder()
+                        .cursor(rs.getLong("id"))
+                        .type(MembershipChangeType.valueOf(rs.getString("change_type")))
+                        .segmentId(rs.getLong("segment_id"))
+                        .segmentName(rs.getString("segment_name"))
+                        .previousName(rs.getString("previous_name"))
+                        .userId(rs.getObject("user_id", Long.class))
+                        .percentage(rs.getObject("percentage", Integer.class))
+                        .salt(rs.getObject("salt", Long.class))
+                        .createdAt(rs.getTimestamp("created_at").toLocalDateTime())
+                        .build(),
+                since, limit);
+    }
+
+    private void recordEvent(MembershipChangeType type, Long segmentId, String name, String previousName,
+                             Integer percentage, Long salt) {
+        if (!enabled) {
+            return;
+        }
+        lockHead();
+        jdbcTemplate.update(INSERT_EVENT, type.name(), segmentId, name, previousName, percentage, salt, now());
+    }
+
+    // UPDATE блокирует строку до конца текущей транзакции: записи в журнал коммитятся по одной
+    private void lockHead() {
+        if (jdbcTemplate.update("UPDATE membership_change_head SET last_append_at = ? WHERE id = 1", now()) > 0) {
+            return;
+        }
+        // Первая запись в пустую БД: строка создается в отдельной транзакции, ошибка вставки
+        // в текущей (PostgreSQL) прервала бы всю мутацию
+        try {
+            headInitTransaction.executeWithoutResult(status -> jdbcTemplate.update(
+                    "INSERT INTO membership_change_head (id, last_append_at) VALUES (1, ?)", now()));
+        } catch (DuplicateKeyException e) {
+            // строку создала параллельная транзакция
+        }
+        jdbcTemplate.update("UPDATE membership_change_head SET last_append_at = ? WHERE id = 1", now());
+    }
+
+    private static Timestamp now() {
+        return new Timestamp(System.currentTimeMillis());
+    }
+}
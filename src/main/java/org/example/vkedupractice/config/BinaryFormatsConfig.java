@@ -0,0 +1,42 @@
+package org.example.vkedupractice.config;
+
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.cbor.MappingJackson2CborHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.smile.MappingJackson2SmileHttpMessageConverter;
+
+/**
+ * Бинарные представления ответов: application/cbor и application/x-jackson-smile по заголовку Accept.
+ * Те же DTO, что и в JSON, сериализуются тем же Jackson, но без текстового кодирования чисел и
+ * с короткими заголовками строк. Smile, кроме того, передает повторяющиеся имена полей и короткие строки
+ * ссылкой на первое вхождение - это сжимает имена сегментов в пакетных ответах.
+ *
+ * Spring MVC регистрирует такие конвертеры и сам, если библиотеки есть в classpath, но с ObjectMapper
+ * без настроек spring.jackson. Бины того же типа заменяют их на прежних местах - после JSON,
+ * поэтому на запрос без Accept или с Accept любого типа ответ по-прежнему JSON.
+ */
+@Configuration
+public class BinaryFormatsConfig {
+
+    @Bean
+    public MappingJackson2CborHttpMessageConverter cborHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2CborHttpMessageConverter(builder.factory(new CBORFactory()).build());
+    }
+
+    @Bean
+    public MappingJackson2SmileHttpMessageConverter smileHttpMessageConverter(Jackson2ObjectMapperBuilder builder) {
+        return new MappingJackson2SmileHttpMessageConverter(builder.factory(smileFactory()).build());
+    }
+
+    // Ссылки на повторяющиеся значения выключены по умолчанию; признак пишется в заголовок потока,
+    // поэтому любой декодер Smile их понимает
+    public static SmileFactory smileFactory() {
+        return SmileFactory.builder()
+                .enable(SmileGenerator.Feature.CHECK_SHARED_STRING_VALUES)
+                .build();
+    }
+}
@@ -0,0 +1,88 @@
+package org.example.vkedupractice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.example.vkedupractice.bulkhead.BulkheadDataSource;
+import org.example.vkedupractice.routing.ReplicaRoutingDataSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Duration;
+
+/**
+ * Оборачивает DataSource в BulkheadDataSource при db.bulkhead.enabled=true (включен в профиле virtual-threads).
+ * db.bulkhead.max-concurrent=0 - по размеру пула HikariCP.
+ * Bulkhead - внешний слой: оборачивает DataSource после счетчика SQL (MetricsConfig).
+ */
+@Configuration
+@ConditionalOnProperty(name = "db.bulkhead.enabled", havingValue = "true")
+public class BulkheadConfig {
+
+    public static final int BULKHEAD_ORDER = MetricsConfig.SQL_STATEMENT_COUNTING_ORDER + 10;
+
+    @Bean
+    public static BulkheadPostProcessor bulkheadDataSourcePostProcessor(Environment environment) {
+        return new BulkheadPostProcessor(environment);
+    }
+
+    public static class BulkheadPostProcessor implements BeanPostProcessor, Ordered {
+
+        private final Environment environment;
+
+        public BulkheadPostProcessor(Environment environment) {
+            this.environment = environment;
+        }
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (!(bean instanceof DataSource dataSource) || bean instanceof BulkheadDataSource) {
+                return bean;
+            }
+            int maxConcurrent = environment.getProperty("db.bulkhead.max-concurrent", Integer.class, 0);
+            if (maxConcurrent <= 0) {
+                maxConcurrent = poolSize(dataSource);
+            }
+            return new BulkheadDataSource(dataSource, maxConcurrent,
+                    environment.getProperty("db.bulkhead.max-waiting", Integer.class, 10_000),
+                    environment.getProperty("db.bulkhead.max-wait", Duration.class, Duration.ofSeconds(2)));
+        }
+
+        @Override
+        public int getOrder() {
+            return BULKHEAD_ORDER;
+        }
+    }
+
+    // Размер пула HikariCP, при маршрутизации на реплики - сумма пулов primary и реплик.
+    // Пул ищется сквозь обертки (счетчик SQL и т.п.) через unwrap
+    static int poolSize(DataSource dataSource) {
+        try {
+            if (dataSource.isWrapperFor(ReplicaRoutingDataSource.class)) {
+                return dataSource.unwrap(ReplicaRoutingDataSource.class).getMaximumPoolSize();
+            }
+            if (dataSource.isWrapperFor(HikariDataSource.class)) {
+                return dataSource.unwrap(HikariDataSource.class).getMaximumPoolSize();
+            }
+        } catch (SQLException e) {
+            // обертка не раскрывается - размер по умолчанию
+        }
+        return 10;
+    }
+
+    @Bean
+    public MeterBinder dbBulkheadMetrics(DataSource dataSource) {
+        return registry -> {
+            try {
+                dataSource.unwrap(BulkheadDataSource.class).bindTo(registry);
+            } catch (SQLException e) {
+                throw new IllegalStateException("DataSource is not wrapped by the DB bulkhead", e);
+            }
+        };
+    }
+}
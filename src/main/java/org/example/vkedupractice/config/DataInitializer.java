@@ -10,7 +10,7 @@ import java.util.Arrays;
 import java.util.List;
 
 @Component
-@Profile("!test")
+@Profile("!test & !loadtest")
 @RequiredArgsConstructor
 public class DataInitializer implements CommandLineRunner {
 
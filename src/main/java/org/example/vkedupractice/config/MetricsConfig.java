@@ -0,0 +1,53 @@
+package org.example.vkedupractice.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.vkedupractice.metrics.SqlStatementCountingDataSource;
+import org.example.vkedupractice.metrics.SqlStatementMetricsFilter;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+
+import javax.sql.DataSource;
+
+@Configuration
+public class MetricsConfig {
+
+    /**
+     * Порядок обертки счетчика SQL: раньше остальных оберток DataSource (BulkheadConfig),
+     * чтобы счетчик оставался внутренним слоем над пулом.
+     */
+    public static final int SQL_STATEMENT_COUNTING_ORDER = Ordered.LOWEST_PRECEDENCE - 100;
+
+    // Запросы считаются на уровне JDBC: и Hibernate, и JdbcTemplate (проекции, индекс членства).
+    // Тип возврата - конкретный класс: Spring определяет Ordered у post-processor'а по типу бина до его создания
+    @Bean
+    public static SqlStatementCountingPostProcessor sqlStatementCountingDataSourcePostProcessor() {
+        return new SqlStatementCountingPostProcessor();
+    }
+
+    public static class SqlStatementCountingPostProcessor implements BeanPostProcessor, Ordered {
+
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+            if (!(bean instanceof DataSource dataSource) || bean instanceof SqlStatementCountingDataSource) {
+                return bean;
+            }
+            return new SqlStatementCountingDataSource(dataSource);
+        }
+
+        @Override
+        public int getOrder() {
+            return SQL_STATEMENT_COUNTING_ORDER;
+        }
+    }
+
+    @Bean
+    public FilterRegistrationBean<SqlStatementMetricsFilter> sqlStatementMetricsFilter(MeterRegistry meterRegistry) {
+        FilterRegistrationBean<SqlStatementMetricsFilter> registration =
+                new FilterRegistrationBean<>(new SqlStatementMetricsFilter(meterRegistry));
+        registration.addUrlPatterns("/api/*");
+        return registration;
+    }
+}
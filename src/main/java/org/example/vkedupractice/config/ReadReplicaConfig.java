@@ -0,0 +1,114 @@
+package org.example.vkedupractice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import jakarta.annotation.PreDestroy;
+import org.example.vkedupractice.routing.ReadYourWritesFilter;
+import org.example.vkedupractice.routing.ReplicaRoutingDataSource;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.Ordered;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Чтение с реплик при db.replicas.enabled=true (профиль replicas). Primary настраивается как обычно
+ * (spring.datasource.*), реплики - списком db.replicas.urls с теми же учетными данными и настройками пула.
+ *
+ * Пулы создаются здесь, а не отдельными бинами DataSource: бином остается один DataSource, поэтому
+ * JPA, JdbcTemplate и bulkhead (BulkheadConfig) работают с ним как раньше.
+ */
+@Configuration
+@ConditionalOnProperty(name = "db.replicas.enabled", havingValue = "true")
+public class ReadReplicaConfig implements WebMvcConfigurer {
+
+    private ReplicaRoutingDataSource routingDataSource;
+
+    @Bean
+    @Primary
+    public DataSource dataSource(DataSourceProperties properties, Environment environment, MeterRegistry meterRegistry) {
+        HikariDataSource primary = pool(properties, environment, meterRegistry, properties.determineUrl(), "primary");
+        List<HikariDataSource> replicas = new ArrayList<>();
+        List<String> urls = Binder.get(environment).bind("db.replicas.urls", Bindable.listOf(String.class))
+                .orElse(List.of());
+        Integer replicaPoolSize = environment.getProperty("db.replicas.maximum-pool-size", Integer.class);
+        for (int i = 0; i < urls.size(); i++) {
+            HikariDataSource replica = pool(properties, environment, meterRegistry, urls.get(i), "replica-" + (i + 1));
+            replica.setReadOnly(true);
+            if (replicaPoolSize != null) {
+                replica.setMaximumPoolSize(replicaPoolSize);
+            }
+            replicas.add(replica);
+        }
+        routingDataSource = new ReplicaRoutingDataSource(primary, replicas,
+                environment.getProperty("db.replicas.lag-query", ""),
+                environment.getProperty("db.replicas.max-lag", Duration.class, Duration.ofSeconds(5)));
+        routingDataSource.checkReplicas();
+        return new LazyConnectionDataSourceProxy(routingDataSource);
+    }
+
+    // Пул с настройками spring.datasource.hikari.*; метрики hikaricp_* получают тег pool
+    private static HikariDataSource pool(DataSourceProperties properties, Environment environment,
+                                         MeterRegistry meterRegistry, String url, String name) {
+        HikariDataSource pool = properties.initializeDataSourceBuilder()
+                .type(HikariDataSource.class)
+                .url(url)
+                .build();
+        Binder.get(environment).bind("spring.datasource.hikari", Bindable.ofInstance(pool));
+        pool.setPoolName(name);
+        pool.setMetricRegistry(meterRegistry);
+        return pool;
+    }
+
+    @Bean
+    public MeterBinder dbReplicaMetrics(DataSource dataSource) {
+        return registry -> {
+            try {
+                dataSource.unwrap(ReplicaRoutingDataSource.class).bindTo(registry);
+            } catch (SQLException e) {
+                throw new IllegalStateException("DataSource is not routed to replicas", e);
+            }
+        };
+    }
+
+    @Bean
+    public FilterRegistrationBean<ReadYourWritesFilter> readYourWritesFilter(Environment environment) {
+        FilterRegistrationBean<ReadYourWritesFilter> registration = new FilterRegistrationBean<>(new ReadYourWritesFilter(
+                environment.getProperty("db.replicas.read-your-writes", Duration.class, Duration.ofSeconds(2)),
+                Clock.systemUTC()));
+        registration.setOrder(Ordered.HIGHEST_PRECEDENCE + 10);
+        return registration;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.registerCallableInterceptors(ReadYourWritesFilter.asyncInterceptor());
+    }
+
+    @Scheduled(fixedDelayString = "${db.replicas.health-check-interval:5s}")
+    public void checkReplicas() {
+        routingDataSource.checkReplicas();
+    }
+
+    @PreDestroy
+    public void close() {
+        routingDataSource.close();
+    }
+}
@@ -0,0 +1,36 @@
+package org.example.vkedupractice.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+/**
+ * Отдельный ограниченный пул для фоновых задач создания сегментов. Одновременно выполняется не больше
+ * max-concurrent задач, еще queue-capacity ждут в очереди, остальные отклоняются (429),
+ * поэтому тяжелые распределения не забирают потоки и соединения у онлайн-запросов.
+ *
+ * При spring.threads.virtual.enabled=true рабочие потоки пула виртуальные; лимиты пула и очереди сохраняются.
+ */
+@Configuration
+public class SegmentJobsConfig {
+
+    public static final String SEGMENT_JOB_EXECUTOR = "segmentJobExecutor";
+
+    @Bean(name = SEGMENT_JOB_EXECUTOR)
+    public ThreadPoolTaskExecutor segmentJobExecutor(
+            @Value("${segments.jobs.max-concurrent:2}") int maxConcurrent,
+            @Value("${segments.jobs.queue-capacity:8}") int queueCapacity,
+            @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(maxConcurrent);
+        executor.setMaxPoolSize(maxConcurrent);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("segment-job-");
+        if (virtualThreads) {
+            executor.setThreadFactory(Thread.ofVirtual().name("segment-job-", 1).factory());
+        }
+        executor.initialize();
+        return executor;
+    }
+}
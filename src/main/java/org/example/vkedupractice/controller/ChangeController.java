@@ -0,0 +1,23 @@
+package org.example.vkedupractice.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.example.vkedupractice.dto.MembershipChangesPage;
+import org.example.vkedupractice.service.MembershipChangeService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+@RestController
+@RequestMapping("/api/changes")
+@CrossOrigin(origins = "*")
+@RequiredArgsConstructor
+public class ChangeController {
+
+    private final MembershipChangeService membershipChangeService;
+
+    @GetMapping
+    public ResponseEntity<MembershipChangesPage> getChanges(
+            @RequestParam(required = false) Long since,
+            @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(membershipChangeService.getChanges(since, limit));
+    }
+}
@@ -0,0 +1,49 @@
+package org.example.vkedupractice.controller;
+
+import org.springframework.http.ETag;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+/**
+ * Условные GET: If-None-Match сравнивается с текущей версией до загрузки данных, и при совпадении
+ * ответ 304 отдается без чтения сущностей и сериализации. У ответа 200 ETag - версия самого тела
+ * (ResponseEntity.eTag), а не текущая: тело из кэша может быть старше.
+ * Все условные ответы согласуются по Accept (JSON, CBOR, Smile), поэтому ETag слабый и ответ несет Vary: Accept.
+ */
+final class ConditionalRequests {
+
+    private ConditionalRequests() {
+    }
+
+    static boolean isNotModified(String ifNoneMatch, String version) {
+        if (ifNoneMatch == null || version == null) {
+            return false;
+        }
+        ETag current = new ETag(version, false);
+        // Для If-None-Match сравнение слабое (RFC 9110, 13.1.2)
+        return ETag.parse(ifNoneMatch).stream()
+                .anyMatch(tag -> tag.isWildcard() || tag.compare(current, false));
+    }
+
+    // Слабый ETag для ответов с Vary: Accept: JSON, CBOR и Smile - разные байты одного и того же тела,
+    // а сильный ETag обязан различаться у разных представлений (RFC 9110, 8.8.1)
+    static String weak(String version) {
+        return new ETag(version, true).formattedTag();
+    }
+
+    static ResponseEntity.BodyBuilder ok(String version) {
+        ResponseEntity.BodyBuilder ok = ResponseEntity.ok().varyBy(HttpHeaders.ACCEPT);
+        if (version != null) {
+            ok.eTag(weak(version));
+        }
+        return ok;
+    }
+
+    static <T> ResponseEntity<T> notModified(String version) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                .eTag(weak(version))
+                .varyBy(HttpHeaders.ACCEPT)
+                .build();
+    }
+}
@@ -2,14 +2,36 @@ package org.example.vkedupractice.controller;
 
 import lombok.RequiredArgsConstructor;
 import org.example.vkedupractice.dto.CreateSegmentRequest;
+import org.example.vkedupractice.dto.SegmentDictionary;
 import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.dto.SegmentJobDto;
+import org.example.vkedupractice.dto.SegmentPurgeStatus;
+import org.example.vkedupractice.dto.SegmentQueryRequest;
+import org.example.vkedupractice.dto.SegmentQueryResponse;
+import org.example.vkedupractice.query.SegmentQueryResult;
+import org.example.vkedupractice.service.SegmentDictionaryService;
+import org.example.vkedupractice.service.SegmentJobService;
+import org.example.vkedupractice.service.SegmentQueryService;
 import org.example.vkedupractice.service.SegmentService;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/segments")
@@ -18,11 +40,31 @@ import java.util.Map;
 public class SegmentController {
 
     private final SegmentService segmentService;
+    private final SegmentJobService segmentJobService;
+    private final SegmentQueryService segmentQueryService;
+    private final SegmentDictionaryService segmentDictionaryService;
 
     @GetMapping
-    public ResponseEntity<List<SegmentDto>> getAllSegments() {
+    public ResponseEntity<List<SegmentDto>> getAllSegments(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        String version = segmentService.getSegmentsVersion();
+        if (ConditionalRequests.isNotModified(ifNoneMatch, version)) {
+            return ConditionalRequests.notModified(version);
+        }
         List<SegmentDto> segments = segmentService.getAllSegments();
-        return ResponseEntity.ok(segments);
+        return ConditionalRequests.ok(version).body(segments);
+    }
+
+    // id -> имя для ответов с ?dictionary=true; версия словаря вычисляется по нему самому, поэтому 304
+    // экономит только передачу и разбор на клиенте
+    @GetMapping("/dictionary")
+    public ResponseEntity<SegmentDictionary> getDictionary(
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        SegmentDictionary dictionary = segmentDictionaryService.getDictionary();
+        if (ConditionalRequests.isNotModified(ifNoneMatch, dictionary.getVersion())) {
+            return ConditionalRequests.notModified(dictionary.getVersion());
+        }
+        return ConditionalRequests.ok(dictionary.getVersion()).body(dictionary);
     }
 
     @GetMapping("/{id}")
@@ -53,6 +95,61 @@ public class SegmentController {
         }
     }
 
+    // Распределение выполняется в фоне: 202 и задача, прогресс по ссылке из Location
+    @PostMapping(params = "async=true")
+    public ResponseEntity<SegmentJobDto> createSegmentAsync(
+            @Validated @RequestBody CreateSegmentRequest request
+    ) {
+        try {
+            SegmentJobDto job = segmentJobService.submitCreation(request);
+            return ResponseEntity.accepted()
+                    .location(URI.create("/api/segments/jobs/" + job.getId()))
+                    .body(job);
+        } catch (TaskRejectedException ex) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        } catch (RuntimeException ex) {
+            return ResponseEntity.badRequest().build();
+        }
+    }
+
+    // Булево выражение над сегментами: число пользователей и страница их id
+    @PostMapping("/query")
+    public ResponseEntity<SegmentQueryResponse> query(@Validated @RequestBody SegmentQueryRequest request) {
+        return ResponseEntity.ok(segmentQueryService.query(request));
+    }
+
+    // Все id пользователей, удовлетворяющих выражению, по одному в строке (NDJSON)
+    @PostMapping(value = "/query/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> queryStream(@Validated @RequestBody SegmentQueryRequest request) {
+        SegmentQueryResult result = segmentQueryService.evaluate(request.getExpression());
+        StreamingResponseBody body = out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.US_ASCII));
+            try {
+                result.forEach(userId -> {
+                    try {
+                        writer.write(Long.toString(userId));
+                        writer.write('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            writer.flush();
+        };
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+
+    @GetMapping("/jobs/{id}")
+    public ResponseEntity<SegmentJobDto> getJob(@PathVariable String id) {
+        return segmentJobService.getJob(id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
     @PutMapping("/{id}")
     public ResponseEntity<SegmentDto> updateSegment(
             @PathVariable Long id,
@@ -76,9 +173,32 @@ public class SegmentController {
         }
     }
 
+    @GetMapping("/purges")
+    public ResponseEntity<List<SegmentPurgeStatus>> getPurgeStatuses() {
+        return ResponseEntity.ok(segmentService.getPurgeStatuses());
+    }
+
+    @GetMapping("/purges/{id}")
+    public ResponseEntity<SegmentPurgeStatus> getPurgeStatus(@PathVariable Long id) {
+        return segmentService.getPurgeStatus(id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
     @GetMapping("/{name}/users/count")
-    public ResponseEntity<Long> getUsersInSegmentCount(@PathVariable String name) {
+    public ResponseEntity<Long> getUsersInSegmentCount(
+            @PathVariable String name,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        Optional<String> version = segmentService.getUsersInSegmentCountVersion(name);
+        if (version.isPresent() && ConditionalRequests.isNotModified(ifNoneMatch, version.get())) {
+            return ConditionalRequests.notModified(version.get());
+        }
         long count = segmentService.getUsersInSegmentCount(name);
-        return ResponseEntity.ok(count);
+        return ConditionalRequests.ok(version.orElse(null)).body(count);
+    }
+
+    @GetMapping("/{name}/users/{userId}")
+    public ResponseEntity<Boolean> isUserInSegment(@PathVariable String name, @PathVariable Long userId) {
+        return ResponseEntity.ok(segmentService.isUserInSegment(name, userId));
     }
 }
\ No newline at end of file
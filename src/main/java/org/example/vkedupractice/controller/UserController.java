@@ -1,13 +1,36 @@
 package org.example.vkedupractice.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
+import org.example.vkedupractice.dto.BatchUserSegmentIdsResponse;
+import org.example.vkedupractice.dto.BatchUserSegmentsRequest;
+import org.example.vkedupractice.dto.BatchUserSegmentsResponse;
+import org.example.vkedupractice.dto.SegmentDictionary;
+import org.example.vkedupractice.dto.SegmentMemberDto;
 import org.example.vkedupractice.dto.UserDto;
+import org.example.vkedupractice.dto.UserImportResult;
+import org.example.vkedupractice.dto.UserPage;
+import org.example.vkedupractice.dto.UserSegmentIdsResponse;
 import org.example.vkedupractice.dto.UserSegmentsResponse;
+import org.example.vkedupractice.service.SegmentDictionaryService;
+import org.example.vkedupractice.service.UserImportService;
 import org.example.vkedupractice.service.UserService;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 @RestController
 @RequestMapping("/api/users")
@@ -15,16 +38,37 @@ import java.util.List;
 @RequiredArgsConstructor
 public class UserController {
 
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final String TEXT_CSV_VALUE = "text/csv";
+    static final String DICTIONARY_VERSION_HEADER = "X-Segment-Dictionary-Version";
+    private static final Set<String> EXPORT_FIELDS = Set.of("id", "username");
+
     private final UserService userService;
+    private final UserImportService userImportService;
+    private final SegmentDictionaryService segmentDictionaryService;
+    private final ObjectMapper objectMapper;
 
+    // Постранично по id: ?after=<id>&limit=N, курсор следующей страницы - в заголовке X-Next-Cursor.
+    // Полный список без ограничений только явно через ?all=true
     @GetMapping
-    public ResponseEntity<List<UserDto>> getAllUsers() {
-        try {
+    public ResponseEntity<List<UserDto>> getAllUsers(
+            @RequestParam(required = false) Long after,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(defaultValue = "false") boolean all) {
+        if (all) {
             return ResponseEntity.ok(userService.getAllUsers());
-        } catch (Throwable t) {
-            t.printStackTrace();
-            throw t;
         }
+        UserPage page = userService.getUsersPage(after, limit);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if (page.getNextCursor() != null) {
+            response.header(NEXT_CURSOR_HEADER, String.valueOf(page.getNextCursor()));
+        }
+        return response.body(page.getItems());
+    }
+
+    @GetMapping(value = "/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamAllUsers() {
+        return ndjson(userService::streamAllUsers);
     }
 
     @GetMapping("/{id}")
@@ -35,24 +79,110 @@ public class UserController {
     }
 
     @GetMapping("/{id}/segments")
-    public ResponseEntity<UserSegmentsResponse> getUserSegments(@PathVariable Long id) {
+    public ResponseEntity<UserSegmentsResponse> getUserSegments(
+            @PathVariable Long id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return userSegments(id, ifNoneMatch, (response, ok) -> ok.body(response));
+    }
+
+    // Сегменты числами из словаря GET /api/segments/dictionary, его версия - в X-Segment-Dictionary-Version:
+    // при расхождении с загруженной или незнакомом id клиент перечитывает словарь
+    @GetMapping(value = "/{id}/segments", params = "dictionary=true")
+    public ResponseEntity<UserSegmentIdsResponse> getUserSegmentIds(
+            @PathVariable Long id,
+            @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return userSegments(id, ifNoneMatch, (response, ok) -> {
+            SegmentDictionary dictionary = segmentDictionaryService.getDictionary();
+            return ok.header(DICTIONARY_VERSION_HEADER, dictionary.getVersion())
+                    .body(segmentDictionaryService.encode(response, dictionary));
+        });
+    }
+
+    // Тело ответа одно и то же, меняется только представление (JSON, CBOR, Smile), поэтому ETag общий и слабый
+    private <T> ResponseEntity<T> userSegments(Long id, String ifNoneMatch,
+                                               BiFunction<UserSegmentsResponse, ResponseEntity.BodyBuilder, ResponseEntity<T>> body) {
         try {
+            if (ifNoneMatch != null) {
+                String version = userService.getUserSegmentsVersion(id);
+                if (ConditionalRequests.isNotModified(ifNoneMatch, version)) {
+                    return ConditionalRequests.notModified(version);
+                }
+            }
             UserSegmentsResponse response = userService.getUserSegments(id);
-            return ResponseEntity.ok(response);
+            return body.apply(response, ConditionalRequests.ok(response.getVersion()));
+        } catch (CannotCreateTransactionException | DataAccessResourceFailureException e) {
+            // Нет соединения с БД - это перегрузка, а не отсутствие пользователя: 503 от GlobalExceptionHandler
+            throw e;
         } catch (RuntimeException e) {
             return ResponseEntity.notFound().build();
         }
     }
 
+    @PostMapping("/segments:batchGet")
+    public ResponseEntity<BatchUserSegmentsResponse> getUserSegmentsBatch(
+            @Validated @RequestBody BatchUserSegmentsRequest request) {
+        return ResponseEntity.ok(userService.getUserSegmentsBatch(request.getUserIds()));
+    }
+
+    @PostMapping(value = "/segments:batchGet", params = "dictionary=true")
+    public ResponseEntity<BatchUserSegmentIdsResponse> getUserSegmentIdsBatch(
+            @Validated @RequestBody BatchUserSegmentsRequest request) {
+        BatchUserSegmentsResponse response = userService.getUserSegmentsBatch(request.getUserIds());
+        SegmentDictionary dictionary = segmentDictionaryService.getDictionary();
+        return ResponseEntity.ok()
+                .header(DICTIONARY_VERSION_HEADER, dictionary.getVersion())
+                .body(segmentDictionaryService.encode(response, dictionary));
+    }
+
     @GetMapping("/segment/{segmentName}")
     public ResponseEntity<List<UserDto>> getUsersBySegment(@PathVariable String segmentName) {
         List<UserDto> users = userService.getUsersBySegment(segmentName);
         return ResponseEntity.ok(users);
     }
 
+    // fields=id - только id, fields=id,username - id и username
+    @GetMapping(value = "/segment/{segmentName}/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportUsersBySegment(
+            @PathVariable String segmentName,
+            @RequestParam(defaultValue = "id,username") List<String> fields) {
+        if (!fields.contains("id") || !EXPORT_FIELDS.containsAll(fields)) {
+            throw new IllegalArgumentException("Unsupported fields: " + fields + ", allowed: id, id,username");
+        }
+        boolean withUsername = fields.contains("username");
+        return this.<SegmentMemberDto>ndjson(consumer ->
+                userService.exportSegmentMembers(segmentName, withUsername, consumer));
+    }
+
+    // Тело читается потоком и пишется порциями: ?chunkSize=N строк на транзакцию
+    @PostMapping(value = "/import", consumes = {MediaType.APPLICATION_NDJSON_VALUE, TEXT_CSV_VALUE})
+    public ResponseEntity<UserImportResult> importUsers(
+            @RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+            @RequestParam(required = false) Integer chunkSize,
+            InputStream body) throws IOException {
+        UserImportService.Format format = MediaType.APPLICATION_NDJSON.isCompatibleWith(contentType)
+                ? UserImportService.Format.NDJSON
+                : UserImportService.Format.CSV;
+        return ResponseEntity.ok(userImportService.importUsers(body, format, chunkSize));
+    }
+
     @GetMapping("/count")
     public ResponseEntity<Long> getTotalUserCount() {
         long count = userService.getTotalUserCount();
         return ResponseEntity.ok(count);
     }
-}
\ No newline at end of file
+
+    // Каждый объект пишется отдельной строкой JSON сразу после чтения из БД
+    private <T> ResponseEntity<StreamingResponseBody> ndjson(Consumer<Consumer<T>> source) {
+        StreamingResponseBody body = out -> source.accept(value -> {
+            try {
+                out.write(objectMapper.writeValueAsBytes(value));
+                out.write('\n');
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(body);
+    }
+}
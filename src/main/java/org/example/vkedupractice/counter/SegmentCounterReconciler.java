@@ -0,0 +1,76 @@
+package org.example.vkedupractice.counter;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+/**
+ * Сверка segments.member_count с user_segments. Исправляет расхождения, появившиеся в обход сервиса
+ * (ручные правки, старые данные до появления счетчика).
+ *
+ * Строка сегмента блокируется до подсчета, а подсчет выполняется отдельным запросом: распределение,
+ * уже увеличившее счетчик, завершится раньше и будет учтено подсчетом, а еще не увеличившее -
+ * прибавит свое значение к сверенному. Так сверка не теряет параллельные изменения.
+ */
+@Slf4j
+@Component
+public class SegmentCounterReconciler {
+
+    private static final String LIVE_SEGMENTS =
+            "SELECT id FROM segments WHERE deleted = false AND kind <> 'HASH_BUCKET' ORDER BY id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Counter driftCounter;
+
+    public SegmentCounterReconciler(JdbcTemplate jdbcTemplate,
+                                    PlatformTransactionManager transactionManager,
+                                    MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.driftCounter = Counter.builder("segments.counters.drift")
+                .description("Segments whose member_count was corrected by reconciliation")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${segments.counters.reconcile-interval:10m}")
+    public void reconcileAll() {
+        for (Long segmentId : jdbcTemplate.queryForList(LIVE_SEGMENTS, Long.class)) {
+            reconcile(segmentId);
+        }
+    }
+
+    /**
+     * @return true, если счетчик был исправлен
+     */
+    public boolean reconcile(long segmentId) {
+        Boolean corrected = transactionTemplate.execute(status -> {
+            List<Long> stored = jdbcTemplate.queryForList(
+                    "SELECT member_count FROM segments WHERE id = ? AND deleted = false FOR UPDATE",
+                    Long.class, segmentId);
+            if (stored.isEmpty()) {
+                return false;
+            }
+            long actual = jdbcTemplate.queryForObject(
+                    "SELECT COUNT(*) FROM user_segments WHERE segment_id = ?", Long.class, segmentId);
+            if (actual == stored.get(0)) {
+                return false;
+            }
+            jdbcTemplate.update("UPDATE segments SET member_count = ?, version = version + 1 WHERE id = ?", actual, segmentId);
+            log.warn("Segment {} member_count drift: stored {}, actual {}", segmentId, stored.get(0), actual);
+            return true;
+        });
+        if (Boolean.TRUE.equals(corrected)) {
+            driftCounter.increment();
+            return true;
+        }
+        return false;
+    }
+}
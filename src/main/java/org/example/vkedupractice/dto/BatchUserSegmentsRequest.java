@@ -0,0 +1,22 @@
+package org.example.vkedupractice.dto;
+
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchUserSegmentsRequest {
+
+    public static final int MAX_USER_IDS = 5000;
+
+    @NotEmpty(message = "userIds is required")
+    @Size(max = MAX_USER_IDS, message = "userIds cannot contain more than " + MAX_USER_IDS + " ids")
+    private List<Long> userIds;
+}
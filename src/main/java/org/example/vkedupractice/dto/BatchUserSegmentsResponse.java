@@ -0,0 +1,17 @@
+package org.example.vkedupractice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchUserSegmentsResponse {
+    private List<UserSegmentsResponse> users;
+    // id из запроса, для которых пользователь не найден
+    private List<Long> missingIds;
+}
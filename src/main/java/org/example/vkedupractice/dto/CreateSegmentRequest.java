@@ -8,6 +8,7 @@ import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.example.vkedupractice.model.SegmentKind;
 
 @Data
 @Builder
@@ -24,4 +25,7 @@ public class CreateSegmentRequest {
     @Min(value = 1, message = "Percentage must be at least 1")
     @Max(value = 100, message = "Percentage cannot exceed 100")
     private Integer percentage;
+
+    // По умолчанию MATERIALIZED
+    private SegmentKind kind;
 } 
\ No newline at end of file
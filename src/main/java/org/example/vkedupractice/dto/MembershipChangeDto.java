@@ -0,0 +1,26 @@
+package org.example.vkedupractice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.example.vkedupractice.model.MembershipChangeType;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MembershipChangeDto {
+    private long cursor;
+    private MembershipChangeType type;
+    private Long segmentId;
+    private String segmentName;
+    private String previousName;
+    private Long userId;
+    // Для HASH_SEGMENT_CREATED: участники - пользователи, для которых HashBuckets.contains(userId, salt, percentage)
+    private Integer percentage;
+    private Long salt;
+    private LocalDateTime createdAt;
+}
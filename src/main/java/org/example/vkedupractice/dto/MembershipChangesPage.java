@@ -0,0 +1,20 @@
+package org.example.vkedupractice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class MembershipChangesPage {
+    private List<MembershipChangeDto> changes;
+    // Курсор для следующего запроса: cursor последнего изменения или исходный since, если изменений нет
+    private long nextCursor;
+    // Страница заполнена целиком - за ней, скорее всего, есть еще изменения
+    private boolean hasMore;
+}
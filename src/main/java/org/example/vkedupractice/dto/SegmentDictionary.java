@@ -0,0 +1,18 @@
+package org.example.vkedupractice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.Map;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SegmentDictionary {
+    // Та же версия, что в ETag и в заголовке X-Segment-Dictionary-Version ответов с id сегментов
+    private String version;
+    // Имена сегментов по id
+    private Map<Long, String> segments;
+}
@@ -5,6 +5,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.example.vkedupractice.model.Segment;
+import org.example.vkedupractice.model.SegmentKind;
 
 import java.time.LocalDateTime;
 
@@ -17,12 +18,19 @@ public class SegmentDto {
     private String name;
     private String description;
     private LocalDateTime createdAt;
+    private SegmentKind kind;
+    private Integer percentage;
+    // Для HASH_BUCKET сегментов не заполняется
+    private Long memberCount;
 
     public static SegmentDto from(Segment segment) {
         return SegmentDto.builder()
                 .id(segment.getId())
                 .name(segment.getName())
                 .description(segment.getDescription())
+                .kind(segment.getKind())
+                .percentage(segment.getPercentage())
+                .memberCount(segment.isHashBucket() ? null : segment.getMemberCount())
                 .build();
     }
 } 
\ No newline at end of file
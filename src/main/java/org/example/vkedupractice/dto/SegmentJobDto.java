@@ -0,0 +1,28 @@
+package org.example.vkedupractice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SegmentJobDto {
+
+    public enum State { QUEUED, RUNNING, DONE, FAILED }
+
+    private String id;
+    private Long segmentId;
+    private String segmentName;
+    private State state;
+    // Сколько пользователей уже добавлено в сегмент и сколько нужно добавить всего
+    private long processed;
+    private long total;
+    private String error;
+    private LocalDateTime createdAt;
+    private LocalDateTime finishedAt;
+}
@@ -0,0 +1,18 @@
+package org.example.vkedupractice.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SegmentMemberDto {
+    private Long id;
+    // null, если username не запрошен в fields
+    private String username;
+}
@@ -0,0 +1,27 @@
+package org.example.vkedupractice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SegmentPurgeStatus {
+
+    public enum State { PENDING, RUNNING, DONE }
+
+    private Long segmentId;
+    // Имя сегмента на момент удаления
+    private String name;
+    private LocalDateTime deletedAt;
+    private LocalDateTime purgedAt;
+    // Удалено строк user_segments с момента старта приложения; для DONE не хранится (0)
+    private long removedMembers;
+    private long remainingMembers;
+    private State state;
+}
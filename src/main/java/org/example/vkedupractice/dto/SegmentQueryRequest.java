@@ -0,0 +1,23 @@
+package org.example.vkedupractice.dto;
+
+import jakarta.validation.constraints.NotBlank;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SegmentQueryRequest {
+
+    // Например: "MAIL_GPT AND (MAIL_VOICE OR CLOUD_DISCOUNT_30) AND NOT MAIL_PRO"
+    @NotBlank(message = "expression is required")
+    private String expression;
+
+    // Keyset-пагинация по id пользователя, как в GET /api/users
+    private Long after;
+
+    private Integer limit;
+}
@@ -0,0 +1,19 @@
+package org.example.vkedupractice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class SegmentQueryResponse {
+    // Число всех пользователей, удовлетворяющих выражению
+    private long count;
+    private List<Long> userIds;
+    // id последнего пользователя страницы; null, если страница последняя
+    private Long nextCursor;
+}
@@ -0,0 +1,35 @@
+package org.example.vkedupractice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserImportResult {
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class Reject {
+        // Номер строки во входном файле, начиная с 1 (заголовок CSV тоже считается)
+        private long line;
+        private String username;
+        private String reason;
+    }
+
+    private long received;
+    private long imported;
+    private long rejected;
+    private long chunks;
+    private long elapsedMillis;
+    private double rowsPerSecond;
+    // Не больше users.import.max-reported-rejects; остальные только в счетчике rejected
+    private List<Reject> rejects;
+    private boolean rejectsTruncated;
+}
@@ -0,0 +1,17 @@
+package org.example.vkedupractice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserPage {
+    private List<UserDto> items;
+    // id последнего пользователя страницы; null, если страница последняя
+    private Long nextCursor;
+}
@@ -0,0 +1,18 @@
+package org.example.vkedupractice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+// UserSegmentsResponse, в котором вместо имен сегментов их id из словаря (GET /api/segments/dictionary)
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UserSegmentIdsResponse {
+    private Long userId;
+    private String username;
+    // По возрастанию
+    private long[] segmentIds;
+}
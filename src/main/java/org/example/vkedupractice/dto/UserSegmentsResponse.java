@@ -1,5 +1,6 @@
 package org.example.vkedupractice.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -14,4 +15,13 @@ public class UserSegmentsResponse {
     private Long userId;
     private String username;
     private Set<String> segments;
-} 
\ No newline at end of file
+
+    // Версия, прочитанная до загрузки ответа, - его ETag. Хранится вместе с ответом в кэше,
+    // поэтому закэшированный ответ не получит ETag более новой версии
+    @JsonIgnore
+    private String version;
+
+    public UserSegmentsResponse(Long userId, String username, Set<String> segments) {
+        this(userId, username, segments, null);
+    }
+}
@@ -0,0 +1,122 @@
+package org.example.vkedupractice.grpc;
+
+import io.grpc.BindableService;
+import io.grpc.Grpc;
+import io.grpc.InsecureServerCredentials;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * gRPC-сервер рядом с REST: свой порт (grpc.port, 0 - любой свободный) и свой пул из grpc.executor.threads
+ * потоков, в котором выполняются все вызовы. Долгие потоковые выгрузки занимают потоки этого пула,
+ * а не Tomcat, поэтому не вытесняют REST-запросы; общими остаются только соединения с БД (и bulkhead перед ними).
+ *
+ * Останавливается раньше остальных бинов: новые вызовы отклоняются сразу, начатые дорабатывают
+ * до grpc.shutdown-timeout и затем отменяются.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "grpc.enabled", havingValue = "true", matchIfMissing = true)
+public class GrpcServer implements SmartLifecycle {
+
+    private final List<BindableService> services;
+    private final MeterRegistry meterRegistry;
+    private final int port;
+    private final int threads;
+    private final Duration shutdownTimeout;
+    private final boolean virtualThreads;
+
+    private volatile Server server;
+    private ExecutorService executor;
+
+    public GrpcServer(List<BindableService> services,
+                      MeterRegistry meterRegistry,
+                      @Value("${grpc.port:9090}") int port,
+                      @Value("${grpc.executor.threads:16}") int threads,
+                      @Value("${grpc.shutdown-timeout:10s}") Duration shutdownTimeout,
+                      @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.services = services;
+        this.meterRegistry = meterRegistry;
+        this.port = port;
+        this.threads = threads;
+        this.shutdownTimeout = shutdownTimeout;
+        this.virtualThreads = virtualThreads;
+    }
+
+    @Override
+    public void start() {
+        ThreadFactory threadFactory = virtualThreads
+                ? Thread.ofVirtual().name("grpc-", 1).factory()
+                : Thread.ofPlatform().name("grpc-", 1).daemon().factory();
+        executor = ExecutorServiceMetrics.monitor(meterRegistry,
+                Executors.newFixedThreadPool(threads, threadFactory), "grpc");
+        ServerBuilder<?> builder = Grpc.newServerBuilderForPort(port, InsecureServerCredentials.create())
+                .executor(executor);
+        services.forEach(builder::addService);
+        try {
+            server = builder.build().start();
+        } catch (IOException e) {
+            executor.shutdownNow();
+            throw new UncheckedIOException("Failed to start gRPC server on port " + port, e);
+        }
+        log.info("gRPC server started on port {} with {} services", server.getPort(), services.size());
+    }
+
+    @Override
+    public void stop() {
+        Server current = server;
+        if (current == null) {
+            return;
+        }
+        current.shutdown();
+        try {
+            if (!current.awaitTermination(shutdownTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                current.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            current.shutdownNow();
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            server = null;
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return server != null;
+    }
+
+    // Позже веб-сервера при старте и раньше его при остановке
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE - 1;
+    }
+
+    /**
+     * Фактический порт: при grpc.port=0 его выбирает система.
+     */
+    public int getPort() {
+        Server current = server;
+        if (current == null) {
+            throw new IllegalStateException("gRPC server is not running");
+        }
+        return current.getPort();
+    }
+}
@@ -0,0 +1,287 @@
+package org.example.vkedupractice.grpc;
+
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.example.vkedupractice.dto.BatchUserSegmentsRequest;
+import org.example.vkedupractice.dto.BatchUserSegmentsResponse;
+import org.example.vkedupractice.dto.UserSegmentsResponse;
+import org.example.vkedupractice.grpc.v1.ExportSegmentMembersRequest;
+import org.example.vkedupractice.grpc.v1.GetUserSegmentsRequest;
+import org.example.vkedupractice.grpc.v1.LookupUserSegmentsRequest;
+import org.example.vkedupractice.grpc.v1.LookupUserSegmentsResponse;
+import org.example.vkedupractice.grpc.v1.MembershipServiceGrpc;
+import org.example.vkedupractice.grpc.v1.SegmentMember;
+import org.example.vkedupractice.grpc.v1.SegmentMembersChunk;
+import org.example.vkedupractice.grpc.v1.UserSegments;
+import org.example.vkedupractice.service.SegmentService;
+import org.example.vkedupractice.service.UserService;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * gRPC-представление чтений членства поверх тех же UserService и SegmentService, что и у UserController:
+ * кэш, индекс членства и версии ответов общие. Ошибки переводятся в статусы так же, как REST переводит
+ * их в HTTP-коды: перегрузка пула соединений - UNAVAILABLE, неверный запрос - INVALID_ARGUMENT.
+ */
+@Component
+public class MembershipGrpcService extends MembershipServiceGrpc.MembershipServiceImplBase {
+
+    private static final long READY_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final UserService userService;
+    private final SegmentService segmentService;
+    private final int exportChunkSize;
+    private final Semaphore exportPermits;
+    private final long exportReadyTimeoutNanos;
+
+    public MembershipGrpcService(UserService userService,
+                                 SegmentService segmentService,
+                                 @Value("${grpc.export.chunk-size:1000}") int exportChunkSize,
+                                 @Value("${grpc.export.max-concurrent:4}") int maxConcurrentExports,
+                                 @Value("${grpc.export.ready-timeout:30s}") Duration exportReadyTimeout) {
+        this.userService = userService;
+        this.segmentService = segmentService;
+        this.exportChunkSize = exportChunkSize;
+        this.exportPermits = new Semaphore(maxConcurrentExports);
+        this.exportReadyTimeoutNanos = exportReadyTimeout.toNanos();
+    }
+
+    @Override
+    public void getUserSegments(GetUserSegmentsRequest request, StreamObserver<UserSegments> responseObserver) {
+        UserSegmentsResponse response;
+        try {
+            response = userService.getUserSegments(request.getUserId());
+        } catch (CannotCreateTransactionException | DataAccessResourceFailureException e) {
+            responseObserver.onError(toStatus(e));
+            return;
+        } catch (RuntimeException e) {
+            // Как и в REST: сервис сообщает об отсутствии пользователя исключением
+            responseObserver.onError(Status.NOT_FOUND.withDescription(e.getMessage()).asRuntimeException());
+            return;
+        }
+        responseObserver.onNext(toProto(response));
+        responseObserver.onCompleted();
+    }
+
+    /**
+     * Каждое входящее сообщение обрабатывается как отдельный batchGet. Сообщения одного потока приходят
+     * последовательно, поэтому ответы идут в порядке запросов. Ошибка в одной пачке закрывает поток.
+     *
+     * Входящие сообщения запрашиваются вручную по одному и только когда транспорт готов принять ответ:
+     * клиент, который не читает ответы, перестает получать обработку новых пачек, а не копит ответы
+     * в буферах сервера.
+     */
+    @Override
+    public StreamObserver<LookupUserSegmentsRequest> lookupUserSegments(
+            StreamObserver<LookupUserSegmentsResponse> responseObserver) {
+        ServerCallStreamObserver<LookupUserSegmentsResponse> observer =
+                (ServerCallStreamObserver<LookupUserSegmentsResponse>) responseObserver;
+        observer.disableAutoRequest();
+        LookupFlowControl flowControl = new LookupFlowControl(observer);
+        observer.setOnReadyHandler(flowControl::onReady);
+        return new StreamObserver<>() {
+
+            @Override
+            public void onNext(LookupUserSegmentsRequest request) {
+                if (flowControl.closed) {
+                    return;
+                }
+                try {
+                    observer.onNext(lookup(request));
+                } catch (RuntimeException e) {
+                    flowControl.closed = true;
+                    observer.onError(toStatus(e));
+                    return;
+                }
+                flowControl.requestNext();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                // Клиент отменил поток: отвечать некому
+                flowControl.closed = true;
+            }
+
+            @Override
+            public void onCompleted() {
+                if (!flowControl.closed) {
+                    flowControl.closed = true;
+                    observer.onCompleted();
+                }
+            }
+        };
+    }
+
+    /**
+     * Следующая пачка запрашивается после отправки ответа, если транспорт готов; иначе - из onReadyHandler,
+     * когда клиент дочитает ответы. Оба обработчика вызываются в последовательном исполнителе вызова,
+     * поэтому awaitingReady гарантирует, что непрочитанный запрос всегда один.
+     */
+    private static final class LookupFlowControl {
+
+        private final ServerCallStreamObserver<?> observer;
+        private boolean awaitingReady = true;
+        private boolean closed;
+
+        LookupFlowControl(ServerCallStreamObserver<?> observer) {
+            this.observer = observer;
+        }
+
+        void onReady() {
+            if (awaitingReady && !closed && observer.isReady()) {
+                awaitingReady = false;
+                observer.request(1);
+            }
+        }
+
+        void requestNext() {
+            if (observer.isReady()) {
+                observer.request(1);
+            } else {
+                awaitingReady = true;
+            }
+        }
+    }
+
+    /**
+     * Участники отдаются порциями по grpc.export.chunk-size из того же серверного курсора, что и NDJSON-выгрузка.
+     * Следующая порция отправляется, только когда транспорт готов ее принять: медленный клиент замедляет
+     * чтение курсора, а не копит выгрузку в памяти. Отмена вызова прерывает чтение и закрывает транзакцию.
+     *
+     * Выгрузка держит поток общего исполнителя gRPC, соединение из пула и разрешение bulkhead, поэтому
+     * одновременно идет не больше grpc.export.max-concurrent выгрузок, остальные получают RESOURCE_EXHAUSTED.
+     * Клиент, не читающий порции дольше grpc.export.ready-timeout, получает DEADLINE_EXCEEDED.
+     */
+    @Override
+    public void exportSegmentMembers(ExportSegmentMembersRequest request,
+                                     StreamObserver<SegmentMembersChunk> responseObserver) {
+        ServerCallStreamObserver<SegmentMembersChunk> observer =
+                (ServerCallStreamObserver<SegmentMembersChunk>) responseObserver;
+        if (!exportPermits.tryAcquire()) {
+            observer.onError(Status.RESOURCE_EXHAUSTED
+                    .withDescription("Too many concurrent exports, retry later")
+                    .asRuntimeException());
+            return;
+        }
+        StatusRuntimeException error;
+        try {
+            error = export(request, observer);
+        } finally {
+            // Слот освобождается до ответа: повтор клиента сразу после ошибки не получит RESOURCE_EXHAUSTED
+            exportPermits.release();
+        }
+        if (error == null) {
+            observer.onCompleted();
+        } else if (error.getStatus().getCode() != Status.Code.CANCELLED) {
+            observer.onError(error);
+        }
+    }
+
+    // Отправляет порции и возвращает null при успехе или статус, которым нужно завершить вызов
+    private StatusRuntimeException export(ExportSegmentMembersRequest request,
+                                          ServerCallStreamObserver<SegmentMembersChunk> observer) {
+        String segmentName = request.getSegmentName();
+        try {
+            if (segmentService.getSegmentByName(segmentName).isEmpty()) {
+                return Status.NOT_FOUND
+                        .withDescription("Segment not found: " + segmentName)
+                        .asRuntimeException();
+            }
+            SegmentMembersChunk.Builder chunk = SegmentMembersChunk.newBuilder();
+            userService.exportSegmentMembers(segmentName, request.getWithUsername(), member -> {
+                SegmentMember.Builder message = SegmentMember.newBuilder().setUserId(member.getId());
+                if (member.getUsername() != null) {
+                    message.setUsername(member.getUsername());
+                }
+                chunk.addMembers(message);
+                if (chunk.getMembersCount() >= exportChunkSize) {
+                    send(observer, chunk.build());
+                    chunk.clear();
+                }
+            });
+            if (chunk.getMembersCount() > 0) {
+                send(observer, chunk.build());
+            }
+            return null;
+        } catch (RuntimeException e) {
+            return toStatus(e);
+        }
+    }
+
+    // onReadyHandler выполняется в том же последовательном исполнителе вызова, что и этот метод,
+    // и не сработает, пока выгрузка занимает поток, поэтому готовность транспорта опрашивается.
+    // Отмену вызова и истечение дедлайна контекст получает сразу, в обход этого исполнителя
+    private <T> void send(ServerCallStreamObserver<T> observer, T message) {
+        Context context = Context.current();
+        long waitingSince = System.nanoTime();
+        while (!observer.isReady()) {
+            if (context.isCancelled()) {
+                throw Status.CANCELLED.withDescription("Export cancelled by client").asRuntimeException();
+            }
+            if (System.nanoTime() - waitingSince > exportReadyTimeoutNanos) {
+                throw Status.DEADLINE_EXCEEDED
+                        .withDescription("Client has not read the export for "
+                                + TimeUnit.NANOSECONDS.toMillis(exportReadyTimeoutNanos) + " ms")
+                        .asRuntimeException();
+            }
+            LockSupport.parkNanos(READY_POLL_NANOS);
+        }
+        observer.onNext(message);
+    }
+
+    private LookupUserSegmentsResponse lookup(LookupUserSegmentsRequest request) {
+        int size = request.getUserIdsCount();
+        if (size == 0 || size > BatchUserSegmentsRequest.MAX_USER_IDS) {
+            throw new IllegalArgumentException("user_ids must contain from 1 to "
+                    + BatchUserSegmentsRequest.MAX_USER_IDS + " ids, got " + size);
+        }
+        BatchUserSegmentsResponse batch = userService.getUserSegmentsBatch(request.getUserIdsList());
+        LookupUserSegmentsResponse.Builder response = LookupUserSegmentsResponse.newBuilder()
+                .setRequestId(request.getRequestId())
+                .addAllMissingIds(batch.getMissingIds());
+        batch.getUsers().forEach(user -> response.addUsers(toProto(user)));
+        return response.build();
+    }
+
+    private static UserSegments toProto(UserSegmentsResponse response) {
+        UserSegments.Builder message = UserSegments.newBuilder()
+                .setUserId(response.getUserId())
+                .addAllSegments(response.getSegments());
+        if (response.getUsername() != null) {
+            message.setUsername(response.getUsername());
+        }
+        if (response.getVersion() != null) {
+            message.setVersion(response.getVersion());
+        }
+        return message.build();
+    }
+
+    static StatusRuntimeException toStatus(RuntimeException e) {
+        if (e instanceof StatusRuntimeException status) {
+            return status;
+        }
+        if (e instanceof IllegalArgumentException) {
+            return Status.INVALID_ARGUMENT.withDescription(e.getMessage()).asRuntimeException();
+        }
+        // Соединение не получено из-за перегрузки (bulkhead или таймаут пула): клиенту стоит повторить позже
+        if ((e instanceof CannotCreateTransactionException || e instanceof DataAccessResourceFailureException)
+                && NestedExceptionUtils.getMostSpecificCause(e) instanceof SQLTransientConnectionException cause) {
+            return Status.UNAVAILABLE.withDescription("Service overloaded: " + cause.getMessage())
+                    .withCause(e)
+                    .asRuntimeException();
+        }
+        return Status.INTERNAL.withDescription(e.getMessage()).withCause(e).asRuntimeException();
+    }
+}
@@ -0,0 +1,372 @@
+package org.example.vkedupractice.index;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.example.vkedupractice.model.HashBuckets;
+import org.example.vkedupractice.model.SegmentKind;
+import org.example.vkedupractice.snapshot.reader.MembershipSnapshot;
+import org.example.vkedupractice.snapshot.reader.SnapshotSegment;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Индекс членства в памяти: по одному сжатому битмапу (Roaring) id пользователей на сегмент.
+ * Загружается при старте из user_segments и обновляется после коммита каждой мутации в SegmentService.
+ * Если есть бинарный снимок (MembershipSnapshotWriter), сегменты, не изменившиеся с момента его записи,
+ * берутся из снимка, а из user_segments читаются только остальные.
+ * Битмапы не изменяются после публикации: обновление строит новый битмап и заменяет запись целиком,
+ * поэтому чтение идет без блокировок.
+ */
+@Slf4j
+@Component
+public class MembershipIndex {
+
+    private static final String PENDING_KEY = MembershipIndex.class.getName() + ".pending";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final Map<Long, IndexedSegment> segments = new ConcurrentHashMap<>();
+    // Изменения, закоммиченные, пока load() читает user_segments: применяются сразу после загрузки
+    private final Map<Long, Boolean> changedWhileLoading = new ConcurrentHashMap<>();
+    private final Timer lookupTimer;
+    private final MultiGauge memoryGauge;
+    private final MultiGauge membersGauge;
+
+    @Value("${segments.index.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${segments.snapshot.path:}")
+    private String snapshotPath = "";
+
+    @Value("${segments.snapshot.warm-start:true}")
+    private boolean warmStart = true;
+
+    private volatile boolean ready;
+
+    public MembershipIndex(JdbcTemplate jdbcTemplate, MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.lookupTimer = Timer.builder("segments.index.lookup")
+                .description("Latency of membership lookups served from the in-memory index")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.memoryGauge = MultiGauge.builder("segments.index.memory")
+                .description("Serialized size of the segment bitmap")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.membersGauge = MultiGauge.builder("segments.index.members")
+                .description("Number of users in the segment bitmap")
+                .register(meterRegistry);
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<SegmentDefinition> definitions = loadDefinitions(null);
+        Map<Long, RoaringBitmap> members = loadSnapshot(definitions);
+        int fromSnapshot = members.size();
+        if (fromSnapshot == 0) {
+            jdbcTemplate.query("SELECT segment_id, user_id FROM user_segments", rs -> {
+                members.computeIfAbsent(rs.getLong(1), id -> new RoaringBitmap())
+                        .add(Math.toIntExact(rs.getLong(2)));
+            });
+        }
+        segments.clear();
+        for (SegmentDefinition definition : definitions) {
+            RoaringBitmap bitmap = members.get(definition.id());
+            if (bitmap == null) {
+                bitmap = fromSnapshot > 0 && !definition.hashBucket() ? loadMembers(definition.id()) : new RoaringBitmap();
+            }
+            bitmap.runOptimize();
+            segments.put(definition.id(), definition.withMembers(bitmap));
+        }
+        ready = true;
+        int replayed = applyChangedWhileLoading();
+        publishMetrics();
+        log.info("Membership index loaded: {} segments ({} from snapshot, {} changed while loading) in {} ms",
+                segments.size(), fromSnapshot, replayed, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Битмапы из снимка для сегментов, у которых совпадают id, версия и время создания: версия растет
+    // при каждом изменении участников, а время создания отличает сегмент из другой (пересозданной) базы
+    private Map<Long, RoaringBitmap> loadSnapshot(List<SegmentDefinition> definitions) {
+        Map<Long, RoaringBitmap> members = new HashMap<>();
+        if (!warmStart || snapshotPath.isBlank() || !Files.exists(Path.of(snapshotPath))) {
+            return members;
+        }
+        Map<Long, SegmentDefinition> byId = definitions.stream()
+                .collect(Collectors.toMap(SegmentDefinition::id, definition -> definition));
+        Map<Long, Long> createdAt = new HashMap<>();
+        jdbcTemplate.query("SELECT id, created_at FROM segments WHERE deleted = false", rs -> {
+            Timestamp timestamp = rs.getTimestamp(2);
+            createdAt.put(rs.getLong(1), timestamp != null ? timestamp.getTime() : 0L);
+        });
+        try (MembershipSnapshot snapshot = MembershipSnapshot.open(Path.of(snapshotPath))) {
+            for (SnapshotSegment segment : snapshot.segments()) {
+                SegmentDefinition definition = byId.get(segment.id());
+                if (definition != null && !definition.hashBucket() && !segment.hashBucket()
+                        && definition.version() == segment.version()
+                        && createdAt.getOrDefault(segment.id(), -1L) == segment.createdAt()) {
+                    members.put(segment.id(), segment.members().toRoaringBitmap());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Membership snapshot {} is not readable, loading the index from user_segments", snapshotPath, e);
+            members.clear();
+        }
+        return members;
+    }
+
+    /**
+     * Сообщает индексу об изменении сегмента. Применяется после коммита текущей транзакции
+     * (или сразу, если транзакции нет). Повторные вызовы в одной транзакции объединяются.
+     *
+     * @param membersChanged false - изменилось только описание (например, имя), битмап перечитывать не нужно
+     */
+    public void segmentChanged(long segmentId, boolean membersChanged) {
+        if (!enabled) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            apply(Map.of(segmentId, membersChanged));
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Map<Long, Boolean> pending = (Map<Long, Boolean>) TransactionSynchronizationManager.getResource(PENDING_KEY);
+        if (pending == null) {
+            Map<Long, Boolean> changes = new LinkedHashMap<>();
+            TransactionSynchronizationManager.bindResource(PENDING_KEY, changes);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(changes);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(PENDING_KEY);
+                }
+            });
+            pending = changes;
+        }
+        pending.merge(segmentId, membersChanged, Boolean::logicalOr);
+    }
+
+    public Set<String> segmentNamesOf(long userId) {
+        return lookupTimer.record(() -> {
+            Set<String> names = new TreeSet<>();
+            for (IndexedSegment segment : segments.values()) {
+                if (segment.contains(userId)) {
+                    names.add(segment.name());
+                }
+            }
+            return names;
+        });
+    }
+
+    public boolean isMember(String segmentName, long userId) {
+        return lookupTimer.record(() -> findByName(segmentName)
+                .map(segment -> segment.contains(userId))
+                .orElse(false));
+    }
+
+    /**
+     * Количество пользователей в материализованном сегменте. Для HASH_BUCKET сегментов и неизвестных имен - пусто.
+     */
+    public Optional<Long> countMembers(String segmentName) {
+        return lookupTimer.record(() -> findByName(segmentName)
+                .filter(segment -> segment.members() != null)
+                .map(segment -> segment.members().getLongCardinality()));
+    }
+
+    /**
+     * Участники сегмента для вычислений над множествами (SegmentQueryEngine). Битмап материализованного
+     * сегмента возвращается без копирования и не должен изменяться. HASH_BUCKET сегмент вычисляется
+     * фильтрацией всех пользователей из allUsers.
+     */
+    public Optional<RoaringBitmap> members(String segmentName, Supplier<RoaringBitmap> allUsers) {
+        return findByName(segmentName).map(segment -> segment.members() != null
+                ? segment.members()
+                : HashBuckets.filter(allUsers.get(), segment.salt(), segment.percentage()));
+    }
+
+    /**
+     * Версии сегментов, в которых состоит пользователь, в порядке id - для ETag без загрузки сущностей.
+     */
+    public List<SegmentVersion> segmentVersionsOf(long userId) {
+        return lookupTimer.record(() -> segments.values().stream()
+                .filter(segment -> segment.contains(userId))
+                .map(segment -> new SegmentVersion(segment.id(), segment.version()))
+                .sorted(Comparator.comparingLong(SegmentVersion::segmentId))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Имена всех сегментов по id в порядке id - словарь для ответов, где сегменты переданы числами.
+     */
+    public Map<Long, String> segmentNames() {
+        Map<Long, String> names = new TreeMap<>();
+        for (IndexedSegment segment : segments.values()) {
+            names.put(segment.id(), segment.name());
+        }
+        return names;
+    }
+
+    /**
+     * Версия материализованного сегмента, счетчик которого отдает {@link #countMembers}.
+     */
+    public Optional<SegmentVersion> materializedVersion(String segmentName) {
+        return findByName(segmentName)
+                .filter(segment -> segment.members() != null)
+                .map(segment -> new SegmentVersion(segment.id(), segment.version()));
+    }
+
+    /**
+     * Битмап материализованного сегмента, если индекс содержит именно эту версию сегмента - для записи
+     * снимка без чтения user_segments. Возвращается без копирования и не должен изменяться.
+     */
+    public Optional<RoaringBitmap> materializedMembers(long segmentId, long version) {
+        if (!ready) {
+            return Optional.empty();
+        }
+        return Optional.ofNullable(segments.get(segmentId))
+                .filter(segment -> segment.members() != null && segment.version() == version)
+                .map(IndexedSegment::members);
+    }
+
+    private Optional<IndexedSegment> findByName(String segmentName) {
+        return segments.values().stream()
+                .filter(segment -> segment.name().equals(segmentName))
+                .findFirst();
+    }
+
+    private void apply(Map<Long, Boolean> changes) {
+        if (!ready) {
+            changes.forEach((segmentId, membersChanged) ->
+                    changedWhileLoading.merge(segmentId, membersChanged, Boolean::logicalOr));
+            // load() мог выставить ready до записи выше и уже разобрать отложенные изменения
+            if (!ready) {
+                return;
+            }
+            applyChangedWhileLoading();
+        } else {
+            changes.forEach((segmentId, membersChanged) ->
+                    segments.compute(segmentId, (id, current) -> reload(id, current, membersChanged)));
+        }
+        publishMetrics();
+    }
+
+    private int applyChangedWhileLoading() {
+        int applied = 0;
+        for (Long segmentId : changedWhileLoading.keySet()) {
+            Boolean membersChanged = changedWhileLoading.remove(segmentId);
+            if (membersChanged != null) {
+                segments.compute(segmentId, (id, current) -> reload(id, current, membersChanged));
+                applied++;
+            }
+        }
+        return applied;
+    }
+
+    private IndexedSegment reload(long segmentId, IndexedSegment current, boolean membersChanged) {
+        List<SegmentDefinition> definitions = loadDefinitions(segmentId);
+        if (definitions.isEmpty()) {
+            return null;
+        }
+        SegmentDefinition definition = definitions.get(0);
+        if (!membersChanged && current != null) {
+            return definition.withMembers(current.members());
+        }
+        RoaringBitmap bitmap = loadMembers(segmentId);
+        bitmap.runOptimize();
+        return definition.withMembers(bitmap);
+    }
+
+    private RoaringBitmap loadMembers(long segmentId) {
+        RoaringBitmap bitmap = new RoaringBitmap();
+        jdbcTemplate.query("SELECT user_id FROM user_segments WHERE segment_id = ?",
+                rs -> {
+                    bitmap.add(Math.toIntExact(rs.getLong(1)));
+                },
+                segmentId);
+        return bitmap;
+    }
+
+    private List<SegmentDefinition> loadDefinitions(Long segmentId) {
+        String sql = "SELECT id, name, kind, percentage, salt, version FROM segments WHERE deleted = false"
+                + (segmentId != null ? " AND id = ?" : "");
+        Object[] args = segmentId != null ? new Object[]{segmentId} : new Object[0];
+        return jdbcTemplate.query(sql, (rs, rowNum) -> new SegmentDefinition(
+                rs.getLong("id"),
+                rs.getString("name"),
+                SegmentKind.HASH_BUCKET.name().equals(rs.getString("kind")),
+                rs.getInt("percentage"),
+                rs.getLong("salt"),
+                rs.getLong("version")), args);
+    }
+
+    private void publishMetrics() {
+        memoryGauge.register(segments.values().stream()
+                .filter(segment -> segment.members() != null)
+                .map(segment -> MultiGauge.Row.of(Tags.of("segment", segment.name()),
+                        segment.members().getLongSizeInBytes()))
+                .collect(Collectors.toList()), true);
+        membersGauge.register(segments.values().stream()
+                .filter(segment -> segment.members() != null)
+                .map(segment -> MultiGauge.Row.of(Tags.of("segment", segment.name()),
+                        segment.members().getLongCardinality()))
+                .collect(Collectors.toList()), true);
+    }
+
+    public record SegmentVersion(long segmentId, long version) {
+    }
+
+    private record SegmentDefinition(long id, String name, boolean hashBucket, int percentage, long salt, long version) {
+
+        IndexedSegment withMembers(RoaringBitmap members) {
+            return new IndexedSegment(id, name, hashBucket ? null : members, percentage, salt, version);
+        }
+    }
+
+    // members == null для HASH_BUCKET сегментов: членство вычисляется по хешу
+    private record IndexedSegment(long id, String name, RoaringBitmap members, int percentage, long salt, long version) {
+
+        boolean contains(long userId) {
+            if (members == null) {
+                return HashBuckets.contains(userId, salt, percentage);
+            }
+            return userId <= Integer.MAX_VALUE && members.contains((int) userId);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.example.vkedupractice.loadtest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+
+/**
+ * Генератор синтетических данных для нагрузочного тестирования (профиль loadtest).
+ *
+ * Создает loadtest.users пользователей с id 1..N и loadtest.segments сегментов. Доля пользователей в сегменте
+ * задается распределением: UNIFORM - у всех сегментов loadtest.segment-share, ZIPF - у сегмента с рангом k
+ * segment-share / k^zipf-exponent. Пользователи обрабатываются блоками по loadtest.batch-size id параллельно
+ * в loadtest.threads потоках; блок - одна транзакция с пакетными INSERT пользователей и их членства.
+ *
+ * Членство блока выбирается генератором, засеянным из (seed, сегмент, блок), поэтому при одном seed
+ * результат не зависит от числа потоков и порядка выполнения блоков.
+ */
+@Slf4j
+@Component
+@Profile("loadtest")
+public class LoadTestDataGenerator implements CommandLineRunner {
+
+    public enum Distribution {
+        UNIFORM, ZIPF
+    }
+
+    record Summary(long users, int segments, long memberships, long elapsedMillis) {
+    }
+
+    private static final String INSERT_USER =
+            "INSERT INTO users (id, username, email, created_at) VALUES (?, ?, ?, ?)";
+    private static final String INSERT_SEGMENT = "INSERT INTO segments "
+            + "(id, name, description, kind, member_count, deleted, created_at) VALUES (?, ?, ?, 'MATERIALIZED', 0, false, ?)";
+    private static final String INSERT_MEMBERSHIP = "INSERT INTO user_segments (user_id, segment_id) VALUES (?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final long users;
+    private final int segments;
+    private final Distribution distribution;
+    private final double segmentShare;
+    private final double zipfExponent;
+    private final long seed;
+    private final int threads;
+    private final int batchSize;
+
+    public LoadTestDataGenerator(JdbcTemplate jdbcTemplate,
+                                 PlatformTransactionManager transactionManager,
+                                 @Value("${loadtest.users:1000000}") long users,
+                                 @Value("${loadtest.segments:20}") int segments,
+                                 @Value("${loadtest.distribution:ZIPF}") Distribution distribution,
+                                 @Value("${loadtest.segment-share:0.5}") double segmentShare,
+                                 @Value("${loadtest.zipf-exponent:1.0}") double zipfExponent,
+                                 @Value("${loadtest.seed:42}") long seed,
+                                 @Value("${loadtest.threads:4}") int threads,
+                                 @Value("${loadtest.batch-size:10000}") int batchSize) {
+        if (segmentShare < 0 || segmentShare > 1) {
+            throw new IllegalArgumentException("loadtest.segment-share must be between 0 and 1");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.users = users;
+        this.segments = segments;
+        this.distribution = distribution;
+        this.segmentShare = segmentShare;
+        this.zipfExponent = zipfExponent;
+        this.seed = seed;
+        this.threads = threads;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run(String... args) throws Exception {
+        long existingUsers = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Long.class);
+        long existingSegments = jdbcTemplate.queryForObject("SELECT COUNT(*) FROM segments", Long.class);
+        if (existingUsers > 0 || existingSegments > 0) {
+            log.info("Load test data generation skipped: database already has {} users and {} segments",
+                    existingUsers, existingSegments);
+            return;
+        }
+        generate();
+    }
+
+    Summary generate() throws InterruptedException {
+        long start = System.nanoTime();
+        log.info("Generating {} users and {} {} segments (share {}, seed {}) in {} threads",
+                users, segments, distribution, segmentShare, seed, threads);
+
+        double[] shares = segmentShares();
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        List<Object[]> segmentRows = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) {
+            segmentRows.add(new Object[]{segmentId(i), "lt_segment_" + (i + 1),
+                    String.format("Load test segment, share %.4f", shares[i]), now});
+        }
+        transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(INSERT_SEGMENT, segmentRows));
+
+        LongAdder[] memberCounts = new LongAdder[segments];
+        for (int i = 0; i < segments; i++) {
+            memberCounts[i] = new LongAdder();
+        }
+        long blocks = (users + batchSize - 1) / batchSize;
+        AtomicInteger done = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (long block = 0; block < blocks; block++) {
+                long blockIndex = block;
+                futures.add(executor.submit(() -> {
+                    transactionTemplate.executeWithoutResult(status ->
+                            writeBlock(blockIndex, shares, memberCounts, now));
+                    int finished = done.incrementAndGet();
+                    if (finished % Math.max(1, blocks / 10) == 0) {
+                        log.info("Load test data: {}/{} blocks written", finished, blocks);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Load test data generation failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long memberships = 0;
+        List<Object[]> counts = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) {
+            counts.add(new Object[]{memberCounts[i].sum(), segmentId(i)});
+            memberships += memberCounts[i].sum();
+        }
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate("UPDATE segments SET member_count = ? WHERE id = ?", counts);
+            restartIdentity("users", users + 1);
+            restartIdentity("segments", segments + 1L);
+        });
+
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("Load test data generated: {} users, {} segments, {} memberships in {} ms ({} rows/s)",
+                users, segments, memberships, elapsedMillis,
+                (users + memberships) * 1000 / Math.max(1, elapsedMillis));
+        return new Summary(users, segments, memberships, elapsedMillis);
+    }
+
+    private void writeBlock(long block, double[] shares, LongAdder[] memberCounts, Timestamp now) {
+        long from = block * batchSize + 1;
+        long to = Math.min(users, from + batchSize - 1);
+
+        List<Object[]> userRows = new ArrayList<>((int) (to - from + 1));
+        for (long id = from; id <= to; id++) {
+            userRows.add(new Object[]{id, "lt_user" + id, "lt_user" + id + "@loadtest.local", now});
+        }
+        jdbcTemplate.batchUpdate(INSERT_USER, userRows);
+
+        List<Object[]> membershipRows = new ArrayList<>();
+        for (int i = 0; i < segments; i++) {
+            long segmentId = segmentId(i);
+            int before = membershipRows.size();
+            sample(from, to, shares[i], new SplittableRandom(mix(seed, i, block)),
+                    userId -> membershipRows.add(new Object[]{userId, segmentId}));
+            memberCounts[i].add(membershipRows.size() - before);
+        }
+        if (!membershipRows.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_MEMBERSHIP, membershipRows);
+        }
+    }
+
+    double[] segmentShares() {
+        double[] shares = new double[segments];
+        for (int i = 0; i < segments; i++) {
+            shares[i] = distribution == Distribution.ZIPF
+                    ? segmentShare / Math.pow(i + 1, zipfExponent)
+                    : segmentShare;
+        }
+        return shares;
+    }
+
+    /**
+     * Выбирает каждый id из [from, to] с вероятностью share. Вместо броска на каждого пользователя
+     * длина пропуска до следующего выбранного берется из геометрического распределения,
+     * поэтому работа пропорциональна числу выбранных, а не размеру блока.
+     */
+    static void sample(long from, long to, double share, SplittableRandom random, LongConsumer sink) {
+        if (share <= 0) {
+            return;
+        }
+        if (share >= 1) {
+            for (long id = from; id <= to; id++) {
+                sink.accept(id);
+            }
+            return;
+        }
+        double logMiss = Math.log1p(-share);
+        long id = from - 1;
+        while (true) {
+            id += 1 + (long) (Math.log(1 - random.nextDouble()) / logMiss);
+            if (id > to || id < from) {
+                return;
+            }
+            sink.accept(id);
+        }
+    }
+
+    // Счетчики идентификаторов продолжают нумерацию после явно вставленных id
+    private void restartIdentity(String table, long next) {
+        String product = jdbcTemplate.execute((ConnectionCallback<String>) connection ->
+                connection.getMetaData().getDatabaseProductName());
+        if ("PostgreSQL".equals(product)) {
+            jdbcTemplate.queryForObject("SELECT setval(pg_get_serial_sequence(?, 'id'), ?)", Long.class, table, next - 1);
+        } else {
+            jdbcTemplate.execute("ALTER TABLE " + table + " ALTER COLUMN id RESTART WITH " + next);
+        }
+    }
+
+    private static long segmentId(int index) {
+        return index + 1L;
+    }
+
+    private static long mix(long seed, int segment, long block) {
+        long h = seed * 0x9E3779B97F4A7C15L;
+        h = (h ^ segment) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ block) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
@@ -0,0 +1,40 @@
+package org.example.vkedupractice.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Supplier;
+
+/**
+ * Таймеры фаз распределения сегмента: segments.assignment.phase{mode, phase}.
+ * Позволяют понять, на что уходит время медленного createSegment - подсчеты, выборку или запись.
+ */
+@Component
+public class SegmentMetrics {
+
+    public static final String ASSIGNMENT_PHASE = "segments.assignment.phase";
+
+    private final MeterRegistry meterRegistry;
+
+    public SegmentMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> T time(String mode, String phase, Supplier<T> action) {
+        return timer(mode, phase).record(action);
+    }
+
+    public void time(String mode, String phase, Runnable action) {
+        timer(mode, phase).record(action);
+    }
+
+    private Timer timer(String mode, String phase) {
+        return Timer.builder(ASSIGNMENT_PHASE)
+                .description("Duration of a segment assignment phase")
+                .tag("mode", mode)
+                .tag("phase", phase)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,30 @@
+package org.example.vkedupractice.metrics;
+
+/**
+ * Считает SQL-запросы, выполненные в текущем потоке между start() и stop(). Запросы учитывает
+ * SqlStatementCountingDataSource на уровне JDBC, поэтому сюда попадают и Hibernate, и JdbcTemplate.
+ */
+public final class SqlStatementCounter {
+
+    private static final ThreadLocal<int[]> COUNTER = new ThreadLocal<>();
+
+    private SqlStatementCounter() {
+    }
+
+    public static void start() {
+        COUNTER.set(new int[1]);
+    }
+
+    public static int stop() {
+        int[] counter = COUNTER.get();
+        COUNTER.remove();
+        return counter == null ? 0 : counter[0];
+    }
+
+    static void increment() {
+        int[] counter = COUNTER.get();
+        if (counter != null) {
+            counter[0]++;
+        }
+    }
+}
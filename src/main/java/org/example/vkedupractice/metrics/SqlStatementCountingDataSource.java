@@ -0,0 +1,80 @@
+package org.example.vkedupractice.metrics;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Считает выполнения SQL на уровне JDBC (SqlStatementCounter): каждый вызов execute*, в том числе
+ * executeBatch - одно выполнение. Подготовка запроса без выполнения не считается.
+ */
+public class SqlStatementCountingDataSource extends DelegatingDataSource {
+
+    public SqlStatementCountingDataSource(DataSource target) {
+        super(target);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return counting(obtainTargetDataSource().getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return counting(obtainTargetDataSource().getConnection(username, password));
+    }
+
+    // Statement, PreparedStatement и CallableStatement, созданные соединением, оборачиваются
+    private static Connection counting(Connection connection) {
+        return proxy(Connection.class, connection, (method, result) ->
+                result instanceof Statement statement && Statement.class.isAssignableFrom(method.getReturnType())
+                        ? proxy(method.getReturnType(), statement, null)
+                        : result);
+    }
+
+    @FunctionalInterface
+    private interface ResultWrapper {
+        Object wrap(Method method, Object result);
+    }
+
+    // Без wrapper прокси считает вызовы execute*; с wrapper - подменяет результаты
+    private static <T> T proxy(Class<T> type, Object target, ResultWrapper wrapper) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "unwrap":
+                            if (((Class<?>) args[0]).isInstance(proxy)) {
+                                return proxy;
+                            }
+                            break;
+                        case "isWrapperFor":
+                            if (((Class<?>) args[0]).isInstance(proxy)) {
+                                return true;
+                            }
+                            break;
+                        default:
+                            break;
+                    }
+                    if (wrapper == null && method.getName().startsWith("execute")) {
+                        SqlStatementCounter.increment();
+                    }
+                    Object result;
+                    try {
+                        result = method.invoke(target, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                    return wrapper != null ? wrapper.wrap(method, result) : result;
+                }));
+    }
+}
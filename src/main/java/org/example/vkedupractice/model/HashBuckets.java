@@ -0,0 +1,44 @@
+package org.example.vkedupractice.model;
+
+import org.roaringbitmap.IntConsumer;
+import org.roaringbitmap.RoaringBitmap;
+
+/**
+ * Детерминированное распределение пользователей по 10000 корзинам для HASH_BUCKET сегментов.
+ * Для пары (userId, salt) корзина всегда одна и та же, поэтому членство стабильно и вычисляется за O(1).
+ */
+public final class HashBuckets {
+
+    public static final int BUCKETS = 10_000;
+
+    private HashBuckets() {
+    }
+
+    public static int bucket(long userId, long salt) {
+        return (int) Long.remainderUnsigned(mix(userId ^ mix(salt)), BUCKETS);
+    }
+
+    public static boolean contains(long userId, long salt, int percentage) {
+        return bucket(userId, salt) < percentage * (BUCKETS / 100);
+    }
+
+    /**
+     * Пользователи из users, попавшие в корзины сегмента.
+     */
+    public static RoaringBitmap filter(RoaringBitmap users, long salt, int percentage) {
+        RoaringBitmap members = new RoaringBitmap();
+        users.forEach((IntConsumer) userId -> {
+            if (contains(userId, salt, percentage)) {
+                members.add(userId);
+            }
+        });
+        return members;
+    }
+
+    // финализатор splitmix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
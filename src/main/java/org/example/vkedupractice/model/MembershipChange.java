@@ -0,0 +1,55 @@
+package org.example.vkedupractice.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Запись журнала изменений членства. id - курсор для GET /api/changes: записи видны потребителям
+ * в порядке id, и этот порядок совпадает с порядком коммитов (см. MembershipChangeLog).
+ * Пишется и читается через JDBC, сущность описывает схему.
+ */
+@Entity
+@Table(name = "membership_changes",
+        indexes = @Index(name = "idx_membership_changes_segment_user", columnList = "segment_id, user_id"))
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class MembershipChange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "change_type", nullable = false, length = 32)
+    private MembershipChangeType type;
+
+    @Column(name = "segment_id", nullable = false)
+    private Long segmentId;
+
+    // Имя сегмента на момент изменения
+    @Column(name = "segment_name")
+    private String segmentName;
+
+    // Старое имя для SEGMENT_RENAMED
+    @Column(name = "previous_name")
+    private String previousName;
+
+    // null для событий уровня сегмента
+    @Column(name = "user_id")
+    private Long userId;
+
+    // Параметры хеш-сегмента для HASH_SEGMENT_CREATED
+    @Column(name = "percentage")
+    private Integer percentage;
+
+    @Column(name = "salt")
+    private Long salt;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,24 @@
+package org.example.vkedupractice.model;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Единственная строка (id = 1), которую запись в журнал изменений блокирует до конца своей транзакции.
+ */
+@Entity
+@Table(name = "membership_change_head")
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class MembershipChangeHead {
+
+    @Id
+    private Long id;
+
+    @Column(name = "last_append_at")
+    private LocalDateTime lastAppendAt;
+}
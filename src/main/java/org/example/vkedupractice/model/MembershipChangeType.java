@@ -0,0 +1,14 @@
+package org.example.vkedupractice.model;
+
+/**
+ * MEMBER_ADDED - пользователь добавлен в материализованный сегмент.
+ * HASH_SEGMENT_CREATED - создан HASH_BUCKET сегмент; его членство вычисляется по хешу и по пользователям не журналируется.
+ * SEGMENT_RENAMED - сегмент переименован, старое имя в previousName.
+ * SEGMENT_DELETED - сегмент удален вместе со всеми участниками.
+ */
+public enum MembershipChangeType {
+    MEMBER_ADDED,
+    HASH_SEGMENT_CREATED,
+    SEGMENT_RENAMED,
+    SEGMENT_DELETED
+}
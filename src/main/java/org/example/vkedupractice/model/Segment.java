@@ -3,6 +3,8 @@ package org.example.vkedupractice.model;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import jakarta.persistence.*;
 import lombok.*;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.SQLRestriction;
 import java.time.LocalDateTime;
 import java.util.HashSet;
 import java.util.Set;
@@ -17,6 +19,9 @@ import java.util.Set;
 @AllArgsConstructor
 @Builder
 @EqualsAndHashCode(onlyExplicitlyIncluded = true)
+// Удаление логическое: удаленный сегмент скрыт от всех JPA-запросов, строки user_segments
+// удаляет фоновый SegmentPurger. Нативный SQL должен фильтровать deleted сам
+@SQLRestriction("deleted = false")
 public class Segment {
 
     @Id
@@ -33,6 +38,48 @@ public class Segment {
     @Column(name = "created_at")
     private LocalDateTime createdAt;
 
+    @Enumerated(EnumType.STRING)
+    @Column
+    @Builder.Default
+    private SegmentKind kind = SegmentKind.MATERIALIZED;
+
+    // Для HASH_BUCKET сегментов: доля пользователей и соль хеша
+    @Column
+    private Integer percentage;
+
+    @Column
+    private Long salt;
+
+    // Число участников MATERIALIZED сегмента. Меняется только атомарным UPDATE в той же транзакции,
+    // что и user_segments (SegmentRepository.addMembers), поэтому сохранение сущности его не перезаписывает
+    @Column(name = "member_count", nullable = false, updatable = false)
+    @ColumnDefault("0")
+    @Builder.Default
+    private long memberCount = 0;
+
+    // Версия для ETag: увеличивается каждой мутацией сегмента атомарным UPDATE (SegmentRepository),
+    // поэтому, как и member_count, не перезаписывается сохранением загруженной ранее сущности
+    @Column(nullable = false, updatable = false)
+    @ColumnDefault("0")
+    @Builder.Default
+    private long version = 0;
+
+    @Column(nullable = false)
+    @ColumnDefault("false")
+    @Builder.Default
+    private boolean deleted = false;
+
+    @Column(name = "deleted_at")
+    private LocalDateTime deletedAt;
+
+    // Имя сегмента до удаления: само имя освобождается, чтобы его можно было занять снова
+    @Column(name = "deleted_name")
+    private String deletedName;
+
+    // Время, когда фоновая очистка удалила последние строки user_segments
+    @Column(name = "purged_at")
+    private LocalDateTime purgedAt;
+
     @ManyToMany(mappedBy = "segments",
             fetch = FetchType.LAZY,
             cascade = { CascadeType.PERSIST, CascadeType.MERGE })
@@ -45,4 +92,19 @@ public class Segment {
         createdAt = LocalDateTime.now();
     }
 
+    public void markDeleted() {
+        deletedName = name;
+        name = "~deleted~" + id;
+        deleted = true;
+        deletedAt = LocalDateTime.now();
+    }
+
+    public boolean isHashBucket() {
+        return kind == SegmentKind.HASH_BUCKET;
+    }
+
+    public boolean containsByHash(long userId) {
+        return isHashBucket() && HashBuckets.contains(userId, salt, percentage);
+    }
+
 } 
\ No newline at end of file
@@ -0,0 +1,10 @@
+package org.example.vkedupractice.model;
+
+/**
+ * MATERIALIZED - членство хранится строками в user_segments.
+ * HASH_BUCKET - членство вычисляется на лету: hash(userId, salt) mod 10000 < percentage * 100.
+ */
+public enum SegmentKind {
+    MATERIALIZED,
+    HASH_BUCKET
+}
@@ -38,7 +38,10 @@ public class User {
     @JoinTable(
             name = "user_segments",
             joinColumns = @JoinColumn(name = "user_id"),
-            inverseJoinColumns = @JoinColumn(name = "segment_id")
+            inverseJoinColumns = @JoinColumn(name = "segment_id"),
+            // Первичный ключ (segment_id, user_id) обслуживает выборки и очистку по сегменту,
+            // этот индекс - сегменты пользователя. В PostgreSQL таблица секционирована миграцией V2
+            indexes = @Index(name = "idx_user_segments_user_segment", columnList = "user_id, segment_id")
     )
     @Builder.Default
     private Set<Segment> segments = new HashSet<>();
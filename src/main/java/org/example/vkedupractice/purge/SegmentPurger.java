@@ -0,0 +1,115 @@
+package org.example.vkedupractice.purge;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.vkedupractice.dto.SegmentPurgeStatus;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Фоновая очистка логически удаленных сегментов: строки user_segments удаляются порциями,
+ * каждая порция в своей короткой транзакции, поэтому блокировки и undo/WAL не растут с размером сегмента.
+ * Когда строк не осталось, сегменту проставляется purged_at. Сама запись в segments остается.
+ */
+@Slf4j
+@Component
+public class SegmentPurger {
+
+    private static final String PENDING_SEGMENTS =
+            "SELECT id FROM segments WHERE deleted = true AND purged_at IS NULL ORDER BY deleted_at, id";
+
+    private static final String DELETE_CHUNK =
+            "DELETE FROM user_segments WHERE segment_id = ? AND user_id IN " +
+            "(SELECT user_id FROM user_segments WHERE segment_id = ? LIMIT ?)";
+
+    // Остаток считается только для неочищенных сегментов: у очищенных строк нет, COUNT по ним не нужен
+    private static final String STATUS_COLUMNS =
+            "SELECT s.id, s.deleted_name, s.deleted_at, s.purged_at, " +
+            "CASE WHEN s.purged_at IS NULL " +
+            "THEN (SELECT COUNT(*) FROM user_segments us WHERE us.segment_id = s.id) ELSE 0 END AS remaining " +
+            "FROM segments s WHERE s.deleted = true";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int chunkSize;
+
+    // Сколько строк удалено с момента старта приложения, только по сегментам в работе:
+    // запись снимается, когда сегменту проставлен purged_at
+    private final Map<Long, AtomicLong> removed = new ConcurrentHashMap<>();
+    private volatile Long running;
+
+    public SegmentPurger(JdbcTemplate jdbcTemplate,
+                         PlatformTransactionManager transactionManager,
+                         @Value("${segments.purge.chunk-size:10000}") int chunkSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.chunkSize = chunkSize;
+    }
+
+    @Scheduled(fixedDelayString = "${segments.purge.interval:5s}")
+    public void purgeDeleted() {
+        for (Long segmentId : jdbcTemplate.queryForList(PENDING_SEGMENTS, Long.class)) {
+            purge(segmentId);
+        }
+    }
+
+    void purge(long segmentId) {
+        running = segmentId;
+        AtomicLong counter = removed.computeIfAbsent(segmentId, id -> new AtomicLong());
+        try {
+            int deleted;
+            do {
+                deleted = transactionTemplate.execute(status ->
+                        jdbcTemplate.update(DELETE_CHUNK, segmentId, segmentId, chunkSize));
+                counter.addAndGet(deleted);
+            } while (deleted > 0);
+            jdbcTemplate.update("UPDATE segments SET purged_at = ? WHERE id = ?",
+                    Timestamp.valueOf(LocalDateTime.now()), segmentId);
+            removed.remove(segmentId);
+            log.info("Segment {} purged: {} memberships removed", segmentId, counter.get());
+        } finally {
+            running = null;
+        }
+    }
+
+    public List<SegmentPurgeStatus> getStatuses() {
+        return jdbcTemplate.query(STATUS_COLUMNS + " ORDER BY s.deleted_at DESC, s.id DESC", statusMapper());
+    }
+
+    public Optional<SegmentPurgeStatus> getStatus(Long segmentId) {
+        return jdbcTemplate.query(STATUS_COLUMNS + " AND s.id = ?", statusMapper(), segmentId)
+                .stream()
+                .findFirst();
+    }
+
+    private RowMapper<SegmentPurgeStatus> statusMapper() {
+        return (rs, rowNum) -> {
+            long id = rs.getLong("id");
+            Timestamp purgedAt = rs.getTimestamp("purged_at");
+            AtomicLong counter = removed.get(id);
+            return SegmentPurgeStatus.builder()
+                    .segmentId(id)
+                    .name(rs.getString("deleted_name"))
+                    .deletedAt(rs.getTimestamp("deleted_at").toLocalDateTime())
+                    .purgedAt(purgedAt != null ? purgedAt.toLocalDateTime() : null)
+                    .removedMembers(counter != null ? counter.get() : 0)
+                    .remainingMembers(rs.getLong("remaining"))
+                    .state(purgedAt != null ? SegmentPurgeStatus.State.DONE
+                            : Long.valueOf(id).equals(running) ? SegmentPurgeStatus.State.RUNNING
+                            : SegmentPurgeStatus.State.PENDING)
+                    .build();
+        };
+    }
+}
@@ -0,0 +1,21 @@
+package org.example.vkedupractice.query;
+
+import java.util.List;
+
+/**
+ * Булево выражение над сегментами: "A AND (B OR C) AND NOT D".
+ */
+public sealed interface SegmentExpression {
+
+    record Ref(String segmentName) implements SegmentExpression {
+    }
+
+    record Not(SegmentExpression operand) implements SegmentExpression {
+    }
+
+    record And(List<SegmentExpression> operands) implements SegmentExpression {
+    }
+
+    record Or(List<SegmentExpression> operands) implements SegmentExpression {
+    }
+}
@@ -0,0 +1,149 @@
+package org.example.vkedupractice.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Разбор выражения рекурсивным спуском. Приоритет: NOT, затем AND, затем OR; скобки группируют.
+ * Операторы не зависят от регистра. Имя сегмента - слово без пробелов и скобок или строка в двойных кавычках
+ * (для имен с пробелами или совпадающих с оператором).
+ *
+ * Ограничения защищают сервис от дорогих запросов: длина строки, число ссылок на сегменты и глубина вложенности.
+ */
+class SegmentExpressionParser {
+
+    private final int maxLength;
+    private final int maxTerms;
+    private final int maxDepth;
+
+    private String source;
+    private int position;
+    private int terms;
+
+    SegmentExpressionParser(int maxLength, int maxTerms, int maxDepth) {
+        this.maxLength = maxLength;
+        this.maxTerms = maxTerms;
+        this.maxDepth = maxDepth;
+    }
+
+    SegmentExpression parse(String expression) {
+        if (expression == null || expression.isBlank()) {
+            throw new IllegalArgumentException("Expression is required");
+        }
+        if (expression.length() > maxLength) {
+            throw new IllegalArgumentException("Expression is longer than " + maxLength + " characters");
+        }
+        source = expression;
+        position = 0;
+        terms = 0;
+        SegmentExpression result = parseOr(0);
+        skipWhitespace();
+        if (position < source.length()) {
+            throw error("Unexpected '" + source.charAt(position) + "'");
+        }
+        return result;
+    }
+
+    private SegmentExpression parseOr(int depth) {
+        List<SegmentExpression> operands = new ArrayList<>();
+        operands.add(parseAnd(depth));
+        while (acceptKeyword("OR")) {
+            operands.add(parseAnd(depth));
+        }
+        return operands.size() == 1 ? operands.get(0) : new SegmentExpression.Or(operands);
+    }
+
+    private SegmentExpression parseAnd(int depth) {
+        List<SegmentExpression> operands = new ArrayList<>();
+        operands.add(parseUnary(depth));
+        while (acceptKeyword("AND")) {
+            operands.add(parseUnary(depth));
+        }
+        return operands.size() == 1 ? operands.get(0) : new SegmentExpression.And(operands);
+    }
+
+    private SegmentExpression parseUnary(int depth) {
+        if (depth > maxDepth) {
+            throw new IllegalArgumentException("Expression is nested deeper than " + maxDepth + " levels");
+        }
+        if (acceptKeyword("NOT")) {
+            return new SegmentExpression.Not(parseUnary(depth + 1));
+        }
+        skipWhitespace();
+        if (accept('(')) {
+            SegmentExpression inner = parseOr(depth + 1);
+            skipWhitespace();
+            if (!accept(')')) {
+                throw error("Expected ')'");
+            }
+            return inner;
+        }
+        return new SegmentExpression.Ref(parseName());
+    }
+
+    private String parseName() {
+        if (++terms > maxTerms) {
+            throw new IllegalArgumentException("Expression references more than " + maxTerms + " segments");
+        }
+        skipWhitespace();
+        if (accept('"')) {
+            int end = source.indexOf('"', position);
+            if (end < 0) {
+                throw error("Unterminated quoted segment name");
+            }
+            String name = source.substring(position, end);
+            position = end + 1;
+            return name;
+        }
+        int start = position;
+        while (position < source.length() && isNameChar(source.charAt(position))) {
+            position++;
+        }
+        if (start == position) {
+            throw error(position < source.length() ? "Unexpected '" + source.charAt(position) + "'" : "Unexpected end");
+        }
+        String name = source.substring(start, position);
+        if (isKeyword(name)) {
+            throw error("Segment name expected, got operator " + name);
+        }
+        return name;
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        skipWhitespace();
+        int end = position + keyword.length();
+        if (end <= source.length()
+                && source.regionMatches(true, position, keyword, 0, keyword.length())
+                && (end == source.length() || !isNameChar(source.charAt(end)))) {
+            position = end;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean accept(char c) {
+        if (position < source.length() && source.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipWhitespace() {
+        while (position < source.length() && Character.isWhitespace(source.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position + " in expression");
+    }
+
+    private static boolean isNameChar(char c) {
+        return !Character.isWhitespace(c) && c != '(' && c != ')' && c != '"';
+    }
+
+    private static boolean isKeyword(String word) {
+        return word.equalsIgnoreCase("AND") || word.equalsIgnoreCase("OR") || word.equalsIgnoreCase("NOT");
+    }
+}
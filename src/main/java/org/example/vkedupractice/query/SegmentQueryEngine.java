@@ -0,0 +1,248 @@
+package org.example.vkedupractice.query;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.model.HashBuckets;
+import org.example.vkedupractice.repository.UserStreamRepository;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.jdbc.core.ColumnMapRowMapper;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapperResultSetExtractor;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Вычисление булевых выражений над сегментами операциями над битмапами, без загрузки сущностей.
+ *
+ * Битмапы берутся из индекса членства, а при выключенном индексе читаются из user_segments только для
+ * упомянутых в выражении сегментов. Отрицание не вычисляется относительно всех пользователей, пока это
+ * не нужно: "A AND NOT B" - это A \ B. Полное множество users читается, только если результат
+ * отрицательный ("NOT A") или выражение содержит HASH_BUCKET сегмент.
+ *
+ * Ограничения: длина выражения, число сегментов и глубина вложенности проверяются при разборе,
+ * время вычисления - между операциями и при чтении строк. Запросы к БД получают таймаут JDBC по остатку
+ * времени: медленный или ждущий блокировку запрос прерывается самой БД.
+ */
+@Component
+public class SegmentQueryEngine {
+
+    private static final int DEADLINE_CHECK_ROWS = 65_536;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final UserStreamRepository userStreamRepository;
+    private final MembershipIndex membershipIndex;
+    private final Timer evaluationTimer;
+    private final int maxLength;
+    private final int maxTerms;
+    private final int maxDepth;
+    private final Duration timeout;
+
+    public SegmentQueryEngine(JdbcTemplate jdbcTemplate,
+                              UserStreamRepository userStreamRepository,
+                              MembershipIndex membershipIndex,
+                              MeterRegistry meterRegistry,
+                              @Value("${segments.query.max-length:1000}") int maxLength,
+                              @Value("${segments.query.max-terms:32}") int maxTerms,
+                              @Value("${segments.query.max-depth:8}") int maxDepth,
+                              @Value("${segments.query.timeout:2s}") Duration timeout) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.userStreamRepository = userStreamRepository;
+        this.membershipIndex = membershipIndex;
+        this.evaluationTimer = Timer.builder("segments.query")
+                .description("Evaluation of boolean expressions over segment memberships")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.maxLength = maxLength;
+        this.maxTerms = maxTerms;
+        this.maxDepth = maxDepth;
+        this.timeout = timeout;
+    }
+
+    /**
+     * @throws IllegalArgumentException     выражение некорректно, превышает ограничения или ссылается на неизвестный сегмент
+     * @throws SegmentQueryTimeoutException вычисление дольше segments.query.timeout
+     */
+    public SegmentQueryResult evaluate(String expression) {
+        SegmentExpression parsed = new SegmentExpressionParser(maxLength, maxTerms, maxDepth).parse(expression);
+        return evaluationTimer.record(() -> new Evaluation(System.nanoTime() + timeout.toNanos()).run(parsed));
+    }
+
+    // Промежуточный результат: negated - множество задано дополнением битмапа до всех пользователей
+    private record Operand(RoaringBitmap bitmap, boolean negated) {
+
+        Operand negate() {
+            return new Operand(bitmap, !negated);
+        }
+    }
+
+    private class Evaluation {
+
+        private final long deadline;
+        private final Map<String, RoaringBitmap> segments = new HashMap<>();
+        private RoaringBitmap allUsers;
+
+        Evaluation(long deadline) {
+            this.deadline = deadline;
+        }
+
+        SegmentQueryResult run(SegmentExpression expression) {
+            Operand result = evaluate(expression);
+            RoaringBitmap members = result.negated()
+                    ? RoaringBitmap.andNot(allUsers(), result.bitmap())
+                    : result.bitmap();
+            checkDeadline();
+            return new SegmentQueryResult(members);
+        }
+
+        private Operand evaluate(SegmentExpression expression) {
+            checkDeadline();
+            return switch (expression) {
+                case SegmentExpression.Ref ref -> new Operand(members(ref.segmentName()), false);
+                case SegmentExpression.Not not -> evaluate(not.operand()).negate();
+                case SegmentExpression.And and -> reduce(and.operands(), true);
+                case SegmentExpression.Or or -> reduce(or.operands(), false);
+            };
+        }
+
+        private Operand reduce(List<SegmentExpression> operands, boolean and) {
+            Operand result = evaluate(operands.get(0));
+            for (int i = 1; i < operands.size(); i++) {
+                Operand next = evaluate(operands.get(i));
+                result = and ? and(result, next) : or(result, next);
+                checkDeadline();
+            }
+            return result;
+        }
+
+        private Operand and(Operand a, Operand b) {
+            if (!a.negated() && !b.negated()) {
+                return new Operand(RoaringBitmap.and(a.bitmap(), b.bitmap()), false);
+            }
+            if (!a.negated()) {
+                return new Operand(RoaringBitmap.andNot(a.bitmap(), b.bitmap()), false);
+            }
+            if (!b.negated()) {
+                return new Operand(RoaringBitmap.andNot(b.bitmap(), a.bitmap()), false);
+            }
+            // NOT A AND NOT B = NOT (A OR B)
+            return new Operand(RoaringBitmap.or(a.bitmap(), b.bitmap()), true);
+        }
+
+        private Operand or(Operand a, Operand b) {
+            if (!a.negated() && !b.negated()) {
+                return new Operand(RoaringBitmap.or(a.bitmap(), b.bitmap()), false);
+            }
+            // A OR NOT B = NOT (B \ A)
+            if (!a.negated()) {
+                return new Operand(RoaringBitmap.andNot(b.bitmap(), a.bitmap()), true);
+            }
+            if (!b.negated()) {
+                return new Operand(RoaringBitmap.andNot(a.bitmap(), b.bitmap()), true);
+            }
+            // NOT A OR NOT B = NOT (A AND B)
+            return new Operand(RoaringBitmap.and(a.bitmap(), b.bitmap()), true);
+        }
+
+        private RoaringBitmap members(String segmentName) {
+            RoaringBitmap cached = segments.get(segmentName);
+            if (cached == null) {
+                cached = membershipIndex.isReady()
+                        ? membershipIndex.members(segmentName, this::allUsers)
+                                .orElseThrow(() -> unknownSegment(segmentName))
+                        : loadMembers(segmentName);
+                segments.put(segmentName, cached);
+            }
+            return cached;
+        }
+
+        private RoaringBitmap loadMembers(String segmentName) {
+            List<Map<String, Object>> rows = withDeadline(() -> jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(
+                        "SELECT id, kind, percentage, salt FROM segments WHERE name = ? AND deleted = false");
+                ps.setString(1, segmentName);
+                ps.setQueryTimeout(queryTimeoutSeconds());
+                return ps;
+            }, new RowMapperResultSetExtractor<>(new ColumnMapRowMapper())));
+            if (rows.isEmpty()) {
+                throw unknownSegment(segmentName);
+            }
+            Map<String, Object> segment = rows.get(0);
+            if ("HASH_BUCKET".equals(segment.get("kind"))) {
+                return HashBuckets.filter(allUsers(),
+                        ((Number) segment.get("salt")).longValue(), ((Number) segment.get("percentage")).intValue());
+            }
+            long segmentId = ((Number) segment.get("id")).longValue();
+            RoaringBitmap bitmap = new RoaringBitmap();
+            withDeadline(() -> {
+                userStreamRepository.forEachSegmentMemberId(segmentId, queryTimeoutSeconds(), collect(bitmap));
+                return bitmap;
+            });
+            bitmap.runOptimize();
+            return bitmap;
+        }
+
+        private RoaringBitmap allUsers() {
+            if (allUsers == null) {
+                RoaringBitmap bitmap = new RoaringBitmap();
+                withDeadline(() -> {
+                    userStreamRepository.forEachUserId(queryTimeoutSeconds(), collect(bitmap));
+                    return bitmap;
+                });
+                bitmap.runOptimize();
+                allUsers = bitmap;
+            }
+            return allUsers;
+        }
+
+        private LongConsumer collect(RoaringBitmap bitmap) {
+            int[] rows = new int[1];
+            return userId -> {
+                bitmap.add(Math.toIntExact(userId));
+                if (++rows[0] % DEADLINE_CHECK_ROWS == 0) {
+                    checkDeadline();
+                }
+            };
+        }
+
+        private void checkDeadline() {
+            if (System.nanoTime() > deadline) {
+                throw new SegmentQueryTimeoutException("Segment query did not finish within " + timeout);
+            }
+        }
+
+        // Таймаут JDBC в целых секундах, округленный вверх: остаток меньше секунды - это одна секунда
+        private int queryTimeoutSeconds() {
+            checkDeadline();
+            long remaining = deadline - System.nanoTime();
+            return (int) Math.max(1, (remaining + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1));
+        }
+
+        // Запрос, прерванный по таймауту JDBC, - это тот же выход за segments.query.timeout
+        private <T> T withDeadline(Supplier<T> query) {
+            try {
+                return query.get();
+            } catch (DataAccessException e) {
+                if (e instanceof QueryTimeoutException || System.nanoTime() > deadline) {
+                    throw new SegmentQueryTimeoutException("Segment query did not finish within " + timeout, e);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private static IllegalArgumentException unknownSegment(String segmentName) {
+        return new IllegalArgumentException("Unknown segment: " + segmentName);
+    }
+}
@@ -0,0 +1,45 @@
+package org.example.vkedupractice.query;
+
+import org.roaringbitmap.IntConsumer;
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Пользователи, удовлетворяющие выражению. Битмап может быть битмапом индекса, поэтому только читается.
+ */
+public final class SegmentQueryResult {
+
+    private final RoaringBitmap members;
+
+    public SegmentQueryResult(RoaringBitmap members) {
+        this.members = members;
+    }
+
+    public long count() {
+        return members.getLongCardinality();
+    }
+
+    /**
+     * Не более limit id больше after в порядке возрастания.
+     */
+    public List<Long> idsAfter(long after, int limit) {
+        List<Long> ids = new ArrayList<>(Math.min(limit, 1024));
+        if (after >= Integer.MAX_VALUE) {
+            return ids;
+        }
+        PeekableIntIterator iterator = members.getIntIterator();
+        iterator.advanceIfNeeded((int) Math.max(after + 1, 0));
+        while (iterator.hasNext() && ids.size() < limit) {
+            ids.add((long) iterator.next());
+        }
+        return ids;
+    }
+
+    public void forEach(LongConsumer consumer) {
+        members.forEach((IntConsumer) consumer::accept);
+    }
+}
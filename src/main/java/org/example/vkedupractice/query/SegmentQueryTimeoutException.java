@@ -0,0 +1,15 @@
+package org.example.vkedupractice.query;
+
+/**
+ * Вычисление выражения над сегментами не уложилось в segments.query.timeout.
+ */
+public class SegmentQueryTimeoutException extends RuntimeException {
+
+    public SegmentQueryTimeoutException(String message) {
+        super(message);
+    }
+
+    public SegmentQueryTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
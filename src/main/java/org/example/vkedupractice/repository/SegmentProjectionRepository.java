@@ -0,0 +1,94 @@
+package org.example.vkedupractice.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.model.Segment;
+import org.example.vkedupractice.model.SegmentKind;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Чтение сегментов сразу в SegmentDto, без управляемых сущностей (см. {@link UserProjectionRepository}).
+ * Удаленные сегменты отсекаются явно: @SQLRestriction сущности к этим запросам не применяется.
+ */
+@Repository
+@RequiredArgsConstructor
+public class SegmentProjectionRepository {
+
+    private static final String SEGMENT_COLUMNS =
+            "SELECT id, name, description, created_at, kind, percentage, salt, member_count " +
+            "FROM segments WHERE deleted = false ";
+
+    private static final String ALL_SEGMENTS = SEGMENT_COLUMNS + "ORDER BY id";
+
+    private static final String SEGMENT_BY_ID = SEGMENT_COLUMNS + "AND id = ?";
+
+    private static final String SEGMENT_BY_NAME = SEGMENT_COLUMNS + "AND name = ?";
+
+    private static final String SEGMENT_NAMES = "SELECT id, name FROM segments WHERE deleted = false ORDER BY id";
+
+    private static final String HASH_BUCKETS = SEGMENT_COLUMNS + "AND kind = 'HASH_BUCKET' ORDER BY id";
+
+    private static final RowMapper<SegmentDto> SEGMENT_ROW = (rs, rowNum) -> {
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        String kindName = rs.getString("kind");
+        SegmentKind kind = kindName != null ? SegmentKind.valueOf(kindName) : null;
+        return SegmentDto.builder()
+                .id(rs.getLong("id"))
+                .name(rs.getString("name"))
+                .description(rs.getString("description"))
+                .createdAt(createdAt != null ? createdAt.toLocalDateTime() : null)
+                .kind(kind)
+                .percentage(rs.getObject("percentage", Integer.class))
+                .memberCount(kind == SegmentKind.HASH_BUCKET ? null : rs.getLong("member_count"))
+                .build();
+    };
+
+    // Отсоединенный Segment только с полями, нужными для проверки хеша (Segment::containsByHash)
+    private static final RowMapper<Segment> HASH_BUCKET_ROW = (rs, rowNum) -> Segment.builder()
+            .id(rs.getLong("id"))
+            .name(rs.getString("name"))
+            .kind(SegmentKind.HASH_BUCKET)
+            .percentage(rs.getInt("percentage"))
+            .salt(rs.getLong("salt"))
+            .build();
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public List<SegmentDto> findAll() {
+        return jdbcTemplate.query(ALL_SEGMENTS, SEGMENT_ROW);
+    }
+
+    public Optional<SegmentDto> findById(long id) {
+        return jdbcTemplate.query(SEGMENT_BY_ID, SEGMENT_ROW, id).stream().findFirst();
+    }
+
+    public Optional<SegmentDto> findByName(String name) {
+        return jdbcTemplate.query(SEGMENT_BY_NAME, SEGMENT_ROW, name).stream().findFirst();
+    }
+
+    /**
+     * Имена сегментов по id в порядке id (словарь сегментов без индекса членства).
+     */
+    public Map<Long, String> findNames() {
+        Map<Long, String> names = new LinkedHashMap<>();
+        jdbcTemplate.query(SEGMENT_NAMES, rs -> {
+            names.put(rs.getLong("id"), rs.getString("name"));
+        });
+        return names;
+    }
+
+    /**
+     * HASH_BUCKET сегменты для вычисления членства по id. Объекты Segment не управляются Hibernate.
+     */
+    public List<Segment> findHashBuckets() {
+        return jdbcTemplate.query(HASH_BUCKETS, HASH_BUCKET_ROW);
+    }
+}
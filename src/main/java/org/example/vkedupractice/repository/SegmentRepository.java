@@ -1,7 +1,9 @@
 package org.example.vkedupractice.repository;
 
 import org.example.vkedupractice.model.Segment;
+import org.example.vkedupractice.model.SegmentKind;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
@@ -14,10 +16,68 @@ public interface SegmentRepository extends JpaRepository<Segment, Long> {
     Optional<Segment> findByName(String name);
     
     boolean existsByName(String name);
+
+    List<Segment> findByKind(SegmentKind kind);
     
     @Query("SELECT s FROM Segment s JOIN s.users u WHERE u.id = :userId")
     List<Segment> findSegmentsByUserId(@Param("userId") Long userId);
     
-    @Query("SELECT COUNT(u) FROM User u JOIN u.segments s WHERE s.name = :segmentName")
+    // Сегмент сравнивается по id, а не по имени: в PostgreSQL условие на segment_id отсекает лишние секции
+    // user_segments (V3__partition_user_segments.sql), условие на segments.name - нет
+    @Query("SELECT COUNT(u) FROM User u JOIN u.segments s "
+            + "WHERE s.id = (SELECT n.id FROM Segment n WHERE n.name = :segmentName)")
     long countUsersInSegment(@Param("segmentName") String segmentName);
-}
\ No newline at end of file
+
+    // Блокирует строку сегмента до конца транзакции: распределения в один сегмент, удаление
+    // и сверка счетчика выполняются по очереди
+    @Query(value = "SELECT member_count FROM segments WHERE id = :segmentId AND deleted = false FOR UPDATE",
+            nativeQuery = true)
+    Optional<Long> lockMemberCount(@Param("segmentId") Long segmentId);
+
+    @Modifying
+    @Query("UPDATE Segment s SET s.memberCount = s.memberCount + :delta, s.version = s.version + 1 "
+            + "WHERE s.id = :segmentId AND s.deleted = false")
+    int incrementMemberCount(@Param("segmentId") Long segmentId, @Param("delta") long delta);
+
+    // Новая версия для ETag (GET /api/segments и др.) при изменении имени или описания
+    @Modifying
+    @Query("UPDATE Segment s SET s.version = s.version + 1 WHERE s.id = :segmentId")
+    int incrementVersion(@Param("segmentId") Long segmentId);
+
+    /**
+     * Учитывает добавленных участников в счетчике. Вызывается в той же транзакции, что и вставка в user_segments.
+     */
+    default void addMembers(Long segmentId, long added) {
+        if (added > 0 && incrementMemberCount(segmentId, added) == 0) {
+            throw new IllegalStateException("Segment " + segmentId + " was deleted while members were being added");
+        }
+    }
+
+    @Query("SELECT u.id FROM User u JOIN u.segments s WHERE s.id = :segmentId AND u.id IN :userIds")
+    List<Long> findMemberIdsAmong(@Param("segmentId") Long segmentId, @Param("userIds") List<Long> userIds);
+
+    @Query("SELECT COUNT(u) > 0 FROM User u JOIN u.segments s "
+            + "WHERE s.id = (SELECT n.id FROM Segment n WHERE n.name = :segmentName) AND u.id = :userId")
+    boolean isUserInSegment(@Param("segmentName") String segmentName, @Param("userId") Long userId);
+
+    // Случайная выборка и вставка целиком на стороне БД (работает и в PostgreSQL, и в H2)
+    @Modifying(flushAutomatically = true)
+    @Query(value = "INSERT INTO user_segments (user_id, segment_id) " +
+            "SELECT u.id, :segmentId FROM users u " +
+            "WHERE NOT EXISTS (SELECT 1 FROM user_segments us " +
+            "WHERE us.user_id = u.id AND us.segment_id = :segmentId) " +
+            "ORDER BY RANDOM() LIMIT :limit", nativeQuery = true)
+    int insertRandomMembers(@Param("segmentId") Long segmentId, @Param("limit") int limit);
+
+    // То же для окна пользователей (from, to] - для распределения порциями
+    @Modifying(flushAutomatically = true)
+    @Query(value = "INSERT INTO user_segments (user_id, segment_id) " +
+            "SELECT u.id, :segmentId FROM users u " +
+            "WHERE u.id > :fromId AND u.id <= :toId AND NOT EXISTS (SELECT 1 FROM user_segments us " +
+            "WHERE us.user_id = u.id AND us.segment_id = :segmentId) " +
+            "ORDER BY RANDOM() LIMIT :limit", nativeQuery = true)
+    int insertRandomMembersInRange(@Param("segmentId") Long segmentId,
+                                   @Param("fromId") Long fromId,
+                                   @Param("toId") Long toId,
+                                   @Param("limit") int limit);
+}
@@ -0,0 +1,110 @@
+package org.example.vkedupractice.repository;
+
+import org.example.vkedupractice.dto.UserDto;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Array;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Чтение пользователей сразу в UserDto, без сущностей: ничего не попадает в persistence context,
+ * Hibernate не делает снимков для dirty checking и не подгружает коллекцию segments.
+ *
+ * Имена сегментов пользователя собираются в БД в массив (ARRAY_AGG одинаково работает в PostgreSQL и H2),
+ * поэтому на пользователя приходит одна строка, а не строка на каждый сегмент. Имена HASH_BUCKET сегментов
+ * сюда не входят - их добавляет сервис.
+ */
+@Repository
+public class UserProjectionRepository {
+
+    private static final String USER_COLUMNS =
+            "SELECT u.id, u.username, u.email, u.created_at, " +
+            "ARRAY_AGG(s.name) FILTER (WHERE s.name IS NOT NULL) AS segment_names " +
+            "FROM users u " +
+            "LEFT JOIN user_segments us ON us.user_id = u.id " +
+            "LEFT JOIN segments s ON s.id = us.segment_id AND s.deleted = false ";
+
+    private static final String GROUP_BY_USER = "GROUP BY u.id, u.username, u.email, u.created_at ORDER BY u.id";
+
+    static final String ALL_USERS = USER_COLUMNS + GROUP_BY_USER;
+
+    static final String USERS_BY_IDS = USER_COLUMNS + "WHERE u.id IN (:ids) " + GROUP_BY_USER;
+
+    static final String USER_BY_ID = USER_COLUMNS + "WHERE u.id = :id " + GROUP_BY_USER;
+
+    // Участники ищутся по id сегмента: в PostgreSQL это читает только его секцию user_segments
+    static final String USERS_BY_SEGMENT_NAME = USER_COLUMNS +
+            "WHERE u.id IN (SELECT m.user_id FROM user_segments m WHERE m.segment_id = " +
+            "(SELECT n.id FROM segments n WHERE n.name = :segmentName AND n.deleted = false)) " +
+            GROUP_BY_USER;
+
+    private static final RowMapper<UserDto> USER_ROW = (rs, rowNum) -> {
+        Timestamp createdAt = rs.getTimestamp("created_at");
+        return UserDto.builder()
+                .id(rs.getLong("id"))
+                .username(rs.getString("username"))
+                .email(rs.getString("email"))
+                .createdAt(createdAt != null ? createdAt.toLocalDateTime() : null)
+                .segmentNames(segmentNames(rs.getArray("segment_names")))
+                .build();
+    };
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public UserProjectionRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
+    /**
+     * Все пользователи в порядке id. Как и прежний findAllWithSegments, держит в памяти всю таблицу.
+     */
+    public List<UserDto> findAll() {
+        return jdbcTemplate.query(ALL_USERS, USER_ROW);
+    }
+
+    /**
+     * Пользователи с заданными id в порядке id; несуществующие id пропускаются.
+     */
+    public List<UserDto> findByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return jdbcTemplate.query(USERS_BY_IDS, Map.of("ids", ids), USER_ROW);
+    }
+
+    public Optional<UserDto> findById(long id) {
+        return jdbcTemplate.query(USER_BY_ID, Map.of("id", id), USER_ROW).stream().findFirst();
+    }
+
+    /**
+     * Участники материализованного сегмента в порядке id, каждый со всеми своими сегментами.
+     */
+    public List<UserDto> findBySegmentName(String segmentName) {
+        return jdbcTemplate.query(USERS_BY_SEGMENT_NAME, Map.of("segmentName", segmentName), USER_ROW);
+    }
+
+    // Изменяемое множество: сервис дописывает в него HASH_BUCKET сегменты
+    private static Set<String> segmentNames(Array array) throws SQLException {
+        Set<String> names = new HashSet<>();
+        if (array == null) {
+            return names;
+        }
+        try {
+            for (Object name : (Object[]) array.getArray()) {
+                names.add((String) name);
+            }
+        } finally {
+            array.free();
+        }
+        return names;
+    }
+}
@@ -1,6 +1,7 @@
 package org.example.vkedupractice.repository;
 
 import org.example.vkedupractice.model.User;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
@@ -29,6 +30,19 @@ public interface UserRepository extends JpaRepository<User, Long> {
     @Query("SELECT DISTINCT u FROM User u LEFT JOIN FETCH u.segments")
     List<User> findAllWithSegments();
 
-    @Query("SELECT DISTINCT u FROM User u JOIN u.segments s WHERE s.name = :segmentName")
-    List<User> findUsersBySegmentNameWithSegments(@Param("segmentName") String segmentName);
+    @Query("SELECT u.username FROM User u WHERE u.id = :id")
+    Optional<String> findUsernameById(@Param("id") Long id);
+
+    @Query("SELECT u.id, u.username FROM User u WHERE u.id IN :ids")
+    List<Object[]> findUsernamesByIdIn(@Param("ids") List<Long> ids);
+
+    // Одна строка на пару (пользователь, сегмент); для пользователя без сегментов name = null
+    @Query("SELECT u.id, u.username, s.name FROM User u LEFT JOIN u.segments s WHERE u.id IN :ids")
+    List<Object[]> findSegmentNamesByUserIdIn(@Param("ids") List<Long> ids);
+
+    @Query("SELECT u.id FROM User u ORDER BY u.id")
+    List<Long> findAllIds();
+
+    @Query("SELECT u.id FROM User u WHERE u.id > :after ORDER BY u.id")
+    List<Long> findIdsAfter(@Param("after") Long after, Limit limit);
 }
@@ -0,0 +1,148 @@
+package org.example.vkedupractice.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.example.vkedupractice.dto.SegmentMemberDto;
+import org.example.vkedupractice.dto.UserDto;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.HashSet;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * Потоковое чтение пользователей через forward-only курсор JDBC, без загрузки сущностей в persistence context.
+ * Для PostgreSQL курсор работает только внутри транзакции (autocommit=false), поэтому вызывать из @Transactional метода.
+ */
+@Repository
+@RequiredArgsConstructor
+public class UserStreamRepository {
+
+    static final int FETCH_SIZE = 1000;
+
+    private static final String ALL_USERS_WITH_SEGMENTS =
+            "SELECT u.id, u.username, u.email, u.created_at, s.name AS segment_name " +
+            "FROM users u " +
+            "LEFT JOIN user_segments us ON us.user_id = u.id " +
+            "LEFT JOIN segments s ON s.id = us.segment_id AND s.deleted = false " +
+            "ORDER BY u.id";
+
+    private static final String SEGMENT_MEMBER_IDS =
+            "SELECT us.user_id AS id FROM user_segments us " +
+            "JOIN segments s ON s.id = us.segment_id " +
+            "WHERE s.name = ? AND s.deleted = false ORDER BY us.user_id";
+
+    private static final String SEGMENT_MEMBERS_WITH_USERNAME =
+            "SELECT u.id, u.username FROM users u " +
+            "JOIN user_segments us ON us.user_id = u.id " +
+            "JOIN segments s ON s.id = us.segment_id " +
+            "WHERE s.name = ? AND s.deleted = false ORDER BY u.id";
+
+    private static final String ALL_USER_IDS = "SELECT u.id FROM users u ORDER BY u.id";
+
+    private static final String ALL_USER_IDS_WITH_USERNAME = "SELECT u.id, u.username FROM users u ORDER BY u.id";
+
+    private static final String SEGMENT_MEMBER_IDS_BY_SEGMENT_ID =
+            "SELECT us.user_id AS id FROM user_segments us WHERE us.segment_id = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Передает пользователей в consumer по одному в порядке id. Строки join-а по одному пользователю
+     * идут подряд, поэтому в памяти держится только текущий пользователь.
+     */
+    public void forEachUserWithSegments(Consumer<UserDto> consumer) {
+        UserDto[] current = new UserDto[1];
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(ALL_USERS_WITH_SEGMENTS,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(FETCH_SIZE);
+            return ps;
+        }, rs -> {
+            long id = rs.getLong("id");
+            if (current[0] == null || current[0].getId() != id) {
+                if (current[0] != null) {
+                    consumer.accept(current[0]);
+                }
+                Timestamp createdAt = rs.getTimestamp("created_at");
+                current[0] = UserDto.builder()
+                        .id(id)
+                        .username(rs.getString("username"))
+                        .email(rs.getString("email"))
+                        .createdAt(createdAt != null ? createdAt.toLocalDateTime() : null)
+                        .segmentNames(new HashSet<>())
+                        .build();
+            }
+            String segmentName = rs.getString("segment_name");
+            if (segmentName != null) {
+                current[0].getSegmentNames().add(segmentName);
+            }
+        });
+        if (current[0] != null) {
+            consumer.accept(current[0]);
+        }
+    }
+
+    /**
+     * Участники материализованного сегмента в порядке id: только id или id + username.
+     */
+    public void forEachSegmentMember(String segmentName, boolean withUsername, Consumer<SegmentMemberDto> consumer) {
+        stream(withUsername ? SEGMENT_MEMBERS_WITH_USERNAME : SEGMENT_MEMBER_IDS, withUsername, consumer, segmentName);
+    }
+
+    /**
+     * Все пользователи в порядке id: только id или id + username. Используется для HASH_BUCKET сегментов,
+     * членство в которых проверяется по id без join-таблицы.
+     */
+    public void forEachUser(boolean withUsername, Consumer<SegmentMemberDto> consumer) {
+        stream(withUsername ? ALL_USER_IDS_WITH_USERNAME : ALL_USER_IDS, withUsername, consumer);
+    }
+
+    /**
+     * Только id участников сегмента, без объекта на строку - для вычислений над множествами.
+     *
+     * @param queryTimeoutSeconds таймаут запроса JDBC (Statement.setQueryTimeout), 0 - без ограничения
+     */
+    public void forEachSegmentMemberId(long segmentId, int queryTimeoutSeconds, LongConsumer consumer) {
+        streamIds(SEGMENT_MEMBER_IDS_BY_SEGMENT_ID, queryTimeoutSeconds, consumer, segmentId);
+    }
+
+    /**
+     * Только id всех пользователей в порядке id.
+     *
+     * @param queryTimeoutSeconds таймаут запроса JDBC (Statement.setQueryTimeout), 0 - без ограничения
+     */
+    public void forEachUserId(int queryTimeoutSeconds, LongConsumer consumer) {
+        streamIds(ALL_USER_IDS, queryTimeoutSeconds, consumer);
+    }
+
+    private void streamIds(String sql, int queryTimeoutSeconds, LongConsumer consumer, Object... args) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(FETCH_SIZE);
+            ps.setQueryTimeout(queryTimeoutSeconds);
+            for (int i = 0; i < args.length; i++) {
+                ps.setObject(i + 1, args[i]);
+            }
+            return ps;
+        }, rs -> {
+            consumer.accept(rs.getLong("id"));
+        });
+    }
+
+    private void stream(String sql, boolean withUsername, Consumer<SegmentMemberDto> consumer, Object... args) {
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(FETCH_SIZE);
+            for (int i = 0; i < args.length; i++) {
+                ps.setObject(i + 1, args[i]);
+            }
+            return ps;
+        }, rs -> {
+            consumer.accept(new SegmentMemberDto(rs.getLong("id"), withUsername ? rs.getString("username") : null));
+        });
+    }
+}
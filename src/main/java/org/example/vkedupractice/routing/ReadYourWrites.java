@@ -0,0 +1,31 @@
+package org.example.vkedupractice.routing;
+
+/**
+ * Привязка текущего потока к primary на окно read-your-writes после собственной мутации клиента
+ * (ReadYourWritesFilter). Пока привязка действует, read-only транзакции не уходят на реплики.
+ */
+public final class ReadYourWrites {
+
+    static final String REQUEST_ATTRIBUTE = ReadYourWrites.class.getName() + ".pinned";
+
+    private static final ThreadLocal<Boolean> PINNED = new ThreadLocal<>();
+
+    private ReadYourWrites() {
+    }
+
+    public static boolean isPinned() {
+        return Boolean.TRUE.equals(PINNED.get());
+    }
+
+    static void pin(boolean pinned) {
+        if (pinned) {
+            PINNED.set(Boolean.TRUE);
+        } else {
+            PINNED.remove();
+        }
+    }
+
+    static void clear() {
+        PINNED.remove();
+    }
+}
@@ -0,0 +1,103 @@
+package org.example.vkedupractice.routing;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+/**
+ * Read-your-writes для клиента: мутирующий запрос (POST, PUT, PATCH, DELETE) выставляет cookie
+ * с моментом окончания окна, и запросы с этой cookie до его окончания читают с primary.
+ * Состояние хранит клиент, поэтому окно действует на любом экземпляре сервиса.
+ *
+ * Значение дальше, чем now + window, игнорируется: клиент не может навсегда привязать себя к primary.
+ *
+ * Сам мутирующий запрос тоже целиком идет на primary: при open-in-view соединение берется первым
+ * запросом к БД и держится до конца HTTP-запроса, и запись не должна попасть на соединение реплики.
+ *
+ * Тело потоковых ответов (StreamingResponseBody) пишется в другом потоке, поэтому привязка дублируется
+ * в атрибуте запроса и восстанавливается перехватчиком {@link #asyncInterceptor()}.
+ */
+public class ReadYourWritesFilter extends OncePerRequestFilter {
+
+    public static final String COOKIE_NAME = "db_primary_until";
+
+    private static final Set<String> MUTATING_METHODS = Set.of(
+            HttpMethod.POST.name(), HttpMethod.PUT.name(), HttpMethod.PATCH.name(), HttpMethod.DELETE.name());
+
+    private final Duration window;
+    private final Clock clock;
+
+    public ReadYourWritesFilter(Duration window, Clock clock) {
+        this.window = window;
+        this.clock = clock;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        long now = clock.millis();
+        boolean pinned = isWithinWindow(request, now);
+        if (MUTATING_METHODS.contains(request.getMethod())) {
+            // Cookie выставляется до обработки: после нее ответ может быть уже отправлен
+            Cookie cookie = new Cookie(COOKIE_NAME, Long.toString(now + window.toMillis()));
+            cookie.setPath("/");
+            cookie.setHttpOnly(true);
+            cookie.setMaxAge((int) Math.max(1, window.toSeconds()));
+            response.addCookie(cookie);
+            pinned = true;
+        }
+        request.setAttribute(ReadYourWrites.REQUEST_ATTRIBUTE, pinned);
+        ReadYourWrites.pin(pinned);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            ReadYourWrites.clear();
+        }
+    }
+
+    private boolean isWithinWindow(HttpServletRequest request, long now) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return false;
+        }
+        for (Cookie cookie : cookies) {
+            if (COOKIE_NAME.equals(cookie.getName())) {
+                try {
+                    long until = Long.parseLong(cookie.getValue());
+                    return until > now && until <= now + window.toMillis();
+                } catch (NumberFormatException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    public static CallableProcessingInterceptor asyncInterceptor() {
+        return new CallableProcessingInterceptor() {
+            @Override
+            public <T> void preProcess(NativeWebRequest request, Callable<T> task) {
+                ReadYourWrites.pin(Boolean.TRUE.equals(
+                        request.getAttribute(ReadYourWrites.REQUEST_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST)));
+            }
+
+            @Override
+            public <T> void postProcess(NativeWebRequest request, Callable<T> task, Object concurrentResult) {
+                ReadYourWrites.clear();
+            }
+        };
+    }
+}
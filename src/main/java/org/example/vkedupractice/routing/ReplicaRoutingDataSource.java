@@ -0,0 +1,184 @@
+package org.example.vkedupractice.routing;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Маршрутизация соединений между primary и репликами. Read-only транзакции (в том числе
+ * {@code @Transactional(propagation = SUPPORTS, readOnly = true)}) получают соединение с реплики по кругу,
+ * все остальное - запись, мутации SegmentService и обращения вне транзакции - идет на primary.
+ *
+ * Реплика исключается из круга, если проверка здоровья ({@link #checkReplicas()}) не прошла или ее
+ * отставание больше maxLag, а также сразу при ошибке получения соединения. Если здоровых реплик нет,
+ * чтение идет на primary.
+ *
+ * Решение принимается при получении соединения, поэтому источник нужно оборачивать в
+ * LazyConnectionDataSourceProxy: JpaTransactionManager берет соединение до того, как транзакция
+ * помечена read-only, а прокси откладывает это до первого запроса.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractDataSource implements MeterBinder, Closeable {
+
+    private final HikariDataSource primary;
+    private final List<Replica> replicas;
+    private final String lagQuery;
+    private final Duration maxLag;
+    private final AtomicInteger next = new AtomicInteger();
+    private Counter primaryConnections;
+    private Counter replicaConnections;
+    private Counter fallbackConnections;
+
+    /**
+     * @param lagQuery запрос, возвращающий отставание реплики в секундах; пустой - отставание не проверяется
+     */
+    public ReplicaRoutingDataSource(HikariDataSource primary, List<HikariDataSource> replicas,
+                                    String lagQuery, Duration maxLag) {
+        this.primary = primary;
+        this.replicas = replicas.stream().map(Replica::new).toList();
+        this.lagQuery = lagQuery;
+        this.maxLag = maxLag;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly() || ReadYourWrites.isPinned()) {
+            increment(primaryConnections);
+            return primary.getConnection();
+        }
+        int count = replicas.size();
+        for (int i = 0; i < count; i++) {
+            Replica replica = replicas.get(Math.floorMod(next.getAndIncrement(), count));
+            if (!replica.healthy) {
+                continue;
+            }
+            try {
+                Connection connection = replica.dataSource.getConnection();
+                increment(replicaConnections);
+                return connection;
+            } catch (SQLException | RuntimeException e) {
+                replica.markDown(e.getMessage());
+            }
+        }
+        increment(fallbackConnections);
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Credentials are configured per pool");
+    }
+
+    /**
+     * Проверяет каждую реплику: соединение валидно и (если задан lagQuery) отставание не больше maxLag.
+     * Вызывается по расписанию; упавшая реплика возвращается в круг после первой успешной проверки.
+     */
+    public void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection()) {
+                if (!connection.isValid(2)) {
+                    replica.markDown("connection is not valid");
+                    continue;
+                }
+                Duration lag = lag(connection);
+                if (lag.compareTo(maxLag) > 0) {
+                    replica.markDown("replication lag " + lag.toMillis() + " ms");
+                    continue;
+                }
+                replica.markUp();
+            } catch (SQLException | RuntimeException e) {
+                replica.markDown(e.getMessage());
+            }
+        }
+    }
+
+    private Duration lag(Connection connection) throws SQLException {
+        if (lagQuery == null || lagQuery.isBlank()) {
+            return Duration.ZERO;
+        }
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(lagQuery)) {
+            return rs.next() ? Duration.ofMillis((long) (rs.getDouble(1) * 1000)) : Duration.ZERO;
+        }
+    }
+
+    public int getHealthyReplicas() {
+        return (int) replicas.stream().filter(replica -> replica.healthy).count();
+    }
+
+    /**
+     * Суммарный размер пулов - предел параллельных соединений для bulkhead.
+     */
+    public int getMaximumPoolSize() {
+        return primary.getMaximumPoolSize()
+                + replicas.stream().mapToInt(replica -> replica.dataSource.getMaximumPoolSize()).sum();
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        primaryConnections = connections(registry, "primary");
+        replicaConnections = connections(registry, "replica");
+        fallbackConnections = connections(registry, "fallback");
+        Gauge.builder("db.replicas.healthy", this, ReplicaRoutingDataSource::getHealthyReplicas)
+                .description("Replicas currently eligible for read-only transactions")
+                .register(registry);
+    }
+
+    private static Counter connections(MeterRegistry registry, String target) {
+        return Counter.builder("db.routing.connections")
+                .description("Connections handed out by the read-replica router")
+                .tag("target", target)
+                .register(registry);
+    }
+
+    private static void increment(Counter counter) {
+        if (counter != null) {
+            counter.increment();
+        }
+    }
+
+    @Override
+    public void close() {
+        replicas.forEach(replica -> replica.dataSource.close());
+        primary.close();
+    }
+
+    private static final class Replica {
+
+        private final HikariDataSource dataSource;
+        private volatile boolean healthy = true;
+
+        Replica(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        void markDown(String reason) {
+            if (healthy) {
+                log.warn("Replica {} removed from read rotation: {}", dataSource.getPoolName(), reason);
+            }
+            healthy = false;
+        }
+
+        void markUp() {
+            if (!healthy) {
+                log.info("Replica {} returned to read rotation", dataSource.getPoolName());
+            }
+            healthy = true;
+        }
+    }
+}
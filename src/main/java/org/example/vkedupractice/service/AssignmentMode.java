@@ -0,0 +1,11 @@
+package org.example.vkedupractice.service;
+
+/**
+ * Способ распределения сегмента по пользователям.
+ * SQL - выборка и вставка выполняются на стороне БД одним INSERT ... SELECT.
+ * ENTITY - старый путь: загрузка всех пользователей в память, shuffle и saveAll.
+ */
+public enum AssignmentMode {
+    SQL,
+    ENTITY
+}
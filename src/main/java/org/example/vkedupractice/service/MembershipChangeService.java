@@ -0,0 +1,38 @@
+package org.example.vkedupractice.service;
+
+import lombok.RequiredArgsConstructor;
+import org.example.vkedupractice.changes.MembershipChangeLog;
+import org.example.vkedupractice.dto.MembershipChangeDto;
+import org.example.vkedupractice.dto.MembershipChangesPage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+
+@Service
+@RequiredArgsConstructor
+public class MembershipChangeService {
+
+    private final MembershipChangeLog membershipChangeLog;
+
+    @Value("${changes.page.default-limit:1000}")
+    private int defaultPageLimit = 1000;
+
+    @Value("${changes.page.max-limit:10000}")
+    private int maxPageLimit = 10000;
+
+    /**
+     * Изменения членства после курсора since. Потребитель сохраняет nextCursor и передает его в следующий
+     * запрос; начать с нуля можно с since=0 - журнал компактный и содержит текущее состояние.
+     */
+    public MembershipChangesPage getChanges(Long since, Integer limit) {
+        long cursor = since == null ? 0L : Math.max(0L, since);
+        int pageSize = limit == null ? defaultPageLimit : Math.max(1, Math.min(limit, maxPageLimit));
+        List<MembershipChangeDto> changes = membershipChangeLog.findAfter(cursor, pageSize);
+        return MembershipChangesPage.builder()
+                .changes(changes)
+                .nextCursor(changes.isEmpty() ? cursor : changes.get(changes.size() - 1).getCursor())
+                .hasMore(changes.size() == pageSize)
+                .build();
+    }
+}
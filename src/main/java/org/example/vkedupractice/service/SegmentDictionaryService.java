@@ -0,0 +1,82 @@
+package org.example.vkedupractice.service;
+
+import lombok.RequiredArgsConstructor;
+import org.example.vkedupractice.dto.BatchUserSegmentIdsResponse;
+import org.example.vkedupractice.dto.BatchUserSegmentsResponse;
+import org.example.vkedupractice.dto.SegmentDictionary;
+import org.example.vkedupractice.dto.UserSegmentIdsResponse;
+import org.example.vkedupractice.dto.UserSegmentsResponse;
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.repository.SegmentProjectionRepository;
+import org.example.vkedupractice.version.MembershipVersions;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Словарь сегментов id -> имя для компактных ответов: клиент загружает его один раз (с ETag) и дальше
+ * получает членство числами, а не повторяющимися в каждом ответе именами.
+ *
+ * Ответы с id строятся из тех же ответов с именами (и того же кэша), поэтому не расходятся с ними.
+ * Имя, которого уже нет в словаре (сегмент переименован или удален во время запроса), пропускается:
+ * ответ с ним устарел бы так же, как ответ с прежним именем.
+ */
+@Service
+@RequiredArgsConstructor
+public class SegmentDictionaryService {
+
+    private final MembershipIndex membershipIndex;
+    private final SegmentProjectionRepository segmentProjectionRepository;
+    private final MembershipVersions membershipVersions;
+
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public SegmentDictionary getDictionary() {
+        Map<Long, String> names = membershipIndex.isReady()
+                ? membershipIndex.segmentNames()
+                : segmentProjectionRepository.findNames();
+        return SegmentDictionary.builder()
+                .version(membershipVersions.segmentDictionary(names))
+                .segments(names)
+                .build();
+    }
+
+    public UserSegmentIdsResponse encode(UserSegmentsResponse response, SegmentDictionary dictionary) {
+        return encode(response, idsByName(dictionary));
+    }
+
+    public BatchUserSegmentIdsResponse encode(BatchUserSegmentsResponse response, SegmentDictionary dictionary) {
+        Map<String, Long> ids = idsByName(dictionary);
+        List<UserSegmentIdsResponse> users = response.getUsers().stream()
+                .map(user -> encode(user, ids))
+                .toList();
+        return BatchUserSegmentIdsResponse.builder()
+                .users(users)
+                .missingIds(response.getMissingIds())
+                .build();
+    }
+
+    private static UserSegmentIdsResponse encode(UserSegmentsResponse response, Map<String, Long> ids) {
+        long[] segmentIds = response.getSegments().stream()
+                .map(ids::get)
+                .filter(id -> id != null)
+                .mapToLong(Long::longValue)
+                .toArray();
+        Arrays.sort(segmentIds);
+        return UserSegmentIdsResponse.builder()
+                .userId(response.getUserId())
+                .username(response.getUsername())
+                .segmentIds(segmentIds)
+                .build();
+    }
+
+    private static Map<String, Long> idsByName(SegmentDictionary dictionary) {
+        Map<String, Long> ids = new HashMap<>(dictionary.getSegments().size() * 2);
+        dictionary.getSegments().forEach((id, name) -> ids.put(name, id));
+        return ids;
+    }
+}
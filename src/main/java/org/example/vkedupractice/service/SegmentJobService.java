@@ -0,0 +1,258 @@
+package org.example.vkedupractice.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.vkedupractice.cache.UserLookupCache;
+import org.example.vkedupractice.changes.MembershipChangeLog;
+import org.example.vkedupractice.config.SegmentJobsConfig;
+import org.example.vkedupractice.dto.CreateSegmentRequest;
+import org.example.vkedupractice.dto.SegmentJobDto;
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.metrics.SegmentMetrics;
+import org.example.vkedupractice.model.Segment;
+import org.example.vkedupractice.model.SegmentKind;
+import org.example.vkedupractice.repository.SegmentRepository;
+import org.example.vkedupractice.repository.UserRepository;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.data.domain.Limit;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Асинхронное создание сегмента. Сегмент создается сразу, а распределение выполняется на ограниченном пуле
+ * порциями: пользователи перебираются окнами по id, в каждом окне случайно выбирается доля percentage
+ * (стратифицированная выборка), каждое окно - отдельная короткая транзакция. Остаток от округления
+ * добирается в конце одним INSERT ... ORDER BY RANDOM().
+ *
+ * Задачи хранятся в памяти; завершенные вытесняются, когда их больше segments.jobs.retained.
+ */
+@Slf4j
+@Service
+public class SegmentJobService {
+
+    private static final String METRICS_MODE = "CHUNKED";
+
+    private final SegmentRepository segmentRepository;
+    private final UserRepository userRepository;
+    private final MembershipIndex membershipIndex;
+    private final UserLookupCache userLookupCache;
+    private final SegmentMetrics segmentMetrics;
+    private final MembershipChangeLog membershipChangeLog;
+    private final TransactionTemplate transactionTemplate;
+    private final TaskExecutor executor;
+    private final int chunkSize;
+    private final int retained;
+    private final Map<String, SegmentJob> jobs = new ConcurrentHashMap<>();
+
+    public SegmentJobService(SegmentRepository segmentRepository,
+                             UserRepository userRepository,
+                             MembershipIndex membershipIndex,
+                             UserLookupCache userLookupCache,
+                             SegmentMetrics segmentMetrics,
+                             MembershipChangeLog membershipChangeLog,
+                             PlatformTransactionManager transactionManager,
+                             @Qualifier(SegmentJobsConfig.SEGMENT_JOB_EXECUTOR) TaskExecutor executor,
+                             @Value("${segments.jobs.chunk-size:10000}") int chunkSize,
+                             @Value("${segments.jobs.retained:1000}") int retained) {
+        this.segmentRepository = segmentRepository;
+        this.userRepository = userRepository;
+        this.membershipIndex = membershipIndex;
+        this.userLookupCache = userLookupCache;
+        this.segmentMetrics = segmentMetrics;
+        this.membershipChangeLog = membershipChangeLog;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.executor = executor;
+        this.chunkSize = chunkSize;
+        this.retained = retained;
+    }
+
+    /**
+     * Создает сегмент и ставит распределение в очередь.
+     *
+     * @throws org.springframework.core.task.TaskRejectedException если пул и очередь заняты;
+     *                                                             созданный сегмент при этом удаляется
+     */
+    public SegmentJobDto submitCreation(CreateSegmentRequest request) {
+        if (request.getPercentage() < 0 || request.getPercentage() > 100) {
+            throw new IllegalArgumentException("Percentage must be between 0 and 100");
+        }
+        Segment segment = transactionTemplate.execute(status -> createEmptySegment(request));
+        SegmentJob job = new SegmentJob(UUID.randomUUID().toString(), segment, request.getPercentage());
+        if (segment.isHashBucket()) {
+            // Для HASH_BUCKET сегмента распределять нечего: членство вычисляется по хешу
+            membershipIndex.segmentChanged(segment.getId(), true);
+            userLookupCache.onMembersAdded(segment);
+            job.finish(null);
+            register(job);
+            return job.toDto();
+        }
+        register(job);
+        try {
+            executor.execute(() -> run(job));
+        } catch (RuntimeException e) {
+            jobs.remove(job.id);
+            transactionTemplate.executeWithoutResult(status -> segmentRepository.deleteById(segment.getId()));
+            throw e;
+        }
+        return job.toDto();
+    }
+
+    public Optional<SegmentJobDto> getJob(String id) {
+        return Optional.ofNullable(jobs.get(id)).map(SegmentJob::toDto);
+    }
+
+    private Segment createEmptySegment(CreateSegmentRequest request) {
+        if (segmentRepository.existsByName(request.getName())) {
+            throw new RuntimeException("Segment with name '" + request.getName() + "' already exists");
+        }
+        Segment.SegmentBuilder builder = Segment.builder()
+                .name(request.getName())
+                .description(request.getDescription());
+        if (request.getKind() == SegmentKind.HASH_BUCKET) {
+            builder.kind(SegmentKind.HASH_BUCKET)
+                    .percentage(request.getPercentage())
+                    .salt(ThreadLocalRandom.current().nextLong());
+        }
+        Segment segment = segmentRepository.save(builder.build());
+        if (segment.isHashBucket()) {
+            membershipChangeLog.recordHashSegmentCreated(segment);
+        }
+        return segment;
+    }
+
+    void run(SegmentJob job) {
+        job.state = SegmentJobDto.State.RUNNING;
+        try {
+            assignInChunks(job);
+            job.finish(null);
+        } catch (Exception e) {
+            log.error("Segment job {} for segment {} failed", job.id, job.segmentId, e);
+            job.finish(e.getMessage());
+        }
+    }
+
+    private void assignInChunks(SegmentJob job) {
+        long totalUsers = segmentMetrics.time(METRICS_MODE, "count", userRepository::countAllUsers);
+        long target = (long) Math.ceil(totalUsers * job.percentage / 100.0);
+        job.total = target;
+        if (target == 0) {
+            return;
+        }
+
+        double carry = 0;
+        long after = 0L;
+        while (job.processed.get() < target) {
+            List<Long> window = userRepository.findIdsAfter(after, Limit.of(chunkSize));
+            if (window.isEmpty()) {
+                break;
+            }
+            long from = after;
+            long to = window.get(window.size() - 1);
+            carry += window.size() * job.percentage / 100.0;
+            int limit = (int) Math.min((long) Math.floor(carry), target - job.processed.get());
+            carry -= limit;
+            if (limit > 0) {
+                int inserted = segmentMetrics.time(METRICS_MODE, "chunk", () -> transactionTemplate.execute(status -> {
+                    int added = insertAndCount(job.segmentId,
+                            segmentRepository.insertRandomMembersInRange(job.segmentId, from, to, limit));
+                    membershipChangeLog.recordMembersAdded(job.segment, from, to);
+                    membersAdded(job);
+                    return added;
+                }));
+                job.processed.addAndGet(inserted);
+            }
+            after = to;
+        }
+
+        // Добор остатка от округления и пользователей, появившихся во время работы задачи
+        long missing = target - job.processed.get();
+        if (missing > 0) {
+            int inserted = segmentMetrics.time(METRICS_MODE, "top-up", () -> transactionTemplate.execute(status -> {
+                int added = insertAndCount(job.segmentId, segmentRepository.insertRandomMembers(job.segmentId, (int) missing));
+                membershipChangeLog.recordMembersAdded(job.segment);
+                membersAdded(job);
+                return added;
+            }));
+            job.processed.addAndGet(inserted);
+        }
+    }
+
+    // Счетчик участников обновляется в той же транзакции, что и вставка порции
+    private int insertAndCount(long segmentId, int inserted) {
+        segmentRepository.addMembers(segmentId, inserted);
+        return inserted;
+    }
+
+    // Индекс и кэш обновляются после коммита каждой порции: участники видны в чтениях по мере распределения,
+    // а не только после завершения задачи. Повторы внутри одной транзакции сливаются до коммита
+    private void membersAdded(SegmentJob job) {
+        membershipIndex.segmentChanged(job.segmentId, true);
+        userLookupCache.onMembersAdded(job.segment);
+    }
+
+    private void register(SegmentJob job) {
+        jobs.put(job.id, job);
+        if (jobs.size() <= retained) {
+            return;
+        }
+        Iterator<SegmentJob> finished = jobs.values().stream()
+                .filter(j -> j.finishedAt != null)
+                .sorted((a, b) -> a.finishedAt.compareTo(b.finishedAt))
+                .iterator();
+        while (jobs.size() > retained && finished.hasNext()) {
+            jobs.remove(finished.next().id);
+        }
+    }
+
+    static final class SegmentJob {
+        private final String id;
+        private final Segment segment;
+        private final long segmentId;
+        private final int percentage;
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        private final AtomicLong processed = new AtomicLong();
+        private volatile long total;
+        private volatile SegmentJobDto.State state = SegmentJobDto.State.QUEUED;
+        private volatile String error;
+        private volatile LocalDateTime finishedAt;
+
+        SegmentJob(String id, Segment segment, int percentage) {
+            this.id = id;
+            this.segment = segment;
+            this.segmentId = segment.getId();
+            this.percentage = percentage;
+        }
+
+        void finish(String error) {
+            this.error = error;
+            this.finishedAt = LocalDateTime.now();
+            this.state = error == null ? SegmentJobDto.State.DONE : SegmentJobDto.State.FAILED;
+        }
+
+        SegmentJobDto toDto() {
+            return SegmentJobDto.builder()
+                    .id(id)
+                    .segmentId(segmentId)
+                    .segmentName(segment.getName())
+                    .state(state)
+                    .processed(processed.get())
+                    .total(total)
+                    .error(error)
+                    .createdAt(createdAt)
+                    .finishedAt(finishedAt)
+                    .build();
+        }
+    }
+}
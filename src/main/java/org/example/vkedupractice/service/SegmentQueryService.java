@@ -0,0 +1,51 @@
+package org.example.vkedupractice.service;
+
+import lombok.RequiredArgsConstructor;
+import org.example.vkedupractice.dto.SegmentQueryRequest;
+import org.example.vkedupractice.dto.SegmentQueryResponse;
+import org.example.vkedupractice.query.SegmentQueryEngine;
+import org.example.vkedupractice.query.SegmentQueryResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Service
+@RequiredArgsConstructor
+public class SegmentQueryService {
+
+    private final SegmentQueryEngine segmentQueryEngine;
+
+    @Value("${segments.query.default-limit:1000}")
+    private int defaultLimit = 1000;
+
+    @Value("${segments.query.max-limit:10000}")
+    private int maxLimit = 10000;
+
+    /**
+     * Число пользователей, удовлетворяющих выражению, и страница их id (больше after, не более limit).
+     */
+    @Transactional(readOnly = true)
+    public SegmentQueryResponse query(SegmentQueryRequest request) {
+        SegmentQueryResult result = segmentQueryEngine.evaluate(request.getExpression());
+        int pageSize = request.getLimit() == null ? defaultLimit : Math.max(1, Math.min(request.getLimit(), maxLimit));
+        List<Long> ids = result.idsAfter(request.getAfter() == null ? 0L : request.getAfter(), pageSize + 1);
+        boolean hasMore = ids.size() > pageSize;
+        List<Long> page = hasMore ? ids.subList(0, pageSize) : ids;
+        return SegmentQueryResponse.builder()
+                .count(result.count())
+                .userIds(List.copyOf(page))
+                .nextCursor(hasMore ? page.get(page.size() - 1) : null)
+                .build();
+    }
+
+    /**
+     * Вычисляет выражение целиком для потоковой выгрузки id. Ошибки выражения возникают здесь,
+     * до начала ответа.
+     */
+    @Transactional(readOnly = true)
+    public SegmentQueryResult evaluate(String expression) {
+        return segmentQueryEngine.evaluate(expression);
+    }
+}
@@ -1,19 +1,29 @@
 package org.example.vkedupractice.service;
 
 import lombok.RequiredArgsConstructor;
+import org.example.vkedupractice.cache.UserLookupCache;
+import org.example.vkedupractice.changes.MembershipChangeLog;
 import org.example.vkedupractice.dto.CreateSegmentRequest;
 import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.dto.SegmentPurgeStatus;
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.metrics.SegmentMetrics;
 import org.example.vkedupractice.model.Segment;
+import org.example.vkedupractice.model.SegmentKind;
 import org.example.vkedupractice.model.User;
+import org.example.vkedupractice.purge.SegmentPurger;
+import org.example.vkedupractice.repository.SegmentProjectionRepository;
 import org.example.vkedupractice.repository.SegmentRepository;
 import org.example.vkedupractice.repository.UserRepository;
+import org.example.vkedupractice.version.MembershipVersions;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.stream.Collectors;
 
 @Service
@@ -22,22 +32,40 @@ import java.util.stream.Collectors;
 public class SegmentService {
 
     private final SegmentRepository segmentRepository;
+    private final SegmentProjectionRepository segmentProjectionRepository;
     private final UserRepository userRepository;
+    private final MembershipIndex membershipIndex;
+    private final UserLookupCache userLookupCache;
+    private final SegmentPurger segmentPurger;
+    private final SegmentMetrics segmentMetrics;
+    private final MembershipChangeLog membershipChangeLog;
+    private final MembershipVersions membershipVersions;
 
+    @Value("${segments.assignment.mode:SQL}")
+    private AssignmentMode assignmentMode = AssignmentMode.SQL;
+
+    // Чтения сегментов - проекции сразу в SegmentDto, без управляемых сущностей
+    @Transactional(readOnly = true)
     public List<SegmentDto> getAllSegments() {
-        return segmentRepository.findAll().stream()
-                .map(this::convertToDto)
-                .collect(Collectors.toList());
+        return segmentProjectionRepository.findAll();
+    }
+
+    /**
+     * Текущая версия ответа {@link #getAllSegments} для If-None-Match: одна проекция (id, version).
+     */
+    @Transactional(readOnly = true)
+    public String getSegmentsVersion() {
+        return membershipVersions.segments();
     }
 
+    @Transactional(readOnly = true)
     public Optional<SegmentDto> getSegmentById(Long id) {
-        return segmentRepository.findById(id)
-                .map(this::convertToDto);
+        return segmentProjectionRepository.findById(id);
     }
 
+    @Transactional(readOnly = true)
     public Optional<SegmentDto> getSegmentByName(String name) {
-        return segmentRepository.findByName(name)
-                .map(this::convertToDto);
+        return segmentProjectionRepository.findByName(name);
     }
 
 
@@ -45,34 +73,78 @@ public class SegmentService {
         Segment segment = segmentRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Segment not found with id: " + id));
 
+        boolean changed = false;
+        String previousName = null;
         if (name != null && !name.equals(segment.getName())) {
             if (segmentRepository.existsByName(name)) {
                 throw new RuntimeException("Segment with name '" + name + "' already exists");
             }
+            previousName = segment.getName();
+            userLookupCache.onSegmentRenamed(previousName);
             segment.setName(name);
+            changed = true;
         }
 
-        if (description != null) {
+        if (description != null && !description.equals(segment.getDescription())) {
             segment.setDescription(description);
+            changed = true;
         }
 
         segment = segmentRepository.save(segment);
+        if (changed) {
+            segmentRepository.incrementVersion(segment.getId());
+        }
+        // Строка сегмента уже заблокирована UPDATE выше, голова журнала - после нее: в том же порядке,
+        // что и при добавлении участников (addMembers, затем recordMembersAdded). Обратный порядок
+        // приводил к взаимной блокировке переименования с порцией распределения в PostgreSQL
+        if (previousName != null) {
+            membershipChangeLog.recordSegmentRenamed(segment, previousName);
+        }
+        membershipIndex.segmentChanged(segment.getId(), false);
         return convertToDto(segment);
     }
 
+    // Логическое удаление одним UPDATE: сегмент сразу пропадает из чтений,
+    // строки user_segments удаляет SegmentPurger в фоне
     public void deleteSegment(Long id) {
         Segment segment = segmentRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Segment not found with id: " + id));
 
-        for (User u : segment.getUsers()) {
-            u.getSegments().remove(segment);
-            userRepository.save(u);
-        }
-        segmentRepository.delete(segment);
+        String name = segment.getName();
+        segmentRepository.incrementVersion(id);
+        segment.markDeleted();
+        segmentRepository.save(segment);
+        membershipChangeLog.recordSegmentDeleted(id, name);
+        membershipIndex.segmentChanged(id, true);
+        userLookupCache.onSegmentDeleted(name);
+    }
+
+    @Transactional(readOnly = true)
+    public List<SegmentPurgeStatus> getPurgeStatuses() {
+        return segmentPurger.getStatuses();
+    }
+
+    @Transactional(readOnly = true)
+    public Optional<SegmentPurgeStatus> getPurgeStatus(Long segmentId) {
+        return segmentPurger.getStatus(segmentId);
     }
 
     @Transactional
     public SegmentDto createSegment(CreateSegmentRequest request) {
+        if (request.getKind() == SegmentKind.HASH_BUCKET) {
+            Segment segment = segmentRepository.save(Segment.builder()
+                    .name(request.getName())
+                    .description(request.getDescription())
+                    .kind(SegmentKind.HASH_BUCKET)
+                    .percentage(request.getPercentage())
+                    .salt(ThreadLocalRandom.current().nextLong())
+                    .build());
+            membershipChangeLog.recordHashSegmentCreated(segment);
+            membershipIndex.segmentChanged(segment.getId(), true);
+            userLookupCache.onMembersAdded(segment);
+            return SegmentDto.from(segment);
+        }
+
         Segment segment = Segment.builder()
                 .name(request.getName())
                 .description(request.getDescription())
@@ -81,6 +153,7 @@ public class SegmentService {
         segment = segmentRepository.save(segment);
         segment = segmentRepository.findById(segment.getId()).orElseThrow();
         assignSegmentToRandomUsers(segment, request.getPercentage());
+        membershipIndex.segmentChanged(segment.getId(), true);
 
         return SegmentDto.from(segment);
     }
@@ -91,35 +164,111 @@ public class SegmentService {
         if (percentage < 0 || percentage > 100) {
             throw new IllegalArgumentException("Percentage must be between 0 and 100");
         }
+        if (segment.isHashBucket()) {
+            throw new IllegalArgumentException("Hash bucket segment '" + segment.getName() + "' has no materialized members");
+        }
+
+        if (assignmentMode == AssignmentMode.ENTITY) {
+            assignInMemory(segment, percentage);
+            return;
+        }
+
+        String mode = AssignmentMode.SQL.name();
+        long totalUsers = segmentMetrics.time(mode, "count", userRepository::countAllUsers);
+        if (totalUsers == 0) return;
 
-        List<User> allUsers = userRepository.findAllWithSegments();
+        int targetUserCount = (int) Math.ceil(totalUsers * percentage / 100.0);
+        int currentUserCount = segmentMetrics.time(mode, "count", () -> lockMemberCount(segment));
+        if (currentUserCount >= targetUserCount) return;
+
+        int inserted = segmentMetrics.time(mode, "insert",
+                () -> segmentRepository.insertRandomMembers(segment.getId(), targetUserCount - currentUserCount));
+        segmentRepository.addMembers(segment.getId(), inserted);
+        segment.setMemberCount(currentUserCount + inserted);
+        membershipChangeLog.recordMembersAdded(segment);
+        membershipIndex.segmentChanged(segment.getId(), true);
+        userLookupCache.onMembersAdded(segment);
+    }
+
+    private void assignInMemory(Segment segment, int percentage) {
+        String mode = AssignmentMode.ENTITY.name();
+        List<User> allUsers = segmentMetrics.time(mode, "load", userRepository::findAllWithSegments);
         if (allUsers.isEmpty()) return;
 
         int targetUserCount = (int) Math.ceil(allUsers.size() * percentage / 100.0);
-        int currentUserCount = (int) segmentRepository.countUsersInSegment(segment.getName());
+        int currentUserCount = segmentMetrics.time(mode, "count", () -> lockMemberCount(segment));
         if (currentUserCount >= targetUserCount) return;
 
         int usersToAdd = targetUserCount - currentUserCount;
 
-        List<User> availableUsers = allUsers.stream()
+        List<User> availableUsers = segmentMetrics.time(mode, "filter", () -> allUsers.stream()
                 .filter(u -> u.getSegments().stream()
                         .noneMatch(s -> s.getId().equals(segment.getId())))
-                .collect(Collectors.toList());
+                .collect(Collectors.toList()));
 
         if (availableUsers.isEmpty()) return;
 
-        Collections.shuffle(availableUsers);
+        segmentMetrics.time(mode, "shuffle", () -> Collections.shuffle(availableUsers));
         List<User> usersToUpdate = availableUsers.subList(0, Math.min(usersToAdd, availableUsers.size()));
 
         for (User user : usersToUpdate) {
             user.getSegments().add(segment);
         }
-        userRepository.saveAll(usersToUpdate);
+        // saveAll только сливает сущности, INSERT-ы выполняются при flush - его тоже относим к фазе save
+        segmentMetrics.time(mode, "save", () -> {
+            userRepository.saveAll(usersToUpdate);
+            userRepository.flush();
+        });
+        segmentRepository.addMembers(segment.getId(), usersToUpdate.size());
+        segment.setMemberCount(currentUserCount + usersToUpdate.size());
+        membershipChangeLog.recordMembersAdded(segment);
+        membershipIndex.segmentChanged(segment.getId(), true);
+        userLookupCache.onMembersAdded(segment);
     }
 
 
     public long getUsersInSegmentCount(String segmentName) {
-        return segmentRepository.countUsersInSegment(segmentName);
+        if (membershipIndex.isReady()) {
+            Optional<Long> indexed = membershipIndex.countMembers(segmentName);
+            if (indexed.isPresent()) {
+                return indexed.get();
+            }
+        }
+        return segmentRepository.findByName(segmentName)
+                .map(segment -> segment.isHashBucket() ? estimateHashBucketSize(segment) : segment.getMemberCount())
+                .orElse(0L);
+    }
+
+    /**
+     * Текущая версия ответа {@link #getUsersInSegmentCount} для If-None-Match. Пусто, если сегмента нет.
+     */
+    @Transactional(readOnly = true)
+    public Optional<String> getUsersInSegmentCountVersion(String segmentName) {
+        return membershipVersions.segmentCount(segmentName);
+    }
+
+    public boolean isUserInSegment(String segmentName, Long userId) {
+        if (membershipIndex.isReady()) {
+            return membershipIndex.isMember(segmentName, userId);
+        }
+        return segmentRepository.findByName(segmentName)
+                .filter(Segment::isHashBucket)
+                .map(segment -> segment.containsByHash(userId))
+                .orElseGet(() -> segmentRepository.isUserInSegment(segmentName, userId));
+    }
+
+    // Счетчик участников под блокировкой строки сегмента: параллельное распределение в тот же сегмент ждет,
+    // поэтому оба не доберут одну и ту же недостачу
+    private int lockMemberCount(Segment segment) {
+        return segmentRepository.lockMemberCount(segment.getId())
+                .map(Math::toIntExact)
+                .orElseThrow(() -> new RuntimeException("Segment not found with id: " + segment.getId()));
+    }
+
+    // Для HASH_BUCKET сегмента точный подсчет потребовал бы полного прохода по users,
+    // поэтому возвращаем оценку: корзины распределены равномерно
+    private long estimateHashBucketSize(Segment segment) {
+        return Math.round(userRepository.countAllUsers() * segment.getPercentage() / 100.0);
     }
 
     private SegmentDto convertToDto(Segment segment) {
@@ -128,6 +277,9 @@ public class SegmentService {
                 .name(segment.getName())
                 .description(segment.getDescription())
                 .createdAt(segment.getCreatedAt())
+                .kind(segment.getKind())
+                .percentage(segment.getPercentage())
+                .memberCount(segment.isHashBucket() ? null : segment.getMemberCount())
                 .build();
     }
 }
\ No newline at end of file
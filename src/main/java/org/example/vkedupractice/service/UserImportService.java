@@ -0,0 +1,273 @@
+package org.example.vkedupractice.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.example.vkedupractice.dto.UserImportResult;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Потоковый импорт пользователей из NDJSON или CSV. Вход читается построчно и пишется порциями
+ * по chunkSize строк: каждая порция - одна транзакция с пакетной вставкой (JDBC batch).
+ *
+ * Вставка идет через JdbcTemplate в обход Hibernate: с IDENTITY-ключом Hibernate не пакетирует INSERT-ы,
+ * а JDBC batch работает и без предварительного выделения id. Занятые username отсеиваются заранее
+ * одним запросом на порцию; если пакет все же упал (параллельная вставка того же username),
+ * порция повторяется построчно, и отклоняются только конфликтующие строки.
+ */
+@Slf4j
+@Service
+public class UserImportService {
+
+    public enum Format { NDJSON, CSV }
+
+    private static final String INSERT_USER = "INSERT INTO users (username, email, created_at) VALUES (?, ?, ?)";
+    private static final int LOOKUP_BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectMapper objectMapper;
+    private final Counter importedCounter;
+    private final Counter rejectedCounter;
+    private final int defaultChunkSize;
+    private final int maxReportedRejects;
+
+    public UserImportService(JdbcTemplate jdbcTemplate,
+                             PlatformTransactionManager transactionManager,
+                             ObjectMapper objectMapper,
+                             MeterRegistry meterRegistry,
+                             @Value("${users.import.chunk-size:5000}") int defaultChunkSize,
+                             @Value("${users.import.max-reported-rejects:1000}") int maxReportedRejects) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.namedJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.objectMapper = objectMapper;
+        this.importedCounter = Counter.builder("users.import.rows").tag("result", "imported").register(meterRegistry);
+        this.rejectedCounter = Counter.builder("users.import.rows").tag("result", "rejected").register(meterRegistry);
+        this.defaultChunkSize = defaultChunkSize;
+        this.maxReportedRejects = maxReportedRejects;
+    }
+
+    public UserImportResult importUsers(InputStream input, Format format, Integer chunkSize) throws IOException {
+        int size = chunkSize == null ? defaultChunkSize : Math.max(1, chunkSize);
+        Progress progress = new Progress();
+        long start = System.nanoTime();
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+        List<Row> chunk = new ArrayList<>(size);
+        String line;
+        long lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank()) {
+                continue;
+            }
+            if (format == Format.CSV && lineNumber == 1 && isCsvHeader(line)) {
+                continue;
+            }
+            progress.received++;
+            Row row = parse(line, lineNumber, format, progress);
+            if (row == null) {
+                continue;
+            }
+            chunk.add(row);
+            if (chunk.size() == size) {
+                writeChunk(chunk, progress);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            writeChunk(chunk, progress);
+        }
+
+        long elapsedNanos = System.nanoTime() - start;
+        UserImportResult result = UserImportResult.builder()
+                .received(progress.received)
+                .imported(progress.imported)
+                .rejected(progress.rejected)
+                .chunks(progress.chunks)
+                .elapsedMillis(elapsedNanos / 1_000_000)
+                .rowsPerSecond(elapsedNanos == 0 ? 0 : progress.imported * 1e9 / elapsedNanos)
+                .rejects(progress.rejects)
+                .rejectsTruncated(progress.rejected > progress.rejects.size())
+                .build();
+        log.info("User import: {} received, {} imported, {} rejected in {} ms ({} rows/s)",
+                result.getReceived(), result.getImported(), result.getRejected(),
+                result.getElapsedMillis(), Math.round(result.getRowsPerSecond()));
+        return result;
+    }
+
+    private void writeChunk(List<Row> chunk, Progress progress) {
+        progress.chunks++;
+        List<Row> accepted = new ArrayList<>(chunk.size());
+        Set<String> seen = new HashSet<>();
+        Set<String> existing = findExistingUsernames(chunk);
+        for (Row row : chunk) {
+            if (existing.contains(row.username) || !seen.add(row.username)) {
+                progress.reject(row.line, row.username, "duplicate username");
+            } else {
+                accepted.add(row);
+            }
+        }
+        if (accepted.isEmpty()) {
+            return;
+        }
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(INSERT_USER, accepted, accepted.size(),
+                    (ps, row) -> {
+                        ps.setString(1, row.username);
+                        ps.setString(2, row.email);
+                        ps.setTimestamp(3, now);
+                    }));
+            progress.imported(accepted.size());
+        } catch (DataAccessException e) {
+            log.warn("Batch insert of {} users failed, retrying row by row: {}", accepted.size(), e.getMessage());
+            for (Row row : accepted) {
+                insertOne(row, now, progress);
+            }
+        }
+    }
+
+    private void insertOne(Row row, Timestamp now, Progress progress) {
+        try {
+            jdbcTemplate.update(INSERT_USER, row.username, row.email, now);
+            progress.imported(1);
+        } catch (DuplicateKeyException e) {
+            progress.reject(row.line, row.username, "duplicate username");
+        } catch (DataAccessException e) {
+            progress.reject(row.line, row.username, "rejected by database: " + e.getMostSpecificCause().getMessage());
+        }
+    }
+
+    private Set<String> findExistingUsernames(List<Row> chunk) {
+        Set<String> existing = new HashSet<>();
+        for (int from = 0; from < chunk.size(); from += LOOKUP_BATCH_SIZE) {
+            List<String> usernames = chunk.subList(from, Math.min(from + LOOKUP_BATCH_SIZE, chunk.size())).stream()
+                    .map(row -> row.username)
+                    .toList();
+            existing.addAll(namedJdbcTemplate.queryForList("SELECT username FROM users WHERE username IN (:usernames)",
+                    new MapSqlParameterSource("usernames", usernames), String.class));
+        }
+        return existing;
+    }
+
+    private Row parse(String line, long lineNumber, Format format, Progress progress) {
+        String username;
+        String email;
+        if (format == Format.NDJSON) {
+            try {
+                JsonNode node = objectMapper.readTree(line);
+                username = node.path("username").asText(null);
+                email = node.path("email").asText(null);
+            } catch (IOException e) {
+                progress.reject(lineNumber, null, "invalid JSON");
+                return null;
+            }
+        } else {
+            List<String> fields = splitCsv(line);
+            if (fields == null || fields.size() < 2) {
+                progress.reject(lineNumber, null, "expected 2 CSV columns: username,email");
+                return null;
+            }
+            username = fields.get(0);
+            email = fields.get(1);
+        }
+        username = username == null ? null : username.trim();
+        email = email == null ? null : email.trim();
+        if (username == null || username.isEmpty()) {
+            progress.reject(lineNumber, null, "username is required");
+            return null;
+        }
+        if (email == null || email.isEmpty()) {
+            progress.reject(lineNumber, username, "email is required");
+            return null;
+        }
+        return new Row(lineNumber, username, email);
+    }
+
+    private static boolean isCsvHeader(String line) {
+        List<String> fields = splitCsv(line);
+        return fields != null && !fields.isEmpty() && "username".equalsIgnoreCase(fields.get(0).trim());
+    }
+
+    // Поля через запятую, значение в кавычках может содержать запятые, "" внутри кавычек - сама кавычка.
+    // null - незакрытая кавычка
+    static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(2);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private record Row(long line, String username, String email) {
+    }
+
+    private final class Progress {
+        private long received;
+        private long imported;
+        private long rejected;
+        private long chunks;
+        private final List<UserImportResult.Reject> rejects = new ArrayList<>();
+
+        void imported(int rows) {
+            imported += rows;
+            importedCounter.increment(rows);
+        }
+
+        void reject(long line, String username, String reason) {
+            rejected++;
+            rejectedCounter.increment();
+            if (rejects.size() < maxReportedRejects) {
+                rejects.add(new UserImportResult.Reject(line, username, reason));
+            }
+        }
+    }
+}
@@ -1,16 +1,32 @@
 package org.example.vkedupractice.service;
 
 import lombok.RequiredArgsConstructor;
+import org.example.vkedupractice.cache.UserLookupCache;
+import org.example.vkedupractice.dto.BatchUserSegmentsResponse;
+import org.example.vkedupractice.dto.SegmentMemberDto;
 import org.example.vkedupractice.dto.UserDto;
+import org.example.vkedupractice.dto.UserPage;
 import org.example.vkedupractice.dto.UserSegmentsResponse;
+import org.example.vkedupractice.index.MembershipIndex;
 import org.example.vkedupractice.model.Segment;
-import org.example.vkedupractice.model.User;
+import org.example.vkedupractice.repository.SegmentProjectionRepository;
+import org.example.vkedupractice.repository.SegmentRepository;
+import org.example.vkedupractice.repository.UserProjectionRepository;
 import org.example.vkedupractice.repository.UserRepository;
+import org.example.vkedupractice.repository.UserStreamRepository;
+import org.example.vkedupractice.version.MembershipVersions;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Limit;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Service
@@ -18,65 +34,215 @@ import java.util.stream.Collectors;
 @RequiredArgsConstructor
 public class UserService {
 
+    private static final int ID_CHUNK_SIZE = 1000;
+
     private final UserRepository userRepository;
+    private final SegmentRepository segmentRepository;
+    private final MembershipIndex membershipIndex;
+    private final UserStreamRepository userStreamRepository;
+    private final UserProjectionRepository userProjectionRepository;
+    private final SegmentProjectionRepository segmentProjectionRepository;
+    private final UserLookupCache userLookupCache;
+    private final MembershipVersions membershipVersions;
+
+    @Value("${users.page.default-limit:100}")
+    private int defaultPageLimit = 100;
 
+    @Value("${users.page.max-limit:1000}")
+    private int maxPageLimit = 1000;
+
+    /**
+     * Загружает всех пользователей одним списком. Оставлено для обратной совместимости (GET /api/users?all=true),
+     * на больших таблицах использовать {@link #getUsersPage} или {@link #streamAllUsers}.
+     */
     @Transactional(readOnly = true)
     public List<UserDto> getAllUsers() {
-        return userRepository.findAllWithSegments()
-                .stream()
-                .map(this::convertToDto)
-                .collect(Collectors.toList());
+        return withHashSegments(userProjectionRepository.findAll(), segmentProjectionRepository.findHashBuckets());
     }
 
-    private UserDto convertToDto(User u) {
-        return UserDto.builder()
-                .id(u.getId())
-                .username(u.getUsername())
-                .email(u.getEmail())
-                .createdAt(u.getCreatedAt())
-                .segmentNames(
-                        u.getSegments()
-                                .stream()
-                                .map(Segment::getName)
-                                .collect(Collectors.toSet())
-                )
+    /**
+     * Keyset-пагинация: пользователи с id больше after, не более limit штук.
+     * Первым запросом выбираются только id страницы, вторым - проекция пользователей с именами сегментов.
+     */
+    @Transactional(readOnly = true)
+    public UserPage getUsersPage(Long after, Integer limit) {
+        int pageSize = limit == null ? defaultPageLimit : Math.max(1, Math.min(limit, maxPageLimit));
+        List<Long> ids = userRepository.findIdsAfter(after == null ? 0L : after, Limit.of(pageSize));
+        if (ids.isEmpty()) {
+            return UserPage.builder().items(List.of()).build();
+        }
+        List<UserDto> items = withHashSegments(userProjectionRepository.findByIds(ids),
+                segmentProjectionRepository.findHashBuckets());
+        return UserPage.builder()
+                .items(items)
+                .nextCursor(ids.size() == pageSize ? ids.get(ids.size() - 1) : null)
                 .build();
     }
 
-
+    /**
+     * Передает всех пользователей в consumer по одному, читая их через серверный курсор.
+     * Потребление памяти не зависит от размера таблицы.
+     */
     @Transactional(readOnly = true)
+    public void streamAllUsers(Consumer<UserDto> consumer) {
+        List<Segment> hashSegments = segmentProjectionRepository.findHashBuckets();
+        userStreamRepository.forEachUserWithSegments(dto -> consumer.accept(withHashSegments(dto, hashSegments)));
+    }
+
+    private List<UserDto> withHashSegments(List<UserDto> users, List<Segment> hashSegments) {
+        for (UserDto user : users) {
+            withHashSegments(user, hashSegments);
+        }
+        return users;
+    }
+
+    // К материализованным сегментам из user_segments добавляются HASH_BUCKET сегменты, в корзину которых попал пользователь
+    private UserDto withHashSegments(UserDto user, List<Segment> hashSegments) {
+        for (Segment segment : hashSegments) {
+            if (segment.containsByHash(user.getId())) {
+                user.getSegmentNames().add(segment.getName());
+            }
+        }
+        return user;
+    }
+
+
+    // SUPPORTS: при попадании в кэш транзакция и соединение из пула не нужны
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public Optional<UserDto> getUserById(Long id) {
-        return userRepository.findById(id)
-                .map(user -> {
-                    user.getSegments().size();
-                    return convertToDto(user);
-                });
+        return userLookupCache.getUser(id, () -> userProjectionRepository.findById(id)
+                .map(user -> withHashSegments(user, segmentProjectionRepository.findHashBuckets())));
     }
 
-    @Transactional(readOnly = true)
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public UserSegmentsResponse getUserSegments(Long userId) {
-        User user = userRepository.findById(userId)
-                .orElseThrow(() -> new RuntimeException("User not found with id: " + userId));
+        return userLookupCache.getUserSegments(userId, () -> loadUserSegments(userId));
+    }
+
+    /**
+     * Текущая версия ответа {@link #getUserSegments} для If-None-Match: без загрузки пользователя и сегментов.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public String getUserSegmentsVersion(Long userId) {
+        return membershipVersions.userSegments(userId);
+    }
 
-        user.getSegments().size();
+    private UserSegmentsResponse loadUserSegments(Long userId) {
+        String version = membershipVersions.userSegments(userId);
+        if (membershipIndex.isReady()) {
+            String username = userRepository.findUsernameById(userId)
+                    .orElseThrow(() -> new RuntimeException("User not found with id: " + userId));
+            return UserSegmentsResponse.builder()
+                    .userId(userId)
+                    .username(username)
+                    .segments(membershipIndex.segmentNamesOf(userId))
+                    .version(version)
+                    .build();
+        }
 
-        Set<String> segmentNames = user.getSegments().stream()
-                .map(Segment::getName)
-                .collect(Collectors.toSet());
+        UserDto user = userProjectionRepository.findById(userId)
+                .map(dto -> withHashSegments(dto, segmentProjectionRepository.findHashBuckets()))
+                .orElseThrow(() -> new RuntimeException("User not found with id: " + userId));
 
         return UserSegmentsResponse.builder()
                 .userId(userId)
                 .username(user.getUsername())
-                .segments(segmentNames)
+                .segments(user.getSegmentNames())
+                .version(version)
+                .build();
+    }
+
+    /**
+     * Сегменты сразу для множества пользователей: одним запросом к БД (или из индекса и запроса за username).
+     * Несуществующие id не приводят к ошибке, а возвращаются в missingIds.
+     */
+    @Transactional(readOnly = true)
+    public BatchUserSegmentsResponse getUserSegmentsBatch(List<Long> userIds) {
+        List<Long> ids = new ArrayList<>(new LinkedHashSet<>(userIds));
+        Map<Long, UserSegmentsResponse> found = new LinkedHashMap<>();
+
+        if (membershipIndex.isReady()) {
+            for (Object[] row : userRepository.findUsernamesByIdIn(ids)) {
+                Long id = (Long) row[0];
+                found.put(id, new UserSegmentsResponse(id, (String) row[1], membershipIndex.segmentNamesOf(id)));
+            }
+        } else {
+            for (Object[] row : userRepository.findSegmentNamesByUserIdIn(ids)) {
+                Long id = (Long) row[0];
+                UserSegmentsResponse response = found.computeIfAbsent(id,
+                        key -> new UserSegmentsResponse(key, (String) row[1], new LinkedHashSet<>()));
+                if (row[2] != null) {
+                    response.getSegments().add((String) row[2]);
+                }
+            }
+            List<Segment> hashSegments = segmentProjectionRepository.findHashBuckets();
+            for (UserSegmentsResponse response : found.values()) {
+                for (Segment segment : hashSegments) {
+                    if (segment.containsByHash(response.getUserId())) {
+                        response.getSegments().add(segment.getName());
+                    }
+                }
+            }
+        }
+
+        List<UserSegmentsResponse> users = new ArrayList<>(found.size());
+        List<Long> missingIds = new ArrayList<>();
+        for (Long id : ids) {
+            UserSegmentsResponse response = found.get(id);
+            if (response != null) {
+                users.add(response);
+            } else {
+                missingIds.add(id);
+            }
+        }
+        return BatchUserSegmentsResponse.builder()
+                .users(users)
+                .missingIds(missingIds)
                 .build();
     }
 
     @Transactional(readOnly = true)
     public List<UserDto> getUsersBySegment(String segmentName) {
-        List<User> users = userRepository.findUsersBySegmentNameWithSegments(segmentName);
-        return users.stream()
-                .map(this::convertToDto)
+        List<Segment> hashSegments = segmentProjectionRepository.findHashBuckets();
+        Optional<Segment> hashSegment = hashSegments.stream()
+                .filter(s -> s.getName().equals(segmentName))
+                .findFirst();
+        List<UserDto> users = hashSegment.isPresent()
+                ? findUsersInHashBucket(hashSegment.get())
+                : userProjectionRepository.findBySegmentName(segmentName);
+        return withHashSegments(users, hashSegments);
+    }
+
+    /**
+     * Потоковая выгрузка участников сегмента через серверный курсор, без загрузки сущностей.
+     */
+    @Transactional(readOnly = true)
+    public void exportSegmentMembers(String segmentName, boolean withUsername, Consumer<SegmentMemberDto> consumer) {
+        Optional<Segment> hashSegment = segmentRepository.findByName(segmentName)
+                .filter(Segment::isHashBucket);
+        if (hashSegment.isPresent()) {
+            Segment segment = hashSegment.get();
+            userStreamRepository.forEachUser(withUsername, member -> {
+                if (segment.containsByHash(member.getId())) {
+                    consumer.accept(member);
+                }
+            });
+            return;
+        }
+        userStreamRepository.forEachSegmentMember(segmentName, withUsername, consumer);
+    }
+
+    // Членство в HASH_BUCKET сегменте проверяется по id, join-таблица не используется
+    private List<UserDto> findUsersInHashBucket(Segment segment) {
+        List<Long> ids = userRepository.findAllIds().stream()
+                .filter(segment::containsByHash)
                 .collect(Collectors.toList());
+        List<UserDto> users = new ArrayList<>(ids.size());
+        for (int from = 0; from < ids.size(); from += ID_CHUNK_SIZE) {
+            users.addAll(userProjectionRepository.findByIds(
+                    ids.subList(from, Math.min(from + ID_CHUNK_SIZE, ids.size()))));
+        }
+        return users;
     }
 
     public long getTotalUserCount() {
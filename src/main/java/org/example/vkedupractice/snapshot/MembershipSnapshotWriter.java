@@ -0,0 +1,181 @@
+package org.example.vkedupractice.snapshot;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.model.SegmentKind;
+import org.example.vkedupractice.snapshot.reader.SnapshotFormat;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Периодически пишет бинарный снимок членства ({@link SnapshotFormat}) для батч-задач и сайдкаров,
+ * которые читают его через {@link org.example.vkedupractice.snapshot.reader.MembershipSnapshot}.
+ *
+ * Битмапы берутся из индекса членства, если его версия сегмента совпадает с БД, иначе читаются из
+ * user_segments по одному сегменту: полного сканирования таблицы связей нет. Версия в снимке прочитана
+ * до битмапа, поэтому участники могут оказаться новее версии, но не старее - на этом основан прогрев
+ * индекса из снимка при старте.
+ *
+ * Файл пишется во временный рядом и заменяется атомарным переименованием.
+ */
+@Slf4j
+@Component
+public class MembershipSnapshotWriter {
+
+    private static final String SEGMENTS =
+            "SELECT id, name, kind, percentage, salt, version, created_at FROM segments WHERE deleted = false ORDER BY id";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MembershipIndex membershipIndex;
+    private final Timer writeTimer;
+    private final String path;
+
+    public MembershipSnapshotWriter(JdbcTemplate jdbcTemplate,
+                                    MembershipIndex membershipIndex,
+                                    MeterRegistry meterRegistry,
+                                    @Value("${segments.snapshot.path:}") String path) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.membershipIndex = membershipIndex;
+        this.writeTimer = Timer.builder("segments.snapshot.write")
+                .description("Time to write the binary membership snapshot")
+                .register(meterRegistry);
+        this.path = path;
+    }
+
+    @Scheduled(fixedDelayString = "${segments.snapshot.interval:10m}",
+            initialDelayString = "${segments.snapshot.interval:10m}")
+    public void writeSnapshot() {
+        if (path.isBlank()) {
+            return;
+        }
+        try {
+            write(Path.of(path));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Membership snapshot was not written to {}", path, e);
+        }
+    }
+
+    /**
+     * @return размер записанного файла в байтах
+     */
+    public synchronized long write(Path target) throws IOException {
+        long start = System.nanoTime();
+        List<Entry> entries = jdbcTemplate.query(SEGMENTS, (rs, rowNum) -> {
+            boolean hashBucket = SegmentKind.HASH_BUCKET.name().equals(rs.getString("kind"));
+            Timestamp createdAt = rs.getTimestamp("created_at");
+            return new Entry(rs.getLong("id"),
+                    rs.getString("name").getBytes(StandardCharsets.UTF_8),
+                    rs.getLong("version"),
+                    createdAt != null ? createdAt.getTime() : 0L,
+                    hashBucket,
+                    rs.getInt("percentage"),
+                    rs.getLong("salt"),
+                    null);
+        });
+        entries = entries.stream()
+                .map(entry -> entry.hashBucket() ? entry : entry.withMembers(members(entry.id(), entry.version())))
+                .toList();
+
+        Path absolute = target.toAbsolutePath();
+        Files.createDirectories(absolute.getParent());
+        // Не createTempFile: его права 600 не дали бы читать снимок сайдкару под другим пользователем
+        Path temp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try {
+            writeTo(temp, entries);
+            Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        long size = Files.size(absolute);
+        writeTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        log.info("Membership snapshot written to {}: {} segments, {} bytes in {} ms",
+                absolute, entries.size(), size, (System.nanoTime() - start) / 1_000_000);
+        return size;
+    }
+
+    private RoaringBitmap members(long segmentId, long version) {
+        return membershipIndex.materializedMembers(segmentId, version).orElseGet(() -> {
+            RoaringBitmap bitmap = new RoaringBitmap();
+            jdbcTemplate.query("SELECT user_id FROM user_segments WHERE segment_id = ?",
+                    rs -> {
+                        bitmap.add(Math.toIntExact(rs.getLong(1)));
+                    },
+                    segmentId);
+            bitmap.runOptimize();
+            return bitmap;
+        });
+    }
+
+    private static void writeTo(Path file, List<Entry> entries) throws IOException {
+        int dictionarySize = entries.stream().mapToInt(entry -> SnapshotFormat.ENTRY_SIZE + entry.name().length).sum();
+        ByteBuffer header = ByteBuffer.allocate(SnapshotFormat.HEADER_SIZE + dictionarySize)
+                .order(SnapshotFormat.BYTE_ORDER);
+        header.putInt(SnapshotFormat.MAGIC)
+                .putInt(SnapshotFormat.FORMAT_VERSION)
+                .putLong(System.currentTimeMillis())
+                .putInt(entries.size());
+        long offset = header.capacity();
+        for (Entry entry : entries) {
+            int length = entry.members() != null ? entry.members().serializedSizeInBytes() : 0;
+            header.putLong(entry.id())
+                    .putLong(entry.version())
+                    .putLong(entry.createdAt())
+                    .put(entry.hashBucket() ? SnapshotFormat.KIND_HASH_BUCKET : SnapshotFormat.KIND_MATERIALIZED)
+                    .putInt(entry.percentage())
+                    .putLong(entry.salt())
+                    .putLong(entry.members() != null ? offset : 0L)
+                    .putInt(length)
+                    .putInt(entry.name().length)
+                    .put(entry.name());
+            offset += length;
+        }
+        if (offset > Integer.MAX_VALUE) {
+            throw new IOException("Membership snapshot would exceed 2 GB: " + offset + " bytes");
+        }
+        header.flip();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            // RoaringBitmap.serialize пишет переносимый little-endian формат независимо от DataOutput
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            for (Entry entry : entries) {
+                if (entry.members() != null) {
+                    entry.members().serialize(out);
+                }
+            }
+            out.flush();
+            channel.force(false);
+        }
+    }
+
+    private record Entry(long id, byte[] name, long version, long createdAt, boolean hashBucket,
+                         int percentage, long salt, RoaringBitmap members) {
+
+        Entry withMembers(RoaringBitmap bitmap) {
+            return new Entry(id, name, version, createdAt, hashBucket, percentage, salt, bitmap);
+        }
+    }
+}
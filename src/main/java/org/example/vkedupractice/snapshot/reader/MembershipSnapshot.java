@@ -0,0 +1,146 @@
+package org.example.vkedupractice.snapshot.reader;
+
+import org.roaringbitmap.InvalidRoaringFormat;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeSet;
+
+/**
+ * Читатель снимка членства ({@link SnapshotFormat}). Файл отображается в память целиком: при открытии разбирается
+ * только словарь сегментов, битмапы участников читаются прямо из отображения без десериализации.
+ *
+ * Зависит только от JDK и RoaringBitmap и собирается отдельным артефактом (classifier snapshot-reader),
+ * чтобы батч-задачи и сайдкары не тянули зависимости сервиса. Экземпляр неизменяем и потокобезопасен.
+ *
+ * Сервис заменяет файл атомарным переименованием, поэтому открытый снимок остается целым, а новые данные
+ * видны после повторного open. close() закрывает файл, само отображение освобождает сборщик мусора.
+ */
+public final class MembershipSnapshot implements AutoCloseable {
+
+    private final FileChannel channel;
+    private final Instant createdAt;
+    private final List<SnapshotSegment> segments;
+    private final Map<String, SnapshotSegment> byName;
+
+    private MembershipSnapshot(FileChannel channel, Instant createdAt, List<SnapshotSegment> segments) {
+        this.channel = channel;
+        this.createdAt = createdAt;
+        this.segments = Collections.unmodifiableList(segments);
+        this.byName = new HashMap<>();
+        for (SnapshotSegment segment : segments) {
+            byName.put(segment.name(), segment);
+        }
+    }
+
+    public static MembershipSnapshot open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot is larger than 2 GB: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            mapped.order(SnapshotFormat.BYTE_ORDER);
+            return read(channel, mapped, file);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static MembershipSnapshot read(FileChannel channel, ByteBuffer buffer, Path file) throws IOException {
+        try {
+            if (buffer.getInt() != SnapshotFormat.MAGIC) {
+                throw new IOException("Not a membership snapshot: " + file);
+            }
+            int formatVersion = buffer.getInt();
+            if (formatVersion != SnapshotFormat.FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot format " + formatVersion + ": " + file);
+            }
+            Instant createdAt = Instant.ofEpochMilli(buffer.getLong());
+            int count = buffer.getInt();
+            List<SnapshotSegment> segments = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                long id = buffer.getLong();
+                long version = buffer.getLong();
+                long segmentCreatedAt = buffer.getLong();
+                boolean hashBucket = buffer.get() == SnapshotFormat.KIND_HASH_BUCKET;
+                int percentage = buffer.getInt();
+                long salt = buffer.getLong();
+                long offset = buffer.getLong();
+                int length = buffer.getInt();
+                byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+                ImmutableRoaringBitmap members = hashBucket ? null : members(buffer, offset, length, file);
+                segments.add(new SnapshotSegment(id, new String(name, StandardCharsets.UTF_8), version,
+                        segmentCreatedAt, hashBucket, percentage, salt, members));
+            }
+            return new MembershipSnapshot(channel, createdAt, segments);
+        } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                 | InvalidRoaringFormat e) {
+            throw new IOException("Corrupted membership snapshot: " + file, e);
+        }
+    }
+
+    private static ImmutableRoaringBitmap members(ByteBuffer buffer, long offset, int length, Path file)
+            throws IOException {
+        if (offset < 0 || length < 0 || offset + length > buffer.capacity()) {
+            throw new IOException("Corrupted membership snapshot: " + file);
+        }
+        ByteBuffer slice = buffer.slice((int) offset, length).order(SnapshotFormat.BYTE_ORDER);
+        return new ImmutableRoaringBitmap(slice);
+    }
+
+    public Instant createdAt() {
+        return createdAt;
+    }
+
+    /**
+     * Сегменты снимка в порядке id.
+     */
+    public List<SnapshotSegment> segments() {
+        return segments;
+    }
+
+    public Optional<SnapshotSegment> segment(String name) {
+        return Optional.ofNullable(byName.get(name));
+    }
+
+    public boolean isMember(String segmentName, long userId) {
+        SnapshotSegment segment = byName.get(segmentName);
+        return segment != null && segment.contains(userId);
+    }
+
+    /**
+     * Имена сегментов пользователя в алфавитном порядке.
+     */
+    public List<String> segmentNamesOf(long userId) {
+        TreeSet<String> names = new TreeSet<>();
+        for (SnapshotSegment segment : segments) {
+            if (segment.contains(userId)) {
+                names.add(segment.name());
+            }
+        }
+        return List.copyOf(names);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,31 @@
+package org.example.vkedupractice.snapshot.reader;
+
+import java.nio.ByteOrder;
+
+/**
+ * Формат бинарного снимка членства (все числа little-endian):
+ * <pre>
+ * заголовок:   int magic, int formatVersion, long createdAt (epoch ms), int segmentCount
+ * словарь:     segmentCount записей в порядке id:
+ *              long id, long version, long segmentCreatedAt (epoch ms), byte kind, int percentage, long salt,
+ *              long membersOffset, int membersLength, int nameLength, byte[nameLength] name (UTF-8)
+ * участники:   для MATERIALIZED сегментов - RoaringBitmap в переносимом формате по membersOffset
+ * </pre>
+ * У HASH_BUCKET сегментов участников в файле нет (membersLength = 0): членство вычисляется по percentage и salt.
+ */
+public final class SnapshotFormat {
+
+    public static final int MAGIC = 0x534E_4753;
+    public static final int FORMAT_VERSION = 1;
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    public static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    // Размер записи словаря без имени
+    public static final int ENTRY_SIZE = 8 + 8 + 8 + 1 + 4 + 8 + 8 + 4 + 4;
+
+    public static final byte KIND_MATERIALIZED = 0;
+    public static final byte KIND_HASH_BUCKET = 1;
+
+    private SnapshotFormat() {
+    }
+}
@@ -0,0 +1,22 @@
+package org.example.vkedupractice.snapshot.reader;
+
+import org.example.vkedupractice.model.HashBuckets;
+import org.roaringbitmap.buffer.ImmutableRoaringBitmap;
+
+/**
+ * Сегмент из снимка. members - представление участников поверх отображенного файла (без копирования),
+ * null для HASH_BUCKET сегментов.
+ *
+ * @param createdAt время создания сегмента (epoch ms): вместе с id и version отличает сегмент от одноименного
+ *                  из другой базы
+ */
+public record SnapshotSegment(long id, String name, long version, long createdAt, boolean hashBucket,
+                              int percentage, long salt, ImmutableRoaringBitmap members) {
+
+    public boolean contains(long userId) {
+        if (hashBucket) {
+            return HashBuckets.contains(userId, salt, percentage);
+        }
+        return userId >= 0 && userId <= Integer.MAX_VALUE && members.contains((int) userId);
+    }
+}
@@ -0,0 +1,126 @@
+package org.example.vkedupractice.version;
+
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.index.MembershipIndex.SegmentVersion;
+import org.example.vkedupractice.model.HashBuckets;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Версии ответов для условных GET (ETag / If-None-Match). Вычисляются проекциями без загрузки сущностей.
+ *
+ * Версия сегмента - столбец segments.version: его увеличивает каждая мутация сегмента в той же транзакции.
+ * Версия пользователя не хранится, а складывается из версий сегментов, в которых он состоит: иначе
+ * переименование или удаление сегмента снова стоило бы UPDATE по каждому участнику.
+ *
+ * Версия читается из того же источника, что и тело ответа (индекс членства или БД), и до чтения тела.
+ * Тогда тело может оказаться новее своего ETag (лишний 200 в следующий раз), но не старее (ложный 304).
+ */
+@Component
+public class MembershipVersions {
+
+    private static final String USER_SEGMENTS =
+            "SELECT s.id, s.version FROM segments s JOIN user_segments us ON us.segment_id = s.id "
+            + "WHERE us.user_id = ? AND s.deleted = false";
+    private static final String HASH_SEGMENTS =
+            "SELECT id, version, percentage, salt FROM segments WHERE kind = 'HASH_BUCKET' AND deleted = false";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MembershipIndex membershipIndex;
+
+    public MembershipVersions(JdbcTemplate jdbcTemplate, MembershipIndex membershipIndex) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.membershipIndex = membershipIndex;
+    }
+
+    /**
+     * Версия списка всех сегментов (GET /api/segments).
+     */
+    public String segments() {
+        return digest(jdbcTemplate.query("SELECT id, version FROM segments WHERE deleted = false ORDER BY id",
+                (rs, rowNum) -> new SegmentVersion(rs.getLong(1), rs.getLong(2))));
+    }
+
+    /**
+     * Версия набора сегментов пользователя (GET /api/users/{id}/segments).
+     */
+    public String userSegments(long userId) {
+        if (membershipIndex.isReady()) {
+            return userId + "-" + digest(membershipIndex.segmentVersionsOf(userId));
+        }
+        List<SegmentVersion> versions = new ArrayList<>(jdbcTemplate.query(USER_SEGMENTS,
+                (rs, rowNum) -> new SegmentVersion(rs.getLong(1), rs.getLong(2)), userId));
+        jdbcTemplate.query(HASH_SEGMENTS, rs -> {
+            if (HashBuckets.contains(userId, rs.getLong("salt"), rs.getInt("percentage"))) {
+                versions.add(new SegmentVersion(rs.getLong("id"), rs.getLong("version")));
+            }
+        });
+        versions.sort(Comparator.comparingLong(SegmentVersion::segmentId));
+        return userId + "-" + digest(versions);
+    }
+
+    /**
+     * Версия числа участников сегмента (GET /api/segments/{name}/users/count). Пусто, если сегмента нет.
+     * Размер HASH_BUCKET сегмента оценивается по числу пользователей, поэтому оно входит в версию.
+     */
+    public Optional<String> segmentCount(String segmentName) {
+        if (membershipIndex.isReady()) {
+            Optional<SegmentVersion> indexed = membershipIndex.materializedVersion(segmentName);
+            if (indexed.isPresent()) {
+                return indexed.map(version -> version.segmentId() + "-" + version.version());
+            }
+        }
+        return jdbcTemplate.query("SELECT id, version, kind FROM segments WHERE name = ? AND deleted = false",
+                        (rs, rowNum) -> rs.getLong("id") + "-" + rs.getLong("version")
+                                + ("HASH_BUCKET".equals(rs.getString("kind")) ? "-" + countUsers() : ""),
+                        segmentName)
+                .stream()
+                .findFirst();
+    }
+
+    /**
+     * Версия словаря сегментов (GET /api/segments/dictionary): меняется при создании, переименовании
+     * и удалении сегмента, но не при изменении участников.
+     */
+    public String segmentDictionary(Map<Long, String> names) {
+        List<SegmentVersion> entries = new ArrayList<>(names.size());
+        names.forEach((id, name) -> entries.add(new SegmentVersion(id, nameHash(name))));
+        return digest(entries);
+    }
+
+    // 64-битный хеш байтов имени в UTF-8 (FNV-1a): String.hashCode() 32-битный и совпадает уже у "Aa" и "BB",
+    // и переименование в такое имя не меняло бы версию словаря
+    static long nameHash(String name) {
+        long hash = 0xCBF29CE484222325L;
+        for (byte b : name.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+        }
+        return mix(hash);
+    }
+
+    private long countUsers() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Long.class);
+    }
+
+    // Число сегментов и 64-битный хеш пар (id, версия): совпадение для разных наборов практически исключено
+    static String digest(List<SegmentVersion> versions) {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (SegmentVersion version : versions) {
+            hash = mix(hash ^ mix(version.segmentId())) + version.version();
+        }
+        return versions.size() + "-" + Long.toHexString(mix(hash));
+    }
+
+    private static long mix(long h) {
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+}
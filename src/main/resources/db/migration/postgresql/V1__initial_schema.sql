@@ -0,0 +1,22 @@
+-- Схема первого выпуска, которую создавал ddl-auto=update. На существующей базе эта версия
+-- не выполняется, а записывается как базовая (spring.flyway.baseline-on-migrate).
+
+CREATE TABLE users (
+    id         BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    username   VARCHAR(255) NOT NULL UNIQUE,
+    email      VARCHAR(255) NOT NULL,
+    created_at TIMESTAMP(6)
+);
+
+CREATE TABLE segments (
+    id          BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    name        VARCHAR(255) NOT NULL UNIQUE,
+    description VARCHAR(255),
+    created_at  TIMESTAMP(6)
+);
+
+CREATE TABLE user_segments (
+    user_id    BIGINT NOT NULL REFERENCES users (id),
+    segment_id BIGINT NOT NULL REFERENCES segments (id),
+    PRIMARY KEY (user_id, segment_id)
+);
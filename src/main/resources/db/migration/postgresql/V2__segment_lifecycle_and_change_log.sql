@@ -0,0 +1,51 @@
+-- Колонки и таблицы, появившиеся после первого выпуска: хеш-сегменты, счетчик участников, версия для ETag,
+-- мягкое удаление с фоновой очисткой и журнал изменений членства.
+--
+-- Промежуточные сборки тоже запускались с ddl-auto=update и могли создать часть этих объектов,
+-- поэтому все создается с IF NOT EXISTS.
+
+ALTER TABLE segments
+    ADD COLUMN IF NOT EXISTS kind         VARCHAR(255) CHECK (kind IN ('MATERIALIZED', 'HASH_BUCKET')),
+    ADD COLUMN IF NOT EXISTS percentage   INTEGER,
+    ADD COLUMN IF NOT EXISTS salt         BIGINT,
+    ADD COLUMN IF NOT EXISTS member_count BIGINT  DEFAULT 0     NOT NULL,
+    ADD COLUMN IF NOT EXISTS version      BIGINT  DEFAULT 0     NOT NULL,
+    ADD COLUMN IF NOT EXISTS deleted      BOOLEAN DEFAULT FALSE NOT NULL,
+    ADD COLUMN IF NOT EXISTS deleted_at   TIMESTAMP(6),
+    ADD COLUMN IF NOT EXISTS deleted_name VARCHAR(255),
+    ADD COLUMN IF NOT EXISTS purged_at    TIMESTAMP(6);
+
+-- Все сегменты первого выпуска - материализованные
+UPDATE segments SET kind = 'MATERIALIZED' WHERE kind IS NULL;
+
+-- Счетчик меняется только приращениями (SegmentRepository.addMembers), поэтому для уже
+-- существующих участников он заполняется здесь
+UPDATE segments
+SET member_count = c.cnt
+FROM (SELECT segment_id, COUNT(*) AS cnt FROM user_segments GROUP BY segment_id) c
+WHERE segments.id = c.segment_id;
+
+CREATE TABLE IF NOT EXISTS membership_changes (
+    id            BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    change_type   VARCHAR(32) NOT NULL
+        CHECK (change_type IN ('MEMBER_ADDED', 'HASH_SEGMENT_CREATED', 'SEGMENT_RENAMED', 'SEGMENT_DELETED')),
+    segment_id    BIGINT       NOT NULL,
+    segment_name  VARCHAR(255),
+    previous_name VARCHAR(255),
+    user_id       BIGINT,
+    percentage    INTEGER,
+    salt          BIGINT,
+    created_at    TIMESTAMP(6) NOT NULL
+);
+
+-- Параметры хеш-сегмента в HASH_SEGMENT_CREATED: без них потребитель не вычислит его участников
+ALTER TABLE membership_changes
+    ADD COLUMN IF NOT EXISTS percentage INTEGER,
+    ADD COLUMN IF NOT EXISTS salt       BIGINT;
+
+CREATE INDEX IF NOT EXISTS idx_membership_changes_segment_user ON membership_changes (segment_id, user_id);
+
+CREATE TABLE IF NOT EXISTS membership_change_head (
+    id             BIGINT PRIMARY KEY,
+    last_append_at TIMESTAMP(6)
+);
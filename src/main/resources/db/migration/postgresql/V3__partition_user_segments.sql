@@ -0,0 +1,33 @@
+-- user_segments секционируется хешем по segment_id. Все строки сегмента лежат в одной секции:
+-- выборки, вставки и удаление участников сегмента затрагивают только ее (partition pruning).
+--
+-- Первичный ключ (segment_id, user_id) - покрывающий индекс направления сегмент -> пользователи,
+-- (user_id, segment_id) - пользователь -> сегменты. Второе направление обходит индексы всех секций,
+-- поэтому число секций (spring.flyway.placeholders.user-segments-partitions) не стоит делать большим.
+
+CREATE TABLE user_segments_partitioned (
+    segment_id BIGINT NOT NULL REFERENCES segments (id),
+    user_id    BIGINT NOT NULL REFERENCES users (id),
+    PRIMARY KEY (segment_id, user_id)
+) PARTITION BY HASH (segment_id);
+
+DO $$
+BEGIN
+    FOR i IN 0 .. ${user-segments-partitions} - 1 LOOP
+        EXECUTE format('CREATE TABLE user_segments_p%s PARTITION OF user_segments_partitioned '
+                       'FOR VALUES WITH (MODULUS %s, REMAINDER %s)', i, ${user-segments-partitions}, i);
+    END LOOP;
+END
+$$;
+
+INSERT INTO user_segments_partitioned (segment_id, user_id)
+SELECT segment_id, user_id FROM user_segments;
+
+DROP TABLE user_segments;
+ALTER TABLE user_segments_partitioned RENAME TO user_segments;
+ALTER INDEX user_segments_partitioned_pkey RENAME TO user_segments_pkey;
+
+-- Индексы создаются на родительской таблице и наследуются каждой секцией
+CREATE INDEX idx_user_segments_user_segment ON user_segments (user_id, segment_id);
+
+ANALYZE user_segments;
@@ -0,0 +1,97 @@
+package org.example.vkedupractice;
+
+import org.example.vkedupractice.bulkhead.BulkheadDataSource;
+import org.example.vkedupractice.config.SegmentJobsConfig;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.web.embedded.tomcat.TomcatWebServer;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:virtual-threads;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+        "spring.datasource.hikari.maximum-pool-size=4",
+        "db.bulkhead.max-wait=30s",
+        "users.cache.enabled=false",
+        "segments.index.enabled=false"
+})
+@ActiveProfiles({"test", "virtual-threads"})
+class VirtualThreadsModeTest {
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private ServletWebServerApplicationContext context;
+
+    @Autowired
+    private DataSource dataSource;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    @Qualifier(SegmentJobsConfig.SEGMENT_JOB_EXECUTOR)
+    private TaskExecutor segmentJobExecutor;
+
+    @Test
+    void requestsAndSegmentJobs_ShouldRunOnVirtualThreads() throws Exception {
+        TomcatWebServer webServer = (TomcatWebServer) context.getWebServer();
+        String executor = webServer.getTomcat().getConnector().getProtocolHandler().getExecutor().getClass().getName();
+        assertTrue(executor.contains("VirtualThread"), executor);
+
+        CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+        segmentJobExecutor.execute(() -> virtual.complete(Thread.currentThread().isVirtual()));
+        assertTrue(virtual.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void concurrentLookups_ShouldQueueOnBulkheadWithinPoolSize() throws Exception {
+        BulkheadDataSource bulkhead = dataSource.unwrap(BulkheadDataSource.class);
+        assertEquals(4, bulkhead.getMaxConcurrent());
+        jdbcTemplate.update("INSERT INTO users (username, email) VALUES ('vt-user', 'vt-user@example.com')");
+        long userId = jdbcTemplate.queryForObject("SELECT id FROM users WHERE username = 'vt-user'", Long.class);
+
+        HttpClient client = HttpClient.newHttpClient();
+        HttpRequest request = HttpRequest.newBuilder(
+                URI.create("http://localhost:" + port + "/api/users/" + userId + "/segments")).GET().build();
+        int maxActive = 0;
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Integer>> responses = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                responses.add(clients.submit(() -> client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode()));
+            }
+            for (Future<Integer> response : responses) {
+                while (!response.isDone()) {
+                    maxActive = Math.max(maxActive, bulkhead.getActive());
+                    Thread.onSpinWait();
+                }
+                assertEquals(200, response.get());
+            }
+        }
+
+        assertTrue(maxActive <= 4, "active connections " + maxActive);
+        assertEquals(0, bulkhead.getActive());
+        jdbcTemplate.update("DELETE FROM users WHERE id = ?", userId);
+    }
+}
@@ -5,7 +5,7 @@ import org.springframework.boot.test.context.SpringBootTest;
 
 import static org.assertj.core.api.Assertions.assertThatCode;
 
-@SpringBootTest
+@SpringBootTest(properties = "grpc.port=0")
 public class VkEduPracticeApplicationTest {
 
     @Test
@@ -0,0 +1,121 @@
+package org.example.vkedupractice.bulkhead;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class BulkheadDataSourceTest {
+
+    private DataSource target;
+    private SimpleMeterRegistry meterRegistry;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        target = mock(DataSource.class);
+        when(target.getConnection()).thenAnswer(invocation -> mock(Connection.class));
+        meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @Test
+    void getConnection_ShouldHoldPermitUntilClose() throws Exception {
+        BulkheadDataSource dataSource = bulkhead(2, 10, Duration.ofSeconds(1));
+
+        Connection first = dataSource.getConnection();
+        Connection second = dataSource.getConnection();
+        assertEquals(2, dataSource.getActive());
+        assertEquals(2.0, meterRegistry.get("db.bulkhead.active").gauge().value());
+
+        first.close();
+        first.close();
+        assertEquals(1, dataSource.getActive());
+        second.close();
+        assertEquals(0, dataSource.getActive());
+    }
+
+    @Test
+    void getConnection_ShouldDelegateCallsAndCloseTarget() throws Exception {
+        Connection targetConnection = mock(Connection.class);
+        when(target.getConnection()).thenReturn(targetConnection);
+        when(targetConnection.nativeSQL(anyString())).thenReturn("native");
+        BulkheadDataSource dataSource = bulkhead(1, 10, Duration.ofSeconds(1));
+
+        Connection connection = dataSource.getConnection();
+        assertEquals("native", connection.nativeSQL("SELECT 1"));
+        assertTrue(connection.isWrapperFor(Connection.class));
+        connection.close();
+
+        verify(targetConnection).close();
+    }
+
+    @Test
+    void getConnection_WhenWaitTimesOut_ShouldReject() throws Exception {
+        BulkheadDataSource dataSource = bulkhead(1, 10, Duration.ofMillis(50));
+        Connection held = dataSource.getConnection();
+
+        BulkheadFullException exception = assertThrows(BulkheadFullException.class, dataSource::getConnection);
+
+        assertTrue(exception.getMessage().contains("not acquired within 50 ms"));
+        assertEquals(1.0, meterRegistry.get("db.bulkhead.rejected").counter().count());
+        assertEquals(0, dataSource.getWaiting());
+        held.close();
+        dataSource.getConnection().close();
+    }
+
+    @Test
+    void getConnection_WhenQueueFull_ShouldRejectImmediately() throws Exception {
+        BulkheadDataSource dataSource = bulkhead(1, 1, Duration.ofSeconds(10));
+        Connection held = dataSource.getConnection();
+        CountDownLatch waiting = new CountDownLatch(1);
+        CompletableFuture<Connection> queued = CompletableFuture.supplyAsync(() -> {
+            waiting.countDown();
+            try {
+                return dataSource.getConnection();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        waiting.await();
+        while (dataSource.getWaiting() == 0) {
+            Thread.onSpinWait();
+        }
+
+        long start = System.nanoTime();
+        BulkheadFullException exception = assertThrows(BulkheadFullException.class, dataSource::getConnection);
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertTrue(exception.getMessage().contains("queue is full"));
+        held.close();
+        queued.get(5, TimeUnit.SECONDS).close();
+        assertEquals(0, dataSource.getActive());
+    }
+
+    @Test
+    void getConnection_WhenTargetFails_ShouldReleasePermit() throws Exception {
+        when(target.getConnection()).thenThrow(new SQLException("pool timeout"));
+        BulkheadDataSource dataSource = bulkhead(1, 10, Duration.ofMillis(50));
+
+        assertThrows(SQLException.class, dataSource::getConnection);
+        assertThrows(SQLException.class, dataSource::getConnection);
+
+        assertEquals(0, dataSource.getActive());
+        assertEquals(0.0, meterRegistry.get("db.bulkhead.rejected").counter().count());
+    }
+
+    private BulkheadDataSource bulkhead(int maxConcurrent, int maxWaiting, Duration maxWait) {
+        BulkheadDataSource dataSource = new BulkheadDataSource(target, maxConcurrent, maxWaiting, maxWait);
+        dataSource.bindTo(meterRegistry);
+        return dataSource;
+    }
+}
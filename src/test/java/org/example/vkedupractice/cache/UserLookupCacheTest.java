@@ -0,0 +1,245 @@
+package org.example.vkedupractice.cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.vkedupractice.dto.UserDto;
+import org.example.vkedupractice.dto.UserSegmentsResponse;
+import org.example.vkedupractice.model.HashBuckets;
+import org.example.vkedupractice.model.Segment;
+import org.example.vkedupractice.model.SegmentKind;
+import org.example.vkedupractice.repository.SegmentRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class UserLookupCacheTest {
+
+    @Mock
+    private SegmentRepository segmentRepository;
+
+    private SimpleMeterRegistry meterRegistry;
+    private UserLookupCache cache;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        cache = new UserLookupCache(segmentRepository, meterRegistry, true, 1000, Duration.ofMinutes(5), Duration.ZERO);
+    }
+
+    @Test
+    void getUserSegments_ShouldLoadOnceAndRecordStats() {
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.getUserSegments(1L, () -> response(1L, "A", loads));
+        UserSegmentsResponse second = cache.getUserSegments(1L, () -> response(1L, "A", loads));
+
+        assertEquals(1, loads.get());
+        assertEquals(Set.of("A"), second.getSegments());
+        assertEquals(1.0, meterRegistry.get("cache.gets").tag("cache", "userSegments").tag("result", "hit")
+                .functionCounter().count());
+    }
+
+    @Test
+    void getUserSegments_WhenDisabled_ShouldAlwaysLoad() {
+        cache = new UserLookupCache(segmentRepository, meterRegistry, false, 1000, Duration.ofMinutes(5), Duration.ZERO);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.getUserSegments(1L, () -> response(1L, "A", loads));
+        cache.getUserSegments(1L, () -> response(1L, "A", loads));
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void getUser_WhenUserMissing_ShouldNotCacheAbsence() {
+        AtomicInteger loads = new AtomicInteger();
+
+        assertTrue(cache.getUser(1L, () -> {
+            loads.incrementAndGet();
+            return Optional.empty();
+        }).isEmpty());
+        cache.getUser(1L, () -> {
+            loads.incrementAndGet();
+            return Optional.of(user(1L, "A"));
+        });
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void getUserSegments_WithinReplicaLagAfterInvalidation_ShouldNotCache() throws InterruptedException {
+        cache = new UserLookupCache(segmentRepository, meterRegistry, true, 1000, Duration.ofMinutes(5),
+                Duration.ofMillis(200));
+        AtomicInteger loads = new AtomicInteger();
+        Thread.sleep(250);
+        cache.onSegmentDeleted("A");
+
+        // Реплика могла еще не получить удаление: результат не кэшируется
+        cache.getUserSegments(1L, () -> response(1L, "A", loads));
+        cache.getUserSegments(1L, () -> response(1L, "A", loads));
+        assertEquals(2, loads.get());
+
+        Thread.sleep(250);
+        cache.getUserSegments(1L, () -> response(1L, "B", loads));
+        cache.getUserSegments(1L, () -> response(1L, "B", loads));
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void onSegmentRenamed_ShouldInvalidateOnlyEntriesWithThatSegment() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.getUserSegments(1L, () -> response(1L, "OLD", loads));
+        cache.getUserSegments(2L, () -> response(2L, "OTHER", loads));
+        cache.getUser(1L, () -> Optional.of(user(1L, "OLD")));
+
+        cache.onSegmentRenamed("OLD");
+
+        cache.getUserSegments(1L, () -> response(1L, "NEW", loads));
+        cache.getUserSegments(2L, () -> response(2L, "OTHER", loads));
+        assertEquals(3, loads.get());
+        assertEquals(Set.of("NEW"), cache.getUser(1L, () -> Optional.of(user(1L, "NEW"))).get().getSegmentNames());
+    }
+
+    @Test
+    void onMembersAdded_ShouldInvalidateOnlyNewMembers() {
+        AtomicInteger loads = new AtomicInteger();
+        cache.getUserSegments(1L, () -> response(1L, "A", loads));
+        cache.getUserSegments(2L, () -> response(2L, "A", loads));
+        Segment segment = Segment.builder().id(10L).name("B").build();
+        when(segmentRepository.findMemberIdsAmong(eq(10L), anyList())).thenReturn(List.of(2L));
+
+        cache.onMembersAdded(segment);
+
+        cache.getUserSegments(1L, () -> response(1L, "A", loads));
+        cache.getUserSegments(2L, () -> response(2L, "B", loads));
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    void onMembersAdded_WhenHashBucket_ShouldUseHashWithoutDatabase() {
+        Segment segment = Segment.builder().id(10L).name("H").kind(SegmentKind.HASH_BUCKET)
+                .percentage(50).salt(3L).build();
+        for (long id = 1; id <= 50; id++) {
+            long userId = id;
+            cache.getUserSegments(userId, () -> new UserSegmentsResponse(userId, "u", Set.of()));
+        }
+
+        cache.onMembersAdded(segment);
+
+        for (long id = 1; id <= 50; id++) {
+            AtomicBoolean reloaded = new AtomicBoolean();
+            long userId = id;
+            cache.getUserSegments(userId, () -> {
+                reloaded.set(true);
+                return new UserSegmentsResponse(userId, "u", Set.of());
+            });
+            assertEquals(HashBuckets.contains(id, 3L, 50), reloaded.get());
+        }
+        verifyNoInteractions(segmentRepository);
+    }
+
+    @Test
+    void invalidationDuringLoad_ShouldDiscardStaleValue() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch invalidated = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<UserSegmentsResponse> reader = executor.submit(() -> cache.getUserSegments(1L, () -> {
+                loading.countDown();
+                await(invalidated);
+                // прочитано до коммита переименования
+                return new UserSegmentsResponse(1L, "u", Set.of("OLD"));
+            }));
+            assertTrue(loading.await(5, TimeUnit.SECONDS));
+            cache.onSegmentRenamed("OLD");
+            invalidated.countDown();
+            assertEquals(Set.of("OLD"), reader.get(5, TimeUnit.SECONDS).getSegments());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        UserSegmentsResponse fresh = cache.getUserSegments(1L, () -> new UserSegmentsResponse(1L, "u", Set.of("NEW")));
+        assertEquals(Set.of("NEW"), fresh.getSegments());
+    }
+
+    @Test
+    void concurrentReadsAndRenames_ShouldConvergeToLatestName() throws Exception {
+        Map<Long, String> database = new ConcurrentHashMap<>();
+        for (long id = 1; id <= 20; id++) {
+            database.put(id, "NAME_0");
+        }
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 7; i++) {
+                executor.submit(() -> {
+                    while (running.get()) {
+                        for (long id = 1; id <= 20; id++) {
+                            long userId = id;
+                            cache.getUserSegments(userId,
+                                    () -> new UserSegmentsResponse(userId, "u", Set.of(database.get(userId))));
+                        }
+                    }
+                });
+            }
+            Future<?> writer = executor.submit(() -> {
+                for (int version = 1; version <= 200; version++) {
+                    String oldName = "NAME_" + (version - 1);
+                    String newName = "NAME_" + version;
+                    database.replaceAll((id, name) -> newName);
+                    cache.onSegmentRenamed(oldName);
+                }
+            });
+            writer.get(30, TimeUnit.SECONDS);
+            running.set(false);
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+
+        for (long id = 1; id <= 20; id++) {
+            long userId = id;
+            UserSegmentsResponse response = cache.getUserSegments(userId,
+                    () -> new UserSegmentsResponse(userId, "u", Set.of(database.get(userId))));
+            assertEquals(Set.of("NAME_200"), response.getSegments());
+        }
+    }
+
+    private static UserSegmentsResponse response(long userId, String segment, AtomicInteger loads) {
+        loads.incrementAndGet();
+        return new UserSegmentsResponse(userId, "user" + userId, Set.of(segment));
+    }
+
+    private static UserDto user(long userId, String segment) {
+        return UserDto.builder().id(userId).username("user" + userId).segmentNames(Set.of(segment)).build();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
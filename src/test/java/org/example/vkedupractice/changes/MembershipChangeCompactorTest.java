@@ -0,0 +1,82 @@
+package org.example.vkedupractice.changes;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MembershipChangeCompactorTest {
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private MembershipChangeCompactor compactor;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE membership_changes (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+                + "change_type VARCHAR(32) NOT NULL, segment_id BIGINT NOT NULL, segment_name VARCHAR(255), "
+                + "previous_name VARCHAR(255), user_id BIGINT, created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP NOT NULL)");
+        meterRegistry = new SimpleMeterRegistry();
+        compactor = new MembershipChangeCompactor(jdbcTemplate, new DataSourceTransactionManager(database), meterRegistry, 2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void compact_ShouldDropEntriesSupersededByDeletion() {
+        for (long userId = 1; userId <= 5; userId++) {
+            change("MEMBER_ADDED", 1L, userId);
+            change("MEMBER_ADDED", 2L, userId);
+        }
+        change("SEGMENT_RENAMED", 1L, null);
+        change("SEGMENT_DELETED", 1L, null);
+
+        compactor.compact();
+
+        assertEquals(List.of("SEGMENT_DELETED"), jdbcTemplate.queryForList(
+                "SELECT change_type FROM membership_changes WHERE segment_id = 1", String.class));
+        assertEquals(5, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM membership_changes WHERE segment_id = 2", Integer.class));
+        assertEquals(6.0, meterRegistry.get("changes.compacted").counter().count());
+    }
+
+    @Test
+    void compact_ShouldKeepEntriesAfterDeletionAndBeIdempotent() {
+        change("MEMBER_ADDED", 1L, 1L);
+        long deletedAt = change("SEGMENT_DELETED", 1L, null);
+        // Сегмент с тем же id больше не появится, но компакция не должна трогать записи после события
+        change("SEGMENT_RENAMED", 1L, null);
+
+        compactor.compact();
+        compactor.compact();
+
+        assertEquals(List.of(deletedAt), jdbcTemplate.queryForList(
+                "SELECT id FROM membership_changes WHERE change_type = 'SEGMENT_DELETED'", Long.class));
+        assertEquals(2, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM membership_changes", Integer.class));
+        assertEquals(1.0, meterRegistry.get("changes.compacted").counter().count());
+    }
+
+    private long change(String type, long segmentId, Long userId) {
+        jdbcTemplate.update("INSERT INTO membership_changes (change_type, segment_id, segment_name, user_id) "
+                + "VALUES (?, ?, 'S' || ?, ?)", type, segmentId, segmentId, userId);
+        return jdbcTemplate.queryForObject("SELECT MAX(id) FROM membership_changes", Long.class);
+    }
+}
@@ -0,0 +1,215 @@
+package org.example.vkedupractice.changes;
+
+import org.example.vkedupractice.dto.CreateSegmentRequest;
+import org.example.vkedupractice.dto.MembershipChangeDto;
+import org.example.vkedupractice.dto.MembershipChangesPage;
+import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.dto.SegmentJobDto;
+import org.example.vkedupractice.model.HashBuckets;
+import org.example.vkedupractice.model.MembershipChangeType;
+import org.example.vkedupractice.model.SegmentKind;
+import org.example.vkedupractice.service.MembershipChangeService;
+import org.example.vkedupractice.service.SegmentJobService;
+import org.example.vkedupractice.service.SegmentService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Потребитель, читающий GET /api/changes страницами, восстанавливает членство сегментов без полного перечитывания.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "spring.datasource.url=jdbc:h2:mem:membership-changes;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+                "segments.jobs.chunk-size=70",
+                "changes.compaction.interval=1h",
+                "segments.purge.interval=1h"
+        })
+@ActiveProfiles("test")
+class MembershipChangeFeedIntegrationTest {
+
+    private static final int USERS = 500;
+
+    @Autowired
+    private SegmentService segmentService;
+
+    @Autowired
+    private SegmentJobService segmentJobService;
+
+    @Autowired
+    private MembershipChangeService membershipChangeService;
+
+    @Autowired
+    private MembershipChangeCompactor compactor;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 1; i <= USERS; i++) {
+            rows.add(new Object[]{"feed_user" + i, "feed_user" + i + "@example.com", now});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (username, email, created_at) VALUES (?, ?, ?)", rows);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM membership_changes");
+        jdbcTemplate.update("DELETE FROM user_segments");
+        jdbcTemplate.update("DELETE FROM segments");
+        jdbcTemplate.update("DELETE FROM users");
+    }
+
+    @Test
+    void consumer_ShouldMirrorMembershipFromDeltas() throws Exception {
+        SegmentDto sql = segmentService.createSegment(request("FEED_SQL", 20));
+        Mirror mirror = new Mirror();
+        mirror.sync();
+        assertEquals(members(sql.getId()), mirror.members(sql.getId()));
+
+        SegmentJobDto job = segmentJobService.submitCreation(request("FEED_JOB", 30));
+        waitForJob(job.getId());
+        SegmentDto doomed = segmentService.createSegment(request("FEED_DOOMED", 10));
+        segmentService.updateSegment(sql.getId(), "FEED_SQL_RENAMED", null);
+        segmentService.deleteSegment(doomed.getId());
+
+        long cursorBefore = mirror.cursor;
+        mirror.sync();
+        assertEquals(members(sql.getId()), mirror.members(sql.getId()));
+        assertEquals(members(job.getSegmentId()), mirror.members(job.getSegmentId()));
+        assertEquals(150, mirror.members(job.getSegmentId()).size());
+        assertTrue(mirror.members(doomed.getId()).isEmpty());
+        assertEquals("FEED_SQL_RENAMED", mirror.names.get(sql.getId()));
+        // Второй синк читает только дельту
+        assertTrue(cursorBefore > 0);
+        assertEquals(150 + 50 + 2, mirror.lastSyncChanges);
+
+        compactor.compact();
+
+        // Новый потребитель с since=0 получает то же состояние без записей удаленного сегмента
+        Mirror fresh = new Mirror();
+        fresh.sync();
+        assertEquals(mirror.membership, fresh.membership);
+        assertEquals(1, fresh.lastSyncTypes.stream().filter(t -> t == MembershipChangeType.SEGMENT_DELETED).count());
+        assertEquals(100 + 150 + 2, fresh.lastSyncChanges);
+    }
+
+    @Test
+    void consumer_ShouldComputeHashSegmentMembersFromCreationEvent() {
+        SegmentDto hash = segmentService.createSegment(CreateSegmentRequest.builder()
+                .name("FEED_HASH").percentage(40).kind(SegmentKind.HASH_BUCKET).build());
+        Mirror mirror = new Mirror();
+        mirror.sync();
+
+        MembershipChangeDto created = mirror.hashSegments.get(hash.getId());
+        assertEquals(MembershipChangeType.HASH_SEGMENT_CREATED, created.getType());
+        assertEquals(40, created.getPercentage());
+        assertEquals(jdbcTemplate.queryForObject("SELECT salt FROM segments WHERE id = ?", Long.class, hash.getId()),
+                created.getSalt());
+
+        List<Long> userIds = jdbcTemplate.queryForList("SELECT id FROM users", Long.class);
+        Set<Long> expected = new HashSet<>();
+        for (long userId : userIds) {
+            if (segmentService.isUserInSegment("FEED_HASH", userId)) {
+                expected.add(userId);
+            }
+        }
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, mirror.hashMembers(hash.getId(), userIds));
+    }
+
+    private Set<Long> members(long segmentId) {
+        return new HashSet<>(jdbcTemplate.queryForList(
+                "SELECT user_id FROM user_segments WHERE segment_id = ?", Long.class, segmentId));
+    }
+
+    private void waitForJob(String jobId) throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            SegmentJobDto job = segmentJobService.getJob(jobId).orElseThrow();
+            if (job.getFinishedAt() != null) {
+                assertEquals(SegmentJobDto.State.DONE, job.getState(), job.getError());
+                return;
+            }
+            Thread.sleep(50);
+        }
+        fail("Segment job " + jobId + " did not finish");
+    }
+
+    private static CreateSegmentRequest request(String name, int percentage) {
+        return CreateSegmentRequest.builder().name(name).percentage(percentage).build();
+    }
+
+    private class Mirror {
+        private final Map<Long, Set<Long>> membership = new HashMap<>();
+        private final Map<Long, String> names = new HashMap<>();
+        private final Map<Long, MembershipChangeDto> hashSegments = new HashMap<>();
+        private long cursor;
+        private int lastSyncChanges;
+        private final List<MembershipChangeType> lastSyncTypes = new ArrayList<>();
+
+        void sync() {
+            lastSyncChanges = 0;
+            lastSyncTypes.clear();
+            MembershipChangesPage page;
+            do {
+                page = membershipChangeService.getChanges(cursor, 64);
+                for (MembershipChangeDto change : page.getChanges()) {
+                    apply(change);
+                }
+                lastSyncChanges += page.getChanges().size();
+                cursor = page.getNextCursor();
+            } while (page.isHasMore());
+        }
+
+        private void apply(MembershipChangeDto change) {
+            lastSyncTypes.add(change.getType());
+            switch (change.getType()) {
+                case MEMBER_ADDED -> membership.computeIfAbsent(change.getSegmentId(), id -> new HashSet<>())
+                        .add(change.getUserId());
+                case SEGMENT_RENAMED -> names.put(change.getSegmentId(), change.getSegmentName());
+                case HASH_SEGMENT_CREATED -> {
+                    names.put(change.getSegmentId(), change.getSegmentName());
+                    hashSegments.put(change.getSegmentId(), change);
+                }
+                case SEGMENT_DELETED -> {
+                    membership.remove(change.getSegmentId());
+                    names.remove(change.getSegmentId());
+                    hashSegments.remove(change.getSegmentId());
+                }
+            }
+        }
+
+        Set<Long> members(long segmentId) {
+            return membership.getOrDefault(segmentId, Set.of());
+        }
+
+        Set<Long> hashMembers(long segmentId, List<Long> userIds) {
+            MembershipChangeDto created = hashSegments.get(segmentId);
+            Set<Long> members = new HashSet<>();
+            for (long userId : userIds) {
+                if (HashBuckets.contains(userId, created.getSalt(), created.getPercentage())) {
+                    members.add(userId);
+                }
+            }
+            return members;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package org.example.vkedupractice.changes;
+
+import org.example.vkedupractice.dto.MembershipChangeDto;
+import org.example.vkedupractice.model.MembershipChangeType;
+import org.example.vkedupractice.model.Segment;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MembershipChangeLogTest {
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate transactionTemplate;
+    private MembershipChangeLog changeLog;
+    private Segment segment;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE user_segments (user_id BIGINT, segment_id BIGINT)");
+        jdbcTemplate.execute("CREATE TABLE membership_changes (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+                + "change_type VARCHAR(32) NOT NULL, segment_id BIGINT NOT NULL, segment_name VARCHAR(255), "
+                + "previous_name VARCHAR(255), user_id BIGINT, percentage INT, salt BIGINT, created_at TIMESTAMP NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE membership_change_head (id BIGINT PRIMARY KEY, last_append_at TIMESTAMP)");
+
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(database);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        changeLog = new MembershipChangeLog(jdbcTemplate, transactionManager, true);
+        segment = Segment.builder().id(1L).name("SEGMENT").build();
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void recordMembersAdded_ShouldLogOnlyMembersNotLoggedYet() {
+        addMembers(1L, 1, 2, 3);
+        assertEquals(3, inTransaction(() -> changeLog.recordMembersAdded(segment)));
+
+        addMembers(1L, 4, 5);
+        assertEquals(2, inTransaction(() -> changeLog.recordMembersAdded(segment)));
+
+        List<MembershipChangeDto> changes = changeLog.findAfter(0, 100);
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), changes.stream().map(MembershipChangeDto::getUserId).toList());
+        assertTrue(changes.stream().allMatch(c -> c.getType() == MembershipChangeType.MEMBER_ADDED
+                && c.getSegmentId() == 1L && "SEGMENT".equals(c.getSegmentName())));
+    }
+
+    @Test
+    void recordMembersAdded_InRange_ShouldLogOnlyWindow() {
+        addMembers(1L, 5, 10, 15, 20);
+
+        assertEquals(2, inTransaction(() -> changeLog.recordMembersAdded(segment, 5, 15)));
+
+        assertEquals(List.of(10L, 15L), changeLog.findAfter(0, 100).stream().map(MembershipChangeDto::getUserId).toList());
+    }
+
+    @Test
+    void segmentEvents_ShouldBeReadInCursorOrder() {
+        inTransaction(() -> {
+            changeLog.recordHashSegmentCreated(Segment.builder().id(2L).name("HASH").percentage(30).salt(77L).build());
+            changeLog.recordSegmentRenamed(Segment.builder().id(2L).name("HASH_V2").build(), "HASH");
+            changeLog.recordSegmentDeleted(2L, "HASH_V2");
+            return null;
+        });
+
+        List<MembershipChangeDto> changes = changeLog.findAfter(0, 100);
+
+        assertEquals(List.of(MembershipChangeType.HASH_SEGMENT_CREATED, MembershipChangeType.SEGMENT_RENAMED,
+                MembershipChangeType.SEGMENT_DELETED), changes.stream().map(MembershipChangeDto::getType).toList());
+        assertEquals(30, changes.get(0).getPercentage());
+        assertEquals(77L, changes.get(0).getSalt());
+        assertEquals("HASH", changes.get(1).getPreviousName());
+        assertNull(changes.get(1).getPercentage());
+        assertNull(changes.get(2).getUserId());
+        assertEquals(List.of(changes.get(2)), changeLog.findAfter(changes.get(1).getCursor(), 100));
+        assertEquals(2, changeLog.findAfter(0, 2).size());
+    }
+
+    @Test
+    void disabledLog_ShouldNotWrite() {
+        MembershipChangeLog disabled = new MembershipChangeLog(jdbcTemplate, new DataSourceTransactionManager(database), false);
+        addMembers(1L, 1);
+
+        inTransaction(() -> {
+            disabled.recordMembersAdded(segment);
+            disabled.recordSegmentDeleted(1L, "SEGMENT");
+            return null;
+        });
+
+        assertTrue(changeLog.findAfter(0, 100).isEmpty());
+    }
+
+    @Test
+    void appends_ShouldCommitInCursorOrder() throws Exception {
+        inTransaction(() -> {
+            changeLog.recordSegmentDeleted(9L, "WARMUP");
+            return null;
+        });
+        CountDownLatch firstAppended = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        CompletableFuture<Void> first = CompletableFuture.runAsync(() -> inTransaction(() -> {
+            changeLog.recordSegmentDeleted(10L, "FIRST");
+            firstAppended.countDown();
+            await(releaseFirst);
+            return null;
+        }));
+        firstAppended.await();
+
+        CompletableFuture<Void> second = CompletableFuture.runAsync(() -> inTransaction(() -> {
+            changeLog.recordSegmentDeleted(11L, "SECOND");
+            return null;
+        }));
+
+        // Вторая запись ждет коммита первой, иначе потребитель мог бы увидеть ее курсор раньше
+        Thread.sleep(300);
+        assertFalse(second.isDone());
+        releaseFirst.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+
+        List<MembershipChangeDto> changes = changeLog.findAfter(0, 100);
+        assertEquals(List.of("WARMUP", "FIRST", "SECOND"), changes.stream().map(MembershipChangeDto::getSegmentName).toList());
+    }
+
+    private void addMembers(long segmentId, long... userIds) {
+        for (long userId : userIds) {
+            jdbcTemplate.update("INSERT INTO user_segments (user_id, segment_id) VALUES (?, ?)", userId, segmentId);
+        }
+    }
+
+    private <T> T inTransaction(java.util.function.Supplier<T> action) {
+        return transactionTemplate.execute(status -> action.get());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
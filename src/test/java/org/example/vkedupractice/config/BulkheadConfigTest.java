@@ -0,0 +1,59 @@
+package org.example.vkedupractice.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.vkedupractice.bulkhead.BulkheadDataSource;
+import org.example.vkedupractice.metrics.SqlStatementCountingDataSource;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BulkheadConfigTest {
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withPropertyValues("db.bulkhead.enabled=true")
+            .withUserConfiguration(PoolConfig.class, BulkheadConfig.class, MetricsConfig.class);
+
+    @Test
+    void dataSource_ShouldBeWrappedByBulkheadOverSqlCounterRegardlessOfConfigOrder() {
+        contextRunner.run(context -> {
+            DataSource dataSource = context.getBean(DataSource.class);
+
+            BulkheadDataSource bulkhead = assertInstanceOf(BulkheadDataSource.class, dataSource);
+            assertInstanceOf(SqlStatementCountingDataSource.class, bulkhead.getTargetDataSource());
+            assertEquals(7, bulkhead.getMaxConcurrent());
+        });
+    }
+
+    @Test
+    void poolSize_WhenHikariIsWrapped_ShouldUnwrapPool() {
+        HikariDataSource hikari = new HikariDataSource();
+        hikari.setMaximumPoolSize(5);
+
+        assertEquals(5, BulkheadConfig.poolSize(new SqlStatementCountingDataSource(hikari)));
+        assertEquals(5, BulkheadConfig.poolSize(hikari));
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    static class PoolConfig {
+
+        // Пул не стартует: соединения не запрашиваются
+        @Bean(destroyMethod = "close")
+        HikariDataSource dataSource() {
+            HikariDataSource dataSource = new HikariDataSource();
+            dataSource.setMaximumPoolSize(7);
+            return dataSource;
+        }
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package org.example.vkedupractice.controller;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.example.vkedupractice.dto.BatchUserSegmentIdsResponse;
+import org.example.vkedupractice.dto.BatchUserSegmentsRequest;
+import org.example.vkedupractice.dto.CreateSegmentRequest;
+import org.example.vkedupractice.dto.SegmentDictionary;
+import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.dto.UserSegmentIdsResponse;
+import org.example.vkedupractice.dto.UserSegmentsResponse;
+import org.example.vkedupractice.service.SegmentService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:binary-formats;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000"
+})
+@ActiveProfiles("test")
+class BinaryContentNegotiationIntegrationTest {
+
+    private static final String CBOR = "application/cbor";
+    private static final String SMILE = "application/x-jackson-smile";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private SegmentService segmentService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final CBORMapper cborMapper = new CBORMapper();
+    private final SmileMapper smileMapper = new SmileMapper();
+    private long userId;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("INSERT INTO users (username, email) VALUES ('binary-user', 'binary-user@example.com')");
+        userId = jdbcTemplate.queryForObject("SELECT id FROM users WHERE username = 'binary-user'", Long.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM user_segments");
+        jdbcTemplate.update("DELETE FROM segments");
+        jdbcTemplate.update("DELETE FROM users");
+    }
+
+    @Test
+    void userSegments_ShouldBeNegotiatedByAcceptAndCarryTheSameBody() throws Exception {
+        segmentService.createSegment(CreateSegmentRequest.builder().name("BINARY_ALL").percentage(100).build());
+        String path = "/api/users/" + userId + "/segments";
+
+        HttpResponse<byte[]> json = get(path, null);
+        HttpResponse<byte[]> any = get(path, "*/*");
+        HttpResponse<byte[]> cbor = get(path, CBOR);
+        HttpResponse<byte[]> smile = get(path, SMILE);
+
+        assertTrue(contentType(json).startsWith("application/json"));
+        assertTrue(contentType(any).startsWith("application/json"));
+        assertEquals(CBOR, contentType(cbor));
+        assertEquals(SMILE, contentType(smile));
+        assertTrue(cbor.headers().allValues("Vary").contains("Accept"));
+
+        UserSegmentsResponse expected = objectMapper.readValue(json.body(), UserSegmentsResponse.class);
+        assertEquals(Set.of("BINARY_ALL"), expected.getSegments());
+        assertEquals(expected, cborMapper.readValue(cbor.body(), UserSegmentsResponse.class));
+        assertEquals(expected, smileMapper.readValue(smile.body(), UserSegmentsResponse.class));
+        String etag = json.headers().firstValue("ETag").orElseThrow();
+        assertTrue(etag.startsWith("W/\""));
+        assertEquals(etag, cbor.headers().firstValue("ETag").orElseThrow());
+        assertEquals(etag, smile.headers().firstValue("ETag").orElseThrow());
+        HttpResponse<byte[]> notModified = get(path, CBOR, etag);
+        assertEquals(304, notModified.statusCode());
+        assertEquals(etag, notModified.headers().firstValue("ETag").orElseThrow());
+        assertTrue(cbor.body().length < json.body().length);
+    }
+
+    @Test
+    void dictionaryMode_ShouldReturnIdsResolvableThroughDictionary() throws Exception {
+        SegmentDto all = segmentService.createSegment(CreateSegmentRequest.builder().name("BINARY_ALL").percentage(100).build());
+        segmentService.createSegment(CreateSegmentRequest.builder().name("BINARY_NONE").percentage(0).build());
+
+        HttpResponse<byte[]> dictionaryResponse = get("/api/segments/dictionary", CBOR);
+        SegmentDictionary dictionary = cborMapper.readValue(dictionaryResponse.body(), SegmentDictionary.class);
+        assertEquals("BINARY_ALL", dictionary.getSegments().get(all.getId()));
+        assertEquals(304, get("/api/segments/dictionary", CBOR,
+                dictionaryResponse.headers().firstValue("ETag").orElseThrow()).statusCode());
+
+        HttpResponse<byte[]> single = get("/api/users/" + userId + "/segments?dictionary=true", SMILE);
+        UserSegmentIdsResponse ids = smileMapper.readValue(single.body(), UserSegmentIdsResponse.class);
+        assertArrayEquals(new long[]{all.getId()}, ids.getSegmentIds());
+        assertEquals(dictionary.getVersion(),
+                single.headers().firstValue(UserController.DICTIONARY_VERSION_HEADER).orElseThrow());
+
+        HttpResponse<byte[]> batch = client.send(HttpRequest.newBuilder(uri("/api/users/segments:batchGet?dictionary=true"))
+                        .header("Content-Type", "application/json")
+                        .header("Accept", CBOR)
+                        .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(
+                                new BatchUserSegmentsRequest(List.of(userId, -1L)))))
+                        .build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+        BatchUserSegmentIdsResponse batchIds = cborMapper.readValue(batch.body(), BatchUserSegmentIdsResponse.class);
+        assertArrayEquals(new long[]{all.getId()}, batchIds.getUsers().get(0).getSegmentIds());
+        assertEquals(List.of(-1L), batchIds.getMissingIds());
+    }
+
+    private HttpResponse<byte[]> get(String path, String accept) throws Exception {
+        return get(path, accept, null);
+    }
+
+    private HttpResponse<byte[]> get(String path, String accept, String ifNoneMatch) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri(path)).GET();
+        if (accept != null) {
+            request.header("Accept", accept);
+        }
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+
+    private static String contentType(HttpResponse<?> response) {
+        return response.headers().firstValue("Content-Type").orElseThrow();
+    }
+}
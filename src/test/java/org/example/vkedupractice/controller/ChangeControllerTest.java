@@ -0,0 +1,38 @@
+package org.example.vkedupractice.controller;
+
+import org.example.vkedupractice.dto.MembershipChangesPage;
+import org.example.vkedupractice.service.MembershipChangeService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class ChangeControllerTest {
+
+    @Mock
+    private MembershipChangeService membershipChangeService;
+
+    @InjectMocks
+    private ChangeController changeController;
+
+    @Test
+    void getChanges_ShouldReturnPageFromService() {
+        MembershipChangesPage page = MembershipChangesPage.builder().changes(List.of()).nextCursor(7L).build();
+        when(membershipChangeService.getChanges(7L, 100)).thenReturn(page);
+
+        ResponseEntity<MembershipChangesPage> response = changeController.getChanges(7L, 100);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertSame(page, response.getBody());
+        verify(membershipChangeService).getChanges(7L, 100);
+    }
+}
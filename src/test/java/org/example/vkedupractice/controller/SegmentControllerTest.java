@@ -1,7 +1,16 @@
 package org.example.vkedupractice.controller;
 
 import org.example.vkedupractice.dto.CreateSegmentRequest;
+import org.example.vkedupractice.dto.SegmentDictionary;
 import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.dto.SegmentJobDto;
+import org.example.vkedupractice.dto.SegmentPurgeStatus;
+import org.example.vkedupractice.dto.SegmentQueryRequest;
+import org.example.vkedupractice.dto.SegmentQueryResponse;
+import org.example.vkedupractice.query.SegmentQueryResult;
+import org.example.vkedupractice.service.SegmentDictionaryService;
+import org.example.vkedupractice.service.SegmentJobService;
+import org.example.vkedupractice.service.SegmentQueryService;
 import org.example.vkedupractice.service.SegmentService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -9,11 +18,19 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.roaringbitmap.RoaringBitmap;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -24,6 +41,15 @@ class SegmentControllerTest {
     @Mock
     private SegmentService segmentService;
 
+    @Mock
+    private SegmentJobService segmentJobService;
+
+    @Mock
+    private SegmentQueryService segmentQueryService;
+
+    @Mock
+    private SegmentDictionaryService segmentDictionaryService;
+
     @InjectMocks
     private SegmentController segmentController;
 
@@ -51,7 +77,7 @@ class SegmentControllerTest {
         List<SegmentDto> segments = Arrays.asList(testSegmentDto);
         when(segmentService.getAllSegments()).thenReturn(segments);
 
-        ResponseEntity<List<SegmentDto>> response = segmentController.getAllSegments();
+        ResponseEntity<List<SegmentDto>> response = segmentController.getAllSegments(null);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertNotNull(response.getBody());
@@ -61,6 +87,26 @@ class SegmentControllerTest {
         verify(segmentService).getAllSegments();
     }
 
+    @Test
+    void getDictionary_ShouldTagWithDictionaryVersionAndAnswerNotModifiedForIt() {
+        SegmentDictionary dictionary = SegmentDictionary.builder()
+                .version("1-abc")
+                .segments(Map.of(1L, "TEST_SEGMENT"))
+                .build();
+        when(segmentDictionaryService.getDictionary()).thenReturn(dictionary);
+
+        ResponseEntity<SegmentDictionary> response = segmentController.getDictionary(null);
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("W/\"1-abc\"", response.getHeaders().getETag());
+        assertSame(dictionary, response.getBody());
+
+        ResponseEntity<SegmentDictionary> unchanged = segmentController.getDictionary("\"1-abc\"");
+        assertEquals(HttpStatus.NOT_MODIFIED, unchanged.getStatusCode());
+        assertEquals("W/\"1-abc\"", unchanged.getHeaders().getETag());
+        assertEquals(List.of(HttpHeaders.ACCEPT), unchanged.getHeaders().getVary());
+        assertNull(unchanged.getBody());
+    }
+
     @Test
     void getSegmentById_WhenSegmentExists_ShouldReturnSegment() {
         when(segmentService.getSegmentById(1L)).thenReturn(Optional.of(testSegmentDto));
@@ -191,11 +237,154 @@ class SegmentControllerTest {
     void getUsersInSegmentCount_ShouldReturnCorrectCount() {
         when(segmentService.getUsersInSegmentCount("TEST_SEGMENT")).thenReturn(5L);
 
-        ResponseEntity<Long> response = segmentController.getUsersInSegmentCount("TEST_SEGMENT");
+        ResponseEntity<Long> response = segmentController.getUsersInSegmentCount("TEST_SEGMENT", null);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertEquals(5L, response.getBody());
         
         verify(segmentService).getUsersInSegmentCount("TEST_SEGMENT");
     }
-} 
\ No newline at end of file
+
+    @Test
+    void getAllSegments_ShouldTagResponseWithVersion() {
+        when(segmentService.getSegmentsVersion()).thenReturn("1-abc");
+        when(segmentService.getAllSegments()).thenReturn(List.of(testSegmentDto));
+
+        ResponseEntity<List<SegmentDto>> response = segmentController.getAllSegments("\"1-old\"");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("W/\"1-abc\"", response.getHeaders().getETag());
+        assertEquals(List.of(HttpHeaders.ACCEPT), response.getHeaders().getVary());
+    }
+
+    @Test
+    void getAllSegments_WhenETagMatches_ShouldReturnNotModifiedWithoutLoading() {
+        when(segmentService.getSegmentsVersion()).thenReturn("1-abc");
+
+        ResponseEntity<List<SegmentDto>> response = segmentController.getAllSegments("\"0-x\", W/\"1-abc\"");
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertEquals("W/\"1-abc\"", response.getHeaders().getETag());
+        assertNull(response.getBody());
+        verify(segmentService, never()).getAllSegments();
+    }
+
+    @Test
+    void getUsersInSegmentCount_WhenETagMatches_ShouldReturnNotModifiedWithoutCounting() {
+        when(segmentService.getUsersInSegmentCountVersion("TEST_SEGMENT")).thenReturn(Optional.of("1-7"));
+
+        ResponseEntity<Long> response = segmentController.getUsersInSegmentCount("TEST_SEGMENT", "\"1-7\"");
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        verify(segmentService, never()).getUsersInSegmentCount(any());
+    }
+
+    @Test
+    void getUsersInSegmentCount_WhenSegmentMissing_ShouldAnswerWithoutETag() {
+        when(segmentService.getUsersInSegmentCountVersion("MISSING")).thenReturn(Optional.empty());
+        when(segmentService.getUsersInSegmentCount("MISSING")).thenReturn(0L);
+
+        ResponseEntity<Long> response = segmentController.getUsersInSegmentCount("MISSING", "*");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertNull(response.getHeaders().getETag());
+        assertEquals(List.of(HttpHeaders.ACCEPT), response.getHeaders().getVary());
+    }
+
+    @Test
+    void isUserInSegment_ShouldReturnMembership() {
+        when(segmentService.isUserInSegment("TEST_SEGMENT", 1L)).thenReturn(true);
+
+        ResponseEntity<Boolean> response = segmentController.isUserInSegment("TEST_SEGMENT", 1L);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(Boolean.TRUE, response.getBody());
+
+        verify(segmentService).isUserInSegment("TEST_SEGMENT", 1L);
+    }
+
+    @Test
+    void getPurgeStatus_WhenSegmentDeleted_ShouldReturnProgress() {
+        SegmentPurgeStatus status = SegmentPurgeStatus.builder()
+                .segmentId(1L)
+                .name("TEST_SEGMENT")
+                .remainingMembers(42)
+                .state(SegmentPurgeStatus.State.RUNNING)
+                .build();
+        when(segmentService.getPurgeStatus(1L)).thenReturn(Optional.of(status));
+
+        ResponseEntity<SegmentPurgeStatus> response = segmentController.getPurgeStatus(1L);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(42, response.getBody().getRemainingMembers());
+    }
+
+    @Test
+    void getPurgeStatus_WhenSegmentNotDeleted_ShouldReturnNotFound() {
+        when(segmentService.getPurgeStatus(1L)).thenReturn(Optional.empty());
+
+        ResponseEntity<SegmentPurgeStatus> response = segmentController.getPurgeStatus(1L);
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+    }
+
+    @Test
+    void createSegmentAsync_ShouldReturnAcceptedWithJobLocation() {
+        SegmentJobDto job = SegmentJobDto.builder()
+                .id("job-1")
+                .segmentId(1L)
+                .state(SegmentJobDto.State.QUEUED)
+                .build();
+        when(segmentJobService.submitCreation(createRequest)).thenReturn(job);
+
+        ResponseEntity<SegmentJobDto> response = segmentController.createSegmentAsync(createRequest);
+
+        assertEquals(HttpStatus.ACCEPTED, response.getStatusCode());
+        assertEquals("/api/segments/jobs/job-1", response.getHeaders().getLocation().toString());
+        assertEquals(job, response.getBody());
+    }
+
+    @Test
+    void createSegmentAsync_WhenTooManyJobs_ShouldReturnTooManyRequests() {
+        when(segmentJobService.submitCreation(createRequest)).thenThrow(new TaskRejectedException("busy"));
+
+        ResponseEntity<SegmentJobDto> response = segmentController.createSegmentAsync(createRequest);
+
+        assertEquals(HttpStatus.TOO_MANY_REQUESTS, response.getStatusCode());
+    }
+
+    @Test
+    void getJob_WhenJobUnknown_ShouldReturnNotFound() {
+        when(segmentJobService.getJob("missing")).thenReturn(Optional.empty());
+
+        ResponseEntity<SegmentJobDto> response = segmentController.getJob("missing");
+
+        assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
+    }
+
+    @Test
+    void query_ShouldDelegateToQueryService() {
+        SegmentQueryRequest request = SegmentQueryRequest.builder().expression("A AND NOT B").build();
+        SegmentQueryResponse expected = SegmentQueryResponse.builder().count(2).userIds(List.of(1L, 2L)).build();
+        when(segmentQueryService.query(request)).thenReturn(expected);
+
+        ResponseEntity<SegmentQueryResponse> response = segmentController.query(request);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(expected, response.getBody());
+    }
+
+    @Test
+    void queryStream_ShouldWriteOneIdPerLine() throws Exception {
+        when(segmentQueryService.evaluate("A OR B"))
+                .thenReturn(new SegmentQueryResult(RoaringBitmap.bitmapOf(3, 7, 42)));
+
+        ResponseEntity<StreamingResponseBody> response = segmentController.queryStream(
+                SegmentQueryRequest.builder().expression("A OR B").build());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("3\n7\n42\n", out.toString(StandardCharsets.US_ASCII));
+    }
+}
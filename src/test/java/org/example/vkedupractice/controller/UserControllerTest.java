@@ -1,22 +1,45 @@
 package org.example.vkedupractice.controller;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.example.vkedupractice.dto.BatchUserSegmentIdsResponse;
+import org.example.vkedupractice.dto.BatchUserSegmentsRequest;
+import org.example.vkedupractice.dto.BatchUserSegmentsResponse;
+import org.example.vkedupractice.dto.SegmentDictionary;
+import org.example.vkedupractice.dto.SegmentMemberDto;
 import org.example.vkedupractice.dto.UserDto;
+import org.example.vkedupractice.dto.UserImportResult;
+import org.example.vkedupractice.dto.UserPage;
+import org.example.vkedupractice.dto.UserSegmentIdsResponse;
 import org.example.vkedupractice.dto.UserSegmentsResponse;
+import org.example.vkedupractice.service.SegmentDictionaryService;
+import org.example.vkedupractice.service.UserImportService;
 import org.example.vkedupractice.service.UserService;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -27,6 +50,15 @@ class UserControllerTest {
     @Mock
     private UserService userService;
 
+    @Mock
+    private UserImportService userImportService;
+
+    @Mock
+    private SegmentDictionaryService segmentDictionaryService;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+
     @InjectMocks
     private UserController userController;
 
@@ -51,11 +83,11 @@ class UserControllerTest {
     }
 
     @Test
-    void getAllUsers_ShouldReturnAllUsers() {
+    void getAllUsers_WhenAllRequested_ShouldReturnAllUsers() {
         List<UserDto> users = Arrays.asList(testUserDto);
         when(userService.getAllUsers()).thenReturn(users);
 
-        ResponseEntity<List<UserDto>> response = userController.getAllUsers();
+        ResponseEntity<List<UserDto>> response = userController.getAllUsers(null, null, true);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertNotNull(response.getBody());
@@ -63,6 +95,50 @@ class UserControllerTest {
         assertEquals(testUserDto.getId(), response.getBody().get(0).getId());
         
         verify(userService).getAllUsers();
+        verify(userService, never()).getUsersPage(any(), any());
+    }
+
+    @Test
+    void getAllUsers_ShouldReturnPageWithNextCursor() {
+        when(userService.getUsersPage(5L, 1))
+                .thenReturn(UserPage.builder().items(List.of(testUserDto)).nextCursor(1L).build());
+
+        ResponseEntity<List<UserDto>> response = userController.getAllUsers(5L, 1, false);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(1, response.getBody().size());
+        assertEquals("1", response.getHeaders().getFirst(UserController.NEXT_CURSOR_HEADER));
+        verify(userService, never()).getAllUsers();
+    }
+
+    @Test
+    void getAllUsers_WhenLastPage_ShouldNotReturnCursor() {
+        when(userService.getUsersPage(null, null))
+                .thenReturn(UserPage.builder().items(List.of(testUserDto)).build());
+
+        ResponseEntity<List<UserDto>> response = userController.getAllUsers(null, null, false);
+
+        assertFalse(response.getHeaders().containsKey(UserController.NEXT_CURSOR_HEADER));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamAllUsers_ShouldWriteOneJsonObjectPerLine() throws Exception {
+        doAnswer(inv -> {
+            Consumer<UserDto> consumer = inv.getArgument(0);
+            consumer.accept(testUserDto);
+            consumer.accept(UserDto.builder().id(2L).username("second").build());
+            return null;
+        }).when(userService).streamAllUsers(any());
+
+        ResponseEntity<StreamingResponseBody> response = userController.streamAllUsers();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+
+        String[] lines = out.toString(StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals(1L, objectMapper.readValue(lines[0], UserDto.class).getId());
+        assertEquals("second", objectMapper.readValue(lines[1], UserDto.class).getUsername());
     }
 
     @Test
@@ -94,7 +170,7 @@ class UserControllerTest {
     void getUserSegments_WhenUserExists_ShouldReturnUserSegments() {
         when(userService.getUserSegments(1L)).thenReturn(testUserSegmentsResponse);
 
-        ResponseEntity<UserSegmentsResponse> response = userController.getUserSegments(1L);
+        ResponseEntity<UserSegmentsResponse> response = userController.getUserSegments(1L, null);
 
         assertEquals(HttpStatus.OK, response.getStatusCode());
         assertNotNull(response.getBody());
@@ -109,7 +185,7 @@ class UserControllerTest {
     void getUserSegments_WhenUserNotExists_ShouldReturnNotFound() {
         when(userService.getUserSegments(999L)).thenThrow(new RuntimeException("User not found"));
 
-        ResponseEntity<UserSegmentsResponse> response = userController.getUserSegments(999L);
+        ResponseEntity<UserSegmentsResponse> response = userController.getUserSegments(999L, null);
 
         assertEquals(HttpStatus.NOT_FOUND, response.getStatusCode());
         assertNull(response.getBody());
@@ -117,6 +193,114 @@ class UserControllerTest {
         verify(userService).getUserSegments(999L);
     }
 
+    @Test
+    void getUserSegments_WhenNoConnection_ShouldPropagateForServiceUnavailable() {
+        CannotCreateTransactionException overload = new CannotCreateTransactionException("DB bulkhead queue is full");
+        when(userService.getUserSegments(1L)).thenThrow(overload);
+
+        assertSame(overload, assertThrows(CannotCreateTransactionException.class,
+                () -> userController.getUserSegments(1L, null)));
+    }
+
+    @Test
+    void getUserSegments_WhenETagMatches_ShouldReturnNotModifiedWithoutLoading() {
+        when(userService.getUserSegmentsVersion(1L)).thenReturn("1-2-abc");
+
+        ResponseEntity<UserSegmentsResponse> response = userController.getUserSegments(1L, "W/\"1-2-abc\"");
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertEquals("W/\"1-2-abc\"", response.getHeaders().getETag());
+        verify(userService, never()).getUserSegments(any());
+    }
+
+    @Test
+    void getUserSegments_WhenStrongTagOfSameVersion_ShouldReturnNotModified() {
+        when(userService.getUserSegmentsVersion(1L)).thenReturn("1-2-abc");
+
+        ResponseEntity<UserSegmentsResponse> response = userController.getUserSegments(1L, "\"1-2-abc\"");
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        assertEquals("W/\"1-2-abc\"", response.getHeaders().getETag());
+    }
+
+    @Test
+    void getUserSegments_WhenModified_ShouldTagWithVersionOfReturnedBody() {
+        when(userService.getUserSegmentsVersion(1L)).thenReturn("1-2-new");
+        // Ответ из кэша загружен до последнего изменения и несет свою версию
+        testUserSegmentsResponse.setVersion("1-2-cached");
+        when(userService.getUserSegments(1L)).thenReturn(testUserSegmentsResponse);
+
+        ResponseEntity<UserSegmentsResponse> response = userController.getUserSegments(1L, "\"1-2-old\"");
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals("W/\"1-2-cached\"", response.getHeaders().getETag());
+    }
+
+    @Test
+    void getUserSegmentsBatch_ShouldReturnFoundAndMissingUsers() {
+        BatchUserSegmentsResponse batch = BatchUserSegmentsResponse.builder()
+                .users(List.of(testUserSegmentsResponse))
+                .missingIds(List.of(999L))
+                .build();
+        when(userService.getUserSegmentsBatch(List.of(1L, 999L))).thenReturn(batch);
+
+        ResponseEntity<BatchUserSegmentsResponse> response =
+                userController.getUserSegmentsBatch(new BatchUserSegmentsRequest(List.of(1L, 999L)));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertEquals(batch, response.getBody());
+        verify(userService).getUserSegmentsBatch(List.of(1L, 999L));
+    }
+
+    @Test
+    void getUserSegmentIds_ShouldEncodeSegmentsWithDictionaryAndTagWithSameVersion() {
+        testUserSegmentsResponse.setVersion("1-2-abc");
+        testUserSegmentsResponse.setSegments(Set.of("TEST_SEGMENT", "OTHER"));
+        when(userService.getUserSegments(1L)).thenReturn(testUserSegmentsResponse);
+        SegmentDictionary dictionary = dictionary();
+        when(segmentDictionaryService.getDictionary()).thenReturn(dictionary);
+        when(segmentDictionaryService.encode(testUserSegmentsResponse, dictionary)).thenCallRealMethod();
+
+        ResponseEntity<UserSegmentIdsResponse> response = userController.getUserSegmentIds(1L, null);
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertArrayEquals(new long[]{3L, 7L}, response.getBody().getSegmentIds());
+        assertEquals("testuser", response.getBody().getUsername());
+        assertEquals("W/\"1-2-abc\"", response.getHeaders().getETag());
+        assertEquals("2-dict", response.getHeaders().getFirst(UserController.DICTIONARY_VERSION_HEADER));
+        assertEquals(List.of(HttpHeaders.ACCEPT), response.getHeaders().getVary());
+    }
+
+    @Test
+    void getUserSegmentIds_WhenETagMatches_ShouldNotLoadDictionary() {
+        when(userService.getUserSegmentsVersion(1L)).thenReturn("1-2-abc");
+
+        ResponseEntity<UserSegmentIdsResponse> response = userController.getUserSegmentIds(1L, "\"1-2-abc\"");
+
+        assertEquals(HttpStatus.NOT_MODIFIED, response.getStatusCode());
+        verifyNoInteractions(segmentDictionaryService);
+    }
+
+    @Test
+    void getUserSegmentIdsBatch_ShouldEncodeAllUsersAndKeepMissingIds() {
+        BatchUserSegmentsResponse batch = BatchUserSegmentsResponse.builder()
+                .users(List.of(testUserSegmentsResponse))
+                .missingIds(List.of(999L))
+                .build();
+        when(userService.getUserSegmentsBatch(List.of(1L, 999L))).thenReturn(batch);
+        SegmentDictionary dictionary = dictionary();
+        when(segmentDictionaryService.getDictionary()).thenReturn(dictionary);
+        when(segmentDictionaryService.encode(batch, dictionary)).thenCallRealMethod();
+
+        ResponseEntity<BatchUserSegmentIdsResponse> response =
+                userController.getUserSegmentIdsBatch(new BatchUserSegmentsRequest(List.of(1L, 999L)));
+
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertArrayEquals(new long[]{7L}, response.getBody().getUsers().get(0).getSegmentIds());
+        assertEquals(List.of(999L), response.getBody().getMissingIds());
+        assertEquals("2-dict", response.getHeaders().getFirst(UserController.DICTIONARY_VERSION_HEADER));
+    }
+
     @Test
     void getUsersBySegment_ShouldReturnUsersInSegment() {
         List<UserDto> users = Arrays.asList(testUserDto);
@@ -132,6 +316,31 @@ class UserControllerTest {
         verify(userService).getUsersBySegment("TEST_SEGMENT");
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void exportUsersBySegment_WithIdsOnly_ShouldWriteIdLines() throws Exception {
+        doAnswer(inv -> {
+            Consumer<SegmentMemberDto> consumer = inv.getArgument(2);
+            consumer.accept(new SegmentMemberDto(1L, null));
+            consumer.accept(new SegmentMemberDto(5L, null));
+            return null;
+        }).when(userService).exportSegmentMembers(eq("TEST_SEGMENT"), eq(false), any());
+
+        ResponseEntity<StreamingResponseBody> response =
+                userController.exportUsersBySegment("TEST_SEGMENT", List.of("id"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        response.getBody().writeTo(out);
+
+        assertEquals("{\"id\":1}\n{\"id\":5}\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void exportUsersBySegment_WithUnknownField_ShouldThrowException() {
+        assertThrows(IllegalArgumentException.class,
+                () -> userController.exportUsersBySegment("TEST_SEGMENT", List.of("id", "email")));
+        verifyNoInteractions(userService);
+    }
+
     @Test
     void getTotalUserCount_ShouldReturnCorrectCount() {
         when(userService.getTotalUserCount()).thenReturn(10L);
@@ -143,4 +352,27 @@ class UserControllerTest {
         
         verify(userService).getTotalUserCount();
     }
-} 
\ No newline at end of file
+
+    @Test
+    void importUsers_ShouldPickFormatFromContentType() throws Exception {
+        InputStream body = new ByteArrayInputStream(new byte[0]);
+        UserImportResult result = UserImportResult.builder().imported(5).build();
+        when(userImportService.importUsers(body, UserImportService.Format.CSV, 100)).thenReturn(result);
+        when(userImportService.importUsers(body, UserImportService.Format.NDJSON, null)).thenReturn(result);
+
+        ResponseEntity<UserImportResult> csv = userController.importUsers(
+                MediaType.parseMediaType("text/csv;charset=UTF-8"), 100, body);
+        ResponseEntity<UserImportResult> ndjson = userController.importUsers(MediaType.APPLICATION_NDJSON, null, body);
+
+        assertEquals(HttpStatus.OK, csv.getStatusCode());
+        assertEquals(5, csv.getBody().getImported());
+        assertEquals(HttpStatus.OK, ndjson.getStatusCode());
+    }
+
+    private static SegmentDictionary dictionary() {
+        return SegmentDictionary.builder()
+                .version("2-dict")
+                .segments(Map.of(3L, "OTHER", 7L, "TEST_SEGMENT"))
+                .build();
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.vkedupractice.counter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentCounterReconcilerTest {
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private SegmentCounterReconciler reconciler;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE segments (id BIGINT PRIMARY KEY, kind VARCHAR(32), "
+                + "member_count BIGINT DEFAULT 0 NOT NULL, version BIGINT DEFAULT 0 NOT NULL, "
+                + "deleted BOOLEAN DEFAULT FALSE NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE user_segments (user_id BIGINT, segment_id BIGINT)");
+        jdbcTemplate.update("INSERT INTO segments (id, kind, member_count) VALUES "
+                + "(1, 'MATERIALIZED', 2), (2, 'MATERIALIZED', 0), (3, 'HASH_BUCKET', 0)");
+        jdbcTemplate.update("INSERT INTO user_segments VALUES (1, 1), (2, 1), (1, 2), (2, 2), (3, 2)");
+
+        meterRegistry = new SimpleMeterRegistry();
+        reconciler = new SegmentCounterReconciler(jdbcTemplate, new DataSourceTransactionManager(database), meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void reconcileAll_ShouldFixOnlyDriftedCounters() {
+        reconciler.reconcileAll();
+
+        assertEquals(2L, memberCount(1));
+        assertEquals(3L, memberCount(2));
+        assertEquals(0L, memberCount(3));
+        assertEquals(1.0, meterRegistry.get("segments.counters.drift").counter().count());
+        // Исправленный счетчик виден в ответах, поэтому меняется и версия для ETag
+        assertEquals(List.of(0L, 1L, 0L),
+                jdbcTemplate.queryForList("SELECT version FROM segments ORDER BY id", Long.class));
+    }
+
+    @Test
+    void reconcile_WhenSegmentDeleted_ShouldSkip() {
+        jdbcTemplate.update("UPDATE segments SET deleted = true WHERE id = 2");
+
+        assertFalse(reconciler.reconcile(2L));
+        assertEquals(0L, memberCount(2));
+    }
+
+    private long memberCount(long segmentId) {
+        return jdbcTemplate.queryForObject("SELECT member_count FROM segments WHERE id = ?", Long.class, segmentId);
+    }
+}
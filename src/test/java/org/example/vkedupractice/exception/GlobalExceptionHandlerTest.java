@@ -1,9 +1,14 @@
 package org.example.vkedupractice.exception;
 
+import org.example.vkedupractice.bulkhead.BulkheadFullException;
+import org.example.vkedupractice.query.SegmentQueryTimeoutException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.validation.BindingResult;
 import org.springframework.validation.FieldError;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -35,6 +40,37 @@ class GlobalExceptionHandlerTest {
         assertEquals("Test error message", response.getBody().get("error"));
     }
 
+    @Test
+    void handleConnectionFailure_WhenBulkheadFull_ShouldReturnServiceUnavailable() {
+        CannotCreateTransactionException exception = new CannotCreateTransactionException("Could not open JPA EntityManager",
+                new RuntimeException(new BulkheadFullException("DB bulkhead queue is full")));
+
+        ResponseEntity<Map<String, String>> response = exceptionHandler.handleConnectionFailure(exception);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertEquals("1", response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+        assertEquals("Service overloaded: DB bulkhead queue is full", response.getBody().get("error"));
+    }
+
+    @Test
+    void handleConnectionFailure_WhenNotOverload_ShouldReturnBadRequest() {
+        DataAccessResourceFailureException exception = new DataAccessResourceFailureException("Connection refused");
+
+        ResponseEntity<Map<String, String>> response = exceptionHandler.handleConnectionFailure(exception);
+
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+    }
+
+    @Test
+    void handleSegmentQueryTimeout_ShouldReturnServiceUnavailable() {
+        SegmentQueryTimeoutException exception = new SegmentQueryTimeoutException("Segment query exceeded 2000 ms");
+
+        ResponseEntity<Map<String, String>> response = exceptionHandler.handleSegmentQueryTimeout(exception);
+
+        assertEquals(HttpStatus.SERVICE_UNAVAILABLE, response.getStatusCode());
+        assertEquals("Segment query exceeded 2000 ms", response.getBody().get("error"));
+    }
+
     @Test
     void handleValidationExceptions_ShouldReturnBadRequestWithFieldErrors() {
         MethodArgumentNotValidException exception = mock(MethodArgumentNotValidException.class);
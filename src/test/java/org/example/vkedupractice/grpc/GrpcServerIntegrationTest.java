@@ -0,0 +1,99 @@
+package org.example.vkedupractice.grpc;
+
+import io.grpc.ManagedChannel;
+import io.grpc.ManagedChannelBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.vkedupractice.dto.CreateSegmentRequest;
+import org.example.vkedupractice.grpc.v1.ExportSegmentMembersRequest;
+import org.example.vkedupractice.grpc.v1.GetUserSegmentsRequest;
+import org.example.vkedupractice.grpc.v1.MembershipServiceGrpc;
+import org.example.vkedupractice.grpc.v1.SegmentMember;
+import org.example.vkedupractice.grpc.v1.UserSegments;
+import org.example.vkedupractice.service.SegmentService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE, properties = {
+        "spring.datasource.url=jdbc:h2:mem:grpc-server;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+        "grpc.export.chunk-size=2"
+})
+@ActiveProfiles("test")
+class GrpcServerIntegrationTest {
+
+    @Autowired
+    private GrpcServer grpcServer;
+
+    @Autowired
+    private SegmentService segmentService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ManagedChannel channel;
+    private MembershipServiceGrpc.MembershipServiceBlockingStub stub;
+
+    @BeforeEach
+    void setUp() {
+        channel = ManagedChannelBuilder.forAddress("localhost", grpcServer.getPort()).usePlaintext().build();
+        stub = MembershipServiceGrpc.newBlockingStub(channel);
+        for (int i = 1; i <= 5; i++) {
+            jdbcTemplate.update("INSERT INTO users (username, email) VALUES (?, ?)", "grpc" + i, "grpc" + i + "@example.com");
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        channel.shutdownNow();
+        jdbcTemplate.update("DELETE FROM user_segments");
+        jdbcTemplate.update("DELETE FROM segments");
+        jdbcTemplate.update("DELETE FROM users");
+    }
+
+    @Test
+    void server_ShouldListenOnItsOwnPortAndServeThroughUserService() {
+        segmentService.createSegment(CreateSegmentRequest.builder().name("GRPC_ALL").percentage(100).build());
+        long userId = jdbcTemplate.queryForObject("SELECT id FROM users WHERE username = 'grpc1'", Long.class);
+
+        UserSegments response = stub.getUserSegments(GetUserSegmentsRequest.newBuilder().setUserId(userId).build());
+
+        assertTrue(grpcServer.getPort() > 0);
+        assertEquals("grpc1", response.getUsername());
+        assertEquals(List.of("GRPC_ALL"), response.getSegmentsList());
+        assertFalse(response.getVersion().isEmpty());
+        // Пул gRPC отдельный и виден в метриках executor.*
+        assertNotNull(meterRegistry.find("executor.completed").tag("name", "grpc").functionCounter());
+    }
+
+    @Test
+    void exportSegmentMembers_ShouldStreamAllMembersInChunks() {
+        segmentService.createSegment(CreateSegmentRequest.builder().name("GRPC_EXPORT").percentage(100).build());
+
+        List<SegmentMember> members = new ArrayList<>();
+        List<Integer> chunkSizes = new ArrayList<>();
+        stub.exportSegmentMembers(ExportSegmentMembersRequest.newBuilder()
+                        .setSegmentName("GRPC_EXPORT")
+                        .setWithUsername(true)
+                        .build())
+                .forEachRemaining(chunk -> {
+                    chunkSizes.add(chunk.getMembersCount());
+                    members.addAll(chunk.getMembersList());
+                });
+
+        assertEquals(List.of(2, 2, 1), chunkSizes);
+        assertEquals(List.of("grpc1", "grpc2", "grpc3", "grpc4", "grpc5"),
+                members.stream().map(SegmentMember::getUsername).sorted().toList());
+    }
+}
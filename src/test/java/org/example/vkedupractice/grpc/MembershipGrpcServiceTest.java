@@ -0,0 +1,361 @@
+package org.example.vkedupractice.grpc;
+
+import io.grpc.Context;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
+import io.grpc.stub.StreamObserver;
+import org.example.vkedupractice.dto.BatchUserSegmentsResponse;
+import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.dto.SegmentMemberDto;
+import org.example.vkedupractice.dto.UserSegmentsResponse;
+import org.example.vkedupractice.grpc.v1.ExportSegmentMembersRequest;
+import org.example.vkedupractice.grpc.v1.GetUserSegmentsRequest;
+import org.example.vkedupractice.grpc.v1.LookupUserSegmentsRequest;
+import org.example.vkedupractice.grpc.v1.LookupUserSegmentsResponse;
+import org.example.vkedupractice.grpc.v1.MembershipServiceGrpc;
+import org.example.vkedupractice.grpc.v1.SegmentMembersChunk;
+import org.example.vkedupractice.grpc.v1.UserSegments;
+import org.example.vkedupractice.service.SegmentService;
+import org.example.vkedupractice.service.UserService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.transaction.CannotCreateTransactionException;
+
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MembershipGrpcServiceTest {
+
+    private static final int CHUNK_SIZE = 1000;
+    private static final int MAX_EXPORTS = 1;
+    private static final Duration EXPORT_READY_TIMEOUT = Duration.ofSeconds(1);
+
+    @Mock
+    private UserService userService;
+
+    @Mock
+    private SegmentService segmentService;
+
+    private ExecutorService executor;
+    private Server server;
+    private ManagedChannel channel;
+    private MembershipServiceGrpc.MembershipServiceBlockingStub blockingStub;
+    private MembershipServiceGrpc.MembershipServiceStub asyncStub;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        String name = InProcessServerBuilder.generateName();
+        executor = Executors.newFixedThreadPool(2);
+        server = InProcessServerBuilder.forName(name)
+                .executor(executor)
+                .addService(new MembershipGrpcService(userService, segmentService, CHUNK_SIZE,
+                        MAX_EXPORTS, EXPORT_READY_TIMEOUT))
+                .build()
+                .start();
+        channel = InProcessChannelBuilder.forName(name).build();
+        blockingStub = MembershipServiceGrpc.newBlockingStub(channel);
+        asyncStub = MembershipServiceGrpc.newStub(channel);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        channel.shutdownNow();
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        executor.shutdownNow();
+    }
+
+    @Test
+    void getUserSegments_ShouldReturnSegmentsAndVersion() {
+        when(userService.getUserSegments(1L)).thenReturn(UserSegmentsResponse.builder()
+                .userId(1L).username("alice").segments(Set.of("MAIL_GPT")).version("1-1-abc").build());
+
+        UserSegments response = blockingStub.getUserSegments(GetUserSegmentsRequest.newBuilder().setUserId(1L).build());
+
+        assertEquals("alice", response.getUsername());
+        assertEquals(List.of("MAIL_GPT"), response.getSegmentsList());
+        assertEquals("1-1-abc", response.getVersion());
+    }
+
+    @Test
+    void getUserSegments_WhenUserMissing_ShouldReturnNotFound() {
+        when(userService.getUserSegments(999L)).thenThrow(new RuntimeException("User not found with id: 999"));
+
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                () -> blockingStub.getUserSegments(GetUserSegmentsRequest.newBuilder().setUserId(999L).build()));
+
+        assertEquals(Status.Code.NOT_FOUND, e.getStatus().getCode());
+    }
+
+    @Test
+    void getUserSegments_WhenNoConnection_ShouldReturnUnavailable() {
+        when(userService.getUserSegments(1L)).thenThrow(new CannotCreateTransactionException("no connection",
+                new SQLTransientConnectionException("DB bulkhead queue is full")));
+
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class,
+                () -> blockingStub.getUserSegments(GetUserSegmentsRequest.newBuilder().setUserId(1L).build()));
+
+        assertEquals(Status.Code.UNAVAILABLE, e.getStatus().getCode());
+    }
+
+    @Test
+    void lookupUserSegments_ShouldAnswerEachBatchInOrder() throws Exception {
+        when(userService.getUserSegmentsBatch(List.of(1L, 2L))).thenReturn(BatchUserSegmentsResponse.builder()
+                .users(List.of(new UserSegmentsResponse(1L, "alice", Set.of("MAIL_GPT"))))
+                .missingIds(List.of(2L))
+                .build());
+        when(userService.getUserSegmentsBatch(List.of(3L))).thenReturn(BatchUserSegmentsResponse.builder()
+                .users(List.of(new UserSegmentsResponse(3L, "carol", Set.of())))
+                .missingIds(List.of())
+                .build());
+
+        RecordingObserver<LookupUserSegmentsResponse> responses = new RecordingObserver<>();
+        StreamObserver<LookupUserSegmentsRequest> requests = asyncStub.lookupUserSegments(responses);
+        requests.onNext(LookupUserSegmentsRequest.newBuilder().setRequestId(10).addAllUserIds(List.of(1L, 2L)).build());
+        requests.onNext(LookupUserSegmentsRequest.newBuilder().setRequestId(11).addUserIds(3L).build());
+        requests.onCompleted();
+        responses.done.get(5, TimeUnit.SECONDS);
+
+        assertEquals(List.of(10L, 11L), responses.values.stream().map(LookupUserSegmentsResponse::getRequestId).toList());
+        assertEquals(List.of(2L), responses.values.get(0).getMissingIdsList());
+        assertEquals("carol", responses.values.get(1).getUsers(0).getUsername());
+    }
+
+    @Test
+    void lookupUserSegments_WhenBatchIsEmpty_ShouldCloseStreamWithInvalidArgument() throws Exception {
+        RecordingObserver<LookupUserSegmentsResponse> responses = new RecordingObserver<>();
+        StreamObserver<LookupUserSegmentsRequest> requests = asyncStub.lookupUserSegments(responses);
+        requests.onNext(LookupUserSegmentsRequest.newBuilder().setRequestId(1).build());
+
+        Throwable error = assertThrows(Exception.class, () -> responses.done.get(5, TimeUnit.SECONDS)).getCause();
+        assertEquals(Status.Code.INVALID_ARGUMENT, Status.fromThrowable(error).getCode());
+        verifyNoInteractions(userService);
+    }
+
+    @Test
+    void lookupUserSegments_WhenClientStopsReading_ShouldNotPullMoreBatches() throws Exception {
+        when(userService.getUserSegmentsBatch(any())).thenAnswer(invocation -> BatchUserSegmentsResponse.builder()
+                .users(List.of())
+                .missingIds(invocation.getArgument(0))
+                .build());
+        AtomicReference<ClientCallStreamObserver<LookupUserSegmentsRequest>> call = new AtomicReference<>();
+        RecordingObserver<LookupUserSegmentsResponse> recorded = new RecordingObserver<>();
+        ClientResponseObserver<LookupUserSegmentsRequest, LookupUserSegmentsResponse> responses =
+                new ClientResponseObserver<>() {
+                    @Override
+                    public void beforeStart(ClientCallStreamObserver<LookupUserSegmentsRequest> requestStream) {
+                        // Клиент готов принять только один ответ
+                        requestStream.disableAutoRequestWithInitial(1);
+                        call.set(requestStream);
+                    }
+
+                    @Override
+                    public void onNext(LookupUserSegmentsResponse value) {
+                        recorded.onNext(value);
+                    }
+
+                    @Override
+                    public void onError(Throwable t) {
+                        recorded.onError(t);
+                    }
+
+                    @Override
+                    public void onCompleted() {
+                        recorded.onCompleted();
+                    }
+                };
+
+        StreamObserver<LookupUserSegmentsRequest> requests = asyncStub.lookupUserSegments(responses);
+        for (long id = 1; id <= 3; id++) {
+            requests.onNext(LookupUserSegmentsRequest.newBuilder().setRequestId(id).addUserIds(id).build());
+        }
+        requests.onCompleted();
+
+        verify(userService, timeout(5000)).getUserSegmentsBatch(List.of(1L));
+        Thread.sleep(200);
+        // Ответ на первую пачку не прочитан: вторая не запрошена у транспорта и не обработана
+        verify(userService, times(1)).getUserSegmentsBatch(any());
+
+        call.get().request(10);
+        recorded.done.get(5, TimeUnit.SECONDS);
+        assertEquals(List.of(1L, 2L, 3L), recorded.values.stream().map(LookupUserSegmentsResponse::getRequestId).toList());
+    }
+
+    @Test
+    void exportSegmentMembers_ShouldSendMembersInChunks() {
+        when(segmentService.getSegmentByName("MAIL_GPT")).thenReturn(Optional.of(SegmentDto.builder().name("MAIL_GPT").build()));
+        doAnswer(invocation -> {
+            Consumer<SegmentMemberDto> consumer = invocation.getArgument(2);
+            for (long id = 1; id <= 2500; id++) {
+                consumer.accept(new SegmentMemberDto(id, null));
+            }
+            return null;
+        }).when(userService).exportSegmentMembers(eq("MAIL_GPT"), eq(false), any());
+
+        List<SegmentMembersChunk> chunks = new ArrayList<>();
+        blockingStub.exportSegmentMembers(ExportSegmentMembersRequest.newBuilder().setSegmentName("MAIL_GPT").build())
+                .forEachRemaining(chunks::add);
+
+        assertEquals(List.of(1000, 1000, 500), chunks.stream().map(SegmentMembersChunk::getMembersCount).toList());
+        assertEquals(2500L, chunks.get(2).getMembers(499).getUserId());
+        assertEquals("", chunks.get(0).getMembers(0).getUsername());
+    }
+
+    @Test
+    void exportSegmentMembers_WhenSegmentMissing_ShouldReturnNotFound() {
+        when(segmentService.getSegmentByName("UNKNOWN")).thenReturn(Optional.empty());
+
+        Iterator<SegmentMembersChunk> chunks = blockingStub.exportSegmentMembers(
+                ExportSegmentMembersRequest.newBuilder().setSegmentName("UNKNOWN").build());
+
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class, chunks::hasNext);
+        assertEquals(Status.Code.NOT_FOUND, e.getStatus().getCode());
+        verify(userService, never()).exportSegmentMembers(any(), anyBoolean(), any());
+    }
+
+    @Test
+    void exportSegmentMembers_WhenClientCancels_ShouldStopReadingMembers() throws Exception {
+        when(segmentService.getSegmentByName("HUGE")).thenReturn(Optional.of(SegmentDto.builder().name("HUGE").build()));
+        AtomicInteger produced = new AtomicInteger();
+        CompletableFuture<Throwable> exportFailure = new CompletableFuture<>();
+        doAnswer(invocation -> {
+            Consumer<SegmentMemberDto> consumer = invocation.getArgument(2);
+            try {
+                for (long id = 1; id <= 10_000_000; id++) {
+                    consumer.accept(new SegmentMemberDto(id, null));
+                    produced.incrementAndGet();
+                }
+                exportFailure.complete(null);
+            } catch (RuntimeException e) {
+                exportFailure.complete(e);
+                throw e;
+            }
+            return null;
+        }).when(userService).exportSegmentMembers(eq("HUGE"), eq(false), any());
+
+        Context.CancellableContext context = Context.current().withCancellation();
+        context.run(() -> {
+            Iterator<SegmentMembersChunk> chunks = blockingStub.exportSegmentMembers(
+                    ExportSegmentMembersRequest.newBuilder().setSegmentName("HUGE").build());
+            assertEquals(CHUNK_SIZE, chunks.next().getMembersCount());
+        });
+        context.cancel(null);
+
+        Throwable failure = exportFailure.get(5, TimeUnit.SECONDS);
+        assertEquals(Status.Code.CANCELLED, Status.fromThrowable(failure).getCode());
+        // Клиент прочитал одну порцию: сервер не ушел вперед дальше окна транспорта
+        assertTrue(produced.get() < 10 * CHUNK_SIZE, "produced " + produced.get());
+    }
+
+    @Test
+    void exportSegmentMembers_WhenExportsAtLimit_ShouldRejectWithResourceExhausted() {
+        CompletableFuture<Throwable> stalledFailure = stallingExport("HUGE");
+
+        Context.CancellableContext context = Context.current().withCancellation();
+        try {
+            context.run(() -> {
+                Iterator<SegmentMembersChunk> stalled = blockingStub.exportSegmentMembers(
+                        ExportSegmentMembersRequest.newBuilder().setSegmentName("HUGE").build());
+                assertEquals(CHUNK_SIZE, stalled.next().getMembersCount());
+
+                Iterator<SegmentMembersChunk> rejected = blockingStub.exportSegmentMembers(
+                        ExportSegmentMembersRequest.newBuilder().setSegmentName("MAIL_GPT").build());
+                StatusRuntimeException e = assertThrows(StatusRuntimeException.class, rejected::hasNext);
+                assertEquals(Status.Code.RESOURCE_EXHAUSTED, e.getStatus().getCode());
+            });
+        } finally {
+            context.cancel(null);
+        }
+        verify(userService, never()).exportSegmentMembers(eq("MAIL_GPT"), anyBoolean(), any());
+        assertFalse(stalledFailure.isCompletedExceptionally());
+    }
+
+    @Test
+    void exportSegmentMembers_WhenClientStopsReading_ShouldAbortAndFreeSlot() throws Exception {
+        CompletableFuture<Throwable> stalledFailure = stallingExport("HUGE");
+
+        Iterator<SegmentMembersChunk> stalled = blockingStub.exportSegmentMembers(
+                ExportSegmentMembersRequest.newBuilder().setSegmentName("HUGE").build());
+        assertEquals(CHUNK_SIZE, stalled.next().getMembersCount());
+
+        Throwable failure = stalledFailure.get(5, TimeUnit.SECONDS);
+        assertEquals(Status.Code.DEADLINE_EXCEEDED, Status.fromThrowable(failure).getCode());
+        StatusRuntimeException e = assertThrows(StatusRuntimeException.class, () -> stalled.forEachRemaining(chunk -> { }));
+        assertEquals(Status.Code.DEADLINE_EXCEEDED, e.getStatus().getCode());
+
+        // Слот выгрузки освобожден: следующая выгрузка не отклоняется
+        when(segmentService.getSegmentByName("EMPTY")).thenReturn(Optional.of(SegmentDto.builder().name("EMPTY").build()));
+        assertFalse(blockingStub.exportSegmentMembers(
+                ExportSegmentMembersRequest.newBuilder().setSegmentName("EMPTY").build()).hasNext());
+    }
+
+    // Выгрузка из 10 млн участников; результат - исключение, которым сервер прервал чтение
+    private CompletableFuture<Throwable> stallingExport(String segmentName) {
+        when(segmentService.getSegmentByName(segmentName))
+                .thenReturn(Optional.of(SegmentDto.builder().name(segmentName).build()));
+        CompletableFuture<Throwable> exportFailure = new CompletableFuture<>();
+        doAnswer(invocation -> {
+            Consumer<SegmentMemberDto> consumer = invocation.getArgument(2);
+            try {
+                for (long id = 1; id <= 10_000_000; id++) {
+                    consumer.accept(new SegmentMemberDto(id, null));
+                }
+                exportFailure.complete(null);
+            } catch (RuntimeException e) {
+                exportFailure.complete(e);
+                throw e;
+            }
+            return null;
+        }).when(userService).exportSegmentMembers(eq(segmentName), eq(false), any());
+        return exportFailure;
+    }
+
+    private static final class RecordingObserver<T> implements StreamObserver<T> {
+
+        final List<T> values = new ArrayList<>();
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        @Override
+        public void onNext(T value) {
+            values.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            done.completeExceptionally(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            done.complete(null);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package org.example.vkedupractice.index;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.vkedupractice.model.HashBuckets;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MembershipIndexTest {
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private MembershipIndex membershipIndex;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE segments (id BIGINT PRIMARY KEY, name VARCHAR(255), "
+                + "kind VARCHAR(32), percentage INT, salt BIGINT, deleted BOOLEAN DEFAULT FALSE NOT NULL, "
+                + "version BIGINT DEFAULT 0 NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE user_segments (user_id BIGINT, segment_id BIGINT)");
+        jdbcTemplate.update("INSERT INTO segments VALUES (1, 'MAIL_GPT', 'MATERIALIZED', NULL, NULL, FALSE, 0)");
+        jdbcTemplate.update("INSERT INTO segments VALUES (2, 'HASH_ALL', 'HASH_BUCKET', 100, 5, FALSE, 0)");
+        jdbcTemplate.update("INSERT INTO user_segments VALUES (1, 1), (3, 1)");
+
+        meterRegistry = new SimpleMeterRegistry();
+        membershipIndex = new MembershipIndex(jdbcTemplate, meterRegistry);
+        membershipIndex.load();
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void load_ShouldIndexExistingMemberships() {
+        assertTrue(membershipIndex.isReady());
+        assertEquals(Set.of("MAIL_GPT", "HASH_ALL"), membershipIndex.segmentNamesOf(1L));
+        assertEquals(Set.of("HASH_ALL"), membershipIndex.segmentNamesOf(2L));
+        assertEquals(Optional.of(2L), membershipIndex.countMembers("MAIL_GPT"));
+        assertTrue(membershipIndex.isMember("MAIL_GPT", 3L));
+        assertFalse(membershipIndex.isMember("MAIL_GPT", 2L));
+    }
+
+    @Test
+    void countMembers_WhenHashBucketOrUnknown_ShouldReturnEmpty() {
+        assertEquals(Optional.empty(), membershipIndex.countMembers("HASH_ALL"));
+        assertEquals(Optional.empty(), membershipIndex.countMembers("UNKNOWN"));
+    }
+
+    @Test
+    void segmentChanged_WithoutTransaction_ShouldApplyImmediately() {
+        jdbcTemplate.update("INSERT INTO user_segments VALUES (2, 1)");
+        jdbcTemplate.update("UPDATE segments SET name = 'RENAMED' WHERE id = 1");
+
+        membershipIndex.segmentChanged(1L, true);
+
+        assertTrue(membershipIndex.isMember("RENAMED", 2L));
+        assertEquals(Optional.of(3L), membershipIndex.countMembers("RENAMED"));
+        assertEquals(Optional.empty(), membershipIndex.countMembers("MAIL_GPT"));
+    }
+
+    @Test
+    void segmentChanged_WhenSegmentDeleted_ShouldRemoveSegment() {
+        jdbcTemplate.update("DELETE FROM user_segments WHERE segment_id = 1");
+        jdbcTemplate.update("DELETE FROM segments WHERE id = 1");
+
+        membershipIndex.segmentChanged(1L, true);
+
+        assertEquals(Set.of("HASH_ALL"), membershipIndex.segmentNamesOf(1L));
+    }
+
+    @Test
+    void segmentChanged_WhenSegmentLogicallyDeleted_ShouldRemoveSegmentBeforePurge() {
+        jdbcTemplate.update("UPDATE segments SET deleted = true WHERE id = 1");
+
+        membershipIndex.segmentChanged(1L, true);
+
+        assertEquals(Set.of("HASH_ALL"), membershipIndex.segmentNamesOf(1L));
+        assertEquals(Optional.empty(), membershipIndex.countMembers("MAIL_GPT"));
+    }
+
+    @Test
+    void load_ShouldSkipDeletedSegments() {
+        jdbcTemplate.update("UPDATE segments SET deleted = true WHERE id = 1");
+
+        membershipIndex.load();
+
+        assertFalse(membershipIndex.isMember("MAIL_GPT", 1L));
+        assertEquals(Set.of("HASH_ALL"), membershipIndex.segmentNamesOf(3L));
+    }
+
+    @Test
+    void segmentChanged_InTransaction_ShouldApplyOnlyAfterCommit() {
+        TransactionTemplate tx = new TransactionTemplate(new DataSourceTransactionManager(database));
+
+        tx.executeWithoutResult(status -> {
+            jdbcTemplate.update("INSERT INTO user_segments VALUES (2, 1)");
+            membershipIndex.segmentChanged(1L, true);
+            assertFalse(membershipIndex.isMember("MAIL_GPT", 2L));
+        });
+        assertTrue(membershipIndex.isMember("MAIL_GPT", 2L));
+
+        tx.executeWithoutResult(status -> {
+            jdbcTemplate.update("INSERT INTO user_segments VALUES (4, 1)");
+            membershipIndex.segmentChanged(1L, true);
+            status.setRollbackOnly();
+        });
+        assertFalse(membershipIndex.isMember("MAIL_GPT", 4L));
+    }
+
+    @Test
+    void load_WhenMutationCommitsDuringScan_ShouldApplyItAfterLoading() {
+        TransactionTemplate tx = new TransactionTemplate(new DataSourceTransactionManager(database));
+        MembershipIndex[] index = new MembershipIndex[1];
+        // Мутация коммитится, когда user_segments уже прочитана, но индекс еще не готов
+        JdbcTemplate scanning = new JdbcTemplate(database) {
+            @Override
+            public void query(String sql, RowCallbackHandler rch) {
+                super.query(sql, rch);
+                tx.executeWithoutResult(status -> {
+                    update("INSERT INTO user_segments VALUES (2, 1)");
+                    update("UPDATE segments SET name = 'RENAMED', version = version + 1 WHERE id = 1");
+                    index[0].segmentChanged(1L, true);
+                });
+            }
+        };
+        index[0] = new MembershipIndex(scanning, new SimpleMeterRegistry());
+
+        index[0].load();
+
+        assertTrue(index[0].isReady());
+        assertTrue(index[0].isMember("RENAMED", 2L));
+        assertEquals(Optional.of(3L), index[0].countMembers("RENAMED"));
+        assertEquals(Optional.empty(), index[0].countMembers("MAIL_GPT"));
+        assertEquals(List.of(new MembershipIndex.SegmentVersion(1L, 1L), new MembershipIndex.SegmentVersion(2L, 0L)),
+                index[0].segmentVersionsOf(2L));
+    }
+
+    @Test
+    void hashBucketMembership_ShouldMatchHashBuckets() {
+        jdbcTemplate.update("UPDATE segments SET percentage = 40 WHERE id = 2");
+        membershipIndex.segmentChanged(2L, false);
+
+        for (long userId = 1; userId <= 100; userId++) {
+            assertEquals(HashBuckets.contains(userId, 5L, 40), membershipIndex.isMember("HASH_ALL", userId));
+        }
+    }
+
+    @Test
+    void metrics_ShouldExposeMemoryAndLookupLatency() {
+        membershipIndex.segmentNamesOf(1L);
+
+        assertNotNull(meterRegistry.find("segments.index.memory").tag("segment", "MAIL_GPT").gauge());
+        assertEquals(2.0, meterRegistry.find("segments.index.members").tag("segment", "MAIL_GPT").gauge().value());
+        assertEquals(1L, meterRegistry.find("segments.index.lookup").timer().count());
+    }
+}
@@ -0,0 +1,142 @@
+package org.example.vkedupractice.loadtest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadTestDataGeneratorTest {
+
+    private final List<EmbeddedDatabase> databases = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        databases.forEach(EmbeddedDatabase::shutdown);
+    }
+
+    @Test
+    void generate_ShouldCreateUsersSegmentsAndConsistentCounters() throws Exception {
+        JdbcTemplate jdbcTemplate = newDatabase();
+
+        LoadTestDataGenerator.Summary summary = generator(jdbcTemplate, LoadTestDataGenerator.Distribution.UNIFORM, 3)
+                .generate();
+
+        assertEquals(5000L, count(jdbcTemplate, "SELECT COUNT(*) FROM users"));
+        assertEquals(5L, count(jdbcTemplate, "SELECT COUNT(*) FROM segments"));
+        assertEquals(summary.memberships(), count(jdbcTemplate, "SELECT COUNT(*) FROM user_segments"));
+        assertEquals(0L, count(jdbcTemplate, "SELECT COUNT(*) FROM segments s WHERE s.member_count <> "
+                + "(SELECT COUNT(*) FROM user_segments us WHERE us.segment_id = s.id)"));
+        // UNIFORM, доля 0.5: каждый сегмент около 2500 участников
+        for (Long size : jdbcTemplate.queryForList("SELECT member_count FROM segments", Long.class)) {
+            assertTrue(size > 2300 && size < 2700, "unexpected segment size " + size);
+        }
+    }
+
+    @Test
+    void generate_WithZipf_ShouldMakeSegmentSizesDecreaseByRank() throws Exception {
+        JdbcTemplate jdbcTemplate = newDatabase();
+
+        generator(jdbcTemplate, LoadTestDataGenerator.Distribution.ZIPF, 2).generate();
+
+        List<Long> sizes = jdbcTemplate.queryForList("SELECT member_count FROM segments ORDER BY id", Long.class);
+        // Доли 0.5, 0.25, 0.167, 0.125, 0.1 от 5000 пользователей
+        assertTrue(sizes.get(0) > 2300 && sizes.get(0) < 2700);
+        assertTrue(sizes.get(4) > 350 && sizes.get(4) < 650);
+        for (int i = 1; i < sizes.size(); i++) {
+            assertTrue(sizes.get(i) < sizes.get(i - 1), "sizes not decreasing: " + sizes);
+        }
+    }
+
+    @Test
+    void generate_WithSameSeed_ShouldProduceSameDataRegardlessOfThreads() throws Exception {
+        JdbcTemplate single = newDatabase();
+        JdbcTemplate parallel = newDatabase();
+
+        generator(single, LoadTestDataGenerator.Distribution.ZIPF, 1).generate();
+        generator(parallel, LoadTestDataGenerator.Distribution.ZIPF, 4).generate();
+
+        String memberships = "SELECT user_id, segment_id FROM user_segments ORDER BY segment_id, user_id";
+        List<Map<String, Object>> expected = single.queryForList(memberships);
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, parallel.queryForList(memberships));
+    }
+
+    @Test
+    void generate_ShouldContinueIdentityAfterGeneratedIds() throws Exception {
+        JdbcTemplate jdbcTemplate = newDatabase();
+
+        generator(jdbcTemplate, LoadTestDataGenerator.Distribution.UNIFORM, 2).generate();
+        jdbcTemplate.update("INSERT INTO users (username, email) VALUES ('late', 'late@example.com')");
+        jdbcTemplate.update("INSERT INTO segments (name, kind) VALUES ('late', 'MATERIALIZED')");
+
+        assertEquals(5001L, count(jdbcTemplate, "SELECT id FROM users WHERE username = 'late'"));
+        assertEquals(6L, count(jdbcTemplate, "SELECT id FROM segments WHERE name = 'late'"));
+    }
+
+    @Test
+    void run_WhenDatabaseHasData_ShouldSkipGeneration() throws Exception {
+        JdbcTemplate jdbcTemplate = newDatabase();
+        jdbcTemplate.update("INSERT INTO users (username, email) VALUES ('existing', 'existing@example.com')");
+
+        generator(jdbcTemplate, LoadTestDataGenerator.Distribution.UNIFORM, 2).run();
+
+        assertEquals(1L, count(jdbcTemplate, "SELECT COUNT(*) FROM users"));
+        assertEquals(0L, count(jdbcTemplate, "SELECT COUNT(*) FROM segments"));
+    }
+
+    @Test
+    void sample_ShouldStayWithinRangeAndHandleEdgeShares() {
+        List<Long> all = new ArrayList<>();
+        LoadTestDataGenerator.sample(10, 19, 1.0, new SplittableRandom(1), all::add);
+        assertEquals(10, all.size());
+
+        List<Long> none = new ArrayList<>();
+        LoadTestDataGenerator.sample(10, 19, 0.0, new SplittableRandom(1), none::add);
+        assertTrue(none.isEmpty());
+
+        List<Long> some = new ArrayList<>();
+        LoadTestDataGenerator.sample(1, 100_000, 0.3, new SplittableRandom(1), some::add);
+        assertTrue(some.stream().allMatch(id -> id >= 1 && id <= 100_000));
+        assertEquals(some.size(), some.stream().distinct().count());
+        assertTrue(some.size() > 29_000 && some.size() < 31_000, "unexpected sample size " + some.size());
+    }
+
+    private LoadTestDataGenerator generator(JdbcTemplate jdbcTemplate,
+                                            LoadTestDataGenerator.Distribution distribution,
+                                            int threads) {
+        return new LoadTestDataGenerator(jdbcTemplate,
+                new DataSourceTransactionManager(jdbcTemplate.getDataSource()),
+                5000, 5, distribution, 0.5, 1.0, 42L, threads, 700);
+    }
+
+    private JdbcTemplate newDatabase() {
+        EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        databases.add(database);
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE users (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+                + "username VARCHAR(255) NOT NULL UNIQUE, email VARCHAR(255) NOT NULL, created_at TIMESTAMP)");
+        jdbcTemplate.execute("CREATE TABLE segments (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+                + "name VARCHAR(255) NOT NULL UNIQUE, description VARCHAR(255), kind VARCHAR(32), "
+                + "member_count BIGINT DEFAULT 0 NOT NULL, deleted BOOLEAN DEFAULT FALSE NOT NULL, created_at TIMESTAMP)");
+        jdbcTemplate.execute("CREATE TABLE user_segments (user_id BIGINT NOT NULL REFERENCES users(id), "
+                + "segment_id BIGINT NOT NULL REFERENCES segments(id), PRIMARY KEY (user_id, segment_id))");
+        return jdbcTemplate;
+    }
+
+    private static long count(JdbcTemplate jdbcTemplate, String sql) {
+        return jdbcTemplate.queryForObject(sql, Long.class);
+    }
+}
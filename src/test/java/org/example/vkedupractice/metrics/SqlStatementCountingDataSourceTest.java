@@ -0,0 +1,72 @@
+package org.example.vkedupractice.metrics;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SqlStatementCountingDataSourceTest {
+
+    private SqlStatementCountingDataSource dataSource;
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:sql-counting;DB_CLOSE_DELAY=-1");
+        dataSource = new SqlStatementCountingDataSource(h2);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS items (id BIGINT PRIMARY KEY, name VARCHAR(32))");
+        jdbcTemplate.update("DELETE FROM items");
+    }
+
+    @AfterEach
+    void tearDown() {
+        SqlStatementCounter.stop();
+    }
+
+    @Test
+    void jdbcTemplate_ShouldCountEachExecution() {
+        SqlStatementCounter.start();
+        jdbcTemplate.update("INSERT INTO items (id, name) VALUES (?, ?)", 1L, "first");
+        jdbcTemplate.queryForList("SELECT name FROM items WHERE id = ?", String.class, 1L);
+        jdbcTemplate.queryForObject("SELECT COUNT(*) FROM items", Long.class);
+
+        assertEquals(3, SqlStatementCounter.stop());
+    }
+
+    @Test
+    void batchUpdate_ShouldCountAsOneExecution() {
+        SqlStatementCounter.start();
+        jdbcTemplate.batchUpdate("INSERT INTO items (id, name) VALUES (?, ?)",
+                List.of(new Object[]{1L, "a"}, new Object[]{2L, "b"}, new Object[]{3L, "c"}));
+
+        assertEquals(1, SqlStatementCounter.stop());
+        assertEquals(3, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM items", Long.class));
+    }
+
+    @Test
+    void prepareWithoutExecute_ShouldNotCount() throws Exception {
+        SqlStatementCounter.start();
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement statement = connection.prepareStatement("SELECT 1")) {
+            assertTrue(statement.isWrapperFor(PreparedStatement.class));
+        }
+
+        assertEquals(0, SqlStatementCounter.stop());
+    }
+
+    @Test
+    void execute_WithoutStart_ShouldNotCount() {
+        jdbcTemplate.queryForObject("SELECT COUNT(*) FROM items", Long.class);
+
+        assertEquals(0, SqlStatementCounter.stop());
+    }
+}
@@ -0,0 +1,74 @@
+package org.example.vkedupractice.metrics;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class SqlStatementMetricsFilterTest {
+
+    private SimpleMeterRegistry meterRegistry;
+    private SqlStatementMetricsFilter filter;
+    private DataSource dataSource;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        meterRegistry = new SimpleMeterRegistry();
+        filter = new SqlStatementMetricsFilter(meterRegistry);
+        DataSource target = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        when(target.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenAnswer(invocation -> mock(PreparedStatement.class));
+        dataSource = new SqlStatementCountingDataSource(target);
+    }
+
+    @Test
+    void doFilter_ShouldRecordStatementsPerUriTemplate() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/users/1/segments");
+
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> {
+            req.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/api/users/{id}/segments");
+            execute("select 1");
+            execute("select 2");
+        });
+
+        DistributionSummary summary = meterRegistry.get(SqlStatementMetricsFilter.METRIC_NAME)
+                .tag("method", "GET")
+                .tag("uri", "/api/users/{id}/segments")
+                .summary();
+        assertEquals(1, summary.count());
+        assertEquals(2.0, summary.totalAmount());
+    }
+
+    @Test
+    void execute_OutsideRequest_ShouldNotCount() throws Exception {
+        execute("select 1");
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/segments");
+
+        filter.doFilter(request, new MockHttpServletResponse(), (req, res) -> { });
+
+        assertEquals(0.0, meterRegistry.get(SqlStatementMetricsFilter.METRIC_NAME)
+                .tag("uri", "UNKNOWN").summary().totalAmount());
+        assertEquals(0, SqlStatementCounter.stop());
+    }
+
+    private void execute(String sql) {
+        try (Connection connection = dataSource.getConnection()) {
+            connection.prepareStatement(sql).execute();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
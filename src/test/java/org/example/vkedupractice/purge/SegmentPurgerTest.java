@@ -0,0 +1,126 @@
+package org.example.vkedupractice.purge;
+
+import org.example.vkedupractice.dto.SegmentPurgeStatus;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentPurgerTest {
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private SegmentPurger segmentPurger;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE segments (id BIGINT PRIMARY KEY, name VARCHAR(255), "
+                + "deleted BOOLEAN DEFAULT FALSE NOT NULL, deleted_at TIMESTAMP, deleted_name VARCHAR(255), "
+                + "purged_at TIMESTAMP)");
+        jdbcTemplate.execute("CREATE TABLE user_segments (user_id BIGINT, segment_id BIGINT, "
+                + "PRIMARY KEY (user_id, segment_id))");
+        jdbcTemplate.update("INSERT INTO segments (id, name) VALUES (1, 'MAIL_GPT')");
+        jdbcTemplate.update("INSERT INTO segments (id, name, deleted, deleted_at, deleted_name) "
+                + "VALUES (2, '~deleted~2', TRUE, CURRENT_TIMESTAMP, 'MAIL_VOICE')");
+        for (long userId = 1; userId <= 25; userId++) {
+            jdbcTemplate.update("INSERT INTO user_segments VALUES (?, 1), (?, 2)", userId, userId);
+        }
+
+        segmentPurger = new SegmentPurger(jdbcTemplate, new DataSourceTransactionManager(database), 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void getStatus_BeforePurge_ShouldReportPendingRows() {
+        SegmentPurgeStatus status = segmentPurger.getStatus(2L).orElseThrow();
+
+        assertEquals(SegmentPurgeStatus.State.PENDING, status.getState());
+        assertEquals("MAIL_VOICE", status.getName());
+        assertEquals(25, status.getRemainingMembers());
+        assertEquals(0, status.getRemovedMembers());
+        assertNull(status.getPurgedAt());
+    }
+
+    @Test
+    void purgeDeleted_ShouldRemoveOnlyDeletedSegmentRowsAndKeepTombstone() {
+        segmentPurger.purgeDeleted();
+
+        assertEquals(0, count("SELECT COUNT(*) FROM user_segments WHERE segment_id = 2"));
+        assertEquals(25, count("SELECT COUNT(*) FROM user_segments WHERE segment_id = 1"));
+        assertEquals(1, count("SELECT COUNT(*) FROM segments WHERE id = 2"));
+
+        SegmentPurgeStatus status = segmentPurger.getStatus(2L).orElseThrow();
+        assertEquals(SegmentPurgeStatus.State.DONE, status.getState());
+        assertEquals(0, status.getRemainingMembers());
+        assertNotNull(status.getPurgedAt());
+    }
+
+    @Test
+    void purge_ShouldCountRemovedRowsWhileRunningAndDropCounterOncePurged() {
+        AtomicReference<SegmentPurger> purger = new AtomicReference<>();
+        AtomicReference<SegmentPurgeStatus> beforePurgedAt = new AtomicReference<>();
+        // Состояние снимается перед проставлением purged_at: все порции удалены, сегмент еще в работе
+        JdbcTemplate observingTemplate = new JdbcTemplate(database) {
+            @Override
+            public int update(String sql, Object... args) {
+                if (sql.startsWith("UPDATE segments SET purged_at")) {
+                    beforePurgedAt.set(purger.get().getStatus(2L).orElseThrow());
+                }
+                return super.update(sql, args);
+            }
+        };
+        purger.set(new SegmentPurger(observingTemplate, new DataSourceTransactionManager(database), 10));
+
+        purger.get().purge(2L);
+
+        assertEquals(SegmentPurgeStatus.State.RUNNING, beforePurgedAt.get().getState());
+        assertEquals(25, beforePurgedAt.get().getRemovedMembers());
+        SegmentPurgeStatus status = purger.get().getStatus(2L).orElseThrow();
+        assertEquals(SegmentPurgeStatus.State.DONE, status.getState());
+        assertEquals(0, status.getRemovedMembers());
+    }
+
+    @Test
+    void purgeDeleted_WhenAlreadyPurged_ShouldSkipSegment() {
+        segmentPurger.purgeDeleted();
+        jdbcTemplate.update("INSERT INTO user_segments VALUES (100, 2)");
+
+        segmentPurger.purgeDeleted();
+
+        assertEquals(1, count("SELECT COUNT(*) FROM user_segments WHERE segment_id = 2"));
+        // Остаток по очищенному сегменту не пересчитывается
+        assertEquals(0, segmentPurger.getStatus(2L).orElseThrow().getRemainingMembers());
+    }
+
+    @Test
+    void getStatuses_ShouldListOnlyDeletedSegments() {
+        List<SegmentPurgeStatus> statuses = segmentPurger.getStatuses();
+
+        assertEquals(1, statuses.size());
+        assertEquals(2L, statuses.get(0).getSegmentId());
+        assertEquals(Optional.empty(), segmentPurger.getStatus(1L));
+    }
+
+    private long count(String sql) {
+        return jdbcTemplate.queryForObject(sql, Long.class);
+    }
+}
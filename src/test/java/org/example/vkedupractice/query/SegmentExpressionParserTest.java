@@ -0,0 +1,60 @@
+package org.example.vkedupractice.query;
+
+import org.example.vkedupractice.query.SegmentExpression.And;
+import org.example.vkedupractice.query.SegmentExpression.Not;
+import org.example.vkedupractice.query.SegmentExpression.Or;
+import org.example.vkedupractice.query.SegmentExpression.Ref;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentExpressionParserTest {
+
+    private final SegmentExpressionParser parser = new SegmentExpressionParser(200, 5, 3);
+
+    @Test
+    void parse_ShouldApplyPrecedenceNotAndOr() {
+        SegmentExpression expression = parser.parse("A or B AND not C");
+
+        assertEquals(new Or(List.of(new Ref("A"), new And(List.of(new Ref("B"), new Not(new Ref("C")))))), expression);
+    }
+
+    @Test
+    void parse_ShouldGroupWithParenthesesAndAcceptQuotedNames() {
+        SegmentExpression expression = parser.parse("(A OR \"my segment\")AND NOT(\"OR\")");
+
+        assertEquals(new And(List.of(
+                new Or(List.of(new Ref("A"), new Ref("my segment"))),
+                new Not(new Ref("OR")))), expression);
+    }
+
+    @Test
+    void parse_ShouldTreatKeywordPrefixAsName() {
+        assertEquals(new And(List.of(new Ref("ORDERS"), new Ref("NOTIFY"))), parser.parse("ORDERS AND NOTIFY"));
+    }
+
+    @Test
+    void parse_WhenMalformed_ShouldReportPosition() {
+        assertTrue(assertThrows(IllegalArgumentException.class, () -> parser.parse("A AND (B OR C"))
+                .getMessage().contains("Expected ')'"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("A AND"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("A B"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("AND A"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parse("\"A"));
+        assertThrows(IllegalArgumentException.class, () -> parser.parse(" "));
+    }
+
+    @Test
+    void parse_ShouldEnforceLimits() {
+        assertTrue(assertThrows(IllegalArgumentException.class, () -> parser.parse("A OR B OR C OR D OR E OR F"))
+                .getMessage().contains("more than 5 segments"));
+        assertTrue(assertThrows(IllegalArgumentException.class, () -> parser.parse("NOT NOT NOT NOT A"))
+                .getMessage().contains("deeper than 3"));
+        assertTrue(assertThrows(IllegalArgumentException.class, () -> parser.parse("(((((A)))))"))
+                .getMessage().contains("deeper than 3"));
+        assertTrue(assertThrows(IllegalArgumentException.class, () -> parser.parse("A".repeat(201)))
+                .getMessage().contains("longer than 200"));
+    }
+}
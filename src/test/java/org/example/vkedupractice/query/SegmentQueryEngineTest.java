@@ -0,0 +1,200 @@
+package org.example.vkedupractice.query;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.model.HashBuckets;
+import org.example.vkedupractice.repository.UserStreamRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.LongPredicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentQueryEngineTest {
+
+    private static final int USERS = 300;
+    private static final List<String> SEGMENTS = List.of("A", "B", "C", "D", "HASH");
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private MembershipIndex membershipIndex;
+    private SegmentQueryEngine indexed;
+    private SegmentQueryEngine fromDatabase;
+    private final Map<String, Set<Long>> members = new HashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE users (id BIGINT PRIMARY KEY)");
+        jdbcTemplate.execute("CREATE TABLE segments (id BIGINT PRIMARY KEY, name VARCHAR(255), "
+                + "kind VARCHAR(32), percentage INT, salt BIGINT, deleted BOOLEAN DEFAULT FALSE NOT NULL, "
+                + "version BIGINT DEFAULT 0 NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE user_segments (user_id BIGINT, segment_id BIGINT)");
+
+        Random random = new Random(7);
+        List<Object[]> memberships = new ArrayList<>();
+        for (long userId = 1; userId <= USERS; userId++) {
+            jdbcTemplate.update("INSERT INTO users VALUES (?)", userId);
+        }
+        for (int i = 0; i < 4; i++) {
+            String name = SEGMENTS.get(i);
+            jdbcTemplate.update("INSERT INTO segments (id, name, kind) VALUES (?, ?, 'MATERIALIZED')", i + 1, name);
+            Set<Long> segmentMembers = new TreeSet<>();
+            for (long userId = 1; userId <= USERS; userId++) {
+                if (random.nextInt(100) < 30 + 10 * i) {
+                    segmentMembers.add(userId);
+                    memberships.add(new Object[]{userId, i + 1});
+                }
+            }
+            members.put(name, segmentMembers);
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO user_segments VALUES (?, ?)", memberships);
+        jdbcTemplate.update("INSERT INTO segments (id, name, kind, percentage, salt) VALUES (5, 'HASH', 'HASH_BUCKET', 40, 3)");
+        Set<Long> hashMembers = new TreeSet<>();
+        for (long userId = 1; userId <= USERS; userId++) {
+            if (HashBuckets.contains(userId, 3L, 40)) {
+                hashMembers.add(userId);
+            }
+        }
+        members.put("HASH", hashMembers);
+        // Удаленный сегмент не должен находиться по имени
+        jdbcTemplate.update("INSERT INTO segments (id, name, kind, deleted) VALUES (6, 'GONE', 'MATERIALIZED', TRUE)");
+
+        membershipIndex = new MembershipIndex(jdbcTemplate, new SimpleMeterRegistry());
+        membershipIndex.load();
+        UserStreamRepository userStreamRepository = new UserStreamRepository(jdbcTemplate);
+        indexed = engine(userStreamRepository, membershipIndex, Duration.ofSeconds(10));
+        // Индекс без load() не готов: сегменты читаются из user_segments
+        MembershipIndex notLoaded = new MembershipIndex(jdbcTemplate, new SimpleMeterRegistry());
+        fromDatabase = engine(userStreamRepository, notLoaded, Duration.ofSeconds(10));
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void evaluate_ShouldMatchBruteForceForRandomExpressions() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            StringBuilder expression = new StringBuilder();
+            LongPredicate expected = generate(random, 3, expression);
+            Set<Long> expectedIds = new TreeSet<>();
+            for (long userId = 1; userId <= USERS; userId++) {
+                if (expected.test(userId)) {
+                    expectedIds.add(userId);
+                }
+            }
+
+            assertEquals(expectedIds, ids(indexed.evaluate(expression.toString())), expression.toString());
+            assertEquals(expectedIds, ids(fromDatabase.evaluate(expression.toString())), expression.toString());
+        }
+    }
+
+    @Test
+    void evaluate_ShouldCountAndPageIds() {
+        SegmentQueryResult result = indexed.evaluate("A AND B AND NOT C");
+        List<Long> all = new ArrayList<>(members.get("A"));
+        all.retainAll(members.get("B"));
+        all.removeAll(members.get("C"));
+
+        assertEquals(all.size(), result.count());
+        assertEquals(all.subList(0, 3), result.idsAfter(0, 3));
+        assertEquals(all.subList(3, 5), result.idsAfter(all.get(2), 2));
+        assertTrue(result.idsAfter(all.get(all.size() - 1), 10).isEmpty());
+    }
+
+    @Test
+    void evaluate_WhenSegmentUnknownOrDeleted_ShouldFail() {
+        assertTrue(assertThrows(IllegalArgumentException.class, () -> indexed.evaluate("A AND MISSING"))
+                .getMessage().contains("Unknown segment: MISSING"));
+        assertThrows(IllegalArgumentException.class, () -> fromDatabase.evaluate("GONE"));
+        assertThrows(IllegalArgumentException.class, () -> indexed.evaluate("GONE"));
+    }
+
+    @Test
+    void evaluate_WhenTimeoutExceeded_ShouldFail() {
+        SegmentQueryEngine expired = engine(new UserStreamRepository(jdbcTemplate), membershipIndex, Duration.ofMillis(-1));
+
+        assertThrows(SegmentQueryTimeoutException.class, () -> expired.evaluate("A OR B"));
+    }
+
+    @Test
+    void evaluate_WhenDatabaseReadIsSlow_ShouldBeCancelledByQueryTimeout() {
+        // Каждая строка user_segments читается 2 мс: без таймаута JDBC чтение 3000 участников заняло бы 6 с.
+        // H2 проверяет отмену запроса раз в 256 строк
+        jdbcTemplate.update("INSERT INTO segments (id, name, kind) VALUES (7, 'SLOW', 'MATERIALIZED')");
+        jdbcTemplate.update("INSERT INTO user_segments SELECT x, 7 FROM SYSTEM_RANGE(1, 3000)");
+        jdbcTemplate.execute("ALTER TABLE user_segments RENAME TO user_segments_data");
+        jdbcTemplate.execute("CREATE ALIAS SLOW_ID AS $$ long slowId(long id) throws Exception { Thread.sleep(2); return id; } $$");
+        jdbcTemplate.execute("CREATE VIEW user_segments AS SELECT SLOW_ID(user_id) AS user_id, segment_id FROM user_segments_data");
+        SegmentQueryEngine limited = engine(new UserStreamRepository(jdbcTemplate),
+                new MembershipIndex(jdbcTemplate, new SimpleMeterRegistry()), Duration.ofMillis(500));
+
+        long start = System.nanoTime();
+        assertThrows(SegmentQueryTimeoutException.class, () -> limited.evaluate("SLOW"));
+
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(3).toNanos());
+    }
+
+    private SegmentQueryEngine engine(UserStreamRepository repository, MembershipIndex index, Duration timeout) {
+        return new SegmentQueryEngine(jdbcTemplate, repository, index, new SimpleMeterRegistry(), 1000, 32, 8, timeout);
+    }
+
+    // Случайное выражение и эквивалентный ему предикат
+    private LongPredicate generate(Random random, int depth, StringBuilder out) {
+        int choice = depth == 0 ? 0 : random.nextInt(4);
+        switch (choice) {
+            case 1 -> {
+                out.append("NOT ");
+                LongPredicate operand = generate(random, depth - 1, out);
+                return operand.negate();
+            }
+            case 2, 3 -> {
+                String operator = choice == 2 ? " AND " : " OR ";
+                out.append('(');
+                LongPredicate result = generate(random, depth - 1, out);
+                int operands = 1 + random.nextInt(2);
+                for (int i = 0; i < operands; i++) {
+                    out.append(operator);
+                    LongPredicate next = generate(random, depth - 1, out);
+                    result = choice == 2 ? result.and(next) : result.or(next);
+                }
+                out.append(')');
+                return result;
+            }
+            default -> {
+                String name = SEGMENTS.get(random.nextInt(SEGMENTS.size()));
+                out.append(name);
+                Set<Long> segmentMembers = members.get(name);
+                return segmentMembers::contains;
+            }
+        }
+    }
+
+    private static Set<Long> ids(SegmentQueryResult result) {
+        Set<Long> ids = new TreeSet<>();
+        result.forEach(ids::add);
+        assertEquals(ids.size(), result.count());
+        return ids;
+    }
+}
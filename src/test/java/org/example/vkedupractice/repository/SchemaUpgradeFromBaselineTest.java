@@ -0,0 +1,148 @@
+package org.example.vkedupractice.repository;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.service.SegmentService;
+import org.example.vkedupractice.service.UserService;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Обновление базы первого выпуска: схему создал ddl-auto=update (DDL ниже - то, что Hibernate генерировал
+ * для сущностей того выпуска), Flyway ее еще не видел. При старте профиля postgresql база принимается
+ * за версию 1, остальные миграции доводят ее до схемы, которую проверяет ddl-auto=validate.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "SERVER_PORT=0",
+                "changes.compaction.interval=1h",
+                "segments.purge.interval=1h",
+                "segments.counters.reconcile-interval=1h"
+        })
+@ActiveProfiles({"test", "postgresql"})
+@DirtiesContext
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class SchemaUpgradeFromBaselineTest {
+
+    private static final String[] BASELINE_SCHEMA = {
+            "create table segments (id bigint generated by default as identity, created_at timestamp(6), "
+                    + "description varchar(255), name varchar(255) not null unique, primary key (id))",
+            "create table user_segments (segment_id bigint not null, user_id bigint not null, "
+                    + "primary key (user_id, segment_id))",
+            "create table users (id bigint generated by default as identity, created_at timestamp(6), "
+                    + "email varchar(255) not null, username varchar(255) not null unique, primary key (id))",
+            "alter table if exists user_segments add constraint FKb8ifr7ik3yhvkb1a4unkxmbg1 "
+                    + "foreign key (segment_id) references segments",
+            "alter table if exists user_segments add constraint FKrc1ao6m2c5rtxnfcgvprrl2ss "
+                    + "foreign key (user_id) references users"
+    };
+
+    private static final String[] BASELINE_DATA = {
+            "insert into users (username, email, created_at) select 'old_user' || i, 'old_user' || i || '@example.com', "
+                    + "now() from generate_series(1, 10) i",
+            "insert into segments (name, description, created_at) values "
+                    + "('OLD_SEGMENT_A', 'a', now()), ('OLD_SEGMENT_B', 'b', now()), ('OLD_EMPTY', null, now())",
+            "insert into user_segments (user_id, segment_id) select u.id, s.id from users u, segments s "
+                    + "where s.name = 'OLD_SEGMENT_A' and u.id <= 6",
+            "insert into user_segments (user_id, segment_id) select u.id, s.id from users u, segments s "
+                    + "where s.name = 'OLD_SEGMENT_B' and u.id > 7"
+    };
+
+    private static final EmbeddedPostgres postgres = startBaselinePostgres();
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private SegmentService segmentService;
+
+    @Autowired
+    private UserService userService;
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> postgres.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "");
+    }
+
+    @AfterAll
+    void stopPostgres() throws IOException {
+        postgres.close();
+    }
+
+    @Test
+    void baselineDatabase_ShouldBeBaselinedAndMigrated() {
+        List<Map<String, Object>> history = jdbcTemplate.queryForList(
+                "SELECT version, type, success FROM flyway_schema_history ORDER BY installed_rank");
+        assertEquals(List.of("1", "2", "3"), history.stream().map(row -> row.get("version")).toList());
+        assertEquals("BASELINE", history.get(0).get("type"));
+        assertTrue(history.stream().allMatch(row -> Boolean.TRUE.equals(row.get("success"))));
+    }
+
+    @Test
+    void memberCount_ShouldBeBackfilledFromExistingMembers() {
+        assertEquals(6, memberCount("OLD_SEGMENT_A"));
+        assertEquals(3, memberCount("OLD_SEGMENT_B"));
+        assertEquals(0, memberCount("OLD_EMPTY"));
+
+        SegmentDto segment = segmentService.getSegmentByName("OLD_SEGMENT_A").orElseThrow();
+        assertEquals(6, segment.getMemberCount());
+        assertEquals("MATERIALIZED", segment.getKind().name());
+    }
+
+    @Test
+    void userSegments_ShouldBePartitionedWithMembersPreserved() {
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM pg_partitioned_table WHERE partrelid = 'user_segments'::regclass",
+                Integer.class));
+        assertEquals(9, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM user_segments", Integer.class));
+
+        long userId = jdbcTemplate.queryForObject(
+                "SELECT id FROM users WHERE username = 'old_user1'", Long.class);
+        assertEquals(Set.of("OLD_SEGMENT_A"), userService.getUserSegments(userId).getSegments());
+    }
+
+    private long memberCount(String name) {
+        return jdbcTemplate.queryForObject("SELECT member_count FROM segments WHERE name = ?", Long.class, name);
+    }
+
+    private static EmbeddedPostgres startBaselinePostgres() {
+        try {
+            EmbeddedPostgres postgres = EmbeddedPostgres.builder().start();
+            try (Connection connection = postgres.getPostgresDatabase().getConnection();
+                 Statement statement = connection.createStatement()) {
+                for (String sql : BASELINE_SCHEMA) {
+                    statement.execute(sql);
+                }
+                for (String sql : BASELINE_DATA) {
+                    statement.execute(sql);
+                }
+            }
+            return postgres;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
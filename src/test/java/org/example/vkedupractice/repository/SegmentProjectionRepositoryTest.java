@@ -0,0 +1,93 @@
+package org.example.vkedupractice.repository;
+
+import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.model.HashBuckets;
+import org.example.vkedupractice.model.Segment;
+import org.example.vkedupractice.model.SegmentKind;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentProjectionRepositoryTest {
+
+    private EmbeddedDatabase database;
+    private SegmentProjectionRepository segmentProjectionRepository;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE segments (id BIGINT PRIMARY KEY, name VARCHAR(255), description VARCHAR(255), "
+                + "created_at TIMESTAMP, kind VARCHAR(255), percentage INTEGER, salt BIGINT, "
+                + "member_count BIGINT DEFAULT 0 NOT NULL, deleted BOOLEAN DEFAULT FALSE NOT NULL)");
+        jdbcTemplate.update("INSERT INTO segments (id, name, description, created_at, kind, member_count) "
+                + "VALUES (10, 'MAIL_GPT', 'GPT in mail', CURRENT_TIMESTAMP, 'MATERIALIZED', 42)");
+        jdbcTemplate.update("INSERT INTO segments (id, name, kind, percentage, salt) VALUES (11, 'HASH_HALF', 'HASH_BUCKET', 50, 7)");
+        jdbcTemplate.update("INSERT INTO segments (id, name, kind, deleted) VALUES (12, '~deleted~12', 'MATERIALIZED', true)");
+        segmentProjectionRepository = new SegmentProjectionRepository(jdbcTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void findAll_ShouldSkipDeletedSegments() {
+        List<SegmentDto> segments = segmentProjectionRepository.findAll();
+
+        assertEquals(List.of(10L, 11L), segments.stream().map(SegmentDto::getId).toList());
+        SegmentDto materialized = segments.get(0);
+        assertEquals("GPT in mail", materialized.getDescription());
+        assertNotNull(materialized.getCreatedAt());
+        assertEquals(SegmentKind.MATERIALIZED, materialized.getKind());
+        assertEquals(42L, materialized.getMemberCount());
+        assertNull(materialized.getPercentage());
+    }
+
+    @Test
+    void findNames_ShouldMapIdsToNamesOfLiveSegmentsInIdOrder() {
+        assertEquals(List.of(Map.entry(10L, "MAIL_GPT"), Map.entry(11L, "HASH_HALF")),
+                List.copyOf(segmentProjectionRepository.findNames().entrySet()));
+    }
+
+    @Test
+    void hashBucketSegment_ShouldHaveNoMemberCount() {
+        SegmentDto segment = segmentProjectionRepository.findByName("HASH_HALF").orElseThrow();
+
+        assertEquals(SegmentKind.HASH_BUCKET, segment.getKind());
+        assertEquals(50, segment.getPercentage());
+        assertNull(segment.getMemberCount());
+    }
+
+    @Test
+    void findById_ShouldNotReturnDeletedSegment() {
+        assertTrue(segmentProjectionRepository.findById(10L).isPresent());
+        assertTrue(segmentProjectionRepository.findById(12L).isEmpty());
+        assertTrue(segmentProjectionRepository.findByName("UNKNOWN").isEmpty());
+    }
+
+    @Test
+    void findHashBuckets_ShouldReturnSegmentsUsableForHashChecks() {
+        List<Segment> segments = segmentProjectionRepository.findHashBuckets();
+
+        assertEquals(1, segments.size());
+        Segment segment = segments.get(0);
+        assertEquals("HASH_HALF", segment.getName());
+        for (long userId = 1; userId <= 100; userId++) {
+            assertEquals(HashBuckets.contains(userId, 7L, 50), segment.containsByHash(userId));
+        }
+    }
+}
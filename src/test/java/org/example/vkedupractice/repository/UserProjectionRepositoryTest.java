@@ -0,0 +1,94 @@
+package org.example.vkedupractice.repository;
+
+import org.example.vkedupractice.dto.UserDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserProjectionRepositoryTest {
+
+    private EmbeddedDatabase database;
+    private UserProjectionRepository userProjectionRepository;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE users (id BIGINT PRIMARY KEY, username VARCHAR(255), "
+                + "email VARCHAR(255), created_at TIMESTAMP)");
+        jdbcTemplate.execute("CREATE TABLE segments (id BIGINT PRIMARY KEY, name VARCHAR(255), "
+                + "deleted BOOLEAN DEFAULT FALSE NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE user_segments (user_id BIGINT, segment_id BIGINT)");
+        jdbcTemplate.update("INSERT INTO users VALUES (1, 'user1', 'user1@example.com', CURRENT_TIMESTAMP), "
+                + "(2, 'user2', 'user2@example.com', NULL), (3, 'user3', 'user3@example.com', NULL)");
+        jdbcTemplate.update("INSERT INTO segments (id, name) VALUES (10, 'MAIL_GPT'), (11, 'MAIL_VOICE')");
+        jdbcTemplate.update("INSERT INTO user_segments VALUES (1, 10), (1, 11), (3, 11)");
+        userProjectionRepository = new UserProjectionRepository(jdbcTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void findAll_ShouldAggregateSegmentNamesPerUser() {
+        List<UserDto> users = userProjectionRepository.findAll();
+
+        assertEquals(List.of(1L, 2L, 3L), users.stream().map(UserDto::getId).toList());
+        assertEquals("user1@example.com", users.get(0).getEmail());
+        assertNotNull(users.get(0).getCreatedAt());
+        assertEquals(Set.of("MAIL_GPT", "MAIL_VOICE"), users.get(0).getSegmentNames());
+        assertTrue(users.get(1).getSegmentNames().isEmpty());
+        assertEquals(Set.of("MAIL_VOICE"), users.get(2).getSegmentNames());
+    }
+
+    @Test
+    void findByIds_ShouldReturnExistingUsersInIdOrder() {
+        List<UserDto> users = userProjectionRepository.findByIds(List.of(3L, 999L, 1L));
+
+        assertEquals(List.of(1L, 3L), users.stream().map(UserDto::getId).toList());
+        assertTrue(userProjectionRepository.findByIds(List.of()).isEmpty());
+    }
+
+    @Test
+    void findById_ShouldReturnMutableSegmentNames() {
+        UserDto user = userProjectionRepository.findById(2L).orElseThrow();
+
+        // Сервис дописывает в множество HASH_BUCKET сегменты
+        user.getSegmentNames().add("HASH");
+
+        assertEquals(Set.of("HASH"), user.getSegmentNames());
+        assertTrue(userProjectionRepository.findById(999L).isEmpty());
+    }
+
+    @Test
+    void findBySegmentName_ShouldReturnMembersWithAllTheirSegments() {
+        List<UserDto> members = userProjectionRepository.findBySegmentName("MAIL_GPT");
+
+        assertEquals(1, members.size());
+        assertEquals(Set.of("MAIL_GPT", "MAIL_VOICE"), members.get(0).getSegmentNames());
+        assertTrue(userProjectionRepository.findBySegmentName("UNKNOWN").isEmpty());
+    }
+
+    @Test
+    void deletedSegment_ShouldBeHiddenBeforePurge() {
+        new JdbcTemplate(database).update("UPDATE segments SET deleted = true WHERE id = 11");
+
+        assertEquals(Set.of("MAIL_GPT"), userProjectionRepository.findById(1L).orElseThrow().getSegmentNames());
+        assertEquals(Set.of(), userProjectionRepository.findById(3L).orElseThrow().getSegmentNames());
+        assertTrue(userProjectionRepository.findBySegmentName("MAIL_VOICE").isEmpty());
+    }
+}
@@ -0,0 +1,304 @@
+package org.example.vkedupractice.repository;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.example.vkedupractice.dto.CreateSegmentRequest;
+import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.service.SegmentService;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Планы запросов к секционированной user_segments на встроенном PostgreSQL со схемой из миграций
+ * (профиль postgresql: Flyway + ddl-auto=validate).
+ *
+ * SQL запросов репозиториев перехватывается у Hibernate (SQL проекций берется из констант) и выполняется
+ * через EXPLAIN ANALYZE с теми же параметрами. Секция, отсеченная при планировании, в плане отсутствует, отсеченная при выполнении
+ * помечена "never executed" - обе не читаются.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "SERVER_PORT=0",
+                "changes.compaction.interval=1h",
+                "segments.purge.interval=1h"
+        })
+@ActiveProfiles({"test", "postgresql"})
+@DirtiesContext
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class UserSegmentsPartitionPlanTest {
+
+    private static final int USERS = 20_000;
+    private static final int SEGMENTS = 8;
+    private static final int PARTITIONS = 16;
+    private static final Pattern PARTITION = Pattern.compile("\\buser_segments_p\\d+\\b");
+
+    private static final EmbeddedPostgres postgres = startPostgres();
+    private static final SqlCapture capture = new SqlCapture();
+
+    @Autowired
+    private SegmentRepository segmentRepository;
+
+    @Autowired
+    private SegmentService segmentService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private final List<SegmentDto> segments = new ArrayList<>();
+    private long memberId;
+
+    @TestConfiguration
+    static class CaptureConfig {
+        @Bean
+        HibernatePropertiesCustomizer sqlCapture() {
+            return properties -> properties.put(AvailableSettings.STATEMENT_INSPECTOR, capture);
+        }
+    }
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> postgres.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "");
+    }
+
+    @BeforeAll
+    void seed() {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 1; i <= USERS; i++) {
+            rows.add(new Object[]{"plan_user" + i, "plan_user" + i + "@example.com", now});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (username, email, created_at) VALUES (?, ?, ?)", rows);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments.add(segmentService.createSegment(
+                    CreateSegmentRequest.builder().name("PLAN_SEGMENT_" + i).percentage(10).build()));
+        }
+        jdbcTemplate.execute("ANALYZE");
+        memberId = jdbcTemplate.queryForObject("SELECT MIN(user_id) FROM user_segments WHERE segment_id = ?",
+                Long.class, segments.get(0).getId());
+    }
+
+    @AfterAll
+    void stopPostgres() throws IOException {
+        postgres.close();
+    }
+
+    @Test
+    void migrations_ShouldCreateHashPartitionedTable() {
+        assertEquals("p", jdbcTemplate.queryForObject(
+                "SELECT relkind::text FROM pg_class WHERE relname = 'user_segments'", String.class));
+        assertEquals(PARTITIONS, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM pg_inherits WHERE inhparent = 'user_segments'::regclass", Integer.class));
+        assertEquals(List.of("idx_user_segments_user_segment", "user_segments_pkey"), jdbcTemplate.queryForList(
+                "SELECT indexname FROM pg_indexes WHERE tablename = 'user_segments' ORDER BY indexname", String.class));
+        // Все участники сегмента лежат в одной секции
+        for (SegmentDto segment : segments) {
+            assertEquals(1, jdbcTemplate.queryForObject(
+                    "SELECT COUNT(DISTINCT tableoid) FROM user_segments WHERE segment_id = ?",
+                    Integer.class, segment.getId()));
+        }
+    }
+
+    @Test
+    void segmentToUsersQueries_ShouldReadSinglePartition() {
+        SegmentDto segment = segments.get(0);
+        String partition = partitionOf(segment.getId());
+
+        String count = captured(() -> segmentRepository.countUsersInSegment(segment.getName()));
+        assertEquals(Set.of(partition), readPartitions(explainAnalyze(count, segment.getName())));
+
+        String member = captured(() -> segmentRepository.isUserInSegment(segment.getName(), memberId));
+        assertEquals(Set.of(partition), readPartitions(explainAnalyze(member, segment.getName(), memberId)));
+
+        String among = captured(() -> segmentRepository.findMemberIdsAmong(segment.getId(), List.of(memberId, 2L)));
+        assertEquals(Set.of(partition), readPartitions(explainAnalyze(among, segment.getId(), memberId, 2L)));
+    }
+
+    @Test
+    void userToSegmentsQueries_ShouldUseIndexInEveryPartition() {
+        String sql = captured(() -> segmentRepository.findSegmentsByUserId(memberId));
+        List<String> entityPlan = explainAnalyze(sql, memberId);
+        List<String> projectionPlan = explainAnalyze(UserProjectionRepository.USER_BY_ID, Map.of("id", memberId));
+
+        // Пустую секцию планировщику дешевле просмотреть целиком, поэтому проверяются только непустые
+        Set<String> populated = populatedPartitions();
+        for (List<String> plan : List.of(entityPlan, projectionPlan)) {
+            assertTrue(indexScannedPartitions(plan).containsAll(populated), String.join("\n", plan));
+            assertTrue(Collections.disjoint(seqScannedPartitions(plan), populated), String.join("\n", plan));
+        }
+    }
+
+    @Test
+    void usersBySegmentName_ShouldReadMembersFromSinglePartition() {
+        SegmentDto segment = segments.get(1);
+
+        List<String> plan = explainAnalyze(UserProjectionRepository.USERS_BY_SEGMENT_NAME,
+                Map.of("segmentName", segment.getName()));
+
+        // Подзапрос участников читает только секцию сегмента (id известен после InitPlan). Сбор имен
+        // их сегментов идет по user_id и при десятой части пользователей читает все секции
+        List<String> memberScans = scansWithCondition(plan, "segment_id = $0");
+        assertEquals(PARTITIONS, memberScans.size(), String.join("\n", plan));
+        assertEquals(Set.of(partitionOf(segment.getId())), readPartitions(memberScans), String.join("\n", plan));
+    }
+
+    @Test
+    void segmentDml_ShouldTargetSinglePartition() {
+        SegmentDto segment = segments.get(2);
+        String partition = partitionOf(segment.getId());
+
+        // Вставка выполняется и откатывается: нужен только ее SQL
+        String insert = captured(() -> new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            segmentRepository.insertRandomMembers(segment.getId(), 10);
+            status.setRollbackOnly();
+        }));
+        assertEquals(Set.of(partition), partitions(explain(insert, segment.getId(), segment.getId(), 10)));
+
+        // Порция очистки удаленного сегмента (SegmentPurger)
+        List<String> purge = explain("DELETE FROM user_segments WHERE segment_id = ? AND user_id IN "
+                + "(SELECT user_id FROM user_segments WHERE segment_id = ? LIMIT ?)", segment.getId(), segment.getId(), 1000);
+        assertEquals(Set.of(partition), partitions(purge));
+    }
+
+    private String partitionOf(long segmentId) {
+        return jdbcTemplate.queryForObject("SELECT DISTINCT tableoid::regclass::text FROM user_segments WHERE segment_id = ?",
+                String.class, segmentId);
+    }
+
+    private Set<String> populatedPartitions() {
+        return new TreeSet<>(jdbcTemplate.queryForList("SELECT DISTINCT tableoid::regclass::text FROM user_segments",
+                String.class));
+    }
+
+    private String captured(Runnable call) {
+        capture.start();
+        try {
+            call.run();
+        } finally {
+            capture.stop();
+        }
+        return capture.statements.stream()
+                .filter(sql -> sql.contains("user_segments"))
+                .reduce((first, second) -> second)
+                .orElseThrow(() -> new AssertionError("No user_segments statement captured: " + capture.statements));
+    }
+
+    private List<String> explainAnalyze(String sql, Object... args) {
+        return jdbcTemplate.queryForList("EXPLAIN (ANALYZE, COSTS OFF, TIMING OFF, SUMMARY OFF) " + sql, String.class, args);
+    }
+
+    private List<String> explainAnalyze(String sql, Map<String, ?> params) {
+        return new NamedParameterJdbcTemplate(jdbcTemplate).queryForList(
+                "EXPLAIN (ANALYZE, COSTS OFF, TIMING OFF, SUMMARY OFF) " + sql, params, String.class);
+    }
+
+    private List<String> explain(String sql, Object... args) {
+        return jdbcTemplate.queryForList("EXPLAIN (COSTS OFF) " + sql, String.class, args);
+    }
+
+    // Строки сканирования секций, за которыми следует условие с заданным текстом
+    private static List<String> scansWithCondition(List<String> plan, String condition) {
+        List<String> scans = new ArrayList<>();
+        for (int i = 0; i + 1 < plan.size(); i++) {
+            if (PARTITION.matcher(plan.get(i)).find() && plan.get(i + 1).contains(condition)) {
+                scans.add(plan.get(i));
+            }
+        }
+        return scans;
+    }
+
+    private static Set<String> partitions(List<String> plan) {
+        return partitionsOn(plan, line -> true);
+    }
+
+    private static Set<String> readPartitions(List<String> plan) {
+        return partitionsOn(plan, line -> !line.contains("never executed"));
+    }
+
+    private static Set<String> indexScannedPartitions(List<String> plan) {
+        return partitionsOn(plan, line -> line.contains("Index Only Scan") || line.contains("Index Scan"));
+    }
+
+    private static Set<String> seqScannedPartitions(List<String> plan) {
+        return partitionsOn(plan, line -> line.contains("Seq Scan"));
+    }
+
+    private static Set<String> partitionsOn(List<String> plan, java.util.function.Predicate<String> filter) {
+        Set<String> partitions = new TreeSet<>();
+        for (String line : plan) {
+            Matcher matcher = PARTITION.matcher(line);
+            if (filter.test(line) && matcher.find()) {
+                partitions.add(matcher.group());
+            }
+        }
+        return partitions;
+    }
+
+    private static EmbeddedPostgres startPostgres() {
+        try {
+            return EmbeddedPostgres.builder().start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Запоминает SQL, отправленный Hibernate из потока теста; фоновые задачи приложения не мешают
+    static class SqlCapture implements StatementInspector {
+
+        private final List<String> statements = new CopyOnWriteArrayList<>();
+        private volatile Thread recording;
+
+        void start() {
+            statements.clear();
+            recording = Thread.currentThread();
+        }
+
+        void stop() {
+            recording = null;
+        }
+
+        @Override
+        public String inspect(String sql) {
+            if (Thread.currentThread() == recording) {
+                statements.add(sql);
+            }
+            return sql;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package org.example.vkedupractice.repository;
+
+import org.example.vkedupractice.dto.SegmentMemberDto;
+import org.example.vkedupractice.dto.UserDto;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserStreamRepositoryTest {
+
+    private EmbeddedDatabase database;
+    private UserStreamRepository userStreamRepository;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE users (id BIGINT PRIMARY KEY, username VARCHAR(255), "
+                + "email VARCHAR(255), created_at TIMESTAMP)");
+        jdbcTemplate.execute("CREATE TABLE segments (id BIGINT PRIMARY KEY, name VARCHAR(255), "
+                + "deleted BOOLEAN DEFAULT FALSE NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE user_segments (user_id BIGINT, segment_id BIGINT)");
+        jdbcTemplate.update("INSERT INTO users VALUES (1, 'user1', 'user1@example.com', CURRENT_TIMESTAMP), "
+                + "(2, 'user2', 'user2@example.com', NULL), (3, 'user3', 'user3@example.com', NULL)");
+        jdbcTemplate.update("INSERT INTO segments (id, name) VALUES (10, 'MAIL_GPT'), (11, 'MAIL_VOICE')");
+        jdbcTemplate.update("INSERT INTO user_segments VALUES (1, 10), (1, 11), (3, 11)");
+
+        userStreamRepository = new UserStreamRepository(jdbcTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void forEachUserWithSegments_ShouldGroupJoinRowsPerUser() {
+        List<UserDto> users = new ArrayList<>();
+
+        userStreamRepository.forEachUserWithSegments(users::add);
+
+        assertEquals(List.of(1L, 2L, 3L), users.stream().map(UserDto::getId).toList());
+        assertEquals(Set.of("MAIL_GPT", "MAIL_VOICE"), users.get(0).getSegmentNames());
+        assertNotNull(users.get(0).getCreatedAt());
+        assertTrue(users.get(1).getSegmentNames().isEmpty());
+        assertEquals(Set.of("MAIL_VOICE"), users.get(2).getSegmentNames());
+    }
+
+    @Test
+    void forEachSegmentMember_ShouldStreamRequestedFieldsOnly() {
+        List<SegmentMemberDto> idsOnly = new ArrayList<>();
+        List<SegmentMemberDto> withUsername = new ArrayList<>();
+
+        userStreamRepository.forEachSegmentMember("MAIL_VOICE", false, idsOnly::add);
+        userStreamRepository.forEachSegmentMember("MAIL_VOICE", true, withUsername::add);
+
+        assertEquals(List.of(new SegmentMemberDto(1L, null), new SegmentMemberDto(3L, null)), idsOnly);
+        assertEquals(List.of(new SegmentMemberDto(1L, "user1"), new SegmentMemberDto(3L, "user3")), withUsername);
+    }
+
+    @Test
+    void forEachUserWithSegments_WhenSegmentDeleted_ShouldHideItBeforePurge() {
+        new JdbcTemplate(database).update("UPDATE segments SET deleted = true WHERE id = 11");
+        List<UserDto> users = new ArrayList<>();
+        List<SegmentMemberDto> members = new ArrayList<>();
+
+        userStreamRepository.forEachUserWithSegments(users::add);
+        userStreamRepository.forEachSegmentMember("MAIL_VOICE", true, members::add);
+
+        assertEquals(Set.of("MAIL_GPT"), users.get(0).getSegmentNames());
+        assertEquals(Set.of(), users.get(2).getSegmentNames());
+        assertTrue(members.isEmpty());
+    }
+
+    @Test
+    void forEachUser_ShouldStreamAllUsersInIdOrder() {
+        List<SegmentMemberDto> users = new ArrayList<>();
+
+        userStreamRepository.forEachUser(true, users::add);
+
+        assertEquals(List.of(1L, 2L, 3L), users.stream().map(SegmentMemberDto::getId).toList());
+        assertEquals("user2", users.get(1).getUsername());
+    }
+}
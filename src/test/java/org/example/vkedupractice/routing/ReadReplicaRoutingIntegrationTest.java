@@ -0,0 +1,99 @@
+package org.example.vkedupractice.routing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Две базы H2 в роли primary и реплики: схема копируется на реплику, а строки пользователя в них
+ * различаются, поэтому по ответу видно, откуда было чтение.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:routing-primary;DB_CLOSE_DELAY=-1",
+        "db.replicas.enabled=true",
+        "db.replicas.urls=" + ReadReplicaRoutingIntegrationTest.REPLICA_URL,
+        "db.replicas.read-your-writes=30s",
+        "users.cache.enabled=false"
+})
+@ActiveProfiles("test")
+class ReadReplicaRoutingIntegrationTest {
+
+    static final String REPLICA_URL = "jdbc:h2:mem:routing-replica;DB_CLOSE_DELAY=-1";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private JdbcTemplate primary;
+
+    private final JdbcTemplate replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", "password"));
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void setUp() {
+        replica.execute("DROP ALL OBJECTS");
+        for (String statement : primary.queryForList("SCRIPT NODATA", String.class)) {
+            replica.execute(statement);
+        }
+        primary.update("INSERT INTO users (id, username, email) VALUES (1000, 'on-primary', 'u@example.com')");
+        replica.update("INSERT INTO users (id, username, email) VALUES (1000, 'on-replica', 'u@example.com')");
+    }
+
+    @AfterEach
+    void tearDown() {
+        primary.update("DELETE FROM user_segments");
+        primary.update("DELETE FROM segments");
+        primary.update("DELETE FROM users");
+    }
+
+    @Test
+    void reads_ShouldGoToReplicaUntilClientMutates() throws Exception {
+        assertTrue(get("/api/users/1000", null).body().contains("on-replica"));
+
+        HttpResponse<String> created = send(HttpRequest.newBuilder(uri("/api/segments"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"name\":\"ROUTED\",\"percentage\":100}")));
+        assertEquals(200, created.statusCode());
+        assertEquals(1, primary.queryForObject("SELECT COUNT(*) FROM segments WHERE name = 'ROUTED'", Integer.class));
+        String cookie = created.headers().firstValue("Set-Cookie").orElseThrow().split(";")[0];
+
+        // Клиент, только что выполнивший мутацию, читает с primary - в том числе потоковые ответы
+        assertTrue(get("/api/users/1000", cookie).body().contains("on-primary"));
+        assertTrue(get("/api/users/1000/segments", cookie).body().contains("ROUTED"));
+        assertTrue(get("/api/users/stream", cookie).body().contains("on-primary"));
+        // Остальные клиенты продолжают читать с реплики
+        assertTrue(get("/api/users/1000", null).body().contains("on-replica"));
+        assertTrue(get("/api/users/stream", null).body().contains("on-replica"));
+    }
+
+    private HttpResponse<String> get(String path, String cookie) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri(path)).GET();
+        if (cookie != null) {
+            request.header("Cookie", cookie);
+        }
+        HttpResponse<String> response = send(request);
+        assertEquals(200, response.statusCode(), response.body());
+        return response;
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws Exception {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private URI uri(String path) {
+        return URI.create("http://localhost:" + port + path);
+    }
+}
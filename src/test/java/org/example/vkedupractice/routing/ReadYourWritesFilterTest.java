@@ -0,0 +1,62 @@
+package org.example.vkedupractice.routing;
+
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadYourWritesFilterTest {
+
+    private static final Instant NOW = Instant.parse("2026-01-01T00:00:00Z");
+
+    private final ReadYourWritesFilter filter =
+            new ReadYourWritesFilter(Duration.ofSeconds(2), Clock.fixed(NOW, ZoneOffset.UTC));
+
+    @Test
+    void mutation_ShouldSetCookieAndPinRequest() throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/api/segments");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        assertTrue(pinnedDuring(request, response));
+
+        Cookie cookie = response.getCookie(ReadYourWritesFilter.COOKIE_NAME);
+        assertEquals(Long.toString(NOW.toEpochMilli() + 2000), cookie.getValue());
+        assertEquals(2, cookie.getMaxAge());
+        assertFalse(ReadYourWrites.isPinned());
+    }
+
+    @Test
+    void read_WithCookieInsideWindow_ShouldBePinned() throws Exception {
+        assertTrue(pinnedDuring(get(NOW.toEpochMilli() + 1500), new MockHttpServletResponse()));
+    }
+
+    @Test
+    void read_WithExpiredForgedOrMissingCookie_ShouldNotBePinned() throws Exception {
+        assertFalse(pinnedDuring(get(NOW.toEpochMilli() - 1), new MockHttpServletResponse()));
+        assertFalse(pinnedDuring(get(NOW.toEpochMilli() + 60_000), new MockHttpServletResponse()));
+        assertFalse(pinnedDuring(new MockHttpServletRequest("GET", "/api/users/1"), new MockHttpServletResponse()));
+        MockHttpServletRequest garbage = new MockHttpServletRequest("GET", "/api/users/1");
+        garbage.setCookies(new Cookie(ReadYourWritesFilter.COOKIE_NAME, "soon"));
+        assertFalse(pinnedDuring(garbage, new MockHttpServletResponse()));
+    }
+
+    private boolean pinnedDuring(MockHttpServletRequest request, MockHttpServletResponse response) throws Exception {
+        AtomicBoolean pinned = new AtomicBoolean();
+        filter.doFilter(request, response, (req, res) -> pinned.set(ReadYourWrites.isPinned()));
+        return pinned.get();
+    }
+
+    private static MockHttpServletRequest get(long until) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/users/1");
+        request.setCookies(new Cookie(ReadYourWritesFilter.COOKIE_NAME, Long.toString(until)));
+        return request;
+    }
+}
@@ -0,0 +1,128 @@
+package org.example.vkedupractice.routing;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicaRoutingDataSourceTest {
+
+    private final String run = UUID.randomUUID().toString();
+    private SimpleMeterRegistry meterRegistry;
+    private ReplicaRoutingDataSource routing;
+    private JdbcTemplate jdbcTemplate;
+    private TransactionTemplate readOnly;
+    private TransactionTemplate readWrite;
+
+    @BeforeEach
+    void setUp() {
+        routing = new ReplicaRoutingDataSource(pool("primary"), List.of(pool("replica-1"), pool("replica-2")),
+                "SELECT lag FROM replica_lag", Duration.ofSeconds(5));
+        meterRegistry = new SimpleMeterRegistry();
+        routing.bindTo(meterRegistry);
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(routing);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(dataSource);
+        readOnly = new TransactionTemplate(transactionManager);
+        readOnly.setReadOnly(true);
+        readWrite = new TransactionTemplate(transactionManager);
+        for (String name : List.of("replica-1", "replica-2")) {
+            JdbcTemplate replica = new JdbcTemplate(pool(name));
+            replica.execute("CREATE TABLE replica_lag (lag DOUBLE)");
+            replica.update("INSERT INTO replica_lag VALUES (0)");
+        }
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReadYourWrites.clear();
+        routing.close();
+    }
+
+    @Test
+    void readOnlyTransactions_ShouldRotateAcrossReplicas() {
+        List<String> databases = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            databases.add(readOnly.execute(status -> database()));
+        }
+
+        assertEquals(List.of("replica-1", "replica-2", "replica-1", "replica-2"), databases);
+        assertEquals(4.0, meterRegistry.get("db.routing.connections").tag("target", "replica").counter().count());
+    }
+
+    @Test
+    void writesAndNonTransactionalAccess_ShouldUsePrimary() {
+        assertEquals("primary", readWrite.execute(status -> database()));
+        assertEquals("primary", database());
+    }
+
+    @Test
+    void readOnlyTransaction_WhenPinned_ShouldUsePrimary() {
+        ReadYourWrites.pin(true);
+
+        assertEquals("primary", readOnly.execute(status -> database()));
+    }
+
+    @Test
+    void checkReplicas_ShouldSkipLaggingReplicaUntilItCatchesUp() {
+        JdbcTemplate replica = new JdbcTemplate(pool("replica-2"));
+        replica.update("UPDATE replica_lag SET lag = 30");
+
+        routing.checkReplicas();
+
+        assertEquals(1, routing.getHealthyReplicas());
+        assertEquals("replica-1", readOnly.execute(status -> database()));
+        assertEquals("replica-1", readOnly.execute(status -> database()));
+
+        replica.update("UPDATE replica_lag SET lag = 0");
+        routing.checkReplicas();
+        assertEquals(2, routing.getHealthyReplicas());
+    }
+
+    @Test
+    void readOnlyTransaction_WhenNoReplicaAvailable_ShouldFallBackToPrimary() {
+        routing.close();
+        routing = new ReplicaRoutingDataSource(pool("primary"), List.of(unreachablePool()), "", Duration.ofSeconds(5));
+        routing.bindTo(meterRegistry);
+        LazyConnectionDataSourceProxy dataSource = new LazyConnectionDataSourceProxy(routing);
+        TransactionTemplate transactions = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        transactions.setReadOnly(true);
+        jdbcTemplate = new JdbcTemplate(dataSource);
+
+        assertEquals("primary", transactions.execute(status -> database()));
+        assertEquals(0, routing.getHealthyReplicas());
+        assertEquals(1.0, meterRegistry.get("db.routing.connections").tag("target", "fallback").counter().count());
+    }
+
+    private String database() {
+        return jdbcTemplate.queryForObject("SELECT DATABASE()", String.class).toLowerCase().replace(run + "-", "");
+    }
+
+    private HikariDataSource pool(String name) {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setJdbcUrl("jdbc:h2:mem:" + run + "-" + name + ";DB_CLOSE_DELAY=-1");
+        pool.setPoolName(name);
+        pool.setMaximumPoolSize(2);
+        return pool;
+    }
+
+    private HikariDataSource unreachablePool() {
+        HikariDataSource pool = new HikariDataSource();
+        pool.setJdbcUrl("jdbc:h2:mem:" + run + "-missing;IFEXISTS=TRUE");
+        pool.setPoolName("replica-missing");
+        pool.setConnectionTimeout(250);
+        return pool;
+    }
+}
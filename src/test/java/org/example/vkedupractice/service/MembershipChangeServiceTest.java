@@ -0,0 +1,67 @@
+package org.example.vkedupractice.service;
+
+import org.example.vkedupractice.changes.MembershipChangeLog;
+import org.example.vkedupractice.dto.MembershipChangeDto;
+import org.example.vkedupractice.dto.MembershipChangesPage;
+import org.example.vkedupractice.model.MembershipChangeType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class MembershipChangeServiceTest {
+
+    @Mock
+    private MembershipChangeLog membershipChangeLog;
+
+    @InjectMocks
+    private MembershipChangeService membershipChangeService;
+
+    @Test
+    void getChanges_WhenPageFull_ShouldAdvanceCursorAndReportMore() {
+        when(membershipChangeLog.findAfter(10L, 2)).thenReturn(List.of(change(11L), change(15L)));
+
+        MembershipChangesPage page = membershipChangeService.getChanges(10L, 2);
+
+        assertEquals(2, page.getChanges().size());
+        assertEquals(15L, page.getNextCursor());
+        assertTrue(page.isHasMore());
+    }
+
+    @Test
+    void getChanges_WhenNoChanges_ShouldKeepCursor() {
+        when(membershipChangeLog.findAfter(42L, 1000)).thenReturn(List.of());
+
+        MembershipChangesPage page = membershipChangeService.getChanges(42L, null);
+
+        assertEquals(42L, page.getNextCursor());
+        assertFalse(page.isHasMore());
+    }
+
+    @Test
+    void getChanges_ShouldClampLimitAndCursor() {
+        when(membershipChangeLog.findAfter(anyLong(), anyInt())).thenReturn(List.of());
+
+        membershipChangeService.getChanges(null, 1_000_000);
+        membershipChangeService.getChanges(-5L, 0);
+
+        verify(membershipChangeLog).findAfter(0L, 10000);
+        verify(membershipChangeLog).findAfter(0L, 1);
+    }
+
+    private static MembershipChangeDto change(long cursor) {
+        return MembershipChangeDto.builder()
+                .cursor(cursor)
+                .type(MembershipChangeType.MEMBER_ADDED)
+                .segmentId(1L)
+                .userId(cursor)
+                .build();
+    }
+}
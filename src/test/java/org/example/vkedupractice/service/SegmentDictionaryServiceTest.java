@@ -0,0 +1,93 @@
+package org.example.vkedupractice.service;
+
+import org.example.vkedupractice.dto.BatchUserSegmentIdsResponse;
+import org.example.vkedupractice.dto.BatchUserSegmentsResponse;
+import org.example.vkedupractice.dto.SegmentDictionary;
+import org.example.vkedupractice.dto.UserSegmentIdsResponse;
+import org.example.vkedupractice.dto.UserSegmentsResponse;
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.repository.SegmentProjectionRepository;
+import org.example.vkedupractice.version.MembershipVersions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SegmentDictionaryServiceTest {
+
+    private static final Map<Long, String> NAMES = Map.of(2L, "MAIL_GPT", 5L, "MAIL_VOICE", 9L, "HASH_HALF");
+
+    @Mock
+    private MembershipIndex membershipIndex;
+
+    @Mock
+    private SegmentProjectionRepository segmentProjectionRepository;
+
+    @Mock
+    private MembershipVersions membershipVersions;
+
+    @InjectMocks
+    private SegmentDictionaryService segmentDictionaryService;
+
+    @Test
+    void getDictionary_WhenIndexReady_ShouldNotQueryDatabase() {
+        when(membershipIndex.isReady()).thenReturn(true);
+        when(membershipIndex.segmentNames()).thenReturn(NAMES);
+        when(membershipVersions.segmentDictionary(NAMES)).thenReturn("3-abc");
+
+        SegmentDictionary dictionary = segmentDictionaryService.getDictionary();
+
+        assertEquals("3-abc", dictionary.getVersion());
+        assertEquals(NAMES, dictionary.getSegments());
+        verifyNoInteractions(segmentProjectionRepository);
+    }
+
+    @Test
+    void getDictionary_WhenIndexNotReady_ShouldReadNamesFromDatabase() {
+        when(segmentProjectionRepository.findNames()).thenReturn(NAMES);
+        when(membershipVersions.segmentDictionary(NAMES)).thenReturn("3-abc");
+
+        assertEquals(NAMES, segmentDictionaryService.getDictionary().getSegments());
+        verify(membershipIndex, never()).segmentNames();
+    }
+
+    @Test
+    void encode_ShouldReplaceNamesWithSortedIdsAndSkipUnknownNames() {
+        UserSegmentsResponse response = new UserSegmentsResponse(1L, "alice", Set.of("MAIL_VOICE", "HASH_HALF", "MAIL_GPT", "GONE"));
+
+        UserSegmentIdsResponse encoded = segmentDictionaryService.encode(response, dictionary());
+
+        assertEquals(1L, encoded.getUserId());
+        assertEquals("alice", encoded.getUsername());
+        assertArrayEquals(new long[]{2L, 5L, 9L}, encoded.getSegmentIds());
+    }
+
+    @Test
+    void encodeBatch_ShouldKeepUserOrderAndMissingIds() {
+        BatchUserSegmentsResponse batch = BatchUserSegmentsResponse.builder()
+                .users(List.of(new UserSegmentsResponse(3L, "carol", Set.of()),
+                        new UserSegmentsResponse(1L, "alice", Set.of("MAIL_GPT"))))
+                .missingIds(List.of(7L))
+                .build();
+
+        BatchUserSegmentIdsResponse encoded = segmentDictionaryService.encode(batch, dictionary());
+
+        assertEquals(List.of(3L, 1L), encoded.getUsers().stream().map(UserSegmentIdsResponse::getUserId).toList());
+        assertArrayEquals(new long[0], encoded.getUsers().get(0).getSegmentIds());
+        assertArrayEquals(new long[]{2L}, encoded.getUsers().get(1).getSegmentIds());
+        assertEquals(List.of(7L), encoded.getMissingIds());
+    }
+
+    private static SegmentDictionary dictionary() {
+        return SegmentDictionary.builder().version("3-abc").segments(NAMES).build();
+    }
+}
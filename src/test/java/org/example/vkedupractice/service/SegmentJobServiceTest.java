@@ -0,0 +1,209 @@
+package org.example.vkedupractice.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.vkedupractice.cache.UserLookupCache;
+import org.example.vkedupractice.changes.MembershipChangeLog;
+import org.example.vkedupractice.config.SegmentJobsConfig;
+import org.example.vkedupractice.dto.CreateSegmentRequest;
+import org.example.vkedupractice.dto.SegmentJobDto;
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.metrics.SegmentMetrics;
+import org.example.vkedupractice.model.Segment;
+import org.example.vkedupractice.model.SegmentKind;
+import org.example.vkedupractice.repository.SegmentRepository;
+import org.example.vkedupractice.repository.UserRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.Limit;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SegmentJobServiceTest {
+
+    @Mock
+    private SegmentRepository segmentRepository;
+
+    @Mock
+    private UserRepository userRepository;
+
+    @Mock
+    private MembershipIndex membershipIndex;
+
+    @Mock
+    private UserLookupCache userLookupCache;
+
+    @Mock
+    private MembershipChangeLog membershipChangeLog;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private CreateSegmentRequest request;
+
+    @BeforeEach
+    void setUp() {
+        request = CreateSegmentRequest.builder()
+                .name("BIG_SEGMENT")
+                .percentage(40)
+                .build();
+        lenient().when(segmentRepository.save(any(Segment.class))).thenAnswer(inv -> {
+            Segment segment = inv.getArgument(0);
+            segment.setId(1L);
+            return segment;
+        });
+    }
+
+    @Test
+    void submitCreation_ShouldAssignStratifiedSampleWindowByWindow() {
+        givenUsers(25);
+        when(segmentRepository.insertRandomMembersInRange(eq(1L), anyLong(), anyLong(), anyInt()))
+                .thenAnswer(inv -> inv.getArgument(3));
+
+        SegmentJobDto submitted = service(new SyncTaskExecutor(), 10).submitCreation(request);
+
+        verify(segmentRepository).insertRandomMembersInRange(1L, 0L, 10L, 4);
+        verify(segmentRepository).insertRandomMembersInRange(1L, 10L, 20L, 4);
+        verify(segmentRepository).insertRandomMembersInRange(1L, 20L, 25L, 2);
+        verify(segmentRepository, never()).insertRandomMembers(anyLong(), anyInt());
+        verify(membershipChangeLog).recordMembersAdded(any(Segment.class), eq(0L), eq(10L));
+        verify(membershipChangeLog).recordMembersAdded(any(Segment.class), eq(10L), eq(20L));
+        verify(membershipChangeLog).recordMembersAdded(any(Segment.class), eq(20L), eq(25L));
+        verify(transactionManager, times(4)).commit(any());
+        // Индекс и кэш обновляются в транзакции каждой порции
+        var order = inOrder(segmentRepository, membershipIndex, userLookupCache);
+        for (long from = 0; from < 25; from += 10) {
+            order.verify(segmentRepository).insertRandomMembersInRange(eq(1L), eq(from), anyLong(), anyInt());
+            order.verify(membershipIndex).segmentChanged(1L, true);
+            order.verify(userLookupCache).onMembersAdded(any(Segment.class));
+        }
+        assertEquals(SegmentJobDto.State.DONE, submitted.getState());
+        assertEquals(10, submitted.getProcessed());
+        assertEquals(10, submitted.getTotal());
+    }
+
+    @Test
+    void submitCreation_WhenRoundingLeavesDeficit_ShouldTopUpAtTheEnd() {
+        request.setPercentage(50);
+        givenUsers(3);
+        when(segmentRepository.insertRandomMembersInRange(1L, 0L, 3L, 1)).thenReturn(1);
+        when(segmentRepository.insertRandomMembers(1L, 1)).thenReturn(1);
+
+        SegmentJobDto submitted = service(new SyncTaskExecutor(), 10).submitCreation(request);
+
+        assertEquals(SegmentJobDto.State.DONE, submitted.getState());
+        assertEquals(2, submitted.getProcessed());
+        assertEquals(2, submitted.getTotal());
+        verify(membershipChangeLog).recordMembersAdded(any(Segment.class), eq(0L), eq(3L));
+        verify(membershipChangeLog).recordMembersAdded(any(Segment.class));
+        verify(membershipIndex, times(2)).segmentChanged(1L, true);
+        verify(userLookupCache, times(2)).onMembersAdded(any(Segment.class));
+    }
+
+    @Test
+    void submitCreation_WhenChunkFails_ShouldMarkJobFailedAndKeepCommittedChunksIndexed() {
+        givenUsers(25);
+        when(segmentRepository.insertRandomMembersInRange(eq(1L), anyLong(), anyLong(), anyInt()))
+                .thenReturn(4)
+                .thenThrow(new RuntimeException("lock timeout"));
+
+        SegmentJobDto submitted = service(new SyncTaskExecutor(), 10).submitCreation(request);
+
+        assertEquals(SegmentJobDto.State.FAILED, submitted.getState());
+        assertEquals("lock timeout", submitted.getError());
+        assertEquals(4, submitted.getProcessed());
+        verify(membershipIndex).segmentChanged(1L, true);
+    }
+
+    @Test
+    void submitCreation_WhenExecutorRejects_ShouldRemoveSegmentAndRethrow() {
+        TaskExecutor rejecting = task -> {
+            throw new TaskRejectedException("busy");
+        };
+        SegmentJobService service = service(rejecting, 10);
+
+        assertThrows(TaskRejectedException.class, () -> service.submitCreation(request));
+        verify(segmentRepository).deleteById(1L);
+        verifyNoInteractions(membershipIndex);
+    }
+
+    @Test
+    void submitCreation_WhenNameTaken_ShouldThrowBeforeSubmitting() {
+        when(segmentRepository.existsByName("BIG_SEGMENT")).thenReturn(true);
+        TaskExecutor executor = mock(TaskExecutor.class);
+
+        assertThrows(RuntimeException.class, () -> service(executor, 10).submitCreation(request));
+        verifyNoInteractions(executor);
+        verify(segmentRepository, never()).save(any());
+    }
+
+    @Test
+    void submitCreation_WhenHashBucket_ShouldFinishImmediately() {
+        request.setKind(SegmentKind.HASH_BUCKET);
+        TaskExecutor executor = mock(TaskExecutor.class);
+
+        SegmentJobDto submitted = service(executor, 10).submitCreation(request);
+
+        assertEquals(SegmentJobDto.State.DONE, submitted.getState());
+        verifyNoInteractions(executor, userRepository);
+        verify(membershipChangeLog).recordHashSegmentCreated(any(Segment.class));
+        verify(membershipIndex).segmentChanged(1L, true);
+    }
+
+    @Test
+    void submitCreation_WhenConcurrencyCapReached_ShouldRejectAndKeepRunningJob() throws Exception {
+        ThreadPoolTaskExecutor executor = new SegmentJobsConfig().segmentJobExecutor(1, 0, false);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userRepository.countAllUsers()).thenAnswer(inv -> {
+            started.countDown();
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+            return 0L;
+        });
+        SegmentJobService service = service(executor, 10);
+        try {
+            SegmentJobDto first = service.submitCreation(request);
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            assertEquals(SegmentJobDto.State.RUNNING, service.getJob(first.getId()).orElseThrow().getState());
+
+            request.setName("ANOTHER_SEGMENT");
+            assertThrows(TaskRejectedException.class, () -> service.submitCreation(request));
+
+            release.countDown();
+            executor.getThreadPoolExecutor().shutdown();
+            assertTrue(executor.getThreadPoolExecutor().awaitTermination(5, TimeUnit.SECONDS));
+            assertEquals(SegmentJobDto.State.DONE, service.getJob(first.getId()).orElseThrow().getState());
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private void givenUsers(long count) {
+        when(userRepository.countAllUsers()).thenReturn(count);
+        when(userRepository.findIdsAfter(anyLong(), any(Limit.class))).thenAnswer(inv -> {
+            long after = inv.getArgument(0);
+            int limit = ((Limit) inv.getArgument(1)).max();
+            return LongStream.rangeClosed(after + 1, Math.min(after + limit, count)).boxed().toList();
+        });
+    }
+
+    private SegmentJobService service(TaskExecutor executor, int chunkSize) {
+        return new SegmentJobService(segmentRepository, userRepository, membershipIndex, userLookupCache,
+                new SegmentMetrics(new SimpleMeterRegistry()), membershipChangeLog, transactionManager, executor, chunkSize, 100);
+    }
+}
@@ -0,0 +1,139 @@
+package org.example.vkedupractice.service;
+
+import org.example.vkedupractice.counter.SegmentCounterReconciler;
+import org.example.vkedupractice.dto.CreateSegmentRequest;
+import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.repository.SegmentRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Счетчик участников при параллельных распределениях, удалениях и сверке на реальной БД (H2).
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "spring.datasource.url=jdbc:h2:mem:member-counts;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+                "segments.counters.reconcile-interval=1h",
+                "segments.purge.interval=1h"
+        })
+@ActiveProfiles("test")
+class SegmentMemberCountConcurrencyTest {
+
+    private static final int USERS = 2000;
+
+    @Autowired
+    private SegmentService segmentService;
+
+    @Autowired
+    private SegmentRepository segmentRepository;
+
+    @Autowired
+    private SegmentCounterReconciler reconciler;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @BeforeEach
+    void setUp() {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 1; i <= USERS; i++) {
+            rows.add(new Object[]{"counter_user" + i, "counter_user" + i + "@example.com", now});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (username, email, created_at) VALUES (?, ?, ?)", rows);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM user_segments");
+        jdbcTemplate.update("DELETE FROM segments");
+        jdbcTemplate.update("DELETE FROM users");
+    }
+
+    @Test
+    void concurrentAssignmentsDeletionsAndReconciliation_ShouldKeepCountersExact() throws Exception {
+        SegmentDto shared = create("SHARED", 1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Callable<Void>> tasks = new ArrayList<>();
+            // Несколько потоков доводят один сегмент до растущей доли пользователей
+            for (int percentage = 5; percentage <= 40; percentage += 5) {
+                int target = percentage;
+                tasks.add(() -> {
+                    segmentService.assignSegmentToRandomUsers(segmentRepository.findById(shared.getId()).orElseThrow(), target);
+                    return null;
+                });
+            }
+            // Параллельно создаются и удаляются другие сегменты, работает сверка
+            for (int i = 0; i < 6; i++) {
+                int n = i;
+                tasks.add(() -> {
+                    SegmentDto created = create("TEMP_" + n, 20);
+                    if (n % 2 == 0) {
+                        segmentService.deleteSegment(created.getId());
+                    }
+                    return null;
+                });
+                tasks.add(() -> {
+                    reconciler.reconcileAll();
+                    return null;
+                });
+            }
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+        }
+
+        assertEquals(USERS * 40 / 100, segmentService.getUsersInSegmentCount("SHARED"));
+        List<Map<String, Object>> live = jdbcTemplate.queryForList(
+                "SELECT s.id, s.member_count, (SELECT COUNT(*) FROM user_segments us WHERE us.segment_id = s.id) AS actual "
+                        + "FROM segments s WHERE s.deleted = false");
+        assertEquals(4, live.size());
+        for (Map<String, Object> row : live) {
+            assertEquals(((Number) row.get("ACTUAL")).longValue(), ((Number) row.get("MEMBER_COUNT")).longValue(),
+                    "segment " + row.get("ID"));
+        }
+        for (Map<String, Object> row : live) {
+            assertFalse(reconciler.reconcile(((Number) row.get("ID")).longValue()));
+        }
+    }
+
+    @Test
+    void renameAfterAssignment_ShouldNotOverwriteCounter() {
+        SegmentDto segment = create("TO_RENAME", 10);
+
+        SegmentDto renamed = segmentService.updateSegment(segment.getId(), "RENAMED", "description");
+
+        assertEquals(USERS / 10, segmentService.getUsersInSegmentCount("RENAMED"));
+        assertEquals(USERS / 10, jdbcTemplate.queryForObject(
+                "SELECT member_count FROM segments WHERE id = ?", Long.class, renamed.getId()));
+    }
+
+    private SegmentDto create(String name, int percentage) {
+        return segmentService.createSegment(CreateSegmentRequest.builder()
+                .name(name)
+                .percentage(percentage)
+                .build());
+    }
+}
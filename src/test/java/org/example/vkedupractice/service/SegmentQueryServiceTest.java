@@ -0,0 +1,66 @@
+package org.example.vkedupractice.service;
+
+import org.example.vkedupractice.dto.SegmentQueryRequest;
+import org.example.vkedupractice.dto.SegmentQueryResponse;
+import org.example.vkedupractice.query.SegmentQueryEngine;
+import org.example.vkedupractice.query.SegmentQueryResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SegmentQueryServiceTest {
+
+    @Mock
+    private SegmentQueryEngine segmentQueryEngine;
+
+    @InjectMocks
+    private SegmentQueryService segmentQueryService;
+
+    @Test
+    void query_ShouldReturnCountAndFirstPageWithCursor() {
+        when(segmentQueryEngine.evaluate("A AND B")).thenReturn(result(3, 5, 8, 13));
+
+        SegmentQueryResponse response = segmentQueryService.query(request("A AND B", null, 2));
+
+        assertEquals(4, response.getCount());
+        assertEquals(List.of(3L, 5L), response.getUserIds());
+        assertEquals(5L, response.getNextCursor());
+    }
+
+    @Test
+    void query_WhenLastPage_ShouldNotReturnCursor() {
+        when(segmentQueryEngine.evaluate("A")).thenReturn(result(3, 5, 8, 13));
+
+        SegmentQueryResponse response = segmentQueryService.query(request("A", 5L, 2));
+
+        assertEquals(List.of(8L, 13L), response.getUserIds());
+        assertNull(response.getNextCursor());
+    }
+
+    @Test
+    void query_ShouldClampLimit() {
+        when(segmentQueryEngine.evaluate("A")).thenReturn(result(3, 5, 8));
+
+        SegmentQueryResponse response = segmentQueryService.query(request("A", null, 0));
+
+        assertEquals(List.of(3L), response.getUserIds());
+        assertEquals(3L, response.getNextCursor());
+    }
+
+    private static SegmentQueryResult result(int... ids) {
+        return new SegmentQueryResult(RoaringBitmap.bitmapOf(ids));
+    }
+
+    private static SegmentQueryRequest request(String expression, Long after, Integer limit) {
+        return SegmentQueryRequest.builder().expression(expression).after(after).limit(limit).build();
+    }
+}
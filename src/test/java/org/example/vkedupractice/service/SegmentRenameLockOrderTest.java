@@ -0,0 +1,150 @@
+package org.example.vkedupractice.service;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.example.vkedupractice.changes.MembershipChangeLog;
+import org.example.vkedupractice.dto.CreateSegmentRequest;
+import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.model.Segment;
+import org.example.vkedupractice.repository.SegmentRepository;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Переименование сегмента одновременно с порцией асинхронного распределения на встроенном PostgreSQL
+ * (профиль postgresql). Порция блокирует строку сегмента (addMembers), затем голову журнала; переименование
+ * должно брать их в том же порядке, иначе PostgreSQL прерывает одну из транзакций с 40P01.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.NONE,
+        properties = {
+                "SERVER_PORT=0",
+                "changes.compaction.interval=1h",
+                "segments.purge.interval=1h",
+                "segments.counters.reconcile-interval=1h"
+        })
+@ActiveProfiles({"test", "postgresql"})
+@DirtiesContext
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class SegmentRenameLockOrderTest {
+
+    private static final int USERS = 2000;
+
+    private static final EmbeddedPostgres postgres = startPostgres();
+
+    @Autowired
+    private SegmentService segmentService;
+
+    @Autowired
+    private SegmentRepository segmentRepository;
+
+    @Autowired
+    private MembershipChangeLog membershipChangeLog;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @DynamicPropertySource
+    static void datasource(DynamicPropertyRegistry registry) {
+        registry.add("spring.datasource.url", () -> postgres.getJdbcUrl("postgres", "postgres"));
+        registry.add("spring.datasource.username", () -> "postgres");
+        registry.add("spring.datasource.password", () -> "");
+    }
+
+    @BeforeAll
+    void seed() {
+        Timestamp now = Timestamp.valueOf(LocalDateTime.now());
+        List<Object[]> rows = new ArrayList<>();
+        for (int i = 1; i <= USERS; i++) {
+            rows.add(new Object[]{"rename_user" + i, "rename_user" + i + "@example.com", now});
+        }
+        jdbcTemplate.batchUpdate("INSERT INTO users (username, email, created_at) VALUES (?, ?, ?)", rows);
+    }
+
+    @AfterAll
+    void stopPostgres() throws IOException {
+        postgres.close();
+    }
+
+    @Test
+    void renameDuringChunkInsert_ShouldNotDeadlock() throws Exception {
+        // Создание с участниками заводит строку головы журнала
+        SegmentDto segment = segmentService.createSegment(
+                CreateSegmentRequest.builder().name("LOCK_ORDER").percentage(10).build());
+        long maxUserId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM users", Long.class);
+        TransactionTemplate transaction = new TransactionTemplate(transactionManager);
+        CountDownLatch segmentLocked = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // Порция как в SegmentJobService: вставка, счетчик (блокирует строку сегмента), затем журнал
+            Future<Integer> chunk = executor.submit(() -> transaction.execute(status -> {
+                int inserted = segmentRepository.insertRandomMembersInRange(segment.getId(), 0L, maxUserId, 500);
+                segmentRepository.addMembers(segment.getId(), inserted);
+                segmentLocked.countDown();
+                // Переименование успевает дойти до своей блокировки
+                sleep(1000);
+                Segment entity = segmentRepository.findById(segment.getId()).orElseThrow();
+                membershipChangeLog.recordMembersAdded(entity, 0L, maxUserId);
+                return inserted;
+            }));
+            assertTrue(segmentLocked.await(10, TimeUnit.SECONDS));
+            Future<SegmentDto> rename = executor.submit(() ->
+                    segmentService.updateSegment(segment.getId(), "LOCK_ORDER_RENAMED", null));
+
+            int inserted = chunk.get(30, TimeUnit.SECONDS);
+            assertEquals("LOCK_ORDER_RENAMED", rename.get(30, TimeUnit.SECONDS).getName());
+            assertTrue(inserted > 0);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Переименование закоммичено после порции: его запись в журнале последняя
+        assertEquals("SEGMENT_RENAMED", jdbcTemplate.queryForObject(
+                "SELECT change_type FROM membership_changes WHERE segment_id = ? ORDER BY id DESC LIMIT 1",
+                String.class, segment.getId()));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static EmbeddedPostgres startPostgres() {
+        try {
+            return EmbeddedPostgres.builder().start();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -1,17 +1,28 @@
 package org.example.vkedupractice.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.vkedupractice.cache.UserLookupCache;
+import org.example.vkedupractice.changes.MembershipChangeLog;
 import org.example.vkedupractice.dto.CreateSegmentRequest;
 import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.metrics.SegmentMetrics;
 import org.example.vkedupractice.model.Segment;
+import org.example.vkedupractice.model.SegmentKind;
 import org.example.vkedupractice.model.User;
+import org.example.vkedupractice.purge.SegmentPurger;
+import org.example.vkedupractice.repository.SegmentProjectionRepository;
 import org.example.vkedupractice.repository.SegmentRepository;
 import org.example.vkedupractice.repository.UserRepository;
+import org.example.vkedupractice.version.MembershipVersions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.time.LocalDateTime;
 import java.util.*;
@@ -26,9 +37,32 @@ class SegmentServiceTest {
     @Mock
     private SegmentRepository segmentRepository;
 
+    @Mock
+    private SegmentProjectionRepository segmentProjectionRepository;
+
     @Mock
     private UserRepository userRepository;
 
+    @Mock
+    private MembershipIndex membershipIndex;
+
+    @Mock
+    private UserLookupCache userLookupCache;
+
+    @Mock
+    private SegmentPurger segmentPurger;
+
+    @Mock
+    private MembershipChangeLog membershipChangeLog;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private SegmentMetrics segmentMetrics = new SegmentMetrics(meterRegistry);
+
+    @Mock
+    private MembershipVersions membershipVersions;
+
     @InjectMocks
     private SegmentService segmentService;
 
@@ -61,24 +95,19 @@ class SegmentServiceTest {
     }
 
     @Test
-    void getAllSegments_ShouldReturnAllSegments() {
-        List<Segment> segments = Arrays.asList(testSegment);
-        when(segmentRepository.findAll()).thenReturn(segments);
+    void getAllSegments_ShouldReturnProjections() {
+        SegmentDto dto = SegmentDto.from(testSegment);
+        when(segmentProjectionRepository.findAll()).thenReturn(List.of(dto));
 
         List<SegmentDto> result = segmentService.getAllSegments();
 
-        assertNotNull(result);
-        assertEquals(1, result.size());
-        assertEquals(testSegment.getId(), result.get(0).getId());
-        assertEquals(testSegment.getName(), result.get(0).getName());
-        assertEquals(testSegment.getDescription(), result.get(0).getDescription());
-
-        verify(segmentRepository).findAll();
+        assertEquals(List.of(dto), result);
+        verify(segmentRepository, never()).findAll();
     }
 
     @Test
     void getSegmentById_WhenSegmentExists_ShouldReturnSegment() {
-        when(segmentRepository.findById(1L)).thenReturn(Optional.of(testSegment));
+        when(segmentProjectionRepository.findById(1L)).thenReturn(Optional.of(SegmentDto.from(testSegment)));
 
         Optional<SegmentDto> result = segmentService.getSegmentById(1L);
 
@@ -86,29 +115,29 @@ class SegmentServiceTest {
         assertEquals(testSegment.getId(), result.get().getId());
         assertEquals(testSegment.getName(), result.get().getName());
 
-        verify(segmentRepository).findById(1L);
+        verify(segmentRepository, never()).findById(anyLong());
     }
 
     @Test
     void getSegmentById_WhenSegmentNotExists_ShouldReturnEmpty() {
-        when(segmentRepository.findById(999L)).thenReturn(Optional.empty());
+        when(segmentProjectionRepository.findById(999L)).thenReturn(Optional.empty());
 
         Optional<SegmentDto> result = segmentService.getSegmentById(999L);
 
         assertFalse(result.isPresent());
-        verify(segmentRepository).findById(999L);
+        verify(segmentProjectionRepository).findById(999L);
     }
 
     @Test
     void getSegmentByName_WhenSegmentExists_ShouldReturnSegment() {
-        when(segmentRepository.findByName("TEST_SEGMENT")).thenReturn(Optional.of(testSegment));
+        when(segmentProjectionRepository.findByName("TEST_SEGMENT")).thenReturn(Optional.of(SegmentDto.from(testSegment)));
 
         Optional<SegmentDto> result = segmentService.getSegmentByName("TEST_SEGMENT");
 
         assertTrue(result.isPresent());
         assertEquals(testSegment.getName(), result.get().getName());
 
-        verify(segmentRepository).findByName("TEST_SEGMENT");
+        verify(segmentRepository, never()).findByName(anyString());
     }
 
     @Test
@@ -121,26 +150,100 @@ class SegmentServiceTest {
                 .build();
         when(segmentRepository.save(any(Segment.class))).thenReturn(savedSegment);
         when(segmentRepository.findById(1L)).thenReturn(Optional.of(savedSegment));
-        when(userRepository.findAllWithSegments()).thenReturn(Arrays.asList(testUser));
+        when(userRepository.countAllUsers()).thenReturn(10L);
+        when(segmentRepository.lockMemberCount(1L)).thenReturn(Optional.of(0L));
+        when(segmentRepository.insertRandomMembers(1L, 3)).thenReturn(3);
 
         SegmentDto result = segmentService.createSegment(createRequest);
 
         assertNotNull(result);
         assertEquals(savedSegment.getId(), result.getId());
         assertEquals(savedSegment.getName(), result.getName());
+        assertEquals(3L, result.getMemberCount());
 
         verify(segmentRepository).save(any(Segment.class));
         verify(segmentRepository).findById(1L);
-        verify(userRepository).findAllWithSegments();
+        verify(segmentRepository).insertRandomMembers(1L, 3);
+        verify(segmentRepository).addMembers(1L, 3);
+        verify(userRepository, never()).findAllWithSegments();
+        verify(membershipIndex, atLeastOnce()).segmentChanged(1L, true);
+        verify(membershipChangeLog).recordMembersAdded(savedSegment);
+    }
+
+    @Test
+    void assignSegmentToRandomUsers_WhenPartiallyAssigned_ShouldTopUpOnly() {
+        when(userRepository.countAllUsers()).thenReturn(10L);
+        when(segmentRepository.lockMemberCount(1L)).thenReturn(Optional.of(2L));
+        when(segmentRepository.insertRandomMembers(1L, 3)).thenReturn(3);
+
+        segmentService.assignSegmentToRandomUsers(testSegment, 50);
+
+        verify(segmentRepository).insertRandomMembers(1L, 3);
+        verify(segmentRepository).addMembers(1L, 3);
+        verify(segmentRepository, never()).countUsersInSegment(anyString());
+        assertEquals(5L, testSegment.getMemberCount());
+        verify(userLookupCache).onMembersAdded(testSegment);
+        assertEquals(2, meterRegistry.get(SegmentMetrics.ASSIGNMENT_PHASE)
+                .tag("mode", "SQL").tag("phase", "count").timer().count());
+        assertEquals(1, meterRegistry.get(SegmentMetrics.ASSIGNMENT_PHASE)
+                .tag("mode", "SQL").tag("phase", "insert").timer().count());
+    }
+
+    @Test
+    void assignSegmentToRandomUsers_WhenTargetReached_ShouldNotInsert() {
+        when(userRepository.countAllUsers()).thenReturn(10L);
+        when(segmentRepository.lockMemberCount(1L)).thenReturn(Optional.of(5L));
+
+        segmentService.assignSegmentToRandomUsers(testSegment, 50);
+
+        verify(segmentRepository, never()).insertRandomMembers(anyLong(), anyInt());
+        verify(segmentRepository, never()).addMembers(anyLong(), anyLong());
+        verifyNoInteractions(userLookupCache);
+        verifyNoInteractions(membershipChangeLog);
+    }
+
+    @Test
+    void assignSegmentToRandomUsers_InEntityMode_ShouldUseInMemoryPath() {
+        ReflectionTestUtils.setField(segmentService, "assignmentMode", AssignmentMode.ENTITY);
+        when(userRepository.findAllWithSegments()).thenReturn(Arrays.asList(testUser));
+        when(segmentRepository.lockMemberCount(1L)).thenReturn(Optional.of(0L));
+
+        segmentService.assignSegmentToRandomUsers(testSegment, 100);
+
+        assertTrue(testUser.getSegments().contains(testSegment));
+        verify(userRepository).saveAll(anyList());
+        verify(segmentRepository).addMembers(1L, 1);
+        verify(segmentRepository, never()).insertRandomMembers(anyLong(), anyInt());
+        verify(membershipChangeLog).recordMembersAdded(testSegment);
+        for (String phase : List.of("load", "count", "filter", "shuffle", "save")) {
+            assertEquals(1, meterRegistry.get(SegmentMetrics.ASSIGNMENT_PHASE)
+                    .tag("mode", "ENTITY").tag("phase", phase).timer().count(), phase);
+        }
+    }
+
+    @Test
+    void assignSegmentToRandomUsers_WhenPercentageInvalid_ShouldThrowException() {
+        assertThrows(IllegalArgumentException.class,
+                () -> segmentService.assignSegmentToRandomUsers(testSegment, 101));
     }
 
     @Test
     void createSegment_WhenSegmentExists_ShouldReturnDto() {
-        CreateSegmentRequest req = new CreateSegmentRequest("NEW_SEGMENT", "desc", 0);
-        Segment saved = new Segment(1L, "NEW_SEGMENT", "desc", now(), Set.of());
+        CreateSegmentRequest req = CreateSegmentRequest.builder()
+                .name("NEW_SEGMENT")
+                .description("desc")
+                .percentage(0)
+                .build();
+        Segment saved = Segment.builder()
+                .id(1L)
+                .name("NEW_SEGMENT")
+                .description("desc")
+                .createdAt(now())
+                .users(Set.of())
+                .build();
         when(segmentRepository.save(any())).thenReturn(saved);
         when(segmentRepository.findById(1L)).thenReturn(Optional.of(saved));
-        when(userRepository.findAllWithSegments()).thenReturn(Collections.emptyList());
+        when(userRepository.countAllUsers()).thenReturn(0L);
 
         SegmentDto result = segmentService.createSegment(req);
 
@@ -149,6 +252,49 @@ class SegmentServiceTest {
         verify(segmentRepository).findById(1L);
     }
 
+    @Test
+    void createSegment_WhenHashBucket_ShouldNotMaterializeMembers() {
+        CreateSegmentRequest req = CreateSegmentRequest.builder()
+                .name("HASH_SEGMENT")
+                .percentage(25)
+                .kind(SegmentKind.HASH_BUCKET)
+                .build();
+        when(segmentRepository.save(any(Segment.class))).thenAnswer(inv -> {
+            Segment segment = inv.getArgument(0);
+            segment.setId(2L);
+            return segment;
+        });
+
+        SegmentDto result = segmentService.createSegment(req);
+
+        assertEquals(SegmentKind.HASH_BUCKET, result.getKind());
+        assertEquals(25, result.getPercentage());
+        verify(segmentRepository).save(argThat(s -> s.isHashBucket() && s.getSalt() != null));
+        verify(segmentRepository, never()).insertRandomMembers(anyLong(), anyInt());
+        verify(userRepository, never()).countAllUsers();
+        verify(membershipIndex).segmentChanged(2L, true);
+        verify(membershipChangeLog).recordHashSegmentCreated(argThat(s -> s.getId() == 2L));
+        verify(membershipChangeLog, never()).recordMembersAdded(any(Segment.class));
+    }
+
+    @Test
+    void getUsersInSegmentCount_WhenHashBucket_ShouldReturnEstimate() {
+        Segment hashSegment = Segment.builder()
+                .id(2L)
+                .name("HASH_SEGMENT")
+                .kind(SegmentKind.HASH_BUCKET)
+                .percentage(25)
+                .salt(42L)
+                .build();
+        when(segmentRepository.findByName("HASH_SEGMENT")).thenReturn(Optional.of(hashSegment));
+        when(userRepository.countAllUsers()).thenReturn(1000L);
+
+        long result = segmentService.getUsersInSegmentCount("HASH_SEGMENT");
+
+        assertEquals(250L, result);
+        verify(segmentRepository, never()).countUsersInSegment(anyString());
+    }
+
     @Test
     void updateSegment_WhenSegmentExists_ShouldUpdateSegment() {
         when(segmentRepository.findById(1L)).thenReturn(Optional.of(testSegment));
@@ -163,6 +309,33 @@ class SegmentServiceTest {
         verify(segmentRepository).findById(1L);
         verify(segmentRepository).existsByName("UPDATED_SEGMENT");
         verify(segmentRepository).save(any(Segment.class));
+        verify(membershipIndex).segmentChanged(1L, false);
+        verify(userLookupCache).onSegmentRenamed("TEST_SEGMENT");
+        // Строка сегмента блокируется раньше головы журнала
+        var order = inOrder(segmentRepository, membershipChangeLog);
+        order.verify(segmentRepository).incrementVersion(1L);
+        order.verify(membershipChangeLog).recordSegmentRenamed(testSegment, "TEST_SEGMENT");
+    }
+
+    @Test
+    void updateSegment_WhenNothingChanges_ShouldKeepVersion() {
+        when(segmentRepository.findById(1L)).thenReturn(Optional.of(testSegment));
+        when(segmentRepository.save(any(Segment.class))).thenReturn(testSegment);
+
+        segmentService.updateSegment(1L, testSegment.getName(), testSegment.getDescription());
+
+        verify(segmentRepository, never()).incrementVersion(anyLong());
+    }
+
+    @Test
+    void updateSegment_WhenOnlyDescriptionChanges_ShouldNotInvalidateCache() {
+        when(segmentRepository.findById(1L)).thenReturn(Optional.of(testSegment));
+        when(segmentRepository.save(any(Segment.class))).thenReturn(testSegment);
+
+        segmentService.updateSegment(1L, null, "Updated description");
+
+        verifyNoInteractions(userLookupCache);
+        verifyNoInteractions(membershipChangeLog);
     }
 
     @Test
@@ -188,8 +361,17 @@ class SegmentServiceTest {
         segmentService.deleteSegment(1L);
 
         verify(segmentRepository).findById(1L);
-        verify(userRepository).save(testUser);
-        verify(segmentRepository).delete(segmentToDelete);
+        verify(segmentRepository).save(segmentToDelete);
+        assertTrue(segmentToDelete.isDeleted());
+        assertNotNull(segmentToDelete.getDeletedAt());
+        assertEquals("TEST_SEGMENT", segmentToDelete.getDeletedName());
+        assertNotEquals("TEST_SEGMENT", segmentToDelete.getName());
+        // Участники не загружаются и не сохраняются по одному: строки user_segments удаляет SegmentPurger
+        verifyNoInteractions(userRepository);
+        verify(segmentRepository, never()).delete(any(Segment.class));
+        verify(membershipIndex).segmentChanged(1L, true);
+        verify(userLookupCache).onSegmentDeleted("TEST_SEGMENT");
+        verify(membershipChangeLog).recordSegmentDeleted(1L, "TEST_SEGMENT");
     }
     @Test
     void deleteSegment_WhenSegmentNotExists_ShouldThrowException() {
@@ -201,12 +383,58 @@ class SegmentServiceTest {
     }
 
     @Test
-    void getUsersInSegmentCount_ShouldReturnCorrectCount() {
-        when(segmentRepository.countUsersInSegment("TEST_SEGMENT")).thenReturn(5L);
+    void getUsersInSegmentCount_ShouldReadMaintainedCounter() {
+        testSegment.setMemberCount(5L);
+        when(segmentRepository.findByName("TEST_SEGMENT")).thenReturn(Optional.of(testSegment));
 
         long result = segmentService.getUsersInSegmentCount("TEST_SEGMENT");
 
         assertEquals(5L, result);
-        verify(segmentRepository).countUsersInSegment("TEST_SEGMENT");
+        verify(segmentRepository, never()).countUsersInSegment(anyString());
+    }
+
+    @Test
+    void getUsersInSegmentCount_WhenSegmentUnknown_ShouldReturnZero() {
+        when(segmentRepository.findByName("UNKNOWN")).thenReturn(Optional.empty());
+
+        assertEquals(0L, segmentService.getUsersInSegmentCount("UNKNOWN"));
+    }
+
+    @Test
+    void assignSegmentToRandomUsers_WhenSegmentDeletedMeanwhile_ShouldThrow() {
+        when(userRepository.countAllUsers()).thenReturn(10L);
+        when(segmentRepository.lockMemberCount(1L)).thenReturn(Optional.empty());
+
+        assertThrows(RuntimeException.class, () -> segmentService.assignSegmentToRandomUsers(testSegment, 50));
+        verify(segmentRepository, never()).insertRandomMembers(anyLong(), anyInt());
+    }
+
+    @Test
+    void getUsersInSegmentCount_WhenIndexReady_ShouldNotQueryDatabase() {
+        when(membershipIndex.isReady()).thenReturn(true);
+        when(membershipIndex.countMembers("TEST_SEGMENT")).thenReturn(Optional.of(7L));
+
+        long result = segmentService.getUsersInSegmentCount("TEST_SEGMENT");
+
+        assertEquals(7L, result);
+        verifyNoInteractions(segmentRepository);
+    }
+
+    @Test
+    void isUserInSegment_WhenIndexReady_ShouldUseIndex() {
+        when(membershipIndex.isReady()).thenReturn(true);
+        when(membershipIndex.isMember("TEST_SEGMENT", 1L)).thenReturn(true);
+
+        assertTrue(segmentService.isUserInSegment("TEST_SEGMENT", 1L));
+        verifyNoInteractions(segmentRepository);
+    }
+
+    @Test
+    void isUserInSegment_WhenIndexNotReady_ShouldQueryDatabase() {
+        when(segmentRepository.findByName("TEST_SEGMENT")).thenReturn(Optional.of(testSegment));
+        when(segmentRepository.isUserInSegment("TEST_SEGMENT", 1L)).thenReturn(true);
+
+        assertTrue(segmentService.isUserInSegment("TEST_SEGMENT", 1L));
+        verify(segmentRepository).isUserInSegment("TEST_SEGMENT", 1L);
     }
 }
@@ -0,0 +1,151 @@
+package org.example.vkedupractice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.vkedupractice.dto.UserImportResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UserImportServiceTest {
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private UserImportService userImportService;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        // CHECK на email есть только в тесте: нарушение, которое не отсеивается заранее,
+        // проверяет построчный повтор порции
+        jdbcTemplate.execute("CREATE TABLE users (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+                + "username VARCHAR(255) NOT NULL UNIQUE, email VARCHAR(255) NOT NULL CHECK (email LIKE '%@%'), "
+                + "created_at TIMESTAMP)");
+        jdbcTemplate.update("INSERT INTO users (username, email) VALUES ('existing', 'existing@example.com')");
+
+        meterRegistry = new SimpleMeterRegistry();
+        userImportService = new UserImportService(jdbcTemplate, new DataSourceTransactionManager(database),
+                new ObjectMapper(), meterRegistry, 2, 10);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void importUsers_FromNdjson_ShouldInsertInChunksAndRejectBadRows() throws IOException {
+        String body = """
+                {"username":"alice","email":"alice@example.com"}
+                {"username":"bob","email":"bob@example.com"}
+
+                {"username":"existing","email":"other@example.com"}
+                not json
+                {"username":"carol"}
+                {"username":"dave","email":"dave@example.com"}
+                {"username":"alice","email":"alice2@example.com"}
+                """;
+
+        UserImportResult result = userImportService.importUsers(stream(body), UserImportService.Format.NDJSON, null);
+
+        assertEquals(7, result.getReceived());
+        assertEquals(3, result.getImported());
+        assertEquals(4, result.getRejected());
+        assertEquals(List.of(
+                new UserImportResult.Reject(5, null, "invalid JSON"),
+                new UserImportResult.Reject(6, "carol", "email is required"),
+                new UserImportResult.Reject(4, "existing", "duplicate username"),
+                new UserImportResult.Reject(8, "alice", "duplicate username")), result.getRejects());
+        assertEquals(4L, count());
+        assertEquals(3.0, meterRegistry.get("users.import.rows").tag("result", "imported").counter().count());
+    }
+
+    @Test
+    void importUsers_FromCsv_ShouldSkipHeaderAndHandleQuotes() throws IOException {
+        String body = "username,email\n"
+                + "\"smith, john\",john@example.com\n"
+                + "\"quote\"\"d\",q@example.com\n"
+                + "broken\n";
+
+        UserImportResult result = userImportService.importUsers(stream(body), UserImportService.Format.CSV, null);
+
+        assertEquals(3, result.getReceived());
+        assertEquals(2, result.getImported());
+        assertEquals(List.of(new UserImportResult.Reject(4, null, "expected 2 CSV columns: username,email")),
+                result.getRejects());
+        assertEquals("john@example.com", jdbcTemplate.queryForObject(
+                "SELECT email FROM users WHERE username = 'smith, john'", String.class));
+        assertEquals(1, jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM users WHERE username = 'quote\"d'", Integer.class));
+    }
+
+    @Test
+    void importUsers_WhenBatchFails_ShouldRetryRowByRowAndRejectOnlyConflicts() throws IOException {
+        String body = "u1,u1@example.com\n"
+                + "u2,not-an-email\n"
+                + "u3,u3@example.com\n";
+
+        UserImportResult result = userImportService.importUsers(stream(body), UserImportService.Format.CSV, 3);
+
+        assertEquals(2, result.getImported());
+        assertEquals(1, result.getRejected());
+        assertEquals("u2", result.getRejects().get(0).getUsername());
+        assertTrue(result.getRejects().get(0).getReason().startsWith("rejected by database"));
+        assertEquals(3L, count());
+    }
+
+    @Test
+    void importUsers_WhenManyRejects_ShouldTruncateReportButCountAll() throws IOException {
+        String body = String.join("\n", Collections.nCopies(15, "{\"username\":\"\"}"));
+
+        UserImportResult result = userImportService.importUsers(stream(body), UserImportService.Format.NDJSON, null);
+
+        assertEquals(15, result.getRejected());
+        assertEquals(10, result.getRejects().size());
+        assertTrue(result.isRejectsTruncated());
+    }
+
+    @Test
+    void importUsers_ShouldReadInputAsStream() throws IOException {
+        // 10 000 строк, выдаваемых по одной: весь файл в памяти не собирается
+        InputStream body = new SequenceInputStream(Collections.enumeration(IntStream.rangeClosed(1, 10_000)
+                .mapToObj(i -> stream("user" + i + ",user" + i + "@example.com\n"))
+                .toList()));
+
+        UserImportResult result = userImportService.importUsers(body, UserImportService.Format.CSV, 1000);
+
+        assertEquals(10_000, result.getImported());
+        assertEquals(10, result.getChunks());
+        assertTrue(result.getRowsPerSecond() > 0);
+        assertEquals(10_001L, count());
+    }
+
+    private long count() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM users", Long.class);
+    }
+
+    private static InputStream stream(String body) {
+        return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -1,19 +1,35 @@
 package org.example.vkedupractice.service;
 
+import org.example.vkedupractice.cache.UserLookupCache;
+import org.example.vkedupractice.dto.BatchUserSegmentsResponse;
+import org.example.vkedupractice.dto.SegmentMemberDto;
 import org.example.vkedupractice.dto.UserDto;
+import org.example.vkedupractice.dto.UserPage;
 import org.example.vkedupractice.dto.UserSegmentsResponse;
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.model.HashBuckets;
 import org.example.vkedupractice.model.Segment;
+import org.example.vkedupractice.model.SegmentKind;
 import org.example.vkedupractice.model.User;
+import org.example.vkedupractice.repository.SegmentProjectionRepository;
+import org.example.vkedupractice.repository.SegmentRepository;
+import org.example.vkedupractice.repository.UserProjectionRepository;
 import org.example.vkedupractice.repository.UserRepository;
+import org.example.vkedupractice.repository.UserStreamRepository;
+import org.example.vkedupractice.version.MembershipVersions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Limit;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -24,6 +40,27 @@ class UserServiceTest {
     @Mock
     private UserRepository userRepository;
 
+    @Mock
+    private SegmentRepository segmentRepository;
+
+    @Mock
+    private MembershipIndex membershipIndex;
+
+    @Mock
+    private UserStreamRepository userStreamRepository;
+
+    @Mock
+    private UserProjectionRepository userProjectionRepository;
+
+    @Mock
+    private SegmentProjectionRepository segmentProjectionRepository;
+
+    @Mock
+    private UserLookupCache userLookupCache;
+
+    @Mock
+    private MembershipVersions membershipVersions;
+
     @InjectMocks
     private UserService userService;
 
@@ -31,7 +68,13 @@ class UserServiceTest {
     private Segment testSegment;
 
     @BeforeEach
+    @SuppressWarnings("unchecked")
     void setUp() {
+        lenient().when(userLookupCache.getUser(anyLong(), any()))
+                .thenAnswer(inv -> ((Supplier<Optional<UserDto>>) inv.getArgument(1)).get());
+        lenient().when(userLookupCache.getUserSegments(anyLong(), any()))
+                .thenAnswer(inv -> ((Supplier<UserSegmentsResponse>) inv.getArgument(1)).get());
+
         testSegment = Segment.builder()
                 .id(1L)
                 .name("TEST_SEGMENT")
@@ -50,8 +93,7 @@ class UserServiceTest {
 
     @Test
     void getAllUsers_ShouldReturnAllUsers() {
-        List<User> users = Arrays.asList(testUser);
-        when(userRepository.findAllWithSegments()).thenReturn(users);
+        when(userProjectionRepository.findAll()).thenReturn(List.of(dto(testUser)));
 
         List<UserDto> result = userService.getAllUsers();
 
@@ -62,12 +104,65 @@ class UserServiceTest {
         assertEquals(testUser.getEmail(), result.get(0).getEmail());
         assertTrue(result.get(0).getSegmentNames().contains(testSegment.getName()));
         
-        verify(userRepository).findAllWithSegments();
+        verify(userRepository, never()).findAllWithSegments();
+    }
+
+    @Test
+    void getUsersPage_WhenPageIsFull_ShouldReturnNextCursor() {
+        User second = User.builder().id(2L).username("second").email("second@example.com").build();
+        when(userRepository.findIdsAfter(0L, Limit.of(2))).thenReturn(List.of(1L, 2L));
+        when(userProjectionRepository.findByIds(List.of(1L, 2L))).thenReturn(List.of(dto(testUser), dto(second)));
+
+        UserPage page = userService.getUsersPage(null, 2);
+
+        assertEquals(List.of(1L, 2L), page.getItems().stream().map(UserDto::getId).toList());
+        assertEquals(2L, page.getNextCursor());
+        verify(userRepository, never()).findAllWithSegments();
+    }
+
+    @Test
+    void getUsersPage_WhenLastPage_ShouldNotReturnCursor() {
+        when(userRepository.findIdsAfter(1L, Limit.of(100))).thenReturn(List.of(2L));
+        when(userProjectionRepository.findByIds(List.of(2L)))
+                .thenReturn(List.of(dto(User.builder().id(2L).username("second").build())));
+
+        UserPage page = userService.getUsersPage(1L, null);
+
+        assertEquals(1, page.getItems().size());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    void getUsersPage_ShouldCapLimit() {
+        when(userRepository.findIdsAfter(0L, Limit.of(1000))).thenReturn(List.of());
+
+        UserPage page = userService.getUsersPage(null, 1_000_000);
+
+        assertTrue(page.getItems().isEmpty());
+        assertNull(page.getNextCursor());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void streamAllUsers_ShouldAddHashBucketSegments() {
+        Segment everyone = hashSegment("HASH_ALL", 100);
+        when(segmentProjectionRepository.findHashBuckets()).thenReturn(List.of(everyone));
+        doAnswer(inv -> {
+            Consumer<UserDto> consumer = inv.getArgument(0);
+            consumer.accept(UserDto.builder().id(1L).segmentNames(new HashSet<>(Set.of("TEST_SEGMENT"))).build());
+            return null;
+        }).when(userStreamRepository).forEachUserWithSegments(any());
+
+        List<UserDto> streamed = new ArrayList<>();
+        userService.streamAllUsers(streamed::add);
+
+        assertEquals(1, streamed.size());
+        assertEquals(Set.of("TEST_SEGMENT", "HASH_ALL"), streamed.get(0).getSegmentNames());
     }
 
     @Test
     void getUserById_WhenUserExists_ShouldReturnUser() {
-        when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+        when(userProjectionRepository.findById(1L)).thenReturn(Optional.of(dto(testUser)));
 
         Optional<UserDto> result = userService.getUserById(1L);
 
@@ -76,22 +171,22 @@ class UserServiceTest {
         assertEquals(testUser.getUsername(), result.get().getUsername());
         assertEquals(testUser.getEmail(), result.get().getEmail());
         
-        verify(userRepository).findById(1L);
+        verify(userProjectionRepository).findById(1L);
     }
 
     @Test
     void getUserById_WhenUserNotExists_ShouldReturnEmpty() {
-        when(userRepository.findById(999L)).thenReturn(Optional.empty());
+        when(userProjectionRepository.findById(999L)).thenReturn(Optional.empty());
 
         Optional<UserDto> result = userService.getUserById(999L);
 
         assertFalse(result.isPresent());
-        verify(userRepository).findById(999L);
+        verify(userProjectionRepository).findById(999L);
     }
 
     @Test
     void getUserSegments_WhenUserExists_ShouldReturnUserSegments() {
-        when(userRepository.findById(1L)).thenReturn(Optional.of(testUser));
+        when(userProjectionRepository.findById(1L)).thenReturn(Optional.of(dto(testUser)));
 
         UserSegmentsResponse result = userService.getUserSegments(1L);
 
@@ -100,15 +195,62 @@ class UserServiceTest {
         assertEquals(testUser.getUsername(), result.getUsername());
         assertTrue(result.getSegments().contains(testSegment.getName()));
         
-        verify(userRepository).findById(1L);
+        verify(userProjectionRepository).findById(1L);
+    }
+
+    @Test
+    void getUserSegments_ShouldGoThroughCache() {
+        UserSegmentsResponse cached = new UserSegmentsResponse(1L, "cached", Set.of("CACHED"));
+        doReturn(cached).when(userLookupCache).getUserSegments(eq(1L), any());
+
+        UserSegmentsResponse result = userService.getUserSegments(1L);
+
+        assertSame(cached, result);
+        verifyNoInteractions(userRepository, userProjectionRepository);
     }
 
     @Test
     void getUserSegments_WhenUserNotExists_ShouldThrowException() {
-        when(userRepository.findById(999L)).thenReturn(Optional.empty());
+        when(userProjectionRepository.findById(999L)).thenReturn(Optional.empty());
+
+        assertThrows(RuntimeException.class, () -> userService.getUserSegments(999L));
+        verify(userProjectionRepository).findById(999L);
+    }
+
+    @Test
+    void getUserSegments_WhenIndexReady_ShouldNotLoadEntity() {
+        when(membershipIndex.isReady()).thenReturn(true);
+        when(userRepository.findUsernameById(1L)).thenReturn(Optional.of("testuser"));
+        when(membershipIndex.segmentNamesOf(1L)).thenReturn(Set.of("TEST_SEGMENT"));
+
+        UserSegmentsResponse result = userService.getUserSegments(1L);
+
+        assertEquals("testuser", result.getUsername());
+        assertEquals(Set.of("TEST_SEGMENT"), result.getSegments());
+        verify(userProjectionRepository, never()).findById(anyLong());
+    }
+
+    @Test
+    void getUserSegments_ShouldCarryVersionReadBeforeLoading() {
+        when(membershipVersions.userSegments(1L)).thenReturn("1-1-abc");
+        when(membershipIndex.isReady()).thenReturn(true);
+        when(userRepository.findUsernameById(1L)).thenReturn(Optional.of("testuser"));
+        when(membershipIndex.segmentNamesOf(1L)).thenReturn(Set.of("TEST_SEGMENT"));
+
+        UserSegmentsResponse result = userService.getUserSegments(1L);
+
+        assertEquals("1-1-abc", result.getVersion());
+        var order = inOrder(membershipVersions, membershipIndex);
+        order.verify(membershipVersions).userSegments(1L);
+        order.verify(membershipIndex).segmentNamesOf(1L);
+    }
+
+    @Test
+    void getUserSegments_WhenIndexReadyAndUserNotExists_ShouldThrowException() {
+        when(membershipIndex.isReady()).thenReturn(true);
+        when(userRepository.findUsernameById(999L)).thenReturn(Optional.empty());
 
         assertThrows(RuntimeException.class, () -> userService.getUserSegments(999L));
-        verify(userRepository).findById(999L);
     }
 
     @Test
@@ -128,9 +270,8 @@ class UserServiceTest {
                 .segments(new HashSet<>(Arrays.asList(segment)))
                 .build();
 
-        List<User> usersInSegment = Collections.singletonList(userInSegment);
-        when(userRepository.findUsersBySegmentNameWithSegments("TEST_SEGMENT"))
-                .thenReturn(usersInSegment);
+        when(userProjectionRepository.findBySegmentName("TEST_SEGMENT"))
+                .thenReturn(List.of(dto(userInSegment)));
 
         List<UserDto> result = userService.getUsersBySegment("TEST_SEGMENT");
 
@@ -138,7 +279,139 @@ class UserServiceTest {
         assertEquals(1, result.size());
         assertEquals(userInSegment.getId(), result.get(0).getId());
 
-        verify(userRepository).findUsersBySegmentNameWithSegments("TEST_SEGMENT");
+        verify(userProjectionRepository).findBySegmentName("TEST_SEGMENT");
+    }
+
+    @Test
+    void getUserSegments_ShouldIncludeMatchingHashBucketSegments() {
+        Segment everyone = hashSegment("HASH_ALL", 100);
+        Segment nobody = hashSegment("HASH_NONE", 0);
+        when(userProjectionRepository.findById(1L)).thenReturn(Optional.of(dto(testUser)));
+        when(segmentProjectionRepository.findHashBuckets()).thenReturn(Arrays.asList(everyone, nobody));
+
+        UserSegmentsResponse result = userService.getUserSegments(1L);
+
+        assertEquals(Set.of("TEST_SEGMENT", "HASH_ALL"), result.getSegments());
+    }
+
+    @Test
+    void getUsersBySegment_WhenHashBucket_ShouldNotUseJoinTable() {
+        Segment segment = hashSegment("HASH_HALF", 50);
+        List<Long> ids = new ArrayList<>();
+        for (long id = 1; id <= 200; id++) {
+            ids.add(id);
+        }
+        List<Long> expectedIds = ids.stream()
+                .filter(id -> HashBuckets.contains(id, segment.getSalt(), 50))
+                .toList();
+        when(segmentProjectionRepository.findHashBuckets()).thenReturn(List.of(segment));
+        when(userRepository.findAllIds()).thenReturn(ids);
+        when(userProjectionRepository.findByIds(expectedIds)).thenReturn(expectedIds.stream()
+                .map(id -> dto(User.builder().id(id).username("u" + id).build()))
+                .toList());
+
+        List<UserDto> result = userService.getUsersBySegment("HASH_HALF");
+
+        assertEquals(expectedIds.size(), result.size());
+        assertTrue(result.stream().allMatch(u -> u.getSegmentNames().contains("HASH_HALF")));
+        verify(userProjectionRepository, never()).findBySegmentName(anyString());
+    }
+
+    @Test
+    void getUserSegmentsBatch_ShouldResolveWithSingleQueryAndReportMissing() {
+        when(userRepository.findSegmentNamesByUserIdIn(List.of(1L, 2L, 999L))).thenReturn(List.of(
+                new Object[]{1L, "testuser", "TEST_SEGMENT"},
+                new Object[]{1L, "testuser", "OTHER"},
+                new Object[]{2L, "second", null}));
+        when(segmentProjectionRepository.findHashBuckets()).thenReturn(List.of(hashSegment("HASH_ALL", 100)));
+
+        BatchUserSegmentsResponse result = userService.getUserSegmentsBatch(List.of(1L, 2L, 999L, 1L));
+
+        assertEquals(List.of(1L, 2L), result.getUsers().stream().map(UserSegmentsResponse::getUserId).toList());
+        assertEquals(Set.of("TEST_SEGMENT", "OTHER", "HASH_ALL"), result.getUsers().get(0).getSegments());
+        assertEquals(Set.of("HASH_ALL"), result.getUsers().get(1).getSegments());
+        assertEquals(List.of(999L), result.getMissingIds());
+        verify(userRepository, never()).findById(anyLong());
+    }
+
+    @Test
+    void getUserSegmentsBatch_WhenIndexReady_ShouldUseIndex() {
+        when(membershipIndex.isReady()).thenReturn(true);
+        when(userRepository.findUsernamesByIdIn(List.of(1L, 2L)))
+                .thenReturn(List.<Object[]>of(new Object[]{1L, "testuser"}));
+        when(membershipIndex.segmentNamesOf(1L)).thenReturn(Set.of("TEST_SEGMENT"));
+
+        BatchUserSegmentsResponse result = userService.getUserSegmentsBatch(List.of(1L, 2L));
+
+        assertEquals(1, result.getUsers().size());
+        assertEquals(Set.of("TEST_SEGMENT"), result.getUsers().get(0).getSegments());
+        assertEquals(List.of(2L), result.getMissingIds());
+        verify(userRepository, never()).findSegmentNamesByUserIdIn(any());
+    }
+
+    @Test
+    void exportSegmentMembers_WhenMaterialized_ShouldStreamFromJoinTable() {
+        Consumer<SegmentMemberDto> consumer = member -> { };
+        when(segmentRepository.findByName("TEST_SEGMENT")).thenReturn(Optional.of(testSegment));
+
+        userService.exportSegmentMembers("TEST_SEGMENT", true, consumer);
+
+        verify(userStreamRepository).forEachSegmentMember("TEST_SEGMENT", true, consumer);
+        verify(userStreamRepository, never()).forEachUser(anyBoolean(), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void exportSegmentMembers_WhenHashBucket_ShouldFilterByHash() {
+        Segment segment = hashSegment("HASH_HALF", 50);
+        when(segmentRepository.findByName("HASH_HALF")).thenReturn(Optional.of(segment));
+        doAnswer(inv -> {
+            Consumer<SegmentMemberDto> consumer = inv.getArgument(1);
+            for (long id = 1; id <= 100; id++) {
+                consumer.accept(new SegmentMemberDto(id, null));
+            }
+            return null;
+        }).when(userStreamRepository).forEachUser(eq(false), any());
+
+        List<Long> exported = new ArrayList<>();
+        userService.exportSegmentMembers("HASH_HALF", false, member -> exported.add(member.getId()));
+
+        assertFalse(exported.isEmpty());
+        assertTrue(exported.stream().allMatch(segment::containsByHash));
+        verify(userStreamRepository, never()).forEachSegmentMember(anyString(), anyBoolean(), any());
+    }
+
+    @Test
+    void hashBuckets_ShouldBeStableAndRoughlyUniform() {
+        int members = 0;
+        for (long id = 1; id <= 100_000; id++) {
+            assertEquals(HashBuckets.bucket(id, 7L), HashBuckets.bucket(id, 7L));
+            if (HashBuckets.contains(id, 7L, 30)) {
+                members++;
+            }
+        }
+        assertEquals(30_000, members, 1_000);
+    }
+
+    // Строка проекции: материализованные сегменты пользователя в изменяемом множестве
+    private static UserDto dto(User user) {
+        return UserDto.builder()
+                .id(user.getId())
+                .username(user.getUsername())
+                .email(user.getEmail())
+                .createdAt(user.getCreatedAt())
+                .segmentNames(user.getSegments().stream().map(Segment::getName).collect(Collectors.toCollection(HashSet::new)))
+                .build();
+    }
+
+    private Segment hashSegment(String name, int percentage) {
+        return Segment.builder()
+                .id((long) name.hashCode())
+                .name(name)
+                .kind(SegmentKind.HASH_BUCKET)
+                .percentage(percentage)
+                .salt(12345L)
+                .build();
     }
 
     @Test
@@ -0,0 +1,180 @@
+package org.example.vkedupractice.snapshot;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.model.HashBuckets;
+import org.example.vkedupractice.snapshot.reader.MembershipSnapshot;
+import org.example.vkedupractice.snapshot.reader.SnapshotSegment;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MembershipSnapshotTest {
+
+    @TempDir
+    Path directory;
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private SimpleMeterRegistry meterRegistry;
+    private Path file;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE segments (id BIGINT PRIMARY KEY, name VARCHAR(255), "
+                + "kind VARCHAR(32), percentage INT, salt BIGINT, deleted BOOLEAN DEFAULT FALSE NOT NULL, "
+                + "version BIGINT DEFAULT 0 NOT NULL, created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP)");
+        jdbcTemplate.execute("CREATE TABLE user_segments (user_id BIGINT, segment_id BIGINT)");
+        jdbcTemplate.update("INSERT INTO segments (id, name, kind, version) VALUES (1, 'MAIL_GPT', 'MATERIALIZED', 1)");
+        jdbcTemplate.update("INSERT INTO segments (id, name, kind, version) VALUES (2, 'КЛИЕНТЫ', 'MATERIALIZED', 1)");
+        jdbcTemplate.update("INSERT INTO segments (id, name, kind, percentage, salt) VALUES (3, 'HASH_HALF', 'HASH_BUCKET', 50, 7)");
+        jdbcTemplate.update("INSERT INTO segments (id, name, kind, deleted) VALUES (4, 'GONE', 'MATERIALIZED', TRUE)");
+        jdbcTemplate.update("INSERT INTO user_segments VALUES (1, 1), (3, 1), (100000, 1), (3, 2), (1, 4)");
+        meterRegistry = new SimpleMeterRegistry();
+        file = directory.resolve("membership.snap");
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void write_ShouldProduceSnapshotReadableWithoutDatabase() throws IOException {
+        writer(index(false)).write(file);
+
+        try (MembershipSnapshot snapshot = MembershipSnapshot.open(file)) {
+            assertEquals(List.of(1L, 2L, 3L), snapshot.segments().stream().map(SnapshotSegment::id).toList());
+            assertEquals(3, snapshot.segment("MAIL_GPT").orElseThrow().members().getCardinality());
+            assertTrue(snapshot.isMember("MAIL_GPT", 100000L));
+            assertTrue(snapshot.isMember("КЛИЕНТЫ", 3L));
+            assertFalse(snapshot.isMember("MAIL_GPT", 2L));
+            assertFalse(snapshot.isMember("GONE", 1L));
+            assertEquals(HashBuckets.contains(5L, 7L, 50), snapshot.isMember("HASH_HALF", 5L));
+            assertNull(snapshot.segment("HASH_HALF").orElseThrow().members());
+            assertEquals(HashBuckets.contains(3L, 7L, 50)
+                    ? List.of("HASH_HALF", "MAIL_GPT", "КЛИЕНТЫ") : List.of("MAIL_GPT", "КЛИЕНТЫ"),
+                    snapshot.segmentNamesOf(3L));
+        }
+    }
+
+    @Test
+    void write_WhenIndexIsCurrent_ShouldUseIndexBitmaps() throws IOException {
+        MembershipIndex index = index(true);
+        // Строка, которой нет в индексе: если снимок совпадает с индексом, user_segments не читалась
+        jdbcTemplate.update("INSERT INTO user_segments VALUES (7, 1)");
+
+        writer(index).write(file);
+
+        try (MembershipSnapshot snapshot = MembershipSnapshot.open(file)) {
+            assertFalse(snapshot.isMember("MAIL_GPT", 7L));
+        }
+        jdbcTemplate.update("UPDATE segments SET version = version + 1 WHERE id = 1");
+        writer(index).write(file);
+        try (MembershipSnapshot snapshot = MembershipSnapshot.open(file)) {
+            assertTrue(snapshot.isMember("MAIL_GPT", 7L));
+        }
+    }
+
+    @Test
+    void write_ShouldReplaceFileAtomicallyForOpenReaders() throws IOException {
+        MembershipSnapshotWriter writer = writer(index(false));
+        writer.write(file);
+
+        try (MembershipSnapshot old = MembershipSnapshot.open(file)) {
+            jdbcTemplate.update("INSERT INTO user_segments VALUES (9, 2)");
+            jdbcTemplate.update("UPDATE segments SET version = version + 1 WHERE id = 2");
+            writer.write(file);
+
+            assertFalse(old.isMember("КЛИЕНТЫ", 9L));
+            try (MembershipSnapshot fresh = MembershipSnapshot.open(file)) {
+                assertTrue(fresh.isMember("КЛИЕНТЫ", 9L));
+            }
+        }
+        try (var files = Files.list(directory)) {
+            assertEquals(List.of(file), files.toList());
+        }
+    }
+
+    @Test
+    void indexLoad_ShouldTakeUnchangedSegmentsFromSnapshot() throws IOException {
+        writer(index(false)).write(file);
+        // Сегмент 1 не менялся, но его строки пропали: значит, индекс прочитал его из снимка.
+        // Сегмент 2 изменился после снимка и должен быть перечитан из user_segments
+        jdbcTemplate.update("DELETE FROM user_segments WHERE segment_id = 1");
+        jdbcTemplate.update("INSERT INTO user_segments VALUES (8, 2)");
+        jdbcTemplate.update("UPDATE segments SET version = version + 1 WHERE id = 2");
+
+        MembershipIndex warm = index(false);
+        ReflectionTestUtils.setField(warm, "snapshotPath", file.toString());
+        warm.load();
+
+        assertEquals(Optional.of(3L), warm.countMembers("MAIL_GPT"));
+        assertEquals(Set.of("MAIL_GPT", "КЛИЕНТЫ"), withoutHash(warm.segmentNamesOf(3L)));
+        assertTrue(warm.isMember("КЛИЕНТЫ", 8L));
+    }
+
+    @Test
+    void indexLoad_WhenSegmentRecreated_ShouldIgnoreSnapshot() throws IOException {
+        writer(index(false)).write(file);
+        // Та же пара (id, version) в пересозданной базе: отличается только время создания
+        jdbcTemplate.update("DELETE FROM user_segments WHERE segment_id = 1");
+        jdbcTemplate.update("UPDATE segments SET created_at = DATEADD('DAY', 1, created_at) WHERE id = 1");
+
+        MembershipIndex warm = index(false);
+        ReflectionTestUtils.setField(warm, "snapshotPath", file.toString());
+        warm.load();
+
+        assertEquals(Optional.of(0L), warm.countMembers("MAIL_GPT"));
+        assertTrue(warm.isMember("КЛИЕНТЫ", 3L));
+    }
+
+    @Test
+    void indexLoad_WhenSnapshotCorrupted_ShouldLoadFromDatabase() throws IOException {
+        Files.write(file, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        MembershipIndex warm = index(false);
+        ReflectionTestUtils.setField(warm, "snapshotPath", file.toString());
+        warm.load();
+
+        assertThrows(IOException.class, () -> MembershipSnapshot.open(file));
+        assertEquals(Optional.of(3L), warm.countMembers("MAIL_GPT"));
+    }
+
+    private MembershipIndex index(boolean loaded) {
+        MembershipIndex index = new MembershipIndex(jdbcTemplate, meterRegistry);
+        if (loaded) {
+            index.load();
+        }
+        return index;
+    }
+
+    private MembershipSnapshotWriter writer(MembershipIndex index) {
+        return new MembershipSnapshotWriter(jdbcTemplate, index, meterRegistry, "");
+    }
+
+    private static Set<String> withoutHash(Set<String> names) {
+        return names.stream().filter(name -> !name.equals("HASH_HALF")).collect(Collectors.toSet());
+    }
+}
@@ -0,0 +1,136 @@
+package org.example.vkedupractice.version;
+
+import org.example.vkedupractice.dto.CreateSegmentRequest;
+import org.example.vkedupractice.dto.SegmentDto;
+import org.example.vkedupractice.service.SegmentService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = {
+        "spring.datasource.url=jdbc:h2:mem:conditional-get;DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000"
+})
+@ActiveProfiles("test")
+class ConditionalGetIntegrationTest {
+
+    private static final String CBOR = "application/cbor";
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private SegmentService segmentService;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private long userId;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate.update("INSERT INTO users (username, email) VALUES ('etag-user', 'etag-user@example.com')");
+        userId = jdbcTemplate.queryForObject("SELECT id FROM users WHERE username = 'etag-user'", Long.class);
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM user_segments");
+        jdbcTemplate.update("DELETE FROM segments");
+        jdbcTemplate.update("DELETE FROM users");
+    }
+
+    @Test
+    void userSegments_ShouldAnswerNotModifiedUntilMembershipChanges() throws Exception {
+        String path = "/api/users/" + userId + "/segments";
+        HttpResponse<String> first = get(path, null);
+        String etag = first.headers().firstValue("ETag").orElseThrow();
+        assertEquals(200, first.statusCode());
+        assertTrue(etag.startsWith("W/\""));
+
+        HttpResponse<String> unchanged = get(path, etag);
+        assertEquals(304, unchanged.statusCode());
+        assertEquals("", unchanged.body());
+        assertEquals(etag, unchanged.headers().firstValue("ETag").orElseThrow());
+
+        SegmentDto segment = segmentService.createSegment(CreateSegmentRequest.builder().name("ETAG_ALL").percentage(100).build());
+        HttpResponse<String> added = get(path, etag);
+        assertEquals(200, added.statusCode());
+        assertTrue(added.body().contains("ETAG_ALL"));
+        String addedTag = added.headers().firstValue("ETag").orElseThrow();
+        assertNotEquals(etag, addedTag);
+
+        segmentService.updateSegment(segment.getId(), "ETAG_RENAMED", null);
+        HttpResponse<String> renamed = get(path, addedTag);
+        assertEquals(200, renamed.statusCode());
+        assertTrue(renamed.body().contains("ETAG_RENAMED"));
+        assertEquals(304, get(path, renamed.headers().firstValue("ETag").orElseThrow()).statusCode());
+    }
+
+    @Test
+    void segmentsAndCount_ShouldAnswerNotModifiedUntilSegmentChanges() throws Exception {
+        SegmentDto segment = segmentService.createSegment(CreateSegmentRequest.builder().name("ETAG_COUNT").percentage(100).build());
+        String listTag = get("/api/segments", null).headers().firstValue("ETag").orElseThrow();
+        String countPath = "/api/segments/ETAG_COUNT/users/count";
+        HttpResponse<String> count = get(countPath, null);
+        assertEquals("1", count.body());
+        String countTag = count.headers().firstValue("ETag").orElseThrow();
+
+        assertEquals(304, get("/api/segments", listTag).statusCode());
+        assertEquals(304, get(countPath, countTag).statusCode());
+
+        segmentService.updateSegment(segment.getId(), null, "new description");
+
+        assertEquals(200, get("/api/segments", listTag).statusCode());
+        assertEquals(200, get(countPath, countTag).statusCode());
+    }
+
+    @Test
+    void cborRepresentations_ShouldShareWeakTagAndVaryByAccept() throws Exception {
+        segmentService.createSegment(CreateSegmentRequest.builder().name("ETAG_CBOR").percentage(100).build());
+        for (String path : List.of("/api/segments", "/api/segments/dictionary", "/api/segments/ETAG_CBOR/users/count")) {
+            HttpResponse<String> json = get(path, null, null);
+            HttpResponse<String> cbor = get(path, CBOR, null);
+            String etag = json.headers().firstValue("ETag").orElseThrow();
+
+            assertEquals(CBOR, cbor.headers().firstValue("Content-Type").orElseThrow(), path);
+            assertTrue(etag.startsWith("W/\""), path);
+            assertEquals(etag, cbor.headers().firstValue("ETag").orElseThrow(), path);
+            assertTrue(json.headers().allValues("Vary").contains("Accept"), path);
+            assertTrue(cbor.headers().allValues("Vary").contains("Accept"), path);
+
+            HttpResponse<String> notModified = get(path, CBOR, etag);
+            assertEquals(304, notModified.statusCode(), path);
+            assertEquals(etag, notModified.headers().firstValue("ETag").orElseThrow(), path);
+            assertTrue(notModified.headers().allValues("Vary").contains("Accept"), path);
+        }
+    }
+
+    private HttpResponse<String> get(String path, String ifNoneMatch) throws Exception {
+        return get(path, null, ifNoneMatch);
+    }
+
+    private HttpResponse<String> get(String path, String accept, String ifNoneMatch) throws Exception {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + path)).GET();
+        if (accept != null) {
+            request.header("Accept", accept);
+        }
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
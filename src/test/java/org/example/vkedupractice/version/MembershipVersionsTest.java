@@ -0,0 +1,150 @@
+package org.example.vkedupractice.version;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.vkedupractice.index.MembershipIndex;
+import org.example.vkedupractice.model.HashBuckets;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.util.Optional;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MembershipVersionsTest {
+
+    private EmbeddedDatabase database;
+    private JdbcTemplate jdbcTemplate;
+    private MembershipIndex membershipIndex;
+    private MembershipVersions versions;
+
+    @BeforeEach
+    void setUp() {
+        database = new EmbeddedDatabaseBuilder()
+                .setType(EmbeddedDatabaseType.H2)
+                .generateUniqueName(true)
+                .build();
+        jdbcTemplate = new JdbcTemplate(database);
+        jdbcTemplate.execute("CREATE TABLE users (id BIGINT PRIMARY KEY)");
+        jdbcTemplate.execute("CREATE TABLE segments (id BIGINT PRIMARY KEY, name VARCHAR(255), "
+                + "kind VARCHAR(32), percentage INT, salt BIGINT, deleted BOOLEAN DEFAULT FALSE NOT NULL, "
+                + "version BIGINT DEFAULT 0 NOT NULL)");
+        jdbcTemplate.execute("CREATE TABLE user_segments (user_id BIGINT, segment_id BIGINT)");
+        jdbcTemplate.update("INSERT INTO users VALUES (1), (2), (3)");
+        jdbcTemplate.update("INSERT INTO segments (id, name, kind) VALUES (1, 'MAIL_GPT', 'MATERIALIZED'), "
+                + "(2, 'MAIL_VOICE', 'MATERIALIZED')");
+        jdbcTemplate.update("INSERT INTO user_segments VALUES (1, 1), (2, 2)");
+
+        membershipIndex = new MembershipIndex(jdbcTemplate, new SimpleMeterRegistry());
+        versions = new MembershipVersions(jdbcTemplate, membershipIndex);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void userSegments_ShouldChangeOnlyWithUsersOwnSegments() {
+        String user1 = versions.userSegments(1L);
+        String user2 = versions.userSegments(2L);
+
+        jdbcTemplate.update("UPDATE segments SET version = version + 1 WHERE id = 2");
+        assertEquals(user1, versions.userSegments(1L));
+        assertNotEquals(user2, versions.userSegments(2L));
+
+        jdbcTemplate.update("INSERT INTO user_segments VALUES (1, 2)");
+        assertNotEquals(user1, versions.userSegments(1L));
+
+        jdbcTemplate.update("DELETE FROM user_segments WHERE user_id = 1 AND segment_id = 2");
+        assertEquals(user1, versions.userSegments(1L));
+
+        jdbcTemplate.update("UPDATE segments SET deleted = true WHERE id = 1");
+        assertNotEquals(user1, versions.userSegments(1L));
+    }
+
+    @Test
+    void userSegments_ShouldIncludeHashBucketsAndMatchIndex() {
+        jdbcTemplate.update("INSERT INTO segments (id, name, kind, percentage, salt, version) "
+                + "VALUES (3, 'HASH_HALF', 'HASH_BUCKET', 50, 11, 4)");
+        long inBucket = LongStream.rangeClosed(1, 100).filter(id -> HashBuckets.contains(id, 11L, 50)).findFirst().orElseThrow();
+        long outOfBucket = LongStream.rangeClosed(1, 100).filter(id -> !HashBuckets.contains(id, 11L, 50)).findFirst().orElseThrow();
+        String withHash = versions.userSegments(inBucket);
+        String withoutHash = versions.userSegments(outOfBucket);
+
+        jdbcTemplate.update("UPDATE segments SET version = 5 WHERE id = 3");
+        assertNotEquals(withHash, versions.userSegments(inBucket));
+        assertEquals(withoutHash, versions.userSegments(outOfBucket));
+
+        // Из индекса версия та же, что и из БД
+        String fromDatabase = versions.userSegments(inBucket);
+        membershipIndex.load();
+        assertEquals(fromDatabase, versions.userSegments(inBucket));
+        assertEquals(versions.userSegments(1L), new MembershipVersions(jdbcTemplate, unloadedIndex()).userSegments(1L));
+    }
+
+    @Test
+    void segments_ShouldChangeWithAnySegment() {
+        String initial = versions.segments();
+
+        jdbcTemplate.update("UPDATE segments SET version = version + 1 WHERE id = 1");
+        String bumped = versions.segments();
+        assertNotEquals(initial, bumped);
+
+        jdbcTemplate.update("UPDATE segments SET deleted = true WHERE id = 2");
+        assertNotEquals(bumped, versions.segments());
+    }
+
+    @Test
+    void segmentDictionary_ShouldChangeWithNamesButNotWithMembers() {
+        membershipIndex.load();
+        String loaded = versions.segmentDictionary(membershipIndex.segmentNames());
+
+        jdbcTemplate.update("INSERT INTO user_segments VALUES (3, 1)");
+        jdbcTemplate.update("UPDATE segments SET version = version + 1 WHERE id = 1");
+        membershipIndex.segmentChanged(1L, true);
+        assertEquals(loaded, versions.segmentDictionary(membershipIndex.segmentNames()));
+
+        jdbcTemplate.update("UPDATE segments SET name = 'MAIL_GPT_V2' WHERE id = 1");
+        membershipIndex.segmentChanged(1L, false);
+        assertNotEquals(loaded, versions.segmentDictionary(membershipIndex.segmentNames()));
+    }
+
+    @Test
+    void segmentDictionary_WhenRenamedToNameWithSameStringHash_ShouldChange() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        jdbcTemplate.update("UPDATE segments SET name = 'Aa' WHERE id = 1");
+        membershipIndex.load();
+        String before = versions.segmentDictionary(membershipIndex.segmentNames());
+
+        jdbcTemplate.update("UPDATE segments SET name = 'BB' WHERE id = 1");
+        membershipIndex.segmentChanged(1L, false);
+
+        assertNotEquals(before, versions.segmentDictionary(membershipIndex.segmentNames()));
+    }
+
+    @Test
+    void segmentCount_ShouldDependOnUsersOnlyForHashBuckets() {
+        jdbcTemplate.update("INSERT INTO segments (id, name, kind, percentage, salt) VALUES (3, 'HASH_HALF', 'HASH_BUCKET', 50, 11)");
+        String materialized = versions.segmentCount("MAIL_GPT").orElseThrow();
+        String hash = versions.segmentCount("HASH_HALF").orElseThrow();
+
+        jdbcTemplate.update("INSERT INTO users VALUES (4)");
+
+        assertEquals(materialized, versions.segmentCount("MAIL_GPT").orElseThrow());
+        assertNotEquals(hash, versions.segmentCount("HASH_HALF").orElseThrow());
+        assertEquals(Optional.empty(), versions.segmentCount("UNKNOWN"));
+
+        membershipIndex.load();
+        assertEquals(materialized, versions.segmentCount("MAIL_GPT").orElseThrow());
+    }
+
+    private MembershipIndex unloadedIndex() {
+        return new MembershipIndex(jdbcTemplate, new SimpleMeterRegistry());
+    }
+}